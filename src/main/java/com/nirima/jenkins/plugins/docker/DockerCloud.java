@@ -16,11 +16,9 @@ import com.github.dockerjava.api.command.PullImageCmd;
 import com.github.dockerjava.api.command.PushImageCmd;
 import com.github.dockerjava.api.command.StartContainerCmd;
 import com.github.dockerjava.api.model.AuthConfig;
-import com.github.dockerjava.api.model.Version;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
-import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.ItemGroup;
 import hudson.model.Label;
@@ -30,8 +28,11 @@ import hudson.security.ACL;
 import hudson.slaves.Cloud;
 import hudson.slaves.NodeProvisioner;
 import hudson.util.FormValidation;
+import hudson.util.LogTaskListener;
+import io.jenkins.docker.DockerTaskExecutor;
 import io.jenkins.docker.DockerTransientNode;
 import io.jenkins.docker.client.DockerAPI;
+import io.jenkins.docker.client.DockerProvisioningThrottle;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
@@ -44,7 +45,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
 import jenkins.authentication.tokens.api.AuthenticationTokens;
 import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.cloudstats.ProvisioningActivity;
@@ -69,6 +74,13 @@ import org.slf4j.LoggerFactory;
 public class DockerCloud extends Cloud {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DockerCloud.class);
+    /**
+     * Where provisioning progress goes, i.e. each stage and how long it took,
+     * and image pull progress. That's our own logger, at FINE, so it's there
+     * for anyone who adds a log recorder for us.
+     */
+    private static final TaskListener PROVISIONING_LISTENER =
+            new LogTaskListener(java.util.logging.Logger.getLogger(DockerCloud.class.getName()), Level.FINE);
 
     /**
      * Default value for {@link #getEffectiveErrorDurationInMilliseconds()}
@@ -82,6 +94,14 @@ public class DockerCloud extends Cloud {
     @CheckForNull
     private transient Map<Long, DockerTemplate> jobTemplates;
 
+    /**
+     * Which templates match each label we've been asked about, keyed by label
+     * expression, so {@link #getTemplates(Label)} doesn't have to check every
+     * template every time. Thrown away whenever our templates change.
+     */
+    @CheckForNull
+    private transient volatile ConcurrentHashMap<String, MatchingTemplates> templatesByLabel;
+
     @Deprecated
     private transient DockerServerEndpoint dockerHost;
 
@@ -105,28 +125,41 @@ public class DockerCloud extends Cloud {
 
     private DockerAPI dockerApi;
 
+    /** More docker endpoints to put containers on, as well as {@link #dockerApi}. */
+    private @CheckForNull List<DockerAPI> additionalDockerApis;
+
+    /** How we choose between our endpoints; null means the default. */
+    private @CheckForNull DockerPlacementStrategy placementStrategy;
+
+    /** Used by {@link DockerPlacementStrategy#ROUND_ROBIN}. */
+    private transient AtomicInteger placementCounter;
+
+    /** How we choose between templates for the same label; null means the default. */
+    private @CheckForNull DockerTemplateSelectionStrategy templateSelectionStrategy;
+
+    /** Used by the strategies that take turns, e.g. {@link DockerTemplateSelectionStrategy#ROUND_ROBIN}. */
+    private transient AtomicInteger templateSelectionCounter;
+
     /**
      * Total max allowed number of containers
      */
     private int containerCap = 100;
 
     /**
-     * Is this cloud running Joyent Triton?
-     */
-    private transient Boolean _isTriton;
-
-    /**
-     * Track the count per image name for images currently being
+     * Track the count per template for containers currently being
      * provisioned, but not necessarily reported yet by docker.
      */
     @Restricted(NoExternalUse.class)
-    static final Map<String, Map<String, Integer>> CONTAINERS_IN_PROGRESS = new HashMap<>();
+    static final DockerContainersInProgress CONTAINERS_IN_PROGRESS = new DockerContainersInProgress();
 
     /**
      * Indicate if docker host used to run container is exposed inside container as DOCKER_HOST environment variable
      */
     private boolean exposeDockerHost;
 
+    /** Start agents ahead of expected demand, see {@link io.jenkins.docker.DemandForecastingProvisionerStrategy}. */
+    private boolean forecastDemand;
+
     private @CheckForNull DockerDisabled disabled;
 
     /** Length of time, in seconds, that {@link #disabled} should auto-disable for if we encounter an error. */
@@ -147,6 +180,9 @@ public class DockerCloud extends Cloud {
     public DockerCloud(@NonNull String name, @NonNull DockerCloud source) {
         super(name);
         this.dockerApi = source.dockerApi;
+        this.additionalDockerApis = source.additionalDockerApis;
+        this.placementStrategy = source.placementStrategy;
+        this.templateSelectionStrategy = source.templateSelectionStrategy;
         this.templates = source.templates;
     }
 
@@ -213,6 +249,129 @@ public class DockerCloud extends Cloud {
         return dockerApi;
     }
 
+    @NonNull
+    public List<DockerAPI> getAdditionalDockerApis() {
+        return additionalDockerApis == null ? Collections.emptyList() : additionalDockerApis;
+    }
+
+    @DataBoundSetter
+    public void setAdditionalDockerApis(List<DockerAPI> additionalDockerApis) {
+        this.additionalDockerApis =
+                additionalDockerApis == null || additionalDockerApis.isEmpty() ? null : additionalDockerApis;
+    }
+
+    /** @return All our docker endpoints, starting with {@link #getDockerApi()}. */
+    @NonNull
+    public List<DockerAPI> getDockerApis() {
+        final List<DockerAPI> result = new ArrayList<>();
+        result.add(dockerApi);
+        result.addAll(getAdditionalDockerApis());
+        return result;
+    }
+
+    /**
+     * Finds one of our docker endpoints.
+     *
+     * @param dockerHostUri
+     *            The endpoint's URI.
+     * @return The endpoint, or null if it isn't one of ours.
+     */
+    @CheckForNull
+    public DockerAPI getDockerApi(@CheckForNull String dockerHostUri) {
+        for (final DockerAPI api : getDockerApis()) {
+            if (api != null && Objects.equals(api.getDockerHost().getUri(), dockerHostUri)) {
+                return api;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Those of our docker endpoints that are healthy enough to
+     *         provision from; unhealthy ones are left out until their
+     *         {@link io.jenkins.docker.client.DockerEndpointCircuitBreaker}
+     *         says they've recovered.
+     */
+    @NonNull
+    List<DockerAPI> getAvailableDockerApis() {
+        final List<DockerAPI> result = new ArrayList<>();
+        for (final DockerAPI api : getDockerApis()) {
+            if (api.isAvailable()) {
+                result.add(api);
+            }
+        }
+        return result;
+    }
+
+    public DockerPlacementStrategy getPlacementStrategy() {
+        return placementStrategy != null ? placementStrategy : DockerPlacementStrategy.LEAST_CONTAINERS;
+    }
+
+    @DataBoundSetter
+    public void setPlacementStrategy(DockerPlacementStrategy placementStrategy) {
+        if (placementStrategy == DockerPlacementStrategy.LEAST_CONTAINERS) {
+            this.placementStrategy = null;
+        } else {
+            this.placementStrategy = placementStrategy;
+        }
+    }
+
+    /**
+     * Chooses which of our endpoints a new container should go on.
+     *
+     * @param available
+     *            Our {@link #getAvailableDockerApis()}, which must not be
+     *            empty.
+     * @param t
+     *            The template the container will be made from.
+     * @return The endpoint to use.
+     */
+    private DockerAPI chooseDockerApi(List<DockerAPI> available, DockerTemplate t) {
+        if (available.size() == 1) {
+            return available.get(0);
+        }
+        synchronized (this) {
+            if (placementCounter == null) {
+                placementCounter = new AtomicInteger();
+            }
+        }
+        return getPlacementStrategy().choose(available, t.getFullImageId(), placementCounter);
+    }
+
+    public DockerTemplateSelectionStrategy getTemplateSelectionStrategy() {
+        return templateSelectionStrategy != null ? templateSelectionStrategy : DockerTemplateSelectionStrategy.FIRST;
+    }
+
+    @DataBoundSetter
+    public void setTemplateSelectionStrategy(DockerTemplateSelectionStrategy templateSelectionStrategy) {
+        if (templateSelectionStrategy == DockerTemplateSelectionStrategy.FIRST) {
+            this.templateSelectionStrategy = null;
+        } else {
+            this.templateSelectionStrategy = templateSelectionStrategy;
+        }
+    }
+
+    /**
+     * Chooses which of the templates matching a label a new agent should be
+     * made from.
+     *
+     * @param candidates
+     *            The templates that match and have capacity, which must not
+     *            be empty.
+     * @return The template to use.
+     */
+    private DockerTemplate chooseTemplate(List<DockerTemplate> candidates) {
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        synchronized (this) {
+            if (templateSelectionCounter == null) {
+                templateSelectionCounter = new AtomicInteger();
+            }
+        }
+        return getTemplateSelectionStrategy().choose(this, candidates, templateSelectionCounter);
+    }
+
     @Deprecated
     public int getConnectTimeout() {
         return dockerApi.getConnectTimeout();
@@ -301,68 +460,36 @@ public class DockerCloud extends Cloud {
     }
 
     private static void adjustContainersInProgress(DockerCloud cloud, DockerTemplate template, int adjustment) {
-        final String cloudId = cloud.name;
-        final String templateId = getTemplateId(template);
-        synchronized (CONTAINERS_IN_PROGRESS) {
-            Map<String, Integer> mapForThisCloud =
-                    CONTAINERS_IN_PROGRESS.computeIfAbsent(cloudId, unused -> new HashMap<>());
-            final Integer oldValue = mapForThisCloud.get(templateId);
-            final int oldNumber = oldValue == null ? 0 : oldValue;
-            final int newNumber = oldNumber + adjustment;
-            if (newNumber != 0) {
-                mapForThisCloud.put(templateId, newNumber);
-            } else {
-                mapForThisCloud.remove(templateId);
-                if (mapForThisCloud.isEmpty()) {
-                    CONTAINERS_IN_PROGRESS.remove(cloudId);
-                }
-            }
-        }
-    }
-
-    private static String getTemplateId(DockerTemplate template) {
-        final String templateId = template.getImage();
-        return templateId;
+        CONTAINERS_IN_PROGRESS.adjust(cloud.name, template.getTemplateId(), template.getImage(), adjustment);
     }
 
     @Restricted(NoExternalUse.class)
     public int countContainersInProgress(DockerTemplate template) {
-        final String cloudId = super.name;
-        final String templateId = getTemplateId(template);
-        synchronized (CONTAINERS_IN_PROGRESS) {
-            final Map<String, Integer> allInProgressOrNull = CONTAINERS_IN_PROGRESS.get(cloudId);
-            final Integer templateInProgressOrNull =
-                    allInProgressOrNull == null ? null : allInProgressOrNull.get(templateId);
-            final int templateInProgress = templateInProgressOrNull == null ? 0 : templateInProgressOrNull;
-            return templateInProgress;
-        }
+        return CONTAINERS_IN_PROGRESS.count(super.name, template.getTemplateId());
     }
 
     int countContainersInProgress() {
-        final String cloudId = this.name;
-        synchronized (CONTAINERS_IN_PROGRESS) {
-            final Map<String, Integer> allInProgressOrNull = CONTAINERS_IN_PROGRESS.get(cloudId);
-            int totalInProgressForCloud = 0;
-            if (allInProgressOrNull != null) {
-                for (int count : allInProgressOrNull.values()) {
-                    totalInProgressForCloud += count;
-                }
-            }
-            return totalInProgressForCloud;
-        }
+        return CONTAINERS_IN_PROGRESS.count(this.name);
     }
 
     @Override
-    public synchronized Collection<NodeProvisioner.PlannedNode> provision(
+    public Collection<NodeProvisioner.PlannedNode> provision(
             final Label label, final int numberOfExecutorsRequired) {
         if (getDisabled().isDisabled()) {
             return Collections.emptyList();
         }
+        if (getAvailableDockerApis().isEmpty()) {
+            LOGGER.debug("Not provisioning for {} as cloud '{}' is not responding.", label, getDisplayName());
+            return Collections.emptyList();
+        }
         try {
             LOGGER.debug("Asked to provision {} agent(s) for: {}", numberOfExecutorsRequired, label);
 
             final List<NodeProvisioner.PlannedNode> r = new ArrayList<>();
             final List<DockerTemplate> matchingTemplates = getTemplates(label);
+            for (final DockerTemplate t : matchingTemplates) {
+                DockerWarmPool.recordDemand(this, t);
+            }
             int remainingWorkload = numberOfExecutorsRequired;
 
             // Take account of the executors that will result from the containers which we
@@ -388,68 +515,28 @@ public class DockerCloud extends Cloud {
                 }
             }
 
+            // Paused standby agents can be made ready far quicker than new ones can
+            for (final DockerTemplate t : matchingTemplates) {
+                if (remainingWorkload <= 0) {
+                    break;
+                }
+                final int numExecutors = Math.max(1, t.getNumExecutors());
+                final int agentsWanted = (remainingWorkload + numExecutors - 1) / numExecutors;
+                remainingWorkload -= DockerWarmPool.resumeStandby(this, t, agentsWanted) * numExecutors;
+            }
+
             while (remainingWorkload > 0 && !matchingTemplates.isEmpty()) {
-                final DockerTemplate t = matchingTemplates.get(0); // get first
+                final DockerTemplate t = chooseTemplate(matchingTemplates);
 
-                final boolean thereIsCapacityToProvisionFromThisTemplate = canAddProvisionedAgent(t);
+                // This counts as one of our containers in progress from here on.
+                final boolean thereIsCapacityToProvisionFromThisTemplate = tryReserveCapacity(t);
                 if (!thereIsCapacityToProvisionFromThisTemplate) {
                     matchingTemplates.remove(t);
                     continue;
                 }
                 LOGGER.info(
                         "Will provision '{}', for label: '{}', in cloud: '{}'", t.getImage(), label, getDisplayName());
-
-                final ProvisioningActivity.Id id = new ProvisioningActivity.Id(
-                        DockerCloud.this.name, t.getName() + " (" + t.getImage() + ")", null);
-                final CompletableFuture<Node> plannedNode = new CompletableFuture<>();
-                r.add(new TrackedPlannedNode(id, t.getNumExecutors(), plannedNode));
-
-                final Runnable taskToCreateNewAgent = new Runnable() {
-                    @Override
-                    public void run() {
-                        DockerTransientNode agent = null;
-                        try {
-                            // TODO where can we log provisioning progress ?
-                            final DockerAPI api = DockerCloud.this.getDockerApi();
-                            agent = t.provisionNode(api, TaskListener.NULL);
-                            agent.setDockerAPI(api);
-                            agent.setCloudId(DockerCloud.this.name);
-                            agent.setProvisioningId(id);
-                            plannedNode.complete(agent);
-
-                            // On provisioning completion, let's trigger NodeProvisioner
-                            agent.robustlyAddToJenkins();
-
-                        } catch (Exception ex) {
-                            LOGGER.error(
-                                    "Error in provisioning; template='{}' for cloud='{}'", t, getDisplayName(), ex);
-                            plannedNode.completeExceptionally(ex);
-                            if (agent != null) {
-                                agent.terminate(LOGGER);
-                            }
-                            if (ex instanceof RuntimeException) {
-                                throw (RuntimeException) ex;
-                            } else if (ex instanceof IOException) {
-                                throw new UncheckedIOException((IOException) ex);
-                            } else {
-                                throw new RuntimeException(ex);
-                            }
-                        } finally {
-                            decrementContainersInProgress(t);
-                        }
-                    }
-                };
-                boolean taskToCreateAgentHasBeenQueuedSoItWillDoTheDecrement = false;
-                incrementContainersInProgress(t);
-                try {
-                    Computer.threadPoolForRemoting.submit(taskToCreateNewAgent);
-                    taskToCreateAgentHasBeenQueuedSoItWillDoTheDecrement = true;
-                } finally {
-                    if (!taskToCreateAgentHasBeenQueuedSoItWillDoTheDecrement) {
-                        decrementContainersInProgress(t);
-                    }
-                }
-
+                r.add(startProvisioning(t));
                 remainingWorkload -= t.getNumExecutors();
             }
 
@@ -459,13 +546,140 @@ public class DockerCloud extends Cloud {
             final long milliseconds = getEffectiveErrorDurationInMilliseconds();
             if (milliseconds > 0L) {
                 final DockerDisabled reasonForDisablement = getDisabled();
-                reasonForDisablement.disableBySystem("Cloud provisioning failure", milliseconds, e);
+                reasonForDisablement.disableBySystemWithBackoff("Cloud provisioning failure", milliseconds, e);
                 setDisabled(reasonForDisablement);
             }
             return Collections.emptyList();
         }
     }
 
+    /**
+     * Starts provisioning a container from the given template, for which
+     * capacity has already been reserved by {@link #tryReserveCapacity(DockerTemplate)}.
+     * The resulting node is added to Jenkins once it's ready.
+     */
+    private NodeProvisioner.PlannedNode startProvisioning(final DockerTemplate t) {
+        // Until the task that provisions the agent has been set up, it's our
+        // job to undo our reservation (and anything else we've started) if
+        // something goes wrong.
+        boolean taskToCreateAgentHasBeenQueuedSoItWillDoTheDecrement = false;
+        DockerContainerInventory placementStartedOn = null;
+        CompletableFuture<DockerProvisioningThrottle.Permit> queuedFor = null;
+        try {
+            final ProvisioningActivity.Id id = new ProvisioningActivity.Id(
+                    DockerCloud.this.name, t.getName() + " (" + t.getImage() + ")", null);
+            final CompletableFuture<Node> plannedNode = new CompletableFuture<>();
+            final NodeProvisioner.PlannedNode result = new TrackedPlannedNode(id, t.getNumExecutors(), plannedNode);
+
+            final List<DockerAPI> available = getAvailableDockerApis();
+            final DockerAPI api = available.isEmpty() ? getDockerApi() : chooseDockerApi(available, t);
+            final DockerContainerInventory inventory = DockerContainerInventory.forApi(api);
+            inventory.placementStarted();
+            placementStartedOn = inventory;
+            // Wait our turn, so that we don't swamp the docker daemon
+            final long startNanos = System.nanoTime();
+            final CompletableFuture<DockerProvisioningThrottle.Permit> admitted =
+                    api.getProvisioningThrottle().acquire(name + "/" + t.getTemplateId());
+            queuedFor = admitted;
+            final AtomicReference<CompletableFuture<DockerTransientNode>> started = new AtomicReference<>();
+            final CompletableFuture<DockerTransientNode> provisioning = admitted.thenCompose(permit -> {
+                DockerProvisioningTimings.forTemplate(t).recordQueueWait(System.nanoTime() - startNanos);
+                final CompletableFuture<DockerTransientNode> f;
+                try {
+                    f = t.provisionNodeAsync(api, PROVISIONING_LISTENER, startNanos);
+                } catch (RuntimeException ex) {
+                    permit.release();
+                    throw ex;
+                }
+                f.whenComplete((n, ex) -> permit.release());
+                started.set(f);
+                if (plannedNode.isCancelled()) {
+                    f.cancel(true);
+                }
+                return f;
+            });
+            plannedNode.whenComplete((n, ex) -> {
+                if (plannedNode.isCancelled()) {
+                    admitted.cancel(true);
+                    final CompletableFuture<DockerTransientNode> f = started.get();
+                    if (f != null) {
+                        f.cancel(true);
+                    }
+                }
+            });
+            provisioning.whenCompleteAsync(
+                    (agent, provisioningFailure) -> {
+                        try {
+                            if (provisioningFailure != null) {
+                                LOGGER.error(
+                                        "Error in provisioning; template='{}' for cloud='{}'",
+                                        t,
+                                        getDisplayName(),
+                                        provisioningFailure);
+                                plannedNode.completeExceptionally(provisioningFailure);
+                                return;
+                            }
+                            try {
+                                inventory.containerStarted(agent.getContainerId(), t.getImage(), t.getName());
+                                agent.setDockerAPI(api);
+                                agent.setCloudId(DockerCloud.this.name);
+                                agent.setProvisioningId(id);
+                                agent.setProvisioningStartedNanos(startNanos);
+                                plannedNode.complete(agent);
+                                getDisabled().recordSuccessBySystem();
+
+                                // On provisioning completion, let's trigger NodeProvisioner
+                                agent.robustlyAddToJenkins();
+                            } catch (Exception ex) {
+                                LOGGER.error(
+                                        "Error in provisioning; template='{}' for cloud='{}'", t, getDisplayName(), ex);
+                                plannedNode.completeExceptionally(ex);
+                                agent.terminate(LOGGER);
+                            }
+                        } finally {
+                            inventory.placementFinished();
+                            decrementContainersInProgress(t);
+                        }
+                    },
+                    DockerTaskExecutor.shared());
+            taskToCreateAgentHasBeenQueuedSoItWillDoTheDecrement = true;
+            return result;
+        } finally {
+            if (!taskToCreateAgentHasBeenQueuedSoItWillDoTheDecrement) {
+                if (queuedFor != null) {
+                    queuedFor.cancel(true);
+                }
+                if (placementStartedOn != null) {
+                    placementStartedOn.placementFinished();
+                }
+                decrementContainersInProgress(t);
+            }
+        }
+    }
+
+    /**
+     * Starts provisioning an agent from the given template that isn't for any
+     * build in particular, e.g. to keep {@link DockerTemplate#getMinIdle()}
+     * agents ready. This is subject to the same container caps as any other
+     * provisioning.
+     *
+     * @param t
+     *            The template, which must be one of ours.
+     * @return true if we started provisioning, false if we couldn't.
+     * @throws Exception if anything went wrong.
+     */
+    boolean provisionIdleAgent(final DockerTemplate t) throws Exception {
+        if (getDisabled().isDisabled() || t.getDisabled().isDisabled()) {
+            return false;
+        }
+        if (!tryReserveCapacity(t)) {
+            return false;
+        }
+        LOGGER.info("Will provision '{}' as an idle agent in cloud: '{}'", t.getImage(), getDisplayName());
+        startProvisioning(t);
+        return true;
+    }
+
     /*
      * for publishers/builders. Simply runs container in docker cloud
      */
@@ -490,6 +704,9 @@ public class DockerCloud extends Cloud {
         if (getDisabled().isDisabled()) {
             return false;
         }
+        if (getAvailableDockerApis().isEmpty()) {
+            return false;
+        }
         return getTemplate(label) != null;
     }
 
@@ -529,6 +746,7 @@ public class DockerCloud extends Cloud {
             templates = new ArrayList<>();
         }
         templates.add(t);
+        templatesByLabel = null;
     }
 
     /**
@@ -539,6 +757,7 @@ public class DockerCloud extends Cloud {
      */
     public synchronized void addJobTemplate(long jobId, DockerTemplate template) {
         getJobTemplates().put(jobId, template);
+        templatesByLabel = null;
     }
 
     /**
@@ -547,9 +766,13 @@ public class DockerCloud extends Cloud {
      * @param jobId Id of the job.
      */
     public synchronized void removeJobTemplate(long jobId) {
-        if (getJobTemplates().remove(jobId) == null) {
+        final DockerTemplate removed = getJobTemplates().remove(jobId);
+        if (removed == null) {
             LOGGER.warn("Couldn't remove template for job with id: {}", jobId);
+        } else {
+            DockerProvisioningTimings.forget(removed);
         }
+        templatesByLabel = null;
     }
 
     public List<DockerTemplate> getTemplates() {
@@ -563,29 +786,69 @@ public class DockerCloud extends Cloud {
      * @return Templates matched to requested label assuming agent Mode
      */
     public List<DockerTemplate> getTemplates(Label label) {
-        final List<DockerTemplate> dockerTemplates = new ArrayList<>();
+        ConcurrentHashMap<String, MatchingTemplates> index = templatesByLabel;
+        if (index == null) {
+            index = new ConcurrentHashMap<>();
+            templatesByLabel = index;
+        }
+        // "" can't be a label expression, so we use it for "no label"
+        final String key = label == null ? "" : label.getExpression();
+        final MatchingTemplates matching = index.computeIfAbsent(key, k -> findTemplates(label));
 
-        for (DockerTemplate t : getTemplates()) {
+        final List<DockerTemplate> dockerTemplates = new ArrayList<>(matching.templates.size());
+        for (DockerTemplate t : matching.templates) {
             if (t.getDisabled().isDisabled()) {
                 continue; // pretend it doesn't exist
             }
+            dockerTemplates.add(t);
+        }
+        dockerTemplates.addAll(matching.jobTemplates);
+        return dockerTemplates;
+    }
+
+    private MatchingTemplates findTemplates(Label label) {
+        // provisioning isn't synchronized, so we mustn't iterate while someone else changes these
+        final List<DockerTemplate> allTemplates;
+        final List<DockerTemplate> allJobTemplates;
+        synchronized (this) {
+            allTemplates = new ArrayList<>(getTemplates());
+            allJobTemplates = new ArrayList<>(getJobTemplates().values());
+        }
+
+        final List<DockerTemplate> matchingTemplates = new ArrayList<>();
+        for (DockerTemplate t : allTemplates) {
             if (label == null && t.getMode() == Node.Mode.NORMAL) {
-                dockerTemplates.add(t);
+                matchingTemplates.add(t);
             }
 
             if (label != null && label.matches(t.getLabelSet())) {
-                dockerTemplates.add(t);
+                matchingTemplates.add(t);
             }
         }
 
         // add temporary templates matched to requested label
-        for (DockerTemplate template : getJobTemplates().values()) {
+        final List<DockerTemplate> matchingJobTemplates = new ArrayList<>();
+        for (DockerTemplate template : allJobTemplates) {
             if (label != null && label.matches(template.getLabelSet())) {
-                dockerTemplates.add(template);
+                matchingJobTemplates.add(template);
             }
         }
 
-        return dockerTemplates;
+        return new MatchingTemplates(matchingTemplates, matchingJobTemplates);
+    }
+
+    /** The templates that match a label, as held in {@link #templatesByLabel}. */
+    private static final class MatchingTemplates {
+        /** Matching templates, which may be disabled. */
+        final List<DockerTemplate> templates;
+
+        /** Matching temporary templates for specific jobs. */
+        final List<DockerTemplate> jobTemplates;
+
+        MatchingTemplates(List<DockerTemplate> templates, List<DockerTemplate> jobTemplates) {
+            this.templates = templates;
+            this.jobTemplates = jobTemplates;
+        }
     }
 
     /**
@@ -610,13 +873,16 @@ public class DockerCloud extends Cloud {
         if (templates != null) {
             templates.remove(t);
         }
+        templatesByLabel = null;
+        DockerProvisioningTimings.forget(t);
     }
 
     /**
      * Counts the number of instances currently running in Docker that are using
      * the specified image.
      * <p>
-     * <b>WARNING:</b> This method can be slow so it should be called sparingly.
+     * This is answered from the {@link DockerContainerInventory} when that is
+     * up to date, otherwise docker is asked directly (which can be slow).
      *
      * @param imageName
      *            If null, then all instances belonging to this Jenkins instance
@@ -626,70 +892,115 @@ public class DockerCloud extends Cloud {
      * @throws Exception if anything went wrong.
      */
     public int countContainersInDocker(final String imageName) throws Exception {
-        final Map<String, String> labelFilter = new HashMap<>();
-        labelFilter.put(
-                DockerContainerLabelKeys.JENKINS_INSTANCE_ID,
-                DockerTemplateBase.getJenkinsInstanceIdForContainerLabel());
-        if (imageName != null) {
-            labelFilter.put(DockerContainerLabelKeys.CONTAINER_IMAGE, imageName);
+        final DockerContainerInventory inventory = DockerContainerInventory.forApi(dockerApi);
+        inventory.ensureUpToDate(dockerApi);
+        return imageName == null ? inventory.countActive() : inventory.countActiveByImage(imageName);
+    }
+
+    /**
+     * Gets the {@link DockerContainerInventory} of each of our docker
+     * endpoints, bringing them up to date if we can.
+     *
+     * @return The inventories, in no particular order.
+     * @throws IOException if we couldn't ask docker.
+     */
+    private List<DockerContainerInventory> getUpToDateInventories() throws IOException {
+        final List<DockerContainerInventory> result = new ArrayList<>();
+        for (final DockerAPI api : getDockerApis()) {
+            final DockerContainerInventory inventory = DockerContainerInventory.forApi(api);
+            if (api == dockerApi || api.isAvailable()) {
+                inventory.ensureUpToDate(api);
+            } // else what we knew last is the best we've got
+            result.add(inventory);
         }
-        final List<?> containers;
-        try (final DockerClient client = dockerApi.getClient()) {
-            containers = client.listContainersCmd().withLabelFilter(labelFilter).exec();
+        return result;
+    }
+
+    /**
+     * Counts the number of instances currently running in Docker that are using
+     * the specified image, across all our docker endpoints.
+     *
+     * @param inventories
+     *            From {@link #getUpToDateInventories()}.
+     * @param imageName
+     *            If null, then all instances belonging to this Jenkins instance
+     *            are counted. Otherwise, only those started with the specified
+     *            image are counted.
+     * @return The number of containers.
+     */
+    private static int countContainersForCapacity(
+            final List<DockerContainerInventory> inventories, final String imageName) {
+        int total = 0;
+        for (final DockerContainerInventory inventory : inventories) {
+            total += imageName == null ? inventory.countActive() : inventory.countActiveByImage(imageName);
         }
-        final int count = containers.size();
-        return count;
+        return total;
     }
 
     /**
-     * Check not too many already running.
+     * Reserves capacity for one more container from the given template, if
+     * neither the cloud's nor the template's container cap has been reached.
+     * As docker tells us which image each container is running, not which
+     * template it came from, a template's cap counts all containers of its
+     * image, both running and in progress.
+     * A reservation counts as a container in progress, so it must be released
+     * with {@link #decrementContainersInProgress(DockerTemplate)} once the
+     * container has been provisioned (or has failed to be).
+     * <p>
+     * Reservations are made atomically, so concurrent provisioning (e.g. for
+     * different labels) can't take us over a cap between them.
+     * </p>
+     *
+     * @return true if capacity was reserved.
      */
-    private boolean canAddProvisionedAgent(DockerTemplate t) throws Exception {
+    private boolean tryReserveCapacity(DockerTemplate t) throws Exception {
         final String templateImage = t.getImage();
         final int templateContainerCap = t.instanceCap;
         final int cloudContainerCap = getContainerCap();
 
         final boolean haveCloudContainerCap = cloudContainerCap > 0 && cloudContainerCap != Integer.MAX_VALUE;
         final boolean haveTemplateContainerCap = templateContainerCap > 0 && templateContainerCap != Integer.MAX_VALUE;
-        final int estimatedTotalAgents;
-        if (haveCloudContainerCap) {
-            final int totalContainersInCloud = countContainersInDocker(null);
-            final int containersInProgress = countContainersInProgress();
-            estimatedTotalAgents = totalContainersInCloud + containersInProgress;
-            if (estimatedTotalAgents >= cloudContainerCap) {
+        final List<DockerContainerInventory> inventories =
+                haveCloudContainerCap || haveTemplateContainerCap ? getUpToDateInventories() : List.of();
+        final int totalContainersInCloud = haveCloudContainerCap ? countContainersForCapacity(inventories, null) : 0;
+        final int totalContainersOfThisTemplateInCloud =
+                haveTemplateContainerCap ? countContainersForCapacity(inventories, templateImage) : 0;
+        // We can have as many in progress as there is room for alongside those already running.
+        final int cloudLimit = haveCloudContainerCap ? cloudContainerCap - totalContainersInCloud : Integer.MAX_VALUE;
+        final int templateLimit = haveTemplateContainerCap
+                ? templateContainerCap - totalContainersOfThisTemplateInCloud
+                : Integer.MAX_VALUE;
+        final DockerContainersInProgress.Reservation reservation =
+                CONTAINERS_IN_PROGRESS.tryReserve(name, t.getTemplateId(), templateImage, cloudLimit, templateLimit);
+        switch (reservation) {
+            case CLOUD_FULL:
                 LOGGER.debug(
                         "Not Provisioning '{}'; Cloud '{}' full with '{}' container(s)",
                         templateImage,
                         name,
                         cloudContainerCap);
                 return false; // maxed out
-            }
-        } else {
-            estimatedTotalAgents = -1;
-        }
-        final int estimatedTemplateAgents;
-        if (haveTemplateContainerCap) {
-            final int totalContainersOfThisTemplateInCloud = countContainersInDocker(templateImage);
-            final int containersInProgress = countContainersInProgress(t);
-            estimatedTemplateAgents = totalContainersOfThisTemplateInCloud + containersInProgress;
-            if (estimatedTemplateAgents >= templateContainerCap) {
+            case TEMPLATE_FULL:
                 LOGGER.debug(
                         "Not Provisioning '{}'. Template instance limit of '{}' reached on cloud '{}'",
                         templateImage,
                         templateContainerCap,
                         name);
                 return false; // maxed out
-            }
-        } else {
-            estimatedTemplateAgents = -1;
+            default:
+                break;
         }
 
+        // These include our reservation, and anyone else's made since.
+        final int estimatedTotalAgents = totalContainersInCloud + countContainersInProgress();
+        final int estimatedTemplateAgents =
+                totalContainersOfThisTemplateInCloud + CONTAINERS_IN_PROGRESS.countByImage(name, templateImage);
         if (haveCloudContainerCap) {
             if (haveTemplateContainerCap) {
                 LOGGER.info(
                         "Provisioning '{}' number {} (of {}) on '{}'; Total containers: {} (of {})",
                         templateImage,
-                        estimatedTemplateAgents + 1,
+                        estimatedTemplateAgents,
                         templateContainerCap,
                         name,
                         estimatedTotalAgents,
@@ -707,7 +1018,7 @@ public class DockerCloud extends Cloud {
                 LOGGER.info(
                         "Provisioning '{}' number {} (of {}) on '{}'",
                         templateImage,
-                        estimatedTemplateAgents + 1,
+                        estimatedTemplateAgents,
                         templateContainerCap,
                         name);
             } else {
@@ -754,8 +1065,12 @@ public class DockerCloud extends Cloud {
         // Note: If modifying this code, remember to update hashCode() and toString()
         bldToString(sb, "name", name);
         bldToString(sb, "dockerApi", dockerApi);
+        bldToString(sb, "additionalDockerApis", additionalDockerApis);
+        bldToString(sb, "placementStrategy", getPlacementStrategy());
+        bldToString(sb, "templateSelectionStrategy", getTemplateSelectionStrategy());
         bldToString(sb, "containerCap", containerCap);
         bldToString(sb, "exposeDockerHost", exposeDockerHost);
+        bldToString(sb, "forecastDemand", forecastDemand);
         bldToString(sb, "disabled", getDisabled());
         bldToString(sb, "templates", templates);
         endToString(sb);
@@ -771,8 +1086,12 @@ public class DockerCloud extends Cloud {
         // Note: If modifying this code, remember to update equals() and toString()
         result = prime * result + ((name == null) ? 0 : name.hashCode());
         result = prime * result + ((dockerApi == null) ? 0 : dockerApi.hashCode());
+        result = prime * result + getAdditionalDockerApis().hashCode();
+        result = prime * result + getPlacementStrategy().hashCode();
+        result = prime * result + getTemplateSelectionStrategy().hashCode();
         result = prime * result + containerCap;
         result = prime * result + (exposeDockerHost ? 1231 : 1237);
+        result = prime * result + (forecastDemand ? 1231 : 1237);
         result = prime * result + getDisabled().hashCode();
         result = prime * result + ((templates == null) ? 0 : templates.hashCode());
         return result;
@@ -799,12 +1118,24 @@ public class DockerCloud extends Cloud {
         if (!Objects.equals(dockerApi, that.dockerApi)) {
             return false;
         }
+        if (!getAdditionalDockerApis().equals(that.getAdditionalDockerApis())) {
+            return false;
+        }
+        if (getPlacementStrategy() != that.getPlacementStrategy()) {
+            return false;
+        }
+        if (getTemplateSelectionStrategy() != that.getTemplateSelectionStrategy()) {
+            return false;
+        }
         if (containerCap != that.containerCap) {
             return false;
         }
         if (exposeDockerHost != that.exposeDockerHost) {
             return false;
         }
+        if (forecastDemand != that.forecastDemand) {
+            return false;
+        }
         if (!getDisabled().equals(that.getDisabled())) {
             return false;
         }
@@ -815,16 +1146,7 @@ public class DockerCloud extends Cloud {
     }
 
     public boolean isTriton() {
-        if (_isTriton == null) {
-            final Version remoteVersion;
-            try (final DockerClient client = dockerApi.getClient()) {
-                remoteVersion = client.versionCmd().exec();
-            } catch (IOException ex) {
-                throw new UncheckedIOException(ex);
-            }
-            _isTriton = remoteVersion.getOperatingSystem().equals("solaris");
-        }
-        return _isTriton;
+        return dockerApi.getCapabilities().isTriton();
     }
 
     public boolean isExposeDockerHost() {
@@ -837,6 +1159,15 @@ public class DockerCloud extends Cloud {
         this.exposeDockerHost = exposeDockerHost;
     }
 
+    public boolean isForecastDemand() {
+        return forecastDemand;
+    }
+
+    @DataBoundSetter
+    public void setForecastDemand(boolean forecastDemand) {
+        this.forecastDemand = forecastDemand;
+    }
+
     public DockerDisabled getDisabled() {
         return disabled == null ? new DockerDisabled() : disabled;
     }
@@ -846,6 +1177,24 @@ public class DockerCloud extends Cloud {
         this.disabled = disabled;
     }
 
+    /** @return How well our docker endpoint has been responding recently, for the UI. */
+    @Restricted(NoExternalUse.class)
+    public String getEndpointHealth() {
+        if (additionalDockerApis == null) {
+            return getDockerApi().getCircuitBreaker().getStatus();
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (final DockerAPI api : getDockerApis()) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append(api.getDockerHost().getUri())
+                    .append(": ")
+                    .append(api.getCircuitBreaker().getStatus());
+        }
+        return sb.toString();
+    }
+
     @CheckForNull
     public Integer getErrorDuration() {
         if (errorDuration != null && errorDuration < 0) {
@@ -0,0 +1,586 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.bldToString;
+import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.endToString;
+import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.startToString;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.EventActor;
+import com.github.dockerjava.api.model.EventType;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.jenkins.docker.client.DockerAPI;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory record of the containers that this Jenkins instance has
+ * running on a docker endpoint, kept up to date by listening to the endpoint's
+ * {@link DockerEndpointEvents} (for containers with our
+ * {@link DockerContainerLabelKeys#JENKINS_INSTANCE_ID} label) and repaired by a
+ * periodic full listing of the containers.
+ * <p>
+ * This allows {@link DockerCloud}'s capacity checks to be answered without
+ * asking the docker daemon every time. If we aren't currently connected to the
+ * event stream then {@link #isLive(DockerAPI)} returns false and
+ * {@link #ensureUpToDate(DockerAPI)} asks the daemon instead.
+ * </p>
+ * <p>
+ * We're also told directly when we start or remove a container ourselves, so
+ * our counts are right straight away rather than once docker's event has
+ * reached us.
+ * </p>
+ * <p>
+ * The {@link DockerContainerWatchdog} lists all our containers periodically
+ * anyway, so it passes the results to us and that acts as our periodic
+ * resync. If that isn't happening (e.g. the watchdog is disabled) then we'll
+ * do our own resync when we're asked for data that's out of date.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public class DockerContainerInventory implements DockerEndpointEvents.Listener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerContainerInventory.class);
+
+    /** Can be used to turn this off and go back to querying docker each time */
+    private static final boolean ENABLED =
+            JenkinsUtils.getSystemPropertyBoolean(DockerContainerInventory.class.getName() + ".enabled", true);
+
+    /** How often we must do a full listing of containers to repair any drift */
+    private static final long RESYNC_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(JenkinsUtils.getSystemPropertyLong(
+            DockerContainerInventory.class.getName() + ".resyncIntervalInSeconds", 5L * 60L));
+
+    private static final ConcurrentHashMap<String, DockerContainerInventory> BY_ENDPOINT = new ConcurrentHashMap<>();
+
+    private final String endpoint;
+    private final long resyncIntervalNanos;
+    /** Records by container ID, including tombstones for recently removed containers */
+    private final ConcurrentHashMap<String, ContainerRecord> records = new ConcurrentHashMap<>();
+    /**
+     * Serializes resync activities; never held while reading counts. Not a
+     * monitor, as it's held while we talk to docker, possibly on a virtual
+     * thread.
+     */
+    private final ReentrantLock lifecycleLock = new ReentrantLock();
+    /** Containers that have been placed on this endpoint but not created yet */
+    private final AtomicInteger placementsInProgress = new AtomicInteger();
+
+    private volatile boolean connected;
+    private volatile long connectedAtNanos;
+    private volatile long lastResyncNanos;
+    private volatile boolean everResynced;
+
+    DockerContainerInventory(String endpoint, long resyncIntervalNanos) {
+        this.endpoint = endpoint;
+        this.resyncIntervalNanos = resyncIntervalNanos;
+    }
+
+    /**
+     * Obtains the inventory for the endpoint that the given {@link DockerAPI}
+     * talks to.
+     *
+     * @param api
+     *            The endpoint.
+     * @return The inventory for that endpoint. Never null.
+     */
+    @NonNull
+    public static DockerContainerInventory forApi(@NonNull DockerAPI api) {
+        final String key = DockerEndpointEvents.endpointKey(api);
+        final DockerContainerInventory existing = BY_ENDPOINT.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        final DockerContainerInventory created = new DockerContainerInventory(key, RESYNC_INTERVAL_NANOS);
+        final DockerContainerInventory winner = BY_ENDPOINT.putIfAbsent(key, created);
+        if (winner != null) {
+            return winner;
+        }
+        DockerEndpointEvents.forApi(api).addListener(created);
+        return created;
+    }
+
+    /**
+     * Forgets the endpoints that aren't wanted any more.
+     *
+     * @param wanted
+     *            The {@link DockerEndpointEvents#endpointKey(DockerAPI)} of
+     *            each endpoint we still want.
+     */
+    static void retainOnly(@NonNull Set<String> wanted) {
+        BY_ENDPOINT.keySet().retainAll(wanted);
+    }
+
+    /**
+     * Ensures we are listening to events and our data is up to date, and tells
+     * the caller whether or not our data can be trusted.
+     *
+     * @param api
+     *            How to talk to our endpoint, should we need to.
+     * @return true if our counts can be used, false if the caller should ask
+     *         docker directly.
+     */
+    public boolean isLive(@NonNull DockerAPI api) {
+        if (!ENABLED) {
+            return false;
+        }
+        if (!DockerEndpointEvents.forApi(api).ensureSubscribed(api) || !connected) {
+            return false;
+        }
+        final long connectedAt = connectedAtNanos;
+        if (!everResynced
+                || lastResyncNanos - connectedAt < 0L
+                || System.nanoTime() - lastResyncNanos >= resyncIntervalNanos) {
+            // any events we missed before we were connected need to be picked up
+            resyncFromDocker(api, connectedAt);
+        }
+        return connected && everResynced && lastResyncNanos - connectedAt >= 0L;
+    }
+
+    /**
+     * Makes sure our records are up to date: if we're {@link #isLive(DockerAPI)}
+     * then they already are, otherwise we ask docker for a full listing.
+     *
+     * @param api
+     *            How to talk to our endpoint.
+     * @throws IOException
+     *             if we couldn't ask docker.
+     */
+    public void ensureUpToDate(@NonNull DockerAPI api) throws IOException {
+        if (isLive(api)) {
+            return;
+        }
+        final long askedNanos = System.nanoTime();
+        lifecycleLock.lock();
+        try {
+            if (everResynced && lastResyncNanos - askedNanos >= 0L) {
+                return; // someone else listed them while we waited
+            }
+            final long listStartedNanos = System.nanoTime();
+            try (final DockerClient client = api.getClient()) {
+                final List<Container> containers = client.listContainersCmd()
+                        .withShowAll(true)
+                        .withLabelFilter(ourLabelFilter())
+                        .exec();
+                resync(containers, listStartedNanos);
+            }
+        } finally {
+            lifecycleLock.unlock();
+        }
+    }
+
+    private static Map<String, String> ourLabelFilter() {
+        final Map<String, String> labelFilter = new HashMap<>();
+        labelFilter.put(
+                DockerContainerLabelKeys.JENKINS_INSTANCE_ID,
+                DockerTemplateBase.getJenkinsInstanceIdForContainerLabel());
+        return labelFilter;
+    }
+
+    private void resyncFromDocker(DockerAPI api, long connectedAt) {
+        lifecycleLock.lock();
+        try {
+            if (everResynced
+                    && lastResyncNanos - connectedAt >= 0L
+                    && System.nanoTime() - lastResyncNanos < resyncIntervalNanos) {
+                return; // someone else did it while we waited
+            }
+            final Map<String, String> labelFilter = ourLabelFilter();
+            final long listStartedNanos = System.nanoTime();
+            try (final DockerClient client = api.getClient()) {
+                final List<Container> containers = client.listContainersCmd()
+                        .withShowAll(true)
+                        .withLabelFilter(labelFilter)
+                        .exec();
+                resync(containers, listStartedNanos);
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.info("Unable to list containers on {}", endpoint, ex);
+            }
+        } finally {
+            lifecycleLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces our records with a full listing of the containers. Anything
+     * we've been told about by events since the listing started is kept, as
+     * it's more recent than the listing.
+     *
+     * @param containers
+     *            All containers on the endpoint labelled as ours (including
+     *            ones that aren't running).
+     * @param listStartedNanos
+     *            The {@link System#nanoTime()} from just before the list was
+     *            requested.
+     */
+    public void resync(@NonNull List<Container> containers, long listStartedNanos) {
+        final Map<String, ContainerRecord> fromListing = new HashMap<>();
+        for (final Container c : containers) {
+            final String id = c.getId();
+            if (id == null) {
+                continue;
+            }
+            final Map<String, String> labels = c.getLabels() == null ? Collections.emptyMap() : c.getLabels();
+            fromListing.put(
+                    id,
+                    new ContainerRecord(
+                            id,
+                            stateOf(c.getState(), c.getStatus()),
+                            labels.get(DockerContainerLabelKeys.CONTAINER_IMAGE),
+                            labels.get(DockerContainerLabelKeys.TEMPLATE_NAME),
+                            labels.get(DockerContainerLabelKeys.NODE_NAME),
+                            listStartedNanos));
+        }
+        // Remove what the listing says is gone, unless events have told us more recently.
+        for (final String id : new ArrayList<>(records.keySet())) {
+            records.computeIfPresent(id, (k, existing) -> {
+                if (existing.updatedNanos - listStartedNanos > 0L) {
+                    return existing; // newer than the listing
+                }
+                return fromListing.containsKey(k) ? existing : null;
+            });
+        }
+        for (final ContainerRecord r : fromListing.values()) {
+            records.merge(
+                    r.id,
+                    r,
+                    (existing, listed) -> existing.updatedNanos - listed.updatedNanos > 0L ? existing : listed);
+        }
+        lastResyncNanos = listStartedNanos;
+        everResynced = true;
+    }
+
+    @Override
+    public void connected(long connectedAtNanos) {
+        this.connectedAtNanos = connectedAtNanos;
+        connected = true;
+    }
+
+    @Override
+    public void received(@NonNull Event event, long receivedNanos) {
+        // the stream is shared, so it has everyone's containers in it, not just ours
+        final EventActor actor = event.getActor();
+        final Map<String, String> attributes = actor == null ? null : actor.getAttributes();
+        if (attributes != null
+                && DockerTemplateBase.getJenkinsInstanceIdForContainerLabel()
+                        .equals(attributes.get(DockerContainerLabelKeys.JENKINS_INSTANCE_ID))) {
+            onEvent(event, receivedNanos);
+        }
+    }
+
+    @Override
+    public void disconnected() {
+        connected = false;
+    }
+
+    /**
+     * Updates our records from a docker event.
+     *
+     * @param event
+     *            The event.
+     * @param receivedNanos
+     *            The {@link System#nanoTime()} when we got it.
+     */
+    void onEvent(@NonNull Event event, long receivedNanos) {
+        if (event.getType() != null && event.getType() != EventType.CONTAINER) {
+            return;
+        }
+        final String action = event.getAction() != null ? event.getAction() : event.getStatus();
+        final EventActor actor = event.getActor();
+        final String id = actor != null && actor.getId() != null ? actor.getId() : event.getId();
+        if (action == null || id == null) {
+            return;
+        }
+        final String newState = stateForAction(action);
+        if (newState == null) {
+            return; // not something that changes a container's state
+        }
+        final Map<String, String> attributes =
+                actor == null || actor.getAttributes() == null ? Collections.emptyMap() : actor.getAttributes();
+        records.compute(id, (k, existing) -> {
+            final String image = existing != null && existing.image != null
+                    ? existing.image
+                    : attributes.get(DockerContainerLabelKeys.CONTAINER_IMAGE);
+            final String template = existing != null && existing.templateName != null
+                    ? existing.templateName
+                    : attributes.get(DockerContainerLabelKeys.TEMPLATE_NAME);
+            final String nodeName = existing != null && existing.nodeName != null
+                    ? existing.nodeName
+                    : attributes.get(DockerContainerLabelKeys.NODE_NAME);
+            return new ContainerRecord(k, newState, image, template, nodeName, receivedNanos);
+        });
+    }
+
+    /**
+     * Records that we have started a container, without waiting for docker to
+     * tell us.
+     *
+     * @param containerId
+     *            The container's ID.
+     * @param image
+     *            The image name, as recorded in our
+     *            {@link DockerContainerLabelKeys#CONTAINER_IMAGE} label.
+     * @param templateName
+     *            The template name, as recorded in our
+     *            {@link DockerContainerLabelKeys#TEMPLATE_NAME} label.
+     */
+    public void containerStarted(
+            @NonNull String containerId, @CheckForNull String image, @CheckForNull String templateName) {
+        final long now = System.nanoTime();
+        records.compute(containerId, (k, existing) -> {
+            if (existing == null) {
+                return new ContainerRecord(k, "running", image, templateName, null, now);
+            }
+            // docker's told us about it already, and that's more accurate than we are
+            return new ContainerRecord(
+                    k,
+                    existing.state,
+                    existing.image != null ? existing.image : image,
+                    existing.templateName != null ? existing.templateName : templateName,
+                    existing.nodeName,
+                    existing.updatedNanos);
+        });
+    }
+
+    /**
+     * Records that we have removed a container, without waiting for docker to
+     * tell us. It doesn't matter if we didn't know about it.
+     *
+     * @param containerId
+     *            The container's ID.
+     */
+    public void containerRemoved(@NonNull String containerId) {
+        final long now = System.nanoTime();
+        records.compute(containerId, (k, existing) -> {
+            if (existing == null) {
+                return new ContainerRecord(k, ContainerRecord.REMOVED, null, null, null, now);
+            }
+            return new ContainerRecord(
+                    k, ContainerRecord.REMOVED, existing.image, existing.templateName, existing.nodeName, now);
+        });
+    }
+
+    /**
+     * @return The number of containers that a {@link DockerPlacementStrategy}
+     *         has put on this endpoint that haven't been created yet.
+     */
+    public int getPlacementsInProgress() {
+        return placementsInProgress.get();
+    }
+
+    /**
+     * Records that we're about to create a container on this endpoint. This
+     * must be followed by a call to {@link #placementFinished()}.
+     */
+    public void placementStarted() {
+        placementsInProgress.incrementAndGet();
+    }
+
+    /** Reverses {@link #placementStarted()}. */
+    public void placementFinished() {
+        placementsInProgress.decrementAndGet();
+    }
+
+    /**
+     * @return The number of our containers that are running (or paused, or
+     *         created but not started yet).
+     */
+    public int countActive() {
+        return countActive(null, null);
+    }
+
+    /**
+     * @param image
+     *            The image name, as recorded in our
+     *            {@link DockerContainerLabelKeys#CONTAINER_IMAGE} label.
+     * @return The number of our containers of that image that are active (see
+     *         {@link #countActive()}).
+     */
+    public int countActiveByImage(@NonNull String image) {
+        return countActive(image, null);
+    }
+
+    /**
+     * @param templateName
+     *            The template name, as recorded in our
+     *            {@link DockerContainerLabelKeys#TEMPLATE_NAME} label.
+     * @return The number of our containers of that template that are active
+     *         (see {@link #countActive()}).
+     */
+    public int countActiveByTemplate(@NonNull String templateName) {
+        return countActive(null, templateName);
+    }
+
+    private int countActive(@CheckForNull String image, @CheckForNull String templateName) {
+        int count = 0;
+        for (final ContainerRecord r : records.values()) {
+            if (r.isActive()
+                    && (image == null || image.equals(r.image))
+                    && (templateName == null || templateName.equals(r.templateName))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of our containers in each state, e.g. "running",
+     *         "exited", "paused".
+     */
+    @NonNull
+    public Map<String, Integer> countByState() {
+        final Map<String, Integer> result = new HashMap<>();
+        for (final ContainerRecord r : records.values()) {
+            if (!r.removed) {
+                result.merge(r.state, 1, Integer::sum);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Maps a docker event action to the state the container will be in
+     * afterwards.
+     *
+     * @return The new state, {@link ContainerRecord#REMOVED} if the container
+     *         has gone, or null if the action doesn't change its state.
+     */
+    @CheckForNull
+    static String stateForAction(@NonNull String action) {
+        switch (action) {
+            case "create":
+                return "created";
+            case "start":
+            case "unpause":
+            case "restart":
+                return "running";
+            case "pause":
+                return "paused";
+            case "die":
+            case "stop":
+            case "kill":
+            case "oom":
+                return "exited";
+            case "destroy":
+                return ContainerRecord.REMOVED;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Works out a container's state from a listing. Old docker versions (and
+     * our unit tests) don't tell us the state, only the status text.
+     */
+    @NonNull
+    static String stateOf(@CheckForNull String state, @CheckForNull String status) {
+        if (state != null && !state.isEmpty()) {
+            return state.toLowerCase();
+        }
+        if (status == null) {
+            return "unknown";
+        }
+        if (status.startsWith("Up")) {
+            return status.contains("(Paused)") ? "paused" : "running";
+        }
+        if (status.startsWith("Restarting")) {
+            return "restarting";
+        }
+        if (status.startsWith("Exited")) {
+            return "exited";
+        }
+        if (status.startsWith("Created")) {
+            return "created";
+        }
+        if (status.startsWith("Dead")) {
+            return "dead";
+        }
+        if (status.startsWith("Removal")) {
+            return "removing";
+        }
+        return "unknown";
+    }
+
+    /**
+     * Whether a container in this state uses up capacity: running, paused or
+     * restarting (i.e. what a plain, non "show all", container listing
+     * shows), or created. A container we're provisioning spends a while
+     * created but not started, so counting it then means our limits hold
+     * even if nothing else is keeping track of it, e.g. after Jenkins has
+     * restarted, at the cost of briefly counting it twice while its
+     * provisioning is also counted as in progress.
+     */
+    static boolean isActiveState(@CheckForNull String state) {
+        return "running".equals(state)
+                || "paused".equals(state)
+                || "restarting".equals(state)
+                || "created".equals(state);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = startToString(this);
+        bldToString(sb, "endpoint", endpoint);
+        bldToString(sb, "countByState", countByState());
+        endToString(sb);
+        return sb.toString();
+    }
+
+    /**
+     * What we know about one container.
+     */
+    static final class ContainerRecord {
+        static final String REMOVED = "removed";
+
+        final String id;
+        final String state;
+
+        @CheckForNull
+        final String image;
+
+        @CheckForNull
+        final String templateName;
+
+        @CheckForNull
+        final String nodeName;
+
+        final boolean removed;
+        final long updatedNanos;
+
+        ContainerRecord(
+                String id, String state, String image, String templateName, String nodeName, long updatedNanos) {
+            this.id = id;
+            this.state = state;
+            this.image = image;
+            this.templateName = templateName;
+            this.nodeName = nodeName;
+            this.removed = REMOVED.equals(state);
+            this.updatedNanos = updatedNanos;
+        }
+
+        /** @see DockerContainerInventory#isActiveState(String) */
+        boolean isActive() {
+            return isActiveState(state);
+        }
+
+        @Override
+        public String toString() {
+            return "ContainerRecord[id=" + id + ", state=" + state + ", image=" + image + ", templateName="
+                    + templateName + "]";
+        }
+    }
+}
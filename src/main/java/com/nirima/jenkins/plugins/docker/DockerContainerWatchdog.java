@@ -140,16 +140,19 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
 
             try {
                 for (DockerCloud dc : getAllClouds()) {
-                    String uri = dc.getDockerApi().getDockerHost().getUri();
-                    if (uri == null) {
-                        LOGGER.info("Skipping unconfigured Docker Cloud {}", dc.getDisplayName());
-                        continue; // currently declines to default it, contrary to getUri Javadoc
+                    for (DockerAPI dockerApi : dc.getDockerApis()) {
+                        String uri = dockerApi.getDockerHost().getUri();
+                        if (uri == null) {
+                            LOGGER.info("Skipping unconfigured Docker Cloud {}", dc.getDisplayName());
+                            continue; // currently declines to default it, contrary to getUri Javadoc
+                        }
+
+                        LOGGER.debug("Checking Docker Cloud {} at {}", dc.getDisplayName(), uri);
+                        listener.getLogger()
+                                .println(String.format("Checking Docker Cloud %s at %s", dc.getDisplayName(), uri));
+
+                        csmMerged = processCloud(dc, dockerApi, nodeMap, csmMerged, snapshotInstance);
                     }
-
-                    LOGGER.debug("Checking Docker Cloud {} at {}", dc.getDisplayName(), uri);
-                    listener.getLogger().println(String.format("Checking Docker Cloud %s", dc.getDisplayName()));
-
-                    csmMerged = processCloud(dc, nodeMap, csmMerged, snapshotInstance);
                 }
 
                 if (csmMerged.isContainerListIncomplete()) {
@@ -212,20 +215,22 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
     }
 
     private ContainerNodeNameMap processCloud(
-            DockerCloud dc, Map<String, Node> nodeMap, ContainerNodeNameMap csmMerged, Instant snapshotInstant) {
-        DockerAPI dockerApi = dc.getDockerApi();
-
+            DockerCloud dc,
+            DockerAPI dockerApi,
+            Map<String, Node> nodeMap,
+            ContainerNodeNameMap csmMerged,
+            Instant snapshotInstant) {
         try (final DockerClient client = dockerApi.getClient()) {
-            ContainerNodeNameMap csm = retrieveContainers(dc, client);
+            ContainerNodeNameMap csm = retrieveContainers(dc, dockerApi, client);
 
             DockerDisabled dcDisabled = dc.getDisabled();
             if (dcDisabled.isDisabled()) {
                 LOGGER.debug(
                         "Will not cleanup superfluous containers on DockerCloud [name={}, dockerURI={}], as it is disabled",
                         dc.getDisplayName(),
-                        dc.getDockerApi().getDockerHost().getUri());
+                        dockerApi.getDockerHost().getUri());
             } else {
-                cleanUpSuperfluousContainers(client, nodeMap, csm, dc, snapshotInstant);
+                cleanUpSuperfluousContainers(client, nodeMap, csm, dc, dockerApi, snapshotInstant);
             }
 
             csmMerged = csmMerged.merge(csm);
@@ -246,7 +251,7 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
         }
     }
 
-    private ContainerNodeNameMap retrieveContainers(DockerCloud dc, DockerClient client)
+    private ContainerNodeNameMap retrieveContainers(DockerCloud dc, DockerAPI dockerApi, DockerClient client)
             throws ContainersRetrievalException {
         /*
          * Note:
@@ -274,15 +279,18 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
         try {
             List<Container> containerList = null;
             try {
+                final long listStartedNanos = System.nanoTime();
                 containerList = client.listContainersCmd()
                         .withShowAll(true)
                         .withLabelFilter(labelFilter)
                         .exec();
+                // this doubles as the periodic resync of the in-memory inventory
+                DockerContainerInventory.forApi(dockerApi).resync(containerList, listStartedNanos);
             } catch (Exception e) {
                 LOGGER.warn(
                         "Unable to retrieve list of containers available on DockerCloud [name={}, dockerURI={}] while reading list of containers (showAll=true, labelFilters={})",
                         dc.getDisplayName(),
-                        dc.getDockerApi().getDockerHost().getUri(),
+                        dockerApi.getDockerHost().getUri(),
                         labelFilter.toString(),
                         e);
                 throw new ContainersRetrievalException(e);
@@ -330,6 +338,7 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
             Map<String, Node> nodeMap,
             ContainerNodeNameMap csm,
             DockerCloud dc,
+            DockerAPI dockerApi,
             Instant snapshotInstant) {
         Collection<Container> allContainers = csm.getAllContainers();
 
@@ -340,6 +349,7 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
             Node node = nodeMap.get(nodeName);
             if (node != null) {
                 // the node and the container still have a proper mapping => ok
+                // (this includes paused standby agents; they keep their node while paused)
                 continue;
             }
 
@@ -367,7 +377,7 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
                     containerCreated);
 
             try {
-                terminateContainer(dc, client, container);
+                terminateContainer(dockerApi, client, container);
             } catch (Exception e) {
                 // Graceful termination failed; we need to use some force
                 LOGGER.warn("Graceful termination of Container {} failed", containerId, e);
@@ -393,10 +403,18 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
         return untilMayBeCleanedUp.isNegative();
     }
 
-    private void terminateContainer(DockerCloud dc, DockerClient client, Container container) {
+    private void terminateContainer(DockerAPI dockerApi, DockerClient client, Container container) {
+        if (container.getStatus().endsWith("(Paused)")) {
+            // e.g. a standby agent whose node has gone; it can't be stopped until it's unpaused
+            try {
+                client.unpauseContainerCmd(container.getId()).exec();
+            } catch (RuntimeException e) {
+                LOGGER.debug("Unable to unpause container {} before terminating it", container.getId(), e);
+            }
+        }
         boolean gracefulFailed = false;
         try {
-            terminateContainerGracefully(dc, container);
+            terminateContainerGracefully(dockerApi, container);
         } catch (TerminationException handledByCode) {
             gracefulFailed = true;
         } catch (ContainerIsTaintedException e) {
@@ -430,7 +448,7 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
         }
     }
 
-    private void terminateContainerGracefully(DockerCloud dc, Container container)
+    private void terminateContainerGracefully(DockerAPI dockerApi, Container container)
             throws TerminationException, ContainerIsTaintedException {
         String containerId = container.getId();
 
@@ -468,7 +486,6 @@ public class DockerContainerWatchdog extends AsyncPeriodicWork {
             containerRunning = false;
         }
 
-        DockerAPI dockerApi = dc.getDockerApi();
         Instant start = clock.instant();
         boolean success = stopAndRemoveContainer(
                 dockerApi,
@@ -0,0 +1,194 @@
+package com.nirima.jenkins.plugins.docker;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps count of the containers that each {@link DockerCloud} is in the
+ * process of provisioning (but which aren't necessarily reported by docker
+ * yet), in total, for each {@link DockerTemplate} and for each image.
+ * <p>
+ * Each count is updated atomically without any lock that is shared between
+ * clouds or templates, so provisioning for one template doesn't hold up
+ * provisioning for another. Counts that drop to zero are forgotten.
+ * </p>
+ * <p>
+ * These counts double as reservations against the cloud's and templates'
+ * container caps: see {@link #tryReserve(String, String, String, int, int)}.
+ * As docker reports running containers by image, a template's cap is
+ * enforced against the containers in progress for its image, so that both
+ * sides of the sum are counted the same way.
+ * </p>
+ */
+final class DockerContainersInProgress {
+    private final ConcurrentHashMap<String, Integer> byCloud = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Key, Integer> byTemplate = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Key, Integer> byImage = new ConcurrentHashMap<>();
+
+    /**
+     * Changes the number of containers in progress.
+     *
+     * @param cloudId
+     *            The {@link DockerCloud}'s name.
+     * @param templateId
+     *            The {@link DockerTemplate#getTemplateId()}.
+     * @param image
+     *            The {@link DockerTemplate#getImage()}.
+     * @param adjustment
+     *            How much to add to the count (negative to subtract).
+     */
+    void adjust(@NonNull String cloudId, @NonNull String templateId, @NonNull String image, int adjustment) {
+        byTemplate.merge(new Key(cloudId, templateId), adjustment, DockerContainersInProgress::sumOrNull);
+        byImage.merge(new Key(cloudId, image), adjustment, DockerContainersInProgress::sumOrNull);
+        byCloud.merge(cloudId, adjustment, DockerContainersInProgress::sumOrNull);
+    }
+
+    /**
+     * Adds one to the number of containers in progress, but only if that
+     * doesn't take the cloud's count, or the count for the template's image,
+     * past the given limit. This is atomic, so concurrent callers can't exceed
+     * a limit between them. A successful reservation must eventually be undone
+     * by calling {@link #adjust(String, String, String, int)} with -1.
+     *
+     * @param cloudId
+     *            The {@link DockerCloud}'s name.
+     * @param templateId
+     *            The {@link DockerTemplate#getTemplateId()}.
+     * @param image
+     *            The {@link DockerTemplate#getImage()}.
+     * @param cloudLimit
+     *            The most containers the cloud may have in progress, or
+     *            {@link Integer#MAX_VALUE} for no limit.
+     * @param templateLimit
+     *            The most containers of the template's image the cloud may
+     *            have in progress, or {@link Integer#MAX_VALUE} for no limit.
+     * @return Whether we reserved a place and, if not, which limit stopped us.
+     */
+    @NonNull
+    Reservation tryReserve(
+            @NonNull String cloudId,
+            @NonNull String templateId,
+            @NonNull String image,
+            int cloudLimit,
+            int templateLimit) {
+        if (!tryIncrement(byCloud, cloudId, cloudLimit)) {
+            return Reservation.CLOUD_FULL;
+        }
+        if (!tryIncrement(byImage, new Key(cloudId, image), templateLimit)) {
+            byCloud.merge(cloudId, -1, DockerContainersInProgress::sumOrNull);
+            return Reservation.TEMPLATE_FULL;
+        }
+        byTemplate.merge(new Key(cloudId, templateId), 1, DockerContainersInProgress::sumOrNull);
+        return Reservation.RESERVED;
+    }
+
+    /**
+     * @param cloudId
+     *            The {@link DockerCloud}'s name.
+     * @param templateId
+     *            The {@link DockerTemplate#getTemplateId()}.
+     * @return The number of containers in progress for that template.
+     */
+    int count(@NonNull String cloudId, @NonNull String templateId) {
+        final Integer count = byTemplate.get(new Key(cloudId, templateId));
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @param cloudId
+     *            The {@link DockerCloud}'s name.
+     * @param image
+     *            The image name.
+     * @return The number of containers of that image in progress, whichever
+     *         template they're for.
+     */
+    int countByImage(@NonNull String cloudId, @NonNull String image) {
+        final Integer count = byImage.get(new Key(cloudId, image));
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @param cloudId
+     *            The {@link DockerCloud}'s name.
+     * @return The number of containers in progress for all of that cloud's
+     *         templates.
+     */
+    int count(@NonNull String cloudId) {
+        final Integer count = byCloud.get(cloudId);
+        return count == null ? 0 : count;
+    }
+
+    /** @return true if nothing is in progress anywhere. */
+    boolean isEmpty() {
+        return byCloud.isEmpty() && byTemplate.isEmpty() && byImage.isEmpty();
+    }
+
+    private static <K> boolean tryIncrement(ConcurrentHashMap<K, Integer> map, K key, int limit) {
+        while (true) {
+            final Integer oldValue = map.get(key);
+            final int oldCount = oldValue == null ? 0 : oldValue;
+            if (oldCount >= limit) {
+                return false;
+            }
+            final boolean updated = oldValue == null
+                    ? map.putIfAbsent(key, 1) == null
+                    : map.replace(key, oldValue, oldCount + 1);
+            if (updated) {
+                return true;
+            }
+            // someone else changed it; try again
+        }
+    }
+
+    /** Adds two counts, giving null (which removes the entry) if that's zero. */
+    private static Integer sumOrNull(Integer oldValue, Integer adjustment) {
+        final int newValue = oldValue + adjustment;
+        return newValue == 0 ? null : newValue;
+    }
+
+    @Override
+    public String toString() {
+        return "DockerContainersInProgress" + byTemplate;
+    }
+
+    /** The outcome of {@link #tryReserve(String, String, String, int, int)}. */
+    enum Reservation {
+        RESERVED,
+        CLOUD_FULL,
+        TEMPLATE_FULL
+    }
+
+    /** A template or image, within a cloud. */
+    private static final class Key {
+        private final String cloudId;
+        private final String id;
+
+        Key(String cloudId, String id) {
+            this.cloudId = cloudId;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return cloudId.equals(other.cloudId) && id.equals(other.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(cloudId, id);
+        }
+
+        @Override
+        public String toString() {
+            return cloudId + "/" + id;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.nirima.jenkins.plugins.docker;
 
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.Extension;
@@ -8,6 +9,7 @@ import hudson.Util;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
 import hudson.util.FormValidation;
+import io.jenkins.docker.client.DockerEndpointCircuitBreaker;
 import java.io.Serializable;
 import java.util.concurrent.TimeUnit;
 import org.kohsuke.accmod.Restricted;
@@ -24,6 +26,13 @@ public class DockerDisabled extends AbstractDescribableImpl<DockerDisabled> impl
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * How long {@link #disableBySystemWithBackoff(String, long, Throwable)}
+     * disables things for the first time.
+     */
+    private static final long INITIAL_BACKOFF_IN_MILLISECONDS = JenkinsUtils.getSystemPropertyLong(
+            DockerDisabled.class.getName() + ".initialBackoffInMilliseconds", 2000L);
+
     private boolean disabledByChoice;
 
     private transient boolean disabledBySystem;
@@ -31,6 +40,7 @@ public class DockerDisabled extends AbstractDescribableImpl<DockerDisabled> impl
     private transient long nanotimeWhenReEnableBySystem;
     private transient String reasonWhyDisabledBySystem;
     private transient Throwable exceptionWhenDisabledBySystem;
+    private transient int consecutiveFailuresSeenBySystem;
 
     // Persistence functionality
 
@@ -61,7 +71,7 @@ public class DockerDisabled extends AbstractDescribableImpl<DockerDisabled> impl
      *            Optional exception.
      */
     @Restricted(NoExternalUse.class)
-    public void disableBySystem(
+    public synchronized void disableBySystem(
             @NonNull final String reasonGiven, final long durationInMilliseconds, @Nullable final Throwable exception) {
         final long durationInNanoseconds = TimeUnit.MILLISECONDS.toNanos(durationInMilliseconds);
         final long now = readTimeNowInNanoseconds();
@@ -72,6 +82,46 @@ public class DockerDisabled extends AbstractDescribableImpl<DockerDisabled> impl
         exceptionWhenDisabledBySystem = exception;
     }
 
+    /**
+     * Called from owning classes to record a problem that will cause
+     * {@link #isDisabled()} to return true for a period that starts small and
+     * grows exponentially (with jitter) each time this is called without an
+     * intervening {@link #recordSuccessBySystem()}, up to a maximum. This
+     * means that a one-off problem only causes a brief interruption whereas a
+     * persistent problem results in us backing off until it's fixed.
+     *
+     * @param reasonGiven
+     *            Human-readable String stating why.
+     * @param maxDurationInMilliseconds
+     *            Maximum length of time, in milliseconds, the disablement
+     *            should continue.
+     * @param exception
+     *            Optional exception.
+     */
+    @Restricted(NoExternalUse.class)
+    public synchronized void disableBySystemWithBackoff(
+            @NonNull final String reasonGiven,
+            final long maxDurationInMilliseconds,
+            @Nullable final Throwable exception) {
+        consecutiveFailuresSeenBySystem++;
+        final long durationInMilliseconds = DockerEndpointCircuitBreaker.backoffWithJitter(
+                consecutiveFailuresSeenBySystem,
+                Math.min(INITIAL_BACKOFF_IN_MILLISECONDS, maxDurationInMilliseconds),
+                maxDurationInMilliseconds);
+        disableBySystem(reasonGiven, durationInMilliseconds, exception);
+    }
+
+    /**
+     * Called from owning classes to record that things worked, so the next
+     * call to
+     * {@link #disableBySystemWithBackoff(String, long, Throwable)} will start
+     * again with a short disablement.
+     */
+    @Restricted(NoExternalUse.class)
+    public synchronized void recordSuccessBySystem() {
+        consecutiveFailuresSeenBySystem = 0;
+    }
+
     /**
      * Indicates if we are currently disabled for any reason (either the user
      * has ticked the disable box or
@@ -96,7 +146,7 @@ public class DockerDisabled extends AbstractDescribableImpl<DockerDisabled> impl
         return !getDisabledByChoice();
     }
 
-    public boolean getDisabledBySystem() {
+    public synchronized boolean getDisabledBySystem() {
         if (disabledBySystem) {
             final long now = readTimeNowInNanoseconds();
             final long disabledTimeRemaining = nanotimeWhenReEnableBySystem - now;
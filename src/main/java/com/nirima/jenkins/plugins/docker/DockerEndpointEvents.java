@@ -0,0 +1,364 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.EventType;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.slaves.Cloud;
+import io.jenkins.docker.client.DockerAPI;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Follows a docker endpoint's event stream on behalf of everything that wants
+ * to know what's changing there, so that we only have one stream per endpoint
+ * however many of us are interested.
+ * <p>
+ * The stream carries container and image events for the whole endpoint, not
+ * just for our containers, as docker can't filter image events by our labels.
+ * {@link Listener}s are told when the stream starts (as they can't know what
+ * happened before then), of each event, and when it stops (as they then can't
+ * know what's happening). If the stream fails then we re-subscribe the next
+ * time someone calls {@link #ensureSubscribed(DockerAPI)}, but not straight
+ * away.
+ * </p>
+ * <p>
+ * Whenever the Jenkins configuration is saved, we stop following (and forget
+ * what we know of) any endpoint that's no longer used by a {@link DockerCloud}.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class DockerEndpointEvents {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerEndpointEvents.class);
+
+    /** How long to wait before trying to re-subscribe to events after a failure */
+    private static final long RESUBSCRIBE_DELAY_NANOS = TimeUnit.SECONDS.toNanos(JenkinsUtils.getSystemPropertyLong(
+            DockerEndpointEvents.class.getName() + ".resubscribeDelayInSeconds", 30L));
+
+    private static final ConcurrentHashMap<String, DockerEndpointEvents> BY_ENDPOINT = new ConcurrentHashMap<>();
+
+    private final String endpoint;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    /** Serializes subscription activities. Not a monitor, as it's held while we talk to docker. */
+    private final ReentrantLock lifecycleLock = new ReentrantLock();
+
+    @CheckForNull
+    private volatile Subscription subscription;
+
+    private volatile long nextSubscribeAttemptNanos;
+
+    DockerEndpointEvents(String endpoint) {
+        this.endpoint = endpoint;
+        this.nextSubscribeAttemptNanos = System.nanoTime();
+    }
+
+    /**
+     * Obtains the event stream for the endpoint that the given
+     * {@link DockerAPI} talks to. This doesn't subscribe to it.
+     *
+     * @param api
+     *            The endpoint.
+     * @return The event stream for that endpoint. Never null.
+     */
+    @NonNull
+    public static DockerEndpointEvents forApi(@NonNull DockerAPI api) {
+        return BY_ENDPOINT.computeIfAbsent(endpointKey(api), DockerEndpointEvents::new);
+    }
+
+    /**
+     * @param api
+     *            The endpoint.
+     * @return What we (and everything that follows our events) key each
+     *         endpoint by.
+     */
+    @NonNull
+    static String endpointKey(@NonNull DockerAPI api) {
+        // different credentials can see different things on some implementations
+        return api.getDockerHost().getUri() + "#" + api.getDockerHost().getCredentialsId();
+    }
+
+    /**
+     * Asks to be told of events. If we're already connected then the listener
+     * is told so straight away.
+     *
+     * @param listener
+     *            What wants to know.
+     */
+    public void addListener(@NonNull Listener listener) {
+        listeners.add(listener);
+        final Subscription sub = subscription;
+        if (sub != null && sub.isConnected()) {
+            listener.connected(sub.connectedAtNanos);
+        }
+    }
+
+    /**
+     * Ensures we are subscribed to events, or are trying to be.
+     *
+     * @param api
+     *            How to talk to our endpoint, should we need to.
+     * @return true if we're connected, so our listeners are being told what's
+     *         happening; false if not (yet).
+     */
+    public boolean ensureSubscribed(@NonNull DockerAPI api) {
+        final long now = System.nanoTime();
+        Subscription sub = subscription;
+        if (sub == null || sub.isFinished()) {
+            if (now - nextSubscribeAttemptNanos < 0L) {
+                return false;
+            }
+            sub = subscribe(api, now);
+            if (sub == null) {
+                return false;
+            }
+        }
+        if (!sub.isConnected()) {
+            if (now - sub.createdAtNanos >= RESUBSCRIBE_DELAY_NANOS) {
+                LOGGER.info("Event stream from {} did not start; will re-subscribe later.", endpoint);
+                stop(sub);
+            }
+            return false; // not yet; we'll know when docker has accepted it
+        }
+        return true;
+    }
+
+    @CheckForNull
+    private Subscription subscribe(DockerAPI api, long now) {
+        lifecycleLock.lock();
+        try {
+            final Subscription existing = subscription;
+            if (existing != null && !existing.isFinished()) {
+                return existing;
+            }
+            if (now - nextSubscribeAttemptNanos < 0L) {
+                return null;
+            }
+            nextSubscribeAttemptNanos = now + RESUBSCRIBE_DELAY_NANOS;
+            // The event stream can be quiet for a long time, so we mustn't have a read timeout.
+            final DockerClient client = api.getClient(0);
+            try {
+                final Subscription sub = new Subscription(client);
+                client.eventsCmd()
+                        .withEventTypeFilter(EventType.CONTAINER, EventType.IMAGE)
+                        .exec(sub);
+                subscription = sub;
+                LOGGER.debug("Subscribed to events from {}", endpoint);
+                return sub;
+            } catch (RuntimeException ex) {
+                LOGGER.info("Unable to subscribe to events from {}; will retry later.", endpoint, ex);
+                closeQuietly(client);
+                return null;
+            }
+        } finally {
+            lifecycleLock.unlock();
+        }
+    }
+
+    /**
+     * Stops following the event stream. We'll start again if anyone calls
+     * {@link #ensureSubscribed(DockerAPI)}.
+     */
+    public void stop() {
+        stop(null);
+    }
+
+    /**
+     * Stops following the event stream.
+     *
+     * @param which
+     *            The subscription to stop, or null for whatever we've got.
+     */
+    private void stop(@CheckForNull Subscription which) {
+        final Subscription sub;
+        lifecycleLock.lock();
+        try {
+            sub = subscription;
+            if (sub == null || (which != null && which != sub)) {
+                return;
+            }
+            subscription = null;
+        } finally {
+            lifecycleLock.unlock();
+        }
+        closeQuietly(sub);
+    }
+
+    /**
+     * Stops following the event streams of endpoints that aren't wanted, and
+     * forgets everything we learned from them.
+     *
+     * @param wanted
+     *            The {@link #endpointKey(DockerAPI)} of each endpoint we
+     *            still want.
+     */
+    static void retainOnly(@NonNull Set<String> wanted) {
+        for (final Map.Entry<String, DockerEndpointEvents> e : BY_ENDPOINT.entrySet()) {
+            if (!wanted.contains(e.getKey()) && BY_ENDPOINT.remove(e.getKey(), e.getValue())) {
+                LOGGER.debug("No longer following events from {}", e.getKey());
+                e.getValue().stop();
+            }
+        }
+        DockerContainerInventory.retainOnly(wanted);
+        DockerImageCache.retainOnly(wanted);
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.debug("Failed to close {}", c, ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DockerEndpointEvents[" + endpoint + ", " + subscription + "]";
+    }
+
+    /**
+     * Stops following endpoints that have been removed from the configuration.
+     */
+    @Extension
+    public static class ConfigurationChangeListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Jenkins) {
+                final Set<String> wanted = new HashSet<>();
+                for (final Cloud cloud : ((Jenkins) o).clouds) {
+                    if (cloud instanceof DockerCloud) {
+                        for (final DockerAPI api : ((DockerCloud) cloud).getDockerApis()) {
+                            wanted.add(endpointKey(api));
+                        }
+                    }
+                }
+                retainOnly(wanted);
+            }
+        }
+    }
+
+    /**
+     * Something that wants to know what's happening on an endpoint.
+     */
+    public interface Listener {
+        /**
+         * Tells us that we're now being told of events.
+         *
+         * @param connectedAtNanos
+         *            The {@link System#nanoTime()} when the stream started.
+         *            Nothing that happened before then will be sent.
+         */
+        void connected(long connectedAtNanos);
+
+        /**
+         * Tells us of an event. This is called on the event stream's thread,
+         * so it must not block.
+         *
+         * @param event
+         *            The event.
+         * @param receivedNanos
+         *            The {@link System#nanoTime()} when we got it.
+         */
+        void received(@NonNull Event event, long receivedNanos);
+
+        /** Tells us that we're no longer being told of events. */
+        void disconnected();
+    }
+
+    /**
+     * Receives events from docker and passes them on. When this finishes (for
+     * whatever reason), our listeners are told they can't trust what they know
+     * until we have re-subscribed.
+     */
+    private class Subscription extends ResultCallback.Adapter<Event> {
+        private final DockerClient client;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private final long createdAtNanos = System.nanoTime();
+        private volatile boolean connected;
+        private volatile boolean finished;
+        private volatile long connectedAtNanos;
+
+        Subscription(DockerClient client) {
+            this.client = client;
+        }
+
+        boolean isConnected() {
+            return connected && !finished;
+        }
+
+        boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public void onStart(Closeable stream) {
+            super.onStart(stream);
+            connectedAtNanos = System.nanoTime();
+            connected = true;
+            for (final Listener listener : listeners) {
+                listener.connected(connectedAtNanos);
+            }
+        }
+
+        @Override
+        public void onNext(Event event) {
+            final long now = System.nanoTime();
+            for (final Listener listener : listeners) {
+                try {
+                    listener.received(event, now);
+                } catch (RuntimeException ex) {
+                    LOGGER.warn("{} failed to handle {} from {}", listener, event, endpoint, ex);
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (!finished) {
+                LOGGER.info("Lost event stream from {}; will re-subscribe later.", endpoint, throwable);
+            }
+            super.onError(throwable);
+        }
+
+        @Override
+        public void close() throws IOException {
+            finished = true;
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            for (final Listener listener : listeners) {
+                listener.disconnected();
+            }
+            try {
+                super.close();
+            } finally {
+                client.close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Subscription[connected=" + connected + ", finished=" + finished + "]";
+        }
+    }
+}
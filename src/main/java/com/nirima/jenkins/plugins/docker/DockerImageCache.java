@@ -0,0 +1,278 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.InspectImageResponse;
+import com.github.dockerjava.api.exception.NotFoundException;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.EventActor;
+import com.github.dockerjava.api.model.EventType;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.jenkins.docker.client.DockerAPI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import net.sf.json.JSONObject;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory cache of what docker told us when we inspected images on a
+ * docker endpoint, so that we don't have to ask again every time we provision
+ * a container from the same image.
+ * <p>
+ * Entries are keyed by the image reference we asked about and remember the
+ * image ID (digest) it resolved to. They are thrown away when we pull an
+ * image ourselves and when the endpoint's {@link DockerEndpointEvents} tell
+ * us an image has been pulled, tagged, untagged or deleted by anyone else. If
+ * we aren't currently connected to the event stream then we can't know what's
+ * changed, so we don't use the cache at all and ask the daemon instead.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public class DockerImageCache implements DockerEndpointEvents.Listener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerImageCache.class);
+
+    /** Can be used to turn this off and go back to inspecting images each time */
+    private static final boolean ENABLED =
+            JenkinsUtils.getSystemPropertyBoolean(DockerImageCache.class.getName() + ".enabled", true);
+
+    private static final ConcurrentHashMap<String, DockerImageCache> BY_ENDPOINT = new ConcurrentHashMap<>();
+
+    private final String endpoint;
+    /** Entries by normalised image reference */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /** Bumped whenever anything is invalidated, so we don't cache an answer that's out of date. */
+    private long generation; // guarded by "this"
+
+    private volatile boolean live;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    DockerImageCache(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Obtains the cache for the endpoint that the given {@link DockerAPI}
+     * talks to, making sure it's listening for image events.
+     *
+     * @param api
+     *            The endpoint.
+     * @return The cache for that endpoint. Never null.
+     */
+    @NonNull
+    public static DockerImageCache forApi(@NonNull DockerAPI api) {
+        final String key = DockerEndpointEvents.endpointKey(api);
+        DockerImageCache cache = BY_ENDPOINT.get(key);
+        if (cache == null) {
+            final DockerImageCache created = new DockerImageCache(key);
+            cache = BY_ENDPOINT.putIfAbsent(key, created);
+            if (cache == null) {
+                cache = created;
+                DockerEndpointEvents.forApi(api).addListener(created);
+            }
+        }
+        if (ENABLED) {
+            DockerEndpointEvents.forApi(api).ensureSubscribed(api);
+        }
+        return cache;
+    }
+
+    /**
+     * Forgets the endpoints that aren't wanted any more.
+     *
+     * @param wanted
+     *            The {@link DockerEndpointEvents#endpointKey(DockerAPI)} of
+     *            each endpoint we still want.
+     */
+    static void retainOnly(@NonNull Set<String> wanted) {
+        BY_ENDPOINT.keySet().retainAll(wanted);
+    }
+
+    /**
+     * Inspects an image, using what we already know if we can.
+     *
+     * @param client
+     *            How to ask docker, should we need to.
+     * @param image
+     *            The image reference.
+     * @return What docker says about the image.
+     * @throws NotFoundException
+     *             if the image isn't on the endpoint.
+     */
+    @NonNull
+    public InspectImageResponse inspect(@NonNull DockerClient client, @NonNull String image) {
+        final String key = normalise(image);
+        final boolean useCache = live;
+        if (useCache) {
+            final Entry cached = entries.get(key);
+            if (cached != null) {
+                hits.increment();
+                return cached.response;
+            }
+        }
+        misses.increment();
+        final long generationBefore = getGeneration();
+        final InspectImageResponse response = client.inspectImageCmd(image).exec();
+        if (useCache) {
+            synchronized (this) {
+                if (live && generation == generationBefore) {
+                    entries.put(key, new Entry(response));
+                }
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Tells us whether we know, without asking docker (or starting to follow
+     * its events), that an endpoint has an image.
+     *
+     * @param api
+     *            The endpoint.
+     * @param image
+     *            The image reference.
+     * @return true if we've inspected the image there and nothing has changed
+     *         since; false if it isn't there or we don't know.
+     */
+    static boolean isKnownPresent(@NonNull DockerAPI api, @NonNull String image) {
+        final DockerImageCache cache = BY_ENDPOINT.get(DockerEndpointEvents.endpointKey(api));
+        return cache != null && cache.live && cache.entries.containsKey(normalise(image));
+    }
+
+    /**
+     * Forgets what we know about an image reference, e.g. because we've just
+     * pulled it.
+     *
+     * @param image
+     *            The image reference.
+     */
+    public synchronized void invalidate(@NonNull String image) {
+        generation++;
+        entries.remove(normalise(image));
+    }
+
+    /** Forgets everything. */
+    synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+    }
+
+    private synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Forgets any image that a docker event says has changed.
+     *
+     * @param event
+     *            The event.
+     */
+    void onEvent(@NonNull Event event) {
+        if (event.getType() != null && event.getType() != EventType.IMAGE) {
+            return;
+        }
+        final EventActor actor = event.getActor();
+        final String id = actor != null && actor.getId() != null ? actor.getId() : event.getId();
+        final Map<String, String> attributes =
+                actor == null || actor.getAttributes() == null ? Collections.emptyMap() : actor.getAttributes();
+        final String name = attributes.get("name");
+        synchronized (this) {
+            generation++;
+            if (id != null) {
+                entries.remove(normalise(id)); // a pull event's ID is the reference
+            }
+            if (name != null) {
+                entries.remove(normalise(name)); // a tag event's name is the new reference
+            }
+            // an untag or delete event's ID is the image ID
+            entries.values().removeIf(e -> id != null && id.equals(e.imageId));
+        }
+    }
+
+    /** @return The number of image references we know about. */
+    public int size() {
+        return entries.size();
+    }
+
+    /** @return A JSON representation of our state. */
+    public JSONObject toJSON() {
+        final JSONObject result = new JSONObject();
+        result.put("live", live);
+        result.put("images", size());
+        result.put("hits", hits.sum());
+        result.put("misses", misses.sum());
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "DockerImageCache[" + endpoint + ", " + toJSON() + "]";
+    }
+
+    /**
+     * Docker accepts image references with or without the default registry
+     * and "library/" prefix, and without a tag, so we treat those as the same.
+     */
+    @NonNull
+    static String normalise(@NonNull String image) {
+        String result = image;
+        if (result.startsWith("docker.io/")) {
+            result = result.substring("docker.io/".length());
+        }
+        if (result.startsWith("library/")) {
+            result = result.substring("library/".length());
+        }
+        final int lastSlash = result.lastIndexOf('/');
+        if (!result.startsWith("sha256:") && !result.contains("@") && result.indexOf(':', lastSlash + 1) < 0) {
+            result = result + ":latest";
+        }
+        return result;
+    }
+
+    /** Tells us we're now being told of image changes, so the cache can be trusted. */
+    @Override
+    public void connected(long connectedAtNanos) {
+        synchronized (this) {
+            // we weren't told of anything that happened before now
+            generation++;
+            entries.clear();
+            live = true;
+        }
+        LOGGER.debug("Following image events from {}", endpoint);
+    }
+
+    @Override
+    public void received(@NonNull Event event, long receivedNanos) {
+        onEvent(event);
+    }
+
+    /** Tells us we're no longer being told of image changes, so the cache can't be trusted. */
+    @Override
+    public void disconnected() {
+        synchronized (this) {
+            live = false;
+            generation++;
+            entries.clear();
+        }
+    }
+
+    /** What docker told us about one image reference. */
+    private static final class Entry {
+        final InspectImageResponse response;
+
+        @CheckForNull
+        final String imageId;
+
+        Entry(InspectImageResponse response) {
+            this.response = response;
+            this.imageId = response.getId();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import io.jenkins.docker.client.DockerAPI;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodic job which pulls the image of every enabled template onto each of
+ * its cloud's docker endpoints, so that provisioning doesn't have to wait for
+ * a pull. Each image is pulled if its template's
+ * {@link DockerImagePullStrategy} says so, so this fetches images that aren't
+ * there yet, refreshes {@link DockerImagePullStrategy#PULL_IF_CHANGED} images
+ * that the registry has a different version of, and refreshes
+ * {@link DockerImagePullStrategy#PULL_ALWAYS} and
+ * {@link DockerImagePullStrategy#PULL_LATEST} {@code :latest} images every
+ * time we run, but leaves {@link DockerImagePullStrategy#PULL_NEVER} ones
+ * alone.
+ * <p>
+ * We remember which images we've pulled successfully, so that provisioning
+ * needn't pull a {@link DockerImagePullStrategy#PULL_ALWAYS} or
+ * {@link DockerImagePullStrategy#PULL_LATEST} image again if we've pulled it
+ * within the last {@link #getRecurrencePeriod()}; see
+ * {@link #wasRecentlyPrePulled(DockerAPI, String)}.
+ * </p>
+ * <p>
+ * Only a few images are pulled from any one endpoint at once, and pulls share
+ * the {@link io.jenkins.docker.client.DockerPullCoordinator} with
+ * provisioning, so if an agent wants an image that's being pre-pulled, it
+ * waits for that pull instead of starting its own.
+ * </p>
+ */
+@Extension
+public class DockerImagePrePuller extends AsyncPeriodicWork {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerImagePrePuller.class);
+
+    /**
+     * The recurrence period how often this task shall be run.
+     * <p>
+     * NB: This is read once as getRecurrencePeriod() is required to return a
+     * constant.
+     */
+    private static final long RECURRENCE_PERIOD_IN_MS = JenkinsUtils.getSystemPropertyLong(
+                    DockerImagePrePuller.class.getName() + ".recurrenceInSeconds", 10L * 60L)
+            * 1000L;
+
+    /** How many images we'll pull from one docker endpoint at once. */
+    private static final int MAX_CONCURRENT_PULLS_PER_HOST = (int) Math.max(
+            1L,
+            JenkinsUtils.getSystemPropertyLong(
+                    DockerImagePrePuller.class.getName() + ".maxConcurrentPullsPerHost", 2L));
+
+    /**
+     * When we last finished pulling each image, as {@link System#nanoTime()},
+     * keyed by {@link #prePullKey(String, String)}.
+     */
+    private static final Map<String, Long> PRE_PULLED_NANOS = new ConcurrentHashMap<>();
+
+    public DockerImagePrePuller() {
+        super(String.format("%s Asynchronous Periodic Work", DockerImagePrePuller.class.getSimpleName()));
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD_IN_MS;
+    }
+
+    /*
+     * Methods used for decoupling on unit testing
+     */
+
+    protected List<DockerCloud> getAllClouds() {
+        return DockerCloud.instances();
+    }
+
+    protected List<DockerAPI> getDockerApis(DockerCloud cloud) {
+        return cloud.getDockerApis();
+    }
+
+    protected boolean isEnabled() {
+        return JenkinsUtils.getSystemPropertyBoolean(DockerImagePrePuller.class.getName() + ".enabled", true);
+    }
+
+    protected int getMaxConcurrentPullsPerHost() {
+        return MAX_CONCURRENT_PULLS_PER_HOST;
+    }
+
+    protected boolean shouldPrePullImage(DockerAPI api, DockerTemplate template) throws IOException {
+        return template.shouldPrePullImage(api);
+    }
+
+    protected Closeable pullImage(
+            DockerAPI api, DockerTemplate template, TaskListener listener, CompletableFuture<Void> whenPulled) {
+        return template.pullImage(api, listener, whenPulled);
+    }
+
+    /**
+     * Indicates whether we've successfully pulled an image onto a docker
+     * endpoint within the last {@link #getRecurrencePeriod()}, i.e. it's as
+     * fresh as we keep it.
+     *
+     * @param api
+     *            The docker endpoint.
+     * @param image
+     *            The image.
+     * @return true if we pulled it recently.
+     */
+    static boolean wasRecentlyPrePulled(DockerAPI api, String image) {
+        final Long prePulledNanos = PRE_PULLED_NANOS.get(prePullKey(api.getDockerHost().getUri(), image));
+        return prePulledNanos != null && !isStale(prePulledNanos, System.nanoTime());
+    }
+
+    /**
+     * Records that we've successfully pulled an image onto a docker endpoint.
+     *
+     * @param dockerUri
+     *            The docker endpoint's URI.
+     * @param image
+     *            The image.
+     */
+    static void prePulled(String dockerUri, String image) {
+        PRE_PULLED_NANOS.put(prePullKey(dockerUri, image), System.nanoTime());
+    }
+
+    private static boolean isStale(long prePulledNanos, long nowNanos) {
+        return nowNanos - prePulledNanos >= TimeUnit.MILLISECONDS.toNanos(RECURRENCE_PERIOD_IN_MS);
+    }
+
+    private static String prePullKey(String dockerUri, String image) {
+        return dockerUri + " " + image;
+    }
+
+    /*
+     * Implementation of business logic
+     */
+
+    @Override
+    protected void execute(TaskListener listener) throws InterruptedException {
+        if (!isEnabled()) {
+            LOGGER.debug("Docker image pre-puller is disabled based on system configuration");
+            return;
+        }
+        final long nowNanos = System.nanoTime();
+        PRE_PULLED_NANOS.values().removeIf(prePulledNanos -> isStale(prePulledNanos, nowNanos));
+        final Map<String, Map<String, PrePull>> wantedByHost = findImagesToPrePull();
+        final List<CompletableFuture<Void>> hosts = new ArrayList<>();
+        for (final Map<String, PrePull> wanted : wantedByHost.values()) {
+            hosts.add(new HostPrePulls(wanted.values(), listener).start());
+        }
+        if (hosts.isEmpty()) {
+            return;
+        }
+        // Don't overlap with our next run; any pulls still going then will be shared with it.
+        final long timeoutMillis = RECURRENCE_PERIOD_IN_MS * 4 / 5;
+        try {
+            CompletableFuture.allOf(hosts.toArray(new CompletableFuture[0]))
+                    .get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            // already logged by whichever pull failed
+        } catch (TimeoutException ex) {
+            LOGGER.info("Image pre-pulls still running after {} ms; leaving them to finish.", timeoutMillis);
+        }
+    }
+
+    /**
+     * Works out what we need to pull, once per image per endpoint, however
+     * many clouds and templates share them.
+     *
+     * @return What to pull, keyed by docker endpoint URI and then by image.
+     */
+    Map<String, Map<String, PrePull>> findImagesToPrePull() {
+        final Map<String, Map<String, PrePull>> result = new LinkedHashMap<>();
+        for (final DockerCloud cloud : getAllClouds()) {
+            if (cloud.getDisabled().isDisabled()) {
+                continue;
+            }
+            for (final DockerTemplate template : cloud.getTemplates()) {
+                if (template.getDisabled().isDisabled()
+                        || template.getPullStrategy() == DockerImagePullStrategy.PULL_NEVER) {
+                    continue;
+                }
+                final String image = template.getFullImageId();
+                for (final DockerAPI api : getDockerApis(cloud)) {
+                    if (!api.getCircuitBreaker().isCallPermitted()) {
+                        continue; // it's got enough problems already
+                    }
+                    result.computeIfAbsent(api.getDockerHost().getUri(), k -> new LinkedHashMap<>())
+                            .putIfAbsent(image, new PrePull(api, template, image));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** One image we want on one endpoint. */
+    static final class PrePull {
+        final DockerAPI api;
+        final DockerTemplate template;
+        final String image;
+
+        PrePull(DockerAPI api, DockerTemplate template, String image) {
+            this.api = api;
+            this.template = template;
+            this.image = image;
+        }
+    }
+
+    /** The pre-pulls for one endpoint, no more than a few of which run at once. */
+    private final class HostPrePulls {
+        private final ArrayDeque<PrePull> waiting;
+        private final TaskListener listener;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private int running; // guarded by "this"
+
+        HostPrePulls(Iterable<PrePull> prePulls, TaskListener listener) {
+            this.waiting = new ArrayDeque<>();
+            prePulls.forEach(waiting::add);
+            this.listener = listener;
+        }
+
+        CompletableFuture<Void> start() {
+            for (int i = 0; i < getMaxConcurrentPullsPerHost(); i++) {
+                startNext();
+            }
+            return done;
+        }
+
+        private void startNext() {
+            while (true) {
+                final PrePull next;
+                synchronized (this) {
+                    next = waiting.poll();
+                    if (next == null) {
+                        if (running == 0) {
+                            done.complete(null);
+                        }
+                        return;
+                    }
+                    running++;
+                }
+                if (startPull(next)) {
+                    return; // we'll start another when it's finished
+                }
+                synchronized (this) {
+                    running--;
+                }
+            }
+        }
+
+        /** @return true if a pull is now in progress. */
+        private boolean startPull(PrePull prePull) {
+            final String uri = prePull.api.getDockerHost().getUri();
+            try {
+                if (!shouldPrePullImage(prePull.api, prePull.template)) {
+                    return false;
+                }
+                LOGGER.info("Pre-pulling image '{}' on {}", prePull.image, uri);
+                final CompletableFuture<Void> pulled = new CompletableFuture<>();
+                pulled.whenComplete((v, ex) -> {
+                    if (ex == null) {
+                        prePulled(uri, prePull.image);
+                    } else {
+                        LOGGER.warn("Unable to pre-pull image '{}' on {}", prePull.image, uri, ex);
+                    }
+                    synchronized (this) {
+                        running--;
+                    }
+                    startNext();
+                });
+                try {
+                    pullImage(prePull.api, prePull.template, listener, pulled);
+                } catch (RuntimeException ex) {
+                    pulled.completeExceptionally(ex);
+                }
+                return true;
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.warn("Unable to pre-pull image '{}' on {}", prePull.image, uri, ex);
+                return false;
+            }
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package com.nirima.jenkins.plugins.docker;
 
 import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.InspectImageResponse;
 import com.github.dockerjava.api.exception.NotFoundException;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * @author Kanstantsin Shautsou
@@ -29,6 +33,36 @@ public enum DockerImagePullStrategy {
             return imageName.endsWith(":latest");
         }
     },
+    PULL_IF_CHANGED("Pull if the registry has a different image") {
+        @Override
+        public boolean pullIfNotExists(String imageName) {
+            return true;
+        }
+
+        @Override
+        public boolean pullIfExists(String imageName) {
+            return true; // if it's changed; we have to ask the registry
+        }
+
+        @Override
+        public boolean shouldPullImage(
+                String image,
+                Supplier<InspectImageResponse> inspector,
+                @CheckForNull Supplier<String> registryDigest) {
+            final InspectImageResponse local;
+            try {
+                local = inspector.get();
+            } catch (NotFoundException handledByCode) {
+                return true;
+            }
+            final String remote = registryDigest == null ? null : registryDigest.get();
+            if (remote == null) {
+                return true; // we can't tell, so play safe
+            }
+            final List<String> repoDigests = local.getRepoDigests();
+            return repoDigests == null || repoDigests.stream().noneMatch(d -> d.endsWith("@" + remote));
+        }
+    },
     PULL_NEVER("Never pull") {
         @Override
         public boolean pullIfNotExists(String imageName) {
@@ -57,6 +91,55 @@ public enum DockerImagePullStrategy {
     public abstract boolean pullIfExists(String imageName);
 
     public boolean shouldPullImage(DockerClient client, String image) {
+        return shouldPullImage(client, image, null);
+    }
+
+    public boolean shouldPullImage(DockerClient client, String image, @CheckForNull DockerImageCache cache) {
+        return shouldPullImage(client, image, cache, null);
+    }
+
+    /**
+     * Decides whether or not we should pull an image.
+     *
+     * @param client
+     *            How to ask docker whether or not we have the image already.
+     * @param image
+     *            The image.
+     * @param cache
+     *            What we already know about the endpoint's images, or null to
+     *            ask docker.
+     * @param registryDigest
+     *            Asks the registry for the image's current digest, returning
+     *            null if it can't be found out. Only used by
+     *            {@link #PULL_IF_CHANGED}.
+     * @return true if we should pull the image.
+     */
+    public boolean shouldPullImage(
+            DockerClient client,
+            String image,
+            @CheckForNull DockerImageCache cache,
+            @CheckForNull Supplier<String> registryDigest) {
+        return shouldPullImage(image, () -> inspect(client, image, cache), registryDigest);
+    }
+
+    /**
+     * Decides whether or not we should pull an image, given a way to find out
+     * about the image we already have.
+     *
+     * @param image
+     *            The image.
+     * @param inspector
+     *            Asks docker about the image we already have, throwing
+     *            {@link NotFoundException} if we haven't got it. This is only
+     *            called if we need to know.
+     * @param registryDigest
+     *            Asks the registry for the image's current digest, returning
+     *            null if it can't be found out. Only used by
+     *            {@link #PULL_IF_CHANGED}.
+     * @return true if we should pull the image.
+     */
+    public boolean shouldPullImage(
+            String image, Supplier<InspectImageResponse> inspector, @CheckForNull Supplier<String> registryDigest) {
         // simply check without asking docker
         if (pullIfExists(image) && pullIfNotExists(image)) {
             return true;
@@ -68,7 +151,7 @@ public enum DockerImagePullStrategy {
 
         boolean imageExists;
         try {
-            client.inspectImageCmd(image).exec();
+            inspector.get();
             imageExists = true;
         } catch (NotFoundException handledByCode) {
             imageExists = false;
@@ -76,4 +159,9 @@ public enum DockerImagePullStrategy {
 
         return imageExists ? pullIfExists(image) : pullIfNotExists(image);
     }
+
+    private static InspectImageResponse inspect(
+            DockerClient client, String image, @CheckForNull DockerImageCache cache) {
+        return cache == null ? client.inspectImageCmd(image).exec() : cache.inspect(client, image);
+    }
 }
@@ -6,12 +6,21 @@ import hudson.Extension;
 import hudson.model.Describable;
 import hudson.model.Descriptor;
 import io.jenkins.docker.client.DockerAPI;
+import io.jenkins.docker.client.DockerCommandMetrics;
+import io.jenkins.docker.client.DockerConnectionStatistics;
+import io.jenkins.docker.client.DockerProvisioningThrottle;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest2;
 import org.kohsuke.stapler.StaplerResponse2;
@@ -62,6 +71,89 @@ public class DockerManagementServer implements Describable<DockerManagementServe
         }
     }
 
+    public DockerConnectionStatistics getConnectionStatistics() {
+        return theCloud.getDockerApi().getConnectionStatistics();
+    }
+
+    public DockerCommandMetrics getCommandMetrics() {
+        return theCloud.getDockerApi().getCommandMetrics();
+    }
+
+    public DockerProvisioningThrottle getProvisioningThrottle() {
+        return theCloud.getDockerApi().getProvisioningThrottle();
+    }
+
+    /**
+     * @return How long provisioning has taken for each of this cloud's
+     *         templates that has been provisioned from recently, keyed by
+     *         template name and image.
+     */
+    public Map<String, DockerProvisioningTimings> getProvisioningTimings() {
+        final Map<String, DockerProvisioningTimings> result = new LinkedHashMap<>();
+        for (final DockerTemplate t : theCloud.getTemplates()) {
+            final DockerProvisioningTimings timings = DockerProvisioningTimings.peek(t);
+            if (timings != null) {
+                result.put(t.getName() + " (" + t.getImage() + ")", timings);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reports {@link #getProvisioningTimings()} as JSON.
+     *
+     * @return How long each part of provisioning has taken, per template.
+     */
+    @SuppressWarnings("unused")
+    public HttpResponse doProvisioningTimes() {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        final JSONArray templates = new JSONArray();
+        for (final DockerTemplate t : theCloud.getTemplates()) {
+            final DockerProvisioningTimings timings = DockerProvisioningTimings.peek(t);
+            if (timings != null) {
+                final JSONObject template = new JSONObject();
+                template.put("name", t.getName());
+                template.put("image", t.getImage());
+                template.put("templateId", t.getTemplateId());
+                template.put("phases", timings.toJSON());
+                templates.add(template);
+            }
+        }
+        final JSONObject result = new JSONObject();
+        result.put("cloud", name);
+        result.put("templates", templates);
+        return HttpResponses.okJSON(result);
+    }
+
+    /**
+     * Reports {@link #getCommandMetrics()} as JSON.
+     *
+     * @return The metrics for this cloud's docker endpoint, plus the state of
+     *         connection usage, provisioning throttle, image pulls, image cache
+     *         and circuit breaker.
+     */
+    @SuppressWarnings("unused")
+    public HttpResponse doMetrics() {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        final DockerAPI dockerApi = theCloud.getDockerApi();
+        final DockerConnectionStatistics stats = dockerApi.getConnectionStatistics();
+        final JSONObject connections = new JSONObject();
+        connections.put("clients", stats.getClients());
+        connections.put("inUse", stats.getInUse());
+        connections.put("waiting", stats.getWaiting());
+        connections.put("available", stats.getAvailable());
+        connections.put("max", stats.getMax());
+        connections.put("failures", stats.getFailures());
+        final JSONObject result = dockerApi.getCommandMetrics().toJSON();
+        result.put("cloud", name);
+        result.put("connections", connections);
+        result.put("provisioning", dockerApi.getProvisioningThrottle().toJSON());
+        result.put("pulls", dockerApi.getPullCoordinator().toJSON());
+        result.put("images", DockerImageCache.forApi(dockerApi).toJSON());
+        result.put("health", dockerApi.getCircuitBreaker().getState().name());
+        return HttpResponses.okJSON(result);
+    }
+
     public String asTime(Long time) {
         if (time == null) {
             return "";
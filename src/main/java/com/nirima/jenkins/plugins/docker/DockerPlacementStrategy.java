@@ -0,0 +1,104 @@
+package com.nirima.jenkins.plugins.docker;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.jenkins.docker.client.DockerAPI;
+import io.jenkins.docker.client.DockerEndpointCapabilities;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How a {@link DockerCloud} with more than one docker endpoint decides which
+ * one a new container should go on. Only endpoints that are
+ * {@link DockerAPI#isAvailable()} are ever considered.
+ * <p>
+ * Placement happens on the provisioning thread, so strategies only use what
+ * we already know about each endpoint and never wait to ask docker.
+ * </p>
+ */
+public enum DockerPlacementStrategy {
+    LEAST_CONTAINERS("Fewest containers") {
+        @Override
+        long score(DockerAPI api, String image) {
+            return load(api);
+        }
+    },
+    MOST_MEMORY("Most memory per container") {
+        @Override
+        long score(DockerAPI api, String image) {
+            // docker info tells us the total, not what's free, so share it out
+            final DockerEndpointCapabilities capabilities = api.getCapabilitiesIfKnown();
+            final Long memTotal = capabilities == null ? null : capabilities.getMemTotal();
+            final long memory = memTotal == null ? 0L : memTotal;
+            return -(memory / (load(api) + 1L));
+        }
+    },
+    IMAGE_PRESENT("Image already present, then fewest containers") {
+        @Override
+        long score(DockerAPI api, String image) {
+            final long penalty = image == null || DockerImageCache.isKnownPresent(api, image) ? 0L : Integer.MAX_VALUE;
+            return penalty + load(api);
+        }
+    },
+    ROUND_ROBIN("Round robin") {
+        @Override
+        long score(DockerAPI api, String image) {
+            return 0L;
+        }
+
+        @Override
+        public DockerAPI choose(
+                @NonNull List<DockerAPI> endpoints, @CheckForNull String image, @NonNull AtomicInteger counter) {
+            return endpoints.get(Math.floorMod(counter.getAndIncrement(), endpoints.size()));
+        }
+    };
+
+    private final String description;
+
+    DockerPlacementStrategy(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Rates an endpoint as a home for a new container.
+     *
+     * @return The endpoint's score; lowest wins.
+     */
+    abstract long score(DockerAPI api, String image);
+
+    /**
+     * Chooses the endpoint a new container should go on.
+     *
+     * @param endpoints
+     *            The endpoints to choose from, in order of preference when
+     *            there's nothing to choose between them. Must not be empty.
+     * @param image
+     *            The image the container will be made from, if known.
+     * @param counter
+     *            Somewhere to keep track of the last choice made.
+     * @return The chosen endpoint.
+     */
+    public DockerAPI choose(
+            @NonNull List<DockerAPI> endpoints, @CheckForNull String image, @NonNull AtomicInteger counter) {
+        DockerAPI best = null;
+        long bestScore = Long.MAX_VALUE;
+        for (final DockerAPI api : endpoints) {
+            final long score = score(api, image);
+            if (best == null || score < bestScore) {
+                best = api;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /** How busy an endpoint is: our containers on it, plus any we're starting. */
+    static long load(DockerAPI api) {
+        final DockerContainerInventory inventory = DockerContainerInventory.forApi(api);
+        return (long) inventory.countActive() + inventory.getPlacementsInProgress();
+    }
+}
@@ -0,0 +1,281 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.CreateContainerCmd;
+import com.github.dockerjava.api.command.InspectImageResponse;
+import com.github.dockerjava.api.exception.NotFoundException;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.TaskListener;
+import io.jenkins.docker.DockerTaskExecutor;
+import io.jenkins.docker.DockerTransientNode;
+import io.jenkins.docker.client.DockerAPI;
+import io.jenkins.docker.connector.DockerComputerConnector;
+import java.io.Closeable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provisions a {@link DockerTransientNode} from a {@link DockerTemplate} as a
+ * series of {@link Stage}s, each of which is run as a separate task once the
+ * previous one has completed.
+ * <p>
+ * This means that a large number of provisioning attempts can be in progress
+ * at once: a thread is only used while a stage is actually talking to the
+ * docker daemon, the (potentially very long) image pull doesn't hold one of
+ * our {@link DockerTaskExecutor} threads (docker-java reads its progress on a
+ * thread of its own), and the number of stages talking to any one docker
+ * endpoint at once is limited by {@link DockerTaskExecutor#forEndpoint(String)}.
+ * It also means that a provisioning attempt can be cancelled part-way through;
+ * the current stage is allowed to finish but no further stages are started and
+ * any container we'd created is removed.
+ * </p>
+ */
+final class DockerProvisioningPipeline {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerProvisioningPipeline.class);
+
+    /** The stages of provisioning, in the order they happen. */
+    enum Stage {
+        PULL,
+        INSPECT,
+        CREATE,
+        BEFORE_START,
+        START,
+        AFTER_START,
+        LAUNCHER
+    }
+
+    @FunctionalInterface
+    interface StageBody {
+        void run() throws Exception;
+    }
+
+    private final DockerTemplate template;
+    private final DockerAPI api;
+    private final TaskListener listener;
+    private final Executor executor;
+    private final DockerProvisioningTimings timings;
+    private final CompletableFuture<DockerTransientNode> result = new CompletableFuture<>();
+
+    // These are written by one stage and read by later ones. Stages never run
+    // concurrently but can run on different threads.
+    private volatile Stage currentStage;
+    private volatile String effectiveRemoteFsDir;
+    private volatile String nodeName;
+    private volatile String containerId;
+    private volatile DockerTransientNode node;
+
+    /** What docker said about our image when deciding whether to pull it, if we didn't then pull it. */
+    @CheckForNull
+    private volatile InspectImageResponse inspectedBeforePull;
+
+    @CheckForNull
+    private volatile Closeable pullInProgress;
+
+    DockerProvisioningPipeline(
+            @NonNull DockerTemplate template,
+            @NonNull DockerAPI api,
+            @NonNull TaskListener listener,
+            @NonNull Executor executor) {
+        this.template = template;
+        this.api = api;
+        this.listener = listener;
+        this.executor = executor;
+        this.timings = DockerProvisioningTimings.forTemplate(template);
+    }
+
+    /**
+     * Starts provisioning a node.
+     *
+     * @param template
+     *            The template to provision from.
+     * @param api
+     *            The docker endpoint to provision on.
+     * @param listener
+     *            Where to log progress.
+     * @return A future that will complete with the new node once it's ready to
+     *         be added to Jenkins. Cancelling it will abort provisioning.
+     */
+    @NonNull
+    static CompletableFuture<DockerTransientNode> start(
+            @NonNull DockerTemplate template, @NonNull DockerAPI api, @NonNull TaskListener listener) {
+        final Executor executor = DockerTaskExecutor.forEndpoint(api.getDockerHost().getUri());
+        return new DockerProvisioningPipeline(template, api, listener, executor).run();
+    }
+
+    @NonNull
+    CompletableFuture<DockerTransientNode> run() {
+        final CompletableFuture<Void> pulled = pull();
+        // If we're cancelled mid-pull, stop pulling.
+        result.whenComplete((n, ex) -> {
+            if (result.isCancelled()) {
+                closeQuietly(pullInProgress);
+                pulled.cancel(false);
+            }
+        });
+        CompletableFuture<Void> f = pulled;
+        f = then(f, Stage.INSPECT, this::inspect);
+        f = then(f, Stage.CREATE, this::create);
+        f = then(f, Stage.BEFORE_START, this::beforeStart);
+        f = then(f, Stage.START, this::startContainer);
+        f = then(f, Stage.AFTER_START, this::afterStart);
+        f = then(f, Stage.LAUNCHER, this::createLauncher);
+        f.whenComplete((v, ex) -> finish(ex));
+        return result;
+    }
+
+    /** @return The stage we're on (or last ran). */
+    @CheckForNull
+    Stage getCurrentStage() {
+        return currentStage;
+    }
+
+    private CompletableFuture<Void> pull() {
+        final CompletableFuture<Void> pulled = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                enterStage(Stage.PULL);
+                final long startNanos = System.nanoTime();
+                pulled.thenRun(() -> stageFinished(Stage.PULL, System.nanoTime() - startNanos));
+                if (template.shouldPullImage(api, response -> inspectedBeforePull = response)) {
+                    inspectedBeforePull = null; // we're about to replace it
+                    pullInProgress = template.pullImage(api, listener, pulled);
+                } else {
+                    pulled.complete(null);
+                }
+            } catch (Throwable ex) {
+                pulled.completeExceptionally(ex);
+            }
+        });
+        return pulled;
+    }
+
+    private CompletableFuture<Void> then(CompletableFuture<Void> previous, Stage stage, StageBody body) {
+        return previous.thenRunAsync(
+                () -> {
+                    enterStage(stage);
+                    final long startNanos = System.nanoTime();
+                    try {
+                        body.run();
+                        stageFinished(stage, System.nanoTime() - startNanos);
+                    } catch (RuntimeException ex) {
+                        throw ex;
+                    } catch (Exception ex) {
+                        throw new CompletionException(ex);
+                    }
+                },
+                executor);
+    }
+
+    private void enterStage(Stage stage) {
+        if (result.isDone()) {
+            throw new CancellationException("Provisioning from " + template.getShortDescription() + " was cancelled");
+        }
+        currentStage = stage;
+        LOGGER.debug("Provisioning from {}: {}", template.getShortDescription(), stage);
+        listener.getLogger().println("Provisioning from " + template.getShortDescription() + ": " + stage);
+    }
+
+    private void stageFinished(Stage stage, long durationNanos) {
+        timings.recordStage(stage, durationNanos);
+        listener.getLogger()
+                .println("Provisioning from " + template.getShortDescription() + ": " + stage + " took "
+                        + TimeUnit.NANOSECONDS.toMillis(durationNanos) + " ms");
+    }
+
+    private void inspect() throws Exception {
+        final InspectImageResponse known = inspectedBeforePull;
+        final InspectImageResponse image = known != null ? known : template.inspectImage(api);
+        effectiveRemoteFsDir = template.getEffectiveRemoteFs(image);
+    }
+
+    private void create() throws Exception {
+        final String ourImage = template.getImage(); // can't be null
+        LOGGER.info("Trying to run container for image \"{}\"", ourImage);
+        try (final DockerClient client = api.getClient()) {
+            final CreateContainerCmd cmd = client.createContainerCmd(ourImage);
+            template.fillContainerConfig(cmd);
+            template.getConnector().beforeContainerCreated(api, effectiveRemoteFsDir, cmd);
+            nodeName = DockerTemplate.getNodeNameFromContainerConfig(cmd);
+            LOGGER.info("Trying to run container for node {} from image: {}", nodeName, ourImage);
+            containerId = cmd.exec().getId();
+            // if we get this far, we have created the container so,
+            // if we fail to return the node, we need to ensure it's cleaned up.
+            LOGGER.info("Started container ID {} for node {} from image: {}", containerId, nodeName, ourImage);
+        }
+    }
+
+    private void beforeStart() throws Exception {
+        node = template.makeNode(api, nodeName, containerId, effectiveRemoteFsDir);
+        template.getConnector().beforeContainerStarted(api, effectiveRemoteFsDir, node);
+    }
+
+    private void startContainer() throws Exception {
+        try (final DockerClient client = api.getClient()) {
+            client.startContainerCmd(containerId).exec();
+        }
+    }
+
+    private void afterStart() throws Exception {
+        template.getConnector().afterContainerStarted(api, effectiveRemoteFsDir, node);
+    }
+
+    private void createLauncher() throws Exception {
+        final DockerComputerConnector ourConnector = template.getConnector();
+        node.setLauncher(ourConnector.createLauncher(api, containerId, effectiveRemoteFsDir, listener));
+    }
+
+    private void finish(@CheckForNull Throwable failure) {
+        final boolean succeeded;
+        if (failure == null) {
+            succeeded = result.complete(node);
+        } else {
+            final Throwable cause = unwrap(failure);
+            if (!(cause instanceof CancellationException)) {
+                LOGGER.debug("Provisioning from {} failed at {}", template.getShortDescription(), currentStage, cause);
+                listener.error("Provisioning from " + template.getShortDescription() + " failed at " + currentStage
+                        + ": " + cause);
+            }
+            result.completeExceptionally(cause);
+            succeeded = false;
+        }
+        // if something went wrong (or we were cancelled), cleanup aborted container
+        if (!succeeded && containerId != null) {
+            removeContainer(containerId);
+        }
+    }
+
+    private void removeContainer(String id) {
+        try (final DockerClient client = api.getClient()) {
+            client.removeContainerCmd(id).withForce(true).exec();
+        } catch (NotFoundException handledByCode) {
+            LOGGER.info("Unable to remove container '" + id + "' as it had already gone.");
+        } catch (Throwable ex) {
+            LOGGER.error("Unable to remove container '" + id + "' due to exception:", ex);
+        }
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        Throwable result = ex;
+        while (result instanceof CompletionException && result.getCause() != null) {
+            result = result.getCause();
+        }
+        return result;
+    }
+
+    private static void closeQuietly(@CheckForNull Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (Exception ex) {
+            LOGGER.debug("Failed to abort image pull", ex);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.nirima.jenkins.plugins.docker.DockerProvisioningPipeline.Stage;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import io.jenkins.docker.DockerComputer;
+import io.jenkins.docker.DockerTransientNode;
+import io.jenkins.docker.client.LatencyHistogram;
+import io.jenkins.docker.client.RollingLatencyHistogram;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import net.sf.json.JSONObject;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * How long provisioning from each {@link DockerTemplate} has taken, both
+ * overall and for each part of the process, so we can see where the time
+ * goes: waiting our turn, pulling the image, the docker daemon or the agent
+ * connecting.
+ * <p>
+ * These are kept in memory, keyed by {@link DockerTemplate#getTemplateId()},
+ * so they're lost on restart and are shared by every cloud that has the
+ * template. Only the last hour or so is remembered, and only attempts that
+ * succeeded (or parts of attempts that succeeded) are counted.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class DockerProvisioningTimings {
+    private static final ConcurrentHashMap<String, DockerProvisioningTimings> BY_TEMPLATE_ID =
+            new ConcurrentHashMap<>();
+
+    /** How long we remember timings for. */
+    private static final long WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(JenkinsUtils.getSystemPropertyLong(
+            DockerProvisioningTimings.class.getName() + ".windowMinutes", 60L));
+
+    private final RollingLatencyHistogram queueWait = new RollingLatencyHistogram(WINDOW_MILLIS);
+    private final Map<Stage, RollingLatencyHistogram> stages = new EnumMap<>(Stage.class);
+    private final RollingLatencyHistogram firstOnline = new RollingLatencyHistogram(WINDOW_MILLIS);
+    private final RollingLatencyHistogram total = new RollingLatencyHistogram(WINDOW_MILLIS);
+
+    private DockerProvisioningTimings() {
+        for (final Stage stage : Stage.values()) {
+            stages.put(stage, new RollingLatencyHistogram(WINDOW_MILLIS));
+        }
+    }
+
+    /** @return The timings for the given template, created if need be. */
+    @NonNull
+    static DockerProvisioningTimings forTemplate(@NonNull DockerTemplate template) {
+        return forTemplateId(template.getTemplateId());
+    }
+
+    @NonNull
+    private static DockerProvisioningTimings forTemplateId(@NonNull String templateId) {
+        return BY_TEMPLATE_ID.computeIfAbsent(templateId, k -> new DockerProvisioningTimings());
+    }
+
+    /** @return The timings for the given template, or null if it's not been provisioned from. */
+    @CheckForNull
+    static DockerProvisioningTimings peek(@NonNull DockerTemplate template) {
+        return BY_TEMPLATE_ID.get(template.getTemplateId());
+    }
+
+    /** Discards the timings for a template that's gone. */
+    static void forget(@NonNull DockerTemplate template) {
+        BY_TEMPLATE_ID.remove(template.getTemplateId());
+    }
+
+    /** Records how long we waited for our turn to provision. */
+    void recordQueueWait(long nanos) {
+        queueWait.record(nanos);
+    }
+
+    /** Records how long one stage of a {@link DockerProvisioningPipeline} took. */
+    void recordStage(@NonNull Stage stage, long nanos) {
+        stages.get(stage).record(nanos);
+    }
+
+    /** Records how long it took from asking to provision (including the queue wait) to having a node. */
+    void recordTotal(long nanos) {
+        total.record(nanos);
+    }
+
+    /** Records how long it took from starting provisioning to the agent being online. */
+    void recordFirstOnline(long nanos) {
+        firstOnline.record(nanos);
+    }
+
+    /**
+     * @return How long successful provisioning has taken, from asking to
+     *         provision (including waiting our turn) to having a node.
+     */
+    @NonNull
+    public LatencyHistogram getTotal() {
+        return total.snapshot();
+    }
+
+    /**
+     * @return How long each part of provisioning has taken, in the order they
+     *         happen, followed by the total.
+     */
+    @NonNull
+    public Map<String, LatencyHistogram> getPhases() {
+        final Map<String, LatencyHistogram> result = new LinkedHashMap<>();
+        result.put("queue", queueWait.snapshot());
+        for (final Map.Entry<Stage, RollingLatencyHistogram> e : stages.entrySet()) {
+            result.put(e.getKey().name().toLowerCase(Locale.ROOT), e.getValue().snapshot());
+        }
+        result.put("online", firstOnline.snapshot());
+        result.put("total", total.snapshot());
+        return result;
+    }
+
+    /** @return A JSON representation of {@link #getPhases()}. */
+    public JSONObject toJSON() {
+        final JSONObject result = new JSONObject();
+        for (final Map.Entry<String, LatencyHistogram> e : getPhases().entrySet()) {
+            result.put(e.getKey(), e.getValue().toJSON());
+        }
+        return result;
+    }
+
+    /** Times how long it takes for the agents we provision to come online for the first time. */
+    @Extension
+    public static class FirstOnlineListener extends ComputerListener {
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            if (!(c instanceof DockerComputer)) {
+                return;
+            }
+            final DockerTransientNode node = ((DockerComputer) c).getNode();
+            if (node == null) {
+                return;
+            }
+            final String templateId = node.getTemplateId();
+            final long startedNanos = node.takeProvisioningStartedNanos();
+            if (templateId != null && startedNanos != 0L) {
+                forTemplateId(templateId).recordFirstOnline(System.nanoTime() - startedNanos);
+            }
+        }
+    }
+}
@@ -14,6 +14,7 @@ import com.github.dockerjava.api.command.PullImageCmd;
 import com.github.dockerjava.api.command.PullImageResultCallback;
 import com.github.dockerjava.api.exception.DockerClientException;
 import com.github.dockerjava.api.exception.NotFoundException;
+import com.github.dockerjava.api.model.AuthConfig;
 import com.github.dockerjava.api.model.ContainerConfig;
 import com.github.dockerjava.api.model.PortBinding;
 import com.github.dockerjava.api.model.PullResponseItem;
@@ -32,15 +33,18 @@ import hudson.model.Label;
 import hudson.model.Node;
 import hudson.model.TaskListener;
 import hudson.model.labels.LabelAtom;
-import hudson.slaves.ComputerLauncher;
 import hudson.slaves.NodeProperty;
 import hudson.slaves.NodePropertyDescriptor;
 import hudson.slaves.RetentionStrategy;
 import hudson.util.FormValidation;
 import io.jenkins.docker.DockerTransientNode;
 import io.jenkins.docker.client.DockerAPI;
+import io.jenkins.docker.client.DockerPullCoordinator;
+import io.jenkins.docker.client.DockerPullProgress;
+import io.jenkins.docker.client.DockerRegistryDigests;
 import io.jenkins.docker.connector.DockerComputerConnector;
 import io.jenkins.docker.connector.DockerComputerJNLPConnector;
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -50,6 +54,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import jenkins.model.Jenkins;
 import org.apache.commons.lang3.StringUtils;
 import org.jenkinsci.plugins.docker.commons.credentials.DockerRegistryEndpoint;
@@ -112,6 +121,22 @@ public class DockerTemplate implements Describable<DockerTemplate> {
 
     private @CheckForNull String name;
 
+    /** How many idle agents to keep ready, see {@link DockerWarmPool}. */
+    private int minIdle;
+
+    /** How long (in minutes) to keep {@link #minIdle} agents once we stop being used. 0 means forever. */
+    private int minIdleTtlMinutes;
+
+    /** How many agents to keep paused in reserve, see {@link DockerWarmPool}. */
+    private int pausedStandby;
+
+    /**
+     * How often to pick this template, relative to others for the same label,
+     * when the cloud chooses by {@link DockerTemplateSelectionStrategy#WEIGHTED}.
+     * 0 means the default of 1.
+     */
+    private int weight;
+
     /**
      * Default constructor; give an unusable instance.
      *
@@ -443,6 +468,42 @@ public class DockerTemplate implements Describable<DockerTemplate> {
         this.pullTimeout = pullTimeout;
     }
 
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    @DataBoundSetter
+    public void setMinIdle(int minIdle) {
+        this.minIdle = Math.max(0, minIdle);
+    }
+
+    public int getMinIdleTtlMinutes() {
+        return minIdleTtlMinutes;
+    }
+
+    @DataBoundSetter
+    public void setMinIdleTtlMinutes(int minIdleTtlMinutes) {
+        this.minIdleTtlMinutes = Math.max(0, minIdleTtlMinutes);
+    }
+
+    public int getPausedStandby() {
+        return pausedStandby;
+    }
+
+    @DataBoundSetter
+    public void setPausedStandby(int pausedStandby) {
+        this.pausedStandby = Math.max(0, pausedStandby);
+    }
+
+    public int getWeight() {
+        return weight > 0 ? weight : 1;
+    }
+
+    @DataBoundSetter
+    public void setWeight(int weight) {
+        this.weight = weight > 1 ? weight : 0;
+    }
+
     @CheckForNull
     public List<? extends NodeProperty<?>> getNodeProperties() {
         final List<? extends NodeProperty<?>> nullOrNotEmpty = fixEmpty(nodeProperties);
@@ -489,6 +550,23 @@ public class DockerTemplate implements Describable<DockerTemplate> {
         return name.trim();
     }
 
+    /**
+     * Identifies this template for the purposes of keeping count of the
+     * containers it's responsible for. Unlike the image name, this differs
+     * between templates that use the same image with different labels or
+     * container settings, but it stays the same across restarts and for
+     * templates that are recreated with the same configuration (e.g. when a
+     * cloud is re-saved without changing this template).
+     *
+     * @return An identifier for this template's configuration.
+     */
+    @Restricted(NoExternalUse.class)
+    @NonNull
+    public String getTemplateId() {
+        return getName() + '/' + getImage() + '/' + labelString + '/'
+                + Integer.toHexString(dockerTemplateBase.hashCode());
+    }
+
     /**
      * Xstream ignores default field values, so set them explicitly
      */
@@ -573,6 +651,10 @@ public class DockerTemplate implements Describable<DockerTemplate> {
                 && pullTimeout == other.pullTimeout
                 && removeVolumes == other.removeVolumes
                 && stopTimeout == other.stopTimeout
+                && minIdle == other.minIdle
+                && minIdleTtlMinutes == other.minIdleTtlMinutes
+                && pausedStandby == other.pausedStandby
+                && getWeight() == other.getWeight()
                 && Objects.equals(connector, other.connector)
                 && Objects.equals(remoteFs, other.remoteFs)
                 && Objects.equals(dockerTemplateBase, other.dockerTemplateBase)
@@ -596,6 +678,10 @@ public class DockerTemplate implements Describable<DockerTemplate> {
                 pullTimeout,
                 removeVolumes,
                 stopTimeout,
+                minIdle,
+                minIdleTtlMinutes,
+                pausedStandby,
+                getWeight(),
                 connector,
                 remoteFs,
                 dockerTemplateBase,
@@ -626,6 +712,10 @@ public class DockerTemplate implements Describable<DockerTemplate> {
         bldToString(sb, "nodeProperties", getNodeProperties());
         bldToString(sb, "disabled", getDisabled());
         bldToString(sb, "name", name);
+        bldToString(sb, "minIdle", minIdle);
+        bldToString(sb, "minIdleTtlMinutes", minIdleTtlMinutes);
+        bldToString(sb, "pausedStandby", pausedStandby);
+        bldToString(sb, "weight", getWeight());
         endToString(sb);
         return sb.toString();
     }
@@ -639,72 +729,303 @@ public class DockerTemplate implements Describable<DockerTemplate> {
         return Jenkins.get().getDescriptor(getClass());
     }
 
-    @NonNull
-    InspectImageResponse pullImage(DockerAPI api, TaskListener listener) throws IOException, InterruptedException {
-        final String image = getFullImageId();
+    /**
+     * Asks our {@link #getPullStrategy()} whether we need to pull our image.
+     *
+     * @param api
+     *            The docker endpoint.
+     * @return true if we should pull.
+     * @throws IOException
+     *             if we couldn't talk to docker.
+     */
+    boolean shouldPullImage(DockerAPI api) throws IOException {
+        return shouldPullImage(api, null);
+    }
+
+    /**
+     * Asks our {@link #getPullStrategy()} whether we need to pull our image,
+     * telling us what docker said about the image if it had to be asked, so
+     * that we needn't ask again. If our strategy would pull an image we
+     * already have regardless of whether it's changed, i.e.
+     * {@link DockerImagePullStrategy#PULL_ALWAYS} or
+     * {@link DockerImagePullStrategy#PULL_LATEST}, and the
+     * {@link DockerImagePrePuller} has recently pulled it, then we only pull it
+     * if it has gone since.
+     *
+     * @param api
+     *            The docker endpoint.
+     * @param inspected
+     *            Told what docker said about our image, if docker was asked
+     *            and had it.
+     * @return true if we should pull.
+     * @throws IOException
+     *             if we couldn't talk to docker.
+     */
+    boolean shouldPullImage(DockerAPI api, @CheckForNull Consumer<InspectImageResponse> inspected) throws IOException {
+        return shouldPullImage(api, inspected, true);
+    }
+
+    /**
+     * Decides whether the {@link DockerImagePrePuller} should pull our image
+     * ahead of time. That's whenever our {@link #getPullStrategy()} says so,
+     * which keeps {@link DockerImagePullStrategy#PULL_ALWAYS} and
+     * {@link DockerImagePullStrategy#PULL_LATEST} images fresh enough that
+     * provisioning needn't pull them again (see
+     * {@link #shouldPullImage(DockerAPI, Consumer)}).
+     *
+     * @param api
+     *            The docker endpoint.
+     * @return true if we should pull.
+     * @throws IOException
+     *             if we couldn't talk to docker.
+     */
+    boolean shouldPrePullImage(DockerAPI api) throws IOException {
+        return shouldPullImage(api, null, false);
+    }
 
-        final boolean shouldPullImage;
+    private boolean shouldPullImage(
+            DockerAPI api, @CheckForNull Consumer<InspectImageResponse> inspected, boolean trustPrePull)
+            throws IOException {
+        final String image = getFullImageId();
+        final DockerImagePullStrategy strategy = getPullStrategy();
+        final DockerImageCache cache = DockerImageCache.forApi(api);
         try (final DockerClient client = api.getClient()) {
-            shouldPullImage = getPullStrategy().shouldPullImage(client, image);
-        }
-        if (shouldPullImage) {
-            // TODO create a FlyWeightTask so end-user get visibility on pull operation progress
-            LOGGER.info("Pulling image '{}'. This may take awhile...", image);
-
-            long startTime = System.currentTimeMillis();
-
-            try (final DockerClient client = api.getClient(pullTimeout)) {
-                final PullImageCmd cmd = client.pullImageCmd(image);
-                final DockerRegistryEndpoint registry = getRegistry();
-                DockerCloud.setRegistryAuthentication(cmd, registry, Jenkins.get());
-                cmd.exec(new PullImageResultCallback() {
-                            @Override
-                            public void onNext(PullResponseItem item) {
-                                super.onNext(item);
-                                listener.getLogger().println(item.getStatus());
-                            }
-                        })
-                        .awaitCompletion();
+            final Supplier<InspectImageResponse> inspector = () -> {
+                final InspectImageResponse response = cache.inspect(client, image);
+                if (inspected != null) {
+                    inspected.accept(response);
+                }
+                return response;
+            };
+            if (trustPrePull
+                    && (strategy == DockerImagePullStrategy.PULL_ALWAYS
+                            || strategy == DockerImagePullStrategy.PULL_LATEST)
+                    && DockerImagePrePuller.wasRecentlyPrePulled(api, image)) {
+                try {
+                    inspector.get();
+                    LOGGER.debug("Image '{}' was recently pre-pulled; not pulling it again.", image);
+                    return false;
+                } catch (NotFoundException handledByCode) {
+                    return true;
+                }
+            }
+            return strategy.shouldPullImage(
+                    image, inspector, () -> DockerRegistryDigests.get().getDigest(image, getRegistryAuth()));
+        }
+    }
+
+    /** @return The credentials for our image's registry, or null if we don't have any. */
+    @CheckForNull
+    private AuthConfig getRegistryAuth() {
+        final DockerRegistryEndpoint registry = getRegistry();
+        if (registry == null || registry.getCredentialsId() == null) {
+            return null;
+        }
+        return DockerCloud.getAuthConfig(registry, Jenkins.get());
+    }
+
+    /**
+     * Starts pulling our image. This does not wait for the pull to complete.
+     * If the image is already being pulled from the same endpoint, we wait for
+     * that pull instead of starting another.
+     *
+     * @param api
+     *            The docker endpoint.
+     * @param listener
+     *            Where to log progress.
+     * @param whenPulled
+     *            Will be completed when the pull has finished.
+     * @return Something which, if closed, will abort the pull (unless others
+     *         are also waiting for it).
+     */
+    @NonNull
+    Closeable pullImage(DockerAPI api, TaskListener listener, CompletableFuture<Void> whenPulled) {
+        final String image = getFullImageId();
+        final DockerRegistryEndpoint registry = getRegistry();
+        final String credentialsId = registry == null ? null : registry.getCredentialsId();
+        final DockerPullCoordinator.Pull pull = api.getPullCoordinator()
+                .pull(image, credentialsId, shared -> startPull(api, image, registry, listener, shared));
+        if (!pull.isLeader()) {
+            LOGGER.info("Image '{}' is already being pulled; waiting for that pull to finish.", image);
+            listener.getLogger().println("Waiting for in-progress pull of image " + image);
+        }
+        pull.getResult().whenComplete((v, ex) -> {
+            DockerImageCache.forApi(api).invalidate(image);
+            if (ex == null) {
+                whenPulled.complete(null);
+            } else {
+                whenPulled.completeExceptionally(ex);
             }
+        });
+        return pull;
+    }
+
+    private Closeable startPull(
+            DockerAPI api,
+            String image,
+            DockerRegistryEndpoint registry,
+            TaskListener listener,
+            CompletableFuture<Void> whenPulled) {
+        // TODO create a FlyWeightTask so end-user get visibility on pull operation progress
+        LOGGER.info("Pulling image '{}'. This may take awhile...", image);
+        final long startTime = System.currentTimeMillis();
+        final DockerClient client = api.getClient(pullTimeout);
+        whenPulled.whenComplete((v, ex) -> {
+            try {
+                client.close();
+            } catch (IOException e) {
+                LOGGER.debug("Failed to close client used to pull '{}'", image, e);
+            }
+        });
+        try {
+            final PullImageCmd cmd = client.pullImageCmd(image);
+            DockerCloud.setRegistryAuthentication(cmd, registry, Jenkins.get());
+            final DockerPullProgress progress = new DockerPullProgress(image, listener.getLogger());
+            return cmd.exec(new PullImageResultCallback() {
+                @Override
+                public void onNext(PullResponseItem item) {
+                    super.onNext(item);
+                    progress.onNext(item);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    super.onError(throwable);
+                    finished();
+                }
+
+                @Override
+                public void onComplete() {
+                    super.onComplete();
+                    finished();
+                }
 
-            long pullTime = System.currentTimeMillis() - startTime;
-            LOGGER.info("Finished pulling image '{}', took {} ms", image, pullTime);
+                private void finished() {
+                    progress.finished();
+                    try {
+                        awaitCompletion(); // returns immediately, throwing if the pull failed
+                        final long pullTime = System.currentTimeMillis() - startTime;
+                        LOGGER.info("Finished pulling image '{}', took {} ms", image, pullTime);
+                        whenPulled.complete(null);
+                    } catch (Throwable ex) {
+                        whenPulled.completeExceptionally(ex);
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            whenPulled.completeExceptionally(ex);
+            throw ex;
         }
+    }
 
-        final InspectImageResponse result;
+    @NonNull
+    InspectImageResponse inspectImage(DockerAPI api) throws IOException {
+        final String image = getFullImageId();
         try (final DockerClient client = api.getClient()) {
-            result = client.inspectImageCmd(image).exec();
+            return DockerImageCache.forApi(api).inspect(client, image);
         } catch (NotFoundException e) {
             throw new DockerClientException("Could not pull image: " + image, e);
         }
-        return result;
     }
 
+    /**
+     * Provisions a new node from this template, waiting until it's done.
+     *
+     * @param api
+     *            The docker endpoint to provision on.
+     * @param listener
+     *            Where to log progress.
+     * @return The new node, ready to be added to Jenkins.
+     * @see #provisionNodeAsync(DockerAPI, TaskListener)
+     */
     @Restricted(NoExternalUse.class)
     public DockerTransientNode provisionNode(DockerAPI api, TaskListener listener)
             throws IOException, Descriptor.FormException, InterruptedException {
+        final CompletableFuture<DockerTransientNode> future = provisionNodeAsync(api, listener);
         try {
-            final InspectImageResponse image = pullImage(api, listener);
-            final String effectiveRemoteFsDir = getEffectiveRemoteFs(image);
-            try (final DockerClient client = api.getClient()) {
-                return doProvisionNode(api, client, effectiveRemoteFsDir, listener);
+            return future.get();
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            throw ex;
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof Descriptor.FormException) {
+                throw (Descriptor.FormException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Starts provisioning a new node from this template. The work is done by a
+     * {@link DockerProvisioningPipeline} so no thread is tied up waiting for
+     * it.
+     *
+     * @param api
+     *            The docker endpoint to provision on.
+     * @param listener
+     *            Where to log progress.
+     * @return A future that will complete with the new node once it's ready to
+     *         be added to Jenkins. Cancelling it aborts provisioning and
+     *         removes any container that had been created.
+     */
+    @Restricted(NoExternalUse.class)
+    public CompletableFuture<DockerTransientNode> provisionNodeAsync(DockerAPI api, TaskListener listener) {
+        return provisionNodeAsync(api, listener, System.nanoTime());
+    }
+
+    /**
+     * Starts provisioning a new node from this template.
+     *
+     * @param api
+     *            The docker endpoint to provision on.
+     * @param listener
+     *            Where to log progress.
+     * @param startNanos
+     *            The {@link System#nanoTime()} when we were first asked to
+     *            provision, before any wait for our turn, so that the total
+     *            time we record includes it.
+     * @return As {@link #provisionNodeAsync(DockerAPI, TaskListener)}.
+     */
+    CompletableFuture<DockerTransientNode> provisionNodeAsync(DockerAPI api, TaskListener listener, long startNanos) {
+        final CompletableFuture<DockerTransientNode> result = DockerProvisioningPipeline.start(this, api, listener);
+        result.whenComplete((node, ex) -> {
+            if (ex == null) {
+                DockerProvisioningTimings.forTemplate(this).recordTotal(System.nanoTime() - startNanos);
+                getDisabled().recordSuccessBySystem();
+                return;
+            }
+            if (ex instanceof CancellationException) {
+                return;
             }
-        } catch (IOException | Descriptor.FormException | InterruptedException | RuntimeException ex) {
             final DockerCloud ourCloud = DockerCloud.findCloudForTemplate(this);
             final long milliseconds = ourCloud == null ? 0L : ourCloud.getEffectiveErrorDurationInMilliseconds();
             if (milliseconds > 0L) {
-                // if anything went wrong, disable ourselves for a while
+                // if anything went wrong, disable ourselves for a while,
+                // backing off for longer if it keeps happening.
                 final String reason = "Template provisioning failed.";
                 final DockerDisabled reasonForDisablement = getDisabled();
-                reasonForDisablement.disableBySystem(reason, milliseconds, ex);
+                reasonForDisablement.disableBySystemWithBackoff(reason, milliseconds, ex);
                 setDisabled(reasonForDisablement);
             }
-            throw ex;
-        }
+        });
+        return result;
     }
 
     @NonNull
-    private String getEffectiveRemoteFs(final InspectImageResponse image) {
+    String getEffectiveRemoteFs(final InspectImageResponse image) {
         final String remoteFsOrNull = getRemoteFs();
         if (remoteFsOrNull != null) {
             return remoteFsOrNull;
@@ -721,61 +1042,23 @@ public class DockerTemplate implements Describable<DockerTemplate> {
         return "/";
     }
 
-    private DockerTransientNode doProvisionNode(
-            final DockerAPI api,
-            final DockerClient client,
-            final String effectiveRemoteFsDir,
-            final TaskListener listener)
-            throws IOException, Descriptor.FormException, InterruptedException {
-        final String ourImage = getImage(); // can't be null
-        LOGGER.info("Trying to run container for image \"{}\"", ourImage);
-        final DockerComputerConnector ourConnector = getConnector();
-
-        final CreateContainerCmd cmd = client.createContainerCmd(ourImage);
-        fillContainerConfig(cmd);
-
-        ourConnector.beforeContainerCreated(api, effectiveRemoteFsDir, cmd);
-
-        final String nodeName = getNodeNameFromContainerConfig(cmd);
-        LOGGER.info("Trying to run container for node {} from image: {}", nodeName, ourImage);
-        boolean finallyRemoveTheContainer = true;
-        final String containerId = cmd.exec().getId();
-        // if we get this far, we have created the container so,
-        // if we fail to return the node, we need to ensure it's cleaned up.
-        LOGGER.info("Started container ID {} for node {} from image: {}", containerId, nodeName, ourImage);
-
-        try {
-            final DockerTransientNode node = new DockerTransientNode(nodeName, containerId, effectiveRemoteFsDir);
-            node.setNodeDescription(
-                    "Docker Agent [" + ourImage + " on " + api.getDockerHost().getUri() + " ID " + containerId + "]");
-            node.setMode(getMode());
-            node.setLabelString(getLabelString());
-            node.setRetentionStrategy(makeCopy(getRetentionStrategy()));
-            robustlySetNodeProperties(node, makeCopyOfList(getNodeProperties()));
-            node.setRemoveVolumes(isRemoveVolumes());
-            node.setStopTimeout(getStopTimeout());
-            node.setDockerAPI(api);
-            ourConnector.beforeContainerStarted(api, effectiveRemoteFsDir, node);
-            client.startContainerCmd(containerId).exec();
-            ourConnector.afterContainerStarted(api, effectiveRemoteFsDir, node);
-            final ComputerLauncher nodeLauncher =
-                    ourConnector.createLauncher(api, containerId, effectiveRemoteFsDir, listener);
-            node.setLauncher(nodeLauncher);
-            finallyRemoveTheContainer = false;
-            return node;
-        } finally {
-            // if something went wrong, cleanup aborted container
-            // while ensuring that the original exception escapes.
-            if (finallyRemoveTheContainer) {
-                try {
-                    client.removeContainerCmd(containerId).withForce(true).exec();
-                } catch (NotFoundException handledByCode) {
-                    LOGGER.info("Unable to remove container '" + containerId + "' as it had already gone.");
-                } catch (Throwable ex) {
-                    LOGGER.error("Unable to remove container '" + containerId + "' due to exception:", ex);
-                }
-            }
-        }
+    @NonNull
+    DockerTransientNode makeNode(
+            final DockerAPI api, final String nodeName, final String containerId, final String effectiveRemoteFsDir)
+            throws IOException, Descriptor.FormException {
+        final String ourImage = getImage();
+        final DockerTransientNode node = new DockerTransientNode(nodeName, containerId, effectiveRemoteFsDir);
+        node.setNodeDescription(
+                "Docker Agent [" + ourImage + " on " + api.getDockerHost().getUri() + " ID " + containerId + "]");
+        node.setMode(getMode());
+        node.setLabelString(getLabelString());
+        node.setRetentionStrategy(makeCopy(getRetentionStrategy()));
+        robustlySetNodeProperties(node, makeCopyOfList(getNodeProperties()));
+        node.setRemoveVolumes(isRemoveVolumes());
+        node.setStopTimeout(getStopTimeout());
+        node.setTemplateId(getTemplateId());
+        node.setDockerAPI(api);
+        return node;
     }
 
     /**
@@ -878,6 +1161,22 @@ public class DockerTemplate implements Describable<DockerTemplate> {
             return FormValidation.validateNonNegativeInteger(value);
         }
 
+        public FormValidation doCheckMinIdle(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckMinIdleTtlMinutes(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckPausedStandby(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckWeight(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
         @Override
         public String getDisplayName() {
             return "Docker Template";
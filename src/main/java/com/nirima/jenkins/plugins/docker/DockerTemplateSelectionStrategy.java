@@ -0,0 +1,111 @@
+package com.nirima.jenkins.plugins.docker;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How a {@link DockerCloud} decides which of the templates that match a label
+ * a new agent should be made from. Templates that have reached their
+ * {@link DockerTemplate#getInstanceCap()} are never offered.
+ */
+public enum DockerTemplateSelectionStrategy {
+    FIRST("First matching template") {
+        @Override
+        long score(DockerCloud cloud, DockerTemplate template) {
+            return 0L;
+        }
+    },
+    ROUND_ROBIN("Round robin") {
+        @Override
+        long score(DockerCloud cloud, DockerTemplate template) {
+            return 0L;
+        }
+
+        @Override
+        public DockerTemplate choose(
+                @NonNull DockerCloud cloud, @NonNull List<DockerTemplate> templates, @NonNull AtomicInteger counter) {
+            return templates.get(Math.floorMod(counter.getAndIncrement(), templates.size()));
+        }
+    },
+    WEIGHTED("Weighted") {
+        @Override
+        long score(DockerCloud cloud, DockerTemplate template) {
+            return 0L;
+        }
+
+        @Override
+        public DockerTemplate choose(
+                @NonNull DockerCloud cloud, @NonNull List<DockerTemplate> templates, @NonNull AtomicInteger counter) {
+            long totalWeight = 0L;
+            for (final DockerTemplate t : templates) {
+                totalWeight += t.getWeight();
+            }
+            long turn = Math.floorMod(counter.getAndIncrement(), totalWeight);
+            for (final DockerTemplate t : templates) {
+                turn -= t.getWeight();
+                if (turn < 0L) {
+                    return t;
+                }
+            }
+            return templates.get(0);
+        }
+    },
+    LEAST_IN_PROGRESS("Fewest in progress") {
+        @Override
+        long score(DockerCloud cloud, DockerTemplate template) {
+            return cloud.countContainersInProgress(template);
+        }
+    },
+    FASTEST_START("Fastest start time") {
+        @Override
+        long score(DockerCloud cloud, DockerTemplate template) {
+            // Ones we've no timings for score 0, so they get tried and timed.
+            final DockerProvisioningTimings timings = DockerProvisioningTimings.peek(template);
+            return timings == null ? 0L : (long) (timings.getTotal().getMeanMillis() * 1000.0);
+        }
+    };
+
+    private final String description;
+
+    DockerTemplateSelectionStrategy(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Rates a template as the source of a new agent.
+     *
+     * @return The template's score; lowest wins.
+     */
+    abstract long score(DockerCloud cloud, DockerTemplate template);
+
+    /**
+     * Chooses the template a new agent should be made from.
+     *
+     * @param cloud
+     *            The cloud the templates belong to.
+     * @param templates
+     *            The templates to choose from, in the order they're
+     *            configured. Must not be empty.
+     * @param counter
+     *            Somewhere to keep track of the choices made.
+     * @return The chosen template.
+     */
+    public DockerTemplate choose(
+            @NonNull DockerCloud cloud, @NonNull List<DockerTemplate> templates, @NonNull AtomicInteger counter) {
+        DockerTemplate best = null;
+        long bestScore = Long.MAX_VALUE;
+        for (final DockerTemplate t : templates) {
+            final long score = score(cloud, t);
+            if (best == null || score < bestScore) {
+                best = t;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+}
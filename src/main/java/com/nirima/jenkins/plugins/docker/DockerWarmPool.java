@@ -0,0 +1,403 @@
+package com.nirima.jenkins.plugins.docker;
+
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.SlaveComputer;
+import io.jenkins.docker.DockerTaskExecutor;
+import io.jenkins.docker.DockerTransientNode;
+import io.jenkins.docker.client.DockerAPI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodic job which keeps {@link DockerTemplate#getMinIdle()} idle agents
+ * started and connected for each template that asks for them, so that builds
+ * don't have to wait for a container to be created.
+ * <p>
+ * A template's pool is only kept topped up while the template is in use,
+ * i.e. until {@link DockerTemplate#getMinIdleTtlMinutes()} have passed since
+ * a build last wanted one of its agents. Pooled agents are subject to the
+ * same caps as any other, and {@link #shouldKeepIdle(DockerTransientNode)}
+ * stops the retention strategy from removing the ones we want to keep.
+ * </p>
+ * <p>
+ * Templates can also ask for {@link DockerTemplate#getPausedStandby()} agents
+ * to be kept in reserve with their containers paused. These are made the same
+ * way, by starting more idle agents than we want and then pausing the surplus,
+ * and are unpaused by {@link #resumeStandby(DockerCloud, DockerTemplate, int)}
+ * when a build needs one. A paused agent can't answer Jenkins' pings, so unless
+ * those have been turned off we briefly unpause it shortly before the ping
+ * timeout would make Jenkins give up on it.
+ * </p>
+ */
+@Extension
+public class DockerWarmPool extends AsyncPeriodicWork {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerWarmPool.class);
+
+    /**
+     * The recurrence period how often this task shall be run.
+     * <p>
+     * NB: This is read once as getRecurrencePeriod() is required to return a
+     * constant.
+     */
+    private static final long RECURRENCE_PERIOD_IN_MS = JenkinsUtils.getSystemPropertyLong(
+                    DockerWarmPool.class.getName() + ".recurrenceInSeconds", 15L)
+            * 1000L;
+
+    /**
+     * How long a standby agent may stay paused before we unpause it for a
+     * while, so that it can answer the pings that keep its connection alive;
+     * 0 means never. By default this follows Jenkins' own ping settings.
+     */
+    private static final long MAX_PAUSED_MILLIS = maxPausedMillis(
+            JenkinsUtils.getSystemPropertyLong(DockerWarmPool.class.getName() + ".maxPausedSeconds", -1L),
+            JenkinsUtils.getSystemPropertyLong("hudson.slaves.ChannelPinger.pingIntervalSeconds", 300L),
+            JenkinsUtils.getSystemPropertyLong("hudson.slaves.ChannelPinger.pingTimeoutSeconds", 240L));
+
+    /** Standby agents that we're unpausing for a build, so we don't count them twice */
+    private static final Set<DockerTransientNode> RESUMING = ConcurrentHashMap.newKeySet();
+
+    /** When each template last had a build wanting it, keyed by cloud name and template ID */
+    private static final ConcurrentHashMap<String, Long> LAST_DEMAND_NANOS = new ConcurrentHashMap<>();
+
+    public DockerWarmPool() {
+        super(String.format("%s Asynchronous Periodic Work", DockerWarmPool.class.getSimpleName()));
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD_IN_MS;
+    }
+
+    /*
+     * Methods used for decoupling on unit testing
+     */
+
+    protected List<DockerCloud> getAllClouds() {
+        return DockerCloud.instances();
+    }
+
+    protected Collection<Node> getAllNodes() {
+        return Jenkins.get().getNodes();
+    }
+
+    protected boolean provisionIdleAgent(DockerCloud cloud, DockerTemplate template) throws Exception {
+        return cloud.provisionIdleAgent(template);
+    }
+
+    /*
+     * Implementation of business logic
+     */
+
+    @Override
+    protected void execute(TaskListener listener) {
+        final Collection<Node> nodes = getAllNodes();
+        for (final DockerCloud cloud : getAllClouds()) {
+            if (cloud.getDisabled().isDisabled()) {
+                continue;
+            }
+            for (final DockerTemplate template : cloud.getTemplates()) {
+                if (poolSize(template) > 0) {
+                    maintainPool(cloud, template, nodes);
+                }
+            }
+        }
+    }
+
+    private void maintainPool(DockerCloud cloud, DockerTemplate template, Collection<Node> nodes) {
+        final List<DockerTransientNode> idle = findIdle(nodes, cloud, template);
+        final List<DockerTransientNode> paused = findPaused(nodes, cloud, template);
+        if (!isWanted(cloud, template)) {
+            // let them go the same way as any other idle agent
+            for (final DockerTransientNode node : paused) {
+                node.unpause();
+            }
+            return;
+        }
+        if (template.getDisabled().isDisabled()) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        for (final DockerTransientNode node : paused) {
+            if (MAX_PAUSED_MILLIS > 0L && now - node.getPausedStateChangedMillis() > MAX_PAUSED_MILLIS) {
+                node.unpause(); // we'll pause it again next time
+            }
+        }
+        int pausedCount = paused.size();
+        for (int i = template.getMinIdle(); i < idle.size() && pausedCount < template.getPausedStandby(); i++) {
+            if (idle.get(i).pause()) {
+                pausedCount++;
+            }
+        }
+        final int inProgress = cloud.countContainersInProgress(template);
+        final int shortfall = poolSize(template) - idle.size() - paused.size() - inProgress;
+        if (shortfall > 0) {
+            topUp(cloud, template, shortfall);
+        }
+    }
+
+    private void topUp(DockerCloud cloud, DockerTemplate template, int shortfall) {
+        LOGGER.debug(
+                "Cloud '{}' template '{}' is {} idle agent(s) short of {}",
+                cloud.name,
+                template.getName(),
+                shortfall,
+                template.getMinIdle());
+        for (int i = 0; i < shortfall; i++) {
+            try {
+                if (!provisionIdleAgent(cloud, template)) {
+                    return; // at capacity, or disabled
+                }
+            } catch (Exception ex) {
+                LOGGER.warn(
+                        "Unable to provision idle agent for template '{}' in cloud '{}'",
+                        template.getName(),
+                        cloud.name,
+                        ex);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Records that a build wants an agent from the given template, so its
+     * pool (if it has one) should be kept topped up.
+     *
+     * @param cloud
+     *            The cloud.
+     * @param template
+     *            One of the cloud's templates.
+     */
+    @Restricted(NoExternalUse.class)
+    public static void recordDemand(@NonNull DockerCloud cloud, @NonNull DockerTemplate template) {
+        if (poolSize(template) > 0) {
+            LAST_DEMAND_NANOS.put(key(cloud.name, template.getTemplateId()), System.nanoTime());
+        }
+    }
+
+    /**
+     * Records that a build is using the given node, so its template's pool
+     * (if it has one) should be kept topped up.
+     *
+     * @param node
+     *            The node.
+     */
+    @Restricted(NoExternalUse.class)
+    public static void recordDemand(@NonNull DockerTransientNode node) {
+        final String cloudId = node.getCloudId();
+        final String templateId = node.getTemplateId();
+        if (cloudId != null && templateId != null) {
+            LAST_DEMAND_NANOS.computeIfPresent(key(cloudId, templateId), (k, v) -> System.nanoTime());
+        }
+    }
+
+    /**
+     * Works out how long a standby agent can stay paused.
+     *
+     * @param configuredSeconds
+     *            What we've been told, or -1 to work it out.
+     * @param pingIntervalSeconds
+     *            How often Jenkins pings agents, or 0 if it doesn't.
+     * @param pingTimeoutSeconds
+     *            How long Jenkins waits for an agent to answer a ping before
+     *            disconnecting it, or 0 if it doesn't ping them.
+     * @return How long, in milliseconds; 0 means for as long as we like.
+     */
+    static long maxPausedMillis(long configuredSeconds, long pingIntervalSeconds, long pingTimeoutSeconds) {
+        if (configuredSeconds >= 0L) {
+            return TimeUnit.SECONDS.toMillis(configuredSeconds);
+        }
+        if (pingIntervalSeconds < 1L || pingTimeoutSeconds < 1L) {
+            return 0L; // nothing will notice that it's paused
+        }
+        // A ping sent just after we paused it must be answered within the timeout, and we only look every so often.
+        return Math.max(
+                RECURRENCE_PERIOD_IN_MS, TimeUnit.SECONDS.toMillis(pingTimeoutSeconds) - 2L * RECURRENCE_PERIOD_IN_MS);
+    }
+
+    /**
+     * Starts unpausing some of the template's paused standby agents so that
+     * builds can use them. The unpausing is done by the
+     * {@link DockerTaskExecutor}, as this is called while provisioning and
+     * mustn't wait for docker.
+     *
+     * @param cloud
+     *            The cloud.
+     * @param template
+     *            One of the cloud's templates.
+     * @param max
+     *            The most we want.
+     * @return The number we're unpausing.
+     */
+    @Restricted(NoExternalUse.class)
+    public static int resumeStandby(@NonNull DockerCloud cloud, @NonNull DockerTemplate template, int max) {
+        if (template.getPausedStandby() <= 0 || max <= 0) {
+            return 0;
+        }
+        int resumed = 0;
+        for (final DockerTransientNode node : findPaused(Jenkins.get().getNodes(), cloud, template)) {
+            if (resumed >= max) {
+                break;
+            }
+            if (!RESUMING.add(node)) {
+                continue; // already on its way
+            }
+            final DockerAPI api = node.getDockerAPI();
+            final Executor executor = api == null
+                    ? DockerTaskExecutor.shared()
+                    : DockerTaskExecutor.forEndpoint(api.getDockerHost().getUri());
+            executor.execute(() -> {
+                try {
+                    if (!node.unpause()) {
+                        LOGGER.info("Unable to unpause standby agent '{}' for a build", node.getNodeName());
+                    }
+                } finally {
+                    RESUMING.remove(node);
+                }
+            });
+            resumed++;
+        }
+        if (resumed > 0) {
+            LOGGER.info(
+                    "Unpausing {} standby agent(s) for template '{}' in cloud '{}'",
+                    resumed,
+                    template.getName(),
+                    cloud.name);
+        }
+        return resumed;
+    }
+
+    /**
+     * Decides whether an idle node should be kept, rather than removed for
+     * being idle too long, because it's one of its template's pool of idle
+     * agents.
+     *
+     * @param node
+     *            An idle node.
+     * @return true if the node should be kept.
+     */
+    @Restricted(NoExternalUse.class)
+    public static boolean shouldKeepIdle(@NonNull DockerTransientNode node) {
+        final String templateId = node.getTemplateId();
+        if (templateId == null) {
+            return false;
+        }
+        final DockerCloud cloud;
+        try {
+            cloud = node.getCloud();
+        } catch (RuntimeException ex) {
+            return false; // cloud has gone
+        }
+        if (cloud == null) {
+            return false;
+        }
+        final DockerTemplate template = findTemplate(cloud, templateId);
+        if (template == null || !isWanted(cloud, template)) {
+            return false;
+        }
+        // Only keep as many as we want; if there are more, let them go.
+        final Collection<Node> nodes = Jenkins.get().getNodes();
+        return countIdle(nodes, cloud, template) <= template.getMinIdle()
+                || findPaused(nodes, cloud, template).size() < template.getPausedStandby();
+    }
+
+    @CheckForNull
+    private static DockerTemplate findTemplate(DockerCloud cloud, String templateId) {
+        for (final DockerTemplate t : cloud.getTemplates()) {
+            if (templateId.equals(t.getTemplateId())) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the template has a pool and its pool hasn't expired.
+     */
+    static boolean isWanted(@NonNull DockerCloud cloud, @NonNull DockerTemplate template) {
+        if (poolSize(template) <= 0) {
+            return false;
+        }
+        final long now = System.nanoTime();
+        // A pool we've not seen before starts out wanted, e.g. after a restart.
+        final long lastDemand = LAST_DEMAND_NANOS.computeIfAbsent(key(cloud.name, template.getTemplateId()), k -> now);
+        final int ttlMinutes = template.getMinIdleTtlMinutes();
+        return ttlMinutes <= 0 || now - lastDemand < TimeUnit.MINUTES.toNanos(ttlMinutes);
+    }
+
+    /**
+     * Counts the agents made from the given template that are (or soon will
+     * be) ready for a build and haven't been used yet.
+     */
+    static int countIdle(
+            @NonNull Collection<Node> nodes, @NonNull DockerCloud cloud, @NonNull DockerTemplate template) {
+        return findIdle(nodes, cloud, template).size();
+    }
+
+    private static List<DockerTransientNode> findIdle(
+            Collection<Node> nodes, DockerCloud cloud, DockerTemplate template) {
+        final List<DockerTransientNode> result = new ArrayList<>();
+        for (final DockerTransientNode node : findOurs(nodes, cloud, template)) {
+            final SlaveComputer computer = node.getComputer();
+            if (computer != null
+                    && computer.isIdle()
+                    && computer.isAcceptingTasks()
+                    && (!computer.isOffline() || computer.isConnecting())) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    /** Finds the agents made from the given template that are paused. */
+    static List<DockerTransientNode> findPaused(
+            @NonNull Collection<Node> nodes, @NonNull DockerCloud cloud, @NonNull DockerTemplate template) {
+        final List<DockerTransientNode> result = new ArrayList<>();
+        for (final DockerTransientNode node : findOurs(nodes, cloud, template)) {
+            if (node.isPaused()) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    private static List<DockerTransientNode> findOurs(
+            Collection<Node> nodes, DockerCloud cloud, DockerTemplate template) {
+        final String templateId = template.getTemplateId();
+        final List<DockerTransientNode> result = new ArrayList<>();
+        for (final Node n : nodes) {
+            if (!(n instanceof DockerTransientNode)) {
+                continue;
+            }
+            final DockerTransientNode node = (DockerTransientNode) n;
+            if (cloud.name.equals(node.getCloudId()) && templateId.equals(node.getTemplateId())) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    /** @return How many agents the template wants kept ready, idle or paused. */
+    private static int poolSize(DockerTemplate template) {
+        return template.getMinIdle() + template.getPausedStandby();
+    }
+
+    private static String key(String cloudId, String templateId) {
+        return cloudId + "/" + templateId;
+    }
+}
@@ -9,6 +9,7 @@ import com.github.dockerjava.api.exception.NotFoundException;
 import com.github.dockerjava.api.model.PullResponseItem;
 import com.google.common.base.Strings;
 import com.nirima.jenkins.plugins.docker.DockerCloud;
+import com.nirima.jenkins.plugins.docker.DockerImageCache;
 import com.nirima.jenkins.plugins.docker.DockerSimpleTemplate;
 import com.nirima.jenkins.plugins.docker.DockerTemplateBase;
 import hudson.Extension;
@@ -17,8 +18,13 @@ import hudson.model.AbstractBuild;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import io.jenkins.docker.client.DockerAPI;
+import io.jenkins.docker.client.DockerPullCoordinator;
+import io.jenkins.docker.client.DockerPullProgress;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import org.jenkinsci.plugins.docker.commons.credentials.DockerRegistryEndpoint;
 import org.jenkinsci.plugins.tokenmacro.TokenMacro;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -139,37 +145,94 @@ public class DockerBuilderControlOptionRun extends DockerBuilderControlCloudOpti
         LOG.info("Pulling image {}", xImage);
         llog.println("Pulling image " + xImage);
 
-        // need a client that will tolerate lengthy pauses for a docker pull
-        try (final DockerClient clientWithoutReadTimeout = dockerApi.getClient(0)) {
-            executePullOnDocker(build, llog, xImage, clientWithoutReadTimeout);
-        }
-        // but the remainder can use a normal client with the default timeout
+        executePullOnDocker(build, llog, xImage, dockerApi);
+        // the remainder can use a normal client with the default timeout
         try (final DockerClient client = dockerApi.getClient()) {
             executeOnDocker(build, llog, xImage, xCommand, xHostname, xUser, client);
         }
     }
 
-    private void executePullOnDocker(Run<?, ?> build, PrintStream llog, String xImage, DockerClient client)
+    /**
+     * Pulls the image, or waits for a pull of the same image from the same
+     * endpoint that's already in progress (e.g. by a cloud provisioning an
+     * agent).
+     */
+    private void executePullOnDocker(Run<?, ?> build, PrintStream llog, String xImage, DockerAPI dockerApi)
             throws DockerException {
+        final DockerRegistryEndpoint registry = getRegistry();
+        final DockerPullCoordinator.Pull pull = dockerApi
+                .getPullCoordinator()
+                .pull(xImage, registry.getCredentialsId(), whenPulled ->
+                        startPull(build, llog, xImage, dockerApi, registry, whenPulled));
+        try {
+            if (!pull.isLeader()) {
+                llog.println("Waiting for in-progress pull of image " + xImage);
+            }
+            pull.getResult().get();
+        } catch (InterruptedException e) {
+            throw new DockerClientException("Interrupted while pulling image", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof DockerException) {
+                throw (DockerException) cause;
+            }
+            throw new DockerClientException("Failed to pull image: " + xImage, cause);
+        } finally {
+            pull.close();
+            DockerImageCache.forApi(dockerApi).invalidate(xImage);
+        }
+    }
+
+    private static Closeable startPull(
+            Run<?, ?> build,
+            PrintStream llog,
+            String xImage,
+            DockerAPI dockerApi,
+            DockerRegistryEndpoint registry,
+            CompletableFuture<Void> whenPulled) {
+        // need a client that will tolerate lengthy pauses for a docker pull
+        final DockerClient clientWithoutReadTimeout = dockerApi.getClient(0);
+        whenPulled.whenComplete((v, ex) -> {
+            try {
+                clientWithoutReadTimeout.close();
+            } catch (IOException e) {
+                LOG.debug("Failed to close client used to pull '{}'", xImage, e);
+            }
+        });
+        final DockerPullProgress progress = new DockerPullProgress(xImage, llog);
         PullImageResultCallback resultCallback = new PullImageResultCallback() {
             @Override
             public void onNext(PullResponseItem item) {
-                if (item.getStatus() != null && item.getProgress() == null) {
-                    llog.print(item.getId() + ":" + item.getStatus());
-                    LOG.info("{} : {}", item.getId(), item.getStatus());
-                }
+                progress.onNext(item);
                 super.onNext(item);
             }
+
+            @Override
+            public void onError(Throwable throwable) {
+                super.onError(throwable);
+                finished();
+            }
+
+            @Override
+            public void onComplete() {
+                super.onComplete();
+                finished();
+            }
+
+            private void finished() {
+                progress.finished();
+                try {
+                    awaitCompletion(); // returns immediately, throwing if the pull failed
+                    whenPulled.complete(null);
+                } catch (Throwable ex) {
+                    whenPulled.completeExceptionally(ex);
+                }
+            }
         };
 
-        PullImageCmd cmd = client.pullImageCmd(xImage);
-        DockerCloud.setRegistryAuthentication(
-                cmd, getRegistry(), build.getParent().getParent());
-        try {
-            cmd.exec(resultCallback).awaitCompletion();
-        } catch (InterruptedException e) {
-            throw new DockerClientException("Interrupted while pulling image", e);
-        }
+        PullImageCmd cmd = clientWithoutReadTimeout.pullImageCmd(xImage);
+        DockerCloud.setRegistryAuthentication(cmd, registry, build.getParent().getParent());
+        return cmd.exec(resultCallback);
     }
 
     private void executeOnDocker(
@@ -3,9 +3,9 @@ package com.nirima.jenkins.plugins.docker.strategy;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
 
+import com.nirima.jenkins.plugins.docker.DockerWarmPool;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
-import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.Executor;
 import hudson.model.ExecutorListener;
@@ -15,6 +15,7 @@ import hudson.model.Queue.FlyweightTask;
 import hudson.slaves.RetentionStrategy;
 import hudson.util.FormValidation;
 import io.jenkins.docker.DockerComputer;
+import io.jenkins.docker.DockerTaskExecutor;
 import io.jenkins.docker.DockerTransientNode;
 import java.util.Objects;
 import java.util.logging.Level;
@@ -117,6 +118,10 @@ public class DockerOnceRetentionStrategy extends RetentionStrategy<DockerCompute
         // This can happen if an agent was created but there's no workload for it to
         // process.
         final int maxIdleMinutes = getIdleMinutes();
+        if (computerIsPaused(c)) {
+            // a paused standby agent isn't idle; it's waiting to be unpaused when needed.
+            return maxIdleMinutes;
+        }
         if (!computerIsIdle(c)) {
             // if we're not idle now then it'll be some time before we've been idle for long
             // enough to be worth re-checking.
@@ -131,6 +136,10 @@ public class DockerOnceRetentionStrategy extends RetentionStrategy<DockerCompute
                     MILLISECONDS.toMinutes(insufficientIdleMilliseconds + ONE_MILLISECOND_LESS_THAN_A_MINUTE);
             return insufficientIdleMinutesRoundedUp; // check again once enough time has passed
         }
+        if (computerShouldBeKeptIdle(c)) {
+            LOGGER.log(Level.FINER, "Keeping idle {0} as part of its template''s pool of idle agents", computerName(c));
+            return 1; // check again in 1 minute
+        }
         LOGGER.log(
                 Level.FINE,
                 "Disconnecting {0} as it's been idle for {1}ms which is {2}ms more than the configured max of {3} minutes",
@@ -173,6 +182,12 @@ public class DockerOnceRetentionStrategy extends RetentionStrategy<DockerCompute
         // anything else will stop us accepting new stuff and ensure we terminate once
         // we're idle.
         setTerminateOnceDone(true);
+        if (executor.getOwner() instanceof DockerComputer) {
+            final DockerTransientNode node = ((DockerComputer) executor.getOwner()).getNode();
+            if (node != null) {
+                DockerWarmPool.recordDemand(node); // so it'll get replaced
+            }
+        }
         LOGGER.log(
                 Level.FINER,
                 "Node {0} has started non-FlyweightTask {1}. Tasks in progress now={2}. Container will be terminated once idle.",
@@ -224,7 +239,24 @@ public class DockerOnceRetentionStrategy extends RetentionStrategy<DockerCompute
     // Made accessible for unit-test use only
     @Restricted(NoExternalUse.class)
     protected long computerIdleStartMilliseconds(DockerComputer c) {
-        return c.getIdleStartMilliseconds();
+        final DockerTransientNode node = c.getNode();
+        // an agent that's just been unpaused has only just become available
+        final long unpausedMilliseconds = node == null ? 0L : node.getPausedStateChangedMillis();
+        return Math.max(c.getIdleStartMilliseconds(), unpausedMilliseconds);
+    }
+
+    // Made accessible for unit-test use only
+    @Restricted(NoExternalUse.class)
+    protected boolean computerIsPaused(DockerComputer c) {
+        final DockerTransientNode node = c.getNode();
+        return node != null && node.isPaused();
+    }
+
+    // Made accessible for unit-test use only
+    @Restricted(NoExternalUse.class)
+    protected boolean computerShouldBeKeptIdle(DockerComputer c) {
+        final DockerTransientNode node = c.getNode();
+        return node != null && DockerWarmPool.shouldKeepIdle(node);
     }
 
     // Made accessible for unit-test use only
@@ -243,7 +275,7 @@ public class DockerOnceRetentionStrategy extends RetentionStrategy<DockerCompute
     @Restricted(NoExternalUse.class)
     protected void terminateContainer(final DockerComputer c) {
         c.setAcceptingTasks(false); // just in case
-        Computer.threadPoolForRemoting.submit(() -> {
+        DockerTaskExecutor.shared().submit(() -> {
             Queue.withLock(() -> {
                 DockerTransientNode node = c.getNode();
                 if (node != null) {
@@ -0,0 +1,130 @@
+package io.jenkins.docker;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Predicts how many executors a label is going to want, from how many it has
+ * wanted before.
+ * <p>
+ * Two things are kept: an exponentially-weighted moving average of recent
+ * demand, which follows the current trend, and a profile of the peak demand
+ * seen in each slot of the day, which remembers that (for example) a lot of
+ * builds start at 09:00. Each slot's peak is itself averaged over the days
+ * we've seen so that one unusual day doesn't dominate. The forecast is the
+ * larger of the moving average and the profile's peak over the time we're
+ * looking ahead.
+ * </p>
+ */
+final class DemandForecast {
+    static final int SLOT_MINUTES = 15;
+    private static final int SLOTS_PER_DAY = (int) (TimeUnit.DAYS.toMinutes(1) / SLOT_MINUTES);
+    /** How much of each day's peak goes into a slot's profile. */
+    private static final double PROFILE_WEIGHT = 0.3;
+    /**
+     * Forecasts are rounded up, except for this much, so that an average
+     * that's decaying towards zero doesn't keep an agent around forever.
+     */
+    private static final double FRACTION_IGNORED = 0.1;
+
+    private final ZoneId zone;
+    private final long averagingMillis;
+    /** Peak demand per slot of the day; NaN if we've never seen that slot. */
+    private final double[] profile = new double[SLOTS_PER_DAY];
+
+    private double average;
+    private long lastSampleMillis = Long.MIN_VALUE;
+    private long currentDay = Long.MIN_VALUE;
+    private int currentSlot;
+    private double currentSlotPeak;
+
+    /**
+     * @param zone
+     *            The time zone whose day we follow.
+     * @param averagingMillis
+     *            How quickly the moving average follows changes; roughly,
+     *            how far back it remembers.
+     */
+    DemandForecast(ZoneId zone, long averagingMillis) {
+        this.zone = zone;
+        this.averagingMillis = Math.max(1L, averagingMillis);
+        Arrays.fill(profile, Double.NaN);
+    }
+
+    /**
+     * Records how many executors were wanted.
+     *
+     * @param nowMillis
+     *            When, as per {@link System#currentTimeMillis()}.
+     * @param demand
+     *            The number of executors wanted: busy plus queued.
+     */
+    synchronized void record(long nowMillis, int demand) {
+        if (lastSampleMillis == Long.MIN_VALUE) {
+            average = demand;
+        } else {
+            final long elapsed = Math.max(0L, nowMillis - lastSampleMillis);
+            final double alpha = 1.0 - Math.exp(-(double) elapsed / averagingMillis);
+            average += alpha * (demand - average);
+        }
+        lastSampleMillis = nowMillis;
+
+        final LocalDateTime time = toLocal(nowMillis);
+        final long day = time.toLocalDate().toEpochDay();
+        final int slot = slotOf(time);
+        if (day != currentDay || slot != currentSlot) {
+            finishSlot();
+            currentDay = day;
+            currentSlot = slot;
+            currentSlotPeak = demand;
+        } else {
+            currentSlotPeak = Math.max(currentSlotPeak, demand);
+        }
+    }
+
+    /**
+     * Predicts how many executors will be wanted.
+     *
+     * @param nowMillis
+     *            When, as per {@link System#currentTimeMillis()}.
+     * @param lookAheadMillis
+     *            How far ahead to look.
+     * @return The most executors we expect to be wanted between now and
+     *         then.
+     */
+    synchronized int forecast(long nowMillis, long lookAheadMillis) {
+        double result = average;
+        final long slotMillis = TimeUnit.MINUTES.toMillis(SLOT_MINUTES);
+        final long end = nowMillis + Math.max(0L, lookAheadMillis);
+        for (long t = nowMillis; ; t = Math.min(t + slotMillis, end)) {
+            final double expected = profile[slotOf(toLocal(t))];
+            if (!Double.isNaN(expected)) {
+                result = Math.max(result, expected);
+            }
+            if (t == end) {
+                break;
+            }
+        }
+        return Math.max(0, (int) Math.ceil(result - FRACTION_IGNORED));
+    }
+
+    private void finishSlot() {
+        if (currentDay == Long.MIN_VALUE) {
+            return;
+        }
+        final double previous = profile[currentSlot];
+        profile[currentSlot] =
+                Double.isNaN(previous) ? currentSlotPeak : previous + PROFILE_WEIGHT * (currentSlotPeak - previous);
+    }
+
+    private LocalDateTime toLocal(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), zone);
+    }
+
+    private static int slotOf(LocalDateTime time) {
+        return (time.getHour() * 60 + time.getMinute()) / SLOT_MINUTES;
+    }
+}
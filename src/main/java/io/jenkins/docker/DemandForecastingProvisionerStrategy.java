@@ -0,0 +1,117 @@
+package io.jenkins.docker;
+
+import static hudson.slaves.NodeProvisioner.Strategy;
+import static hudson.slaves.NodeProvisioner.StrategyDecision;
+import static hudson.slaves.NodeProvisioner.StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.FINEST;
+
+import com.nirima.jenkins.plugins.docker.DockerCloud;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Label;
+import hudson.model.LoadStatistics;
+import hudson.slaves.Cloud;
+import hudson.slaves.NodeProvisioner;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+
+/**
+ * Starts agents ahead of the demand we expect, for clouds that have
+ * {@link DockerCloud#isForecastDemand()} set, so that builds find an agent
+ * waiting rather than having to wait for one.
+ * <p>
+ * Each time the {@link NodeProvisioner} looks at a label we record how many
+ * executors it wants (busy plus queued) in a {@link DemandForecast}, and if
+ * that predicts more will be wanted soon than we have (or are starting), we
+ * start the difference. Agents are only started within the cloud's and the
+ * templates' caps, as {@link DockerCloud#provision(Label, int)} enforces
+ * those. This runs before {@link FastNodeProvisionerStrategy}, which then
+ * deals with whatever is actually queued.
+ * </p>
+ * <p>
+ * Forecasts are kept in memory, so they start from scratch whenever Jenkins
+ * is restarted.
+ * </p>
+ */
+@Extension(ordinal = 100)
+public class DemandForecastingProvisionerStrategy extends Strategy {
+
+    private static final Logger LOGGER = Logger.getLogger(DemandForecastingProvisionerStrategy.class.getName());
+
+    /** How far ahead we try to have agents ready for. */
+    private static final long LOOK_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(JenkinsUtils.getSystemPropertyLong(
+            DemandForecastingProvisionerStrategy.class.getName() + ".lookAheadMinutes", 5L));
+
+    /** How quickly the moving average of demand follows changes. */
+    private static final long AVERAGING_MILLIS = TimeUnit.MINUTES.toMillis(JenkinsUtils.getSystemPropertyLong(
+            DemandForecastingProvisionerStrategy.class.getName() + ".averagingMinutes", 10L));
+
+    /** Forecasts, keyed by label expression ("" for no label). */
+    private static final ConcurrentHashMap<String, DemandForecast> FORECASTS = new ConcurrentHashMap<>();
+
+    @NonNull
+    @Override
+    public StrategyDecision apply(@NonNull NodeProvisioner.StrategyState state) {
+        if (Jenkins.get().isQuietingDown()) {
+            return CONSULT_REMAINING_STRATEGIES;
+        }
+        final Label label = state.getLabel();
+        final List<DockerCloud> clouds = new ArrayList<>();
+        for (Cloud cloud : Jenkins.get().clouds) {
+            if (cloud instanceof DockerCloud
+                    && ((DockerCloud) cloud).isForecastDemand()
+                    && cloud.canProvision(label)) {
+                clouds.add((DockerCloud) cloud);
+            }
+        }
+        if (clouds.isEmpty()) {
+            return CONSULT_REMAINING_STRATEGIES;
+        }
+
+        final LoadStatistics.LoadStatisticsSnapshot snapshot = state.getSnapshot();
+        final long now = System.currentTimeMillis();
+        final DemandForecast forecast = forecastFor(label);
+        forecast.record(now, snapshot.getBusyExecutors() + snapshot.getQueueLength());
+        final int expectedDemand = forecast.forecast(now, LOOK_AHEAD_MILLIS);
+        final int capacity = snapshot.getBusyExecutors()
+                + snapshot.getAvailableExecutors()
+                + snapshot.getConnectingExecutors()
+                + state.getPlannedCapacitySnapshot();
+        LOGGER.log(FINEST, "Label {0}: expected demand={1}, capacity={2}", new Object[] {
+            label, expectedDemand, capacity
+        });
+
+        int shortfall = expectedDemand - capacity;
+        for (final DockerCloud cloud : clouds) {
+            if (shortfall <= 0) {
+                break;
+            }
+            final Collection<NodeProvisioner.PlannedNode> plannedNodes = cloud.provision(label, shortfall);
+            if (plannedNodes.isEmpty()) {
+                continue;
+            }
+            LOGGER.log(FINE, "Planned {0} new nodes for {1} ahead of expected demand of {2}", new Object[] {
+                plannedNodes.size(), label, expectedDemand
+            });
+            FastNodeProvisionerStrategy.fireOnStarted(cloud, label, plannedNodes);
+            state.recordPendingLaunches(plannedNodes);
+            for (final NodeProvisioner.PlannedNode plannedNode : plannedNodes) {
+                shortfall -= plannedNode.numExecutors;
+            }
+        }
+        return CONSULT_REMAINING_STRATEGIES;
+    }
+
+    private static DemandForecast forecastFor(Label label) {
+        final String key = label == null ? "" : label.getExpression();
+        return FORECASTS.computeIfAbsent(key, k -> new DemandForecast(ZoneId.systemDefault(), AVERAGING_MILLIS));
+    }
+}
@@ -51,7 +51,9 @@ public class DockerComputer extends AbstractCloudComputer<DockerTransientNode> i
         final DockerCloud cloudOrNull = getCloud();
         if (cloudOrNull != null && cloudOrNull.isExposeDockerHost()) {
             variables.put("JENKINS_CLOUD_ID", cloudOrNull.name);
-            final DockerAPI dockerApi = cloudOrNull.getDockerApi();
+            final DockerTransientNode nodeOrNull = getNode();
+            final DockerAPI nodeApiOrNull = nodeOrNull == null ? null : nodeOrNull.getDockerAPI();
+            final DockerAPI dockerApi = nodeApiOrNull != null ? nodeApiOrNull : cloudOrNull.getDockerApi();
             final DockerServerEndpoint dockerHost = dockerApi.getDockerHost();
             final String dockerHostUriOrNull = dockerHost.getUri();
             if (dockerHostUriOrNull != null) {
@@ -0,0 +1,212 @@
+package io.jenkins.docker;
+
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import jenkins.security.ImpersonatingExecutorService;
+import jenkins.util.NamingThreadFactory;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs this plugin's background work (provisioning, terminating and other
+ * blocking calls to docker) so that it doesn't compete with the rest of
+ * Jenkins for {@link hudson.model.Computer#threadPoolForRemoting}.
+ * <p>
+ * Where the JVM supports virtual threads we use one per task, as these tasks
+ * spend nearly all their time waiting for docker. Otherwise we fall back to a
+ * bounded pool of ordinary threads. Either way, the amount of work we'll send
+ * to any one docker endpoint at once is limited by
+ * {@link #forEndpoint(String)} rather than by the number of threads.
+ * </p>
+ * Tasks run as {@link ACL#SYSTEM2}.
+ */
+@Restricted(NoExternalUse.class)
+public final class DockerTaskExecutor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerTaskExecutor.class);
+
+    private static final String PROP_PREFIX = DockerTaskExecutor.class.getName() + ".";
+
+    /** Set to false to use ordinary threads even if virtual threads are available. */
+    private static final boolean USE_VIRTUAL_THREADS =
+            JenkinsUtils.getSystemPropertyBoolean(PROP_PREFIX + "useVirtualThreads", true);
+
+    /** Size of the thread pool we use if we aren't using virtual threads. */
+    private static final int MAX_THREADS = Math.max(
+            1, JenkinsUtils.getSystemPropertyLong(PROP_PREFIX + "maxThreads", 32L).intValue());
+
+    /** How many of our tasks can be working with any one docker endpoint at once. */
+    private static final int MAX_CONCURRENT_TASKS_PER_ENDPOINT = Math.max(
+            1,
+            JenkinsUtils.getSystemPropertyLong(PROP_PREFIX + "maxConcurrentTasksPerEndpoint", 16L)
+                    .intValue());
+
+    private static final String THREAD_NAME = "DockerPlugin";
+
+    private static final ConcurrentHashMap<String, EndpointLimiter> BY_ENDPOINT = new ConcurrentHashMap<>();
+
+    private static volatile boolean usingVirtualThreads;
+
+    private static final ExecutorService SHARED = createExecutor();
+
+    private DockerTaskExecutor() {}
+
+    /**
+     * Obtains the executor for work that isn't specific to a docker endpoint
+     * (or that doesn't talk to docker at all).
+     *
+     * @return Our shared executor.
+     */
+    @NonNull
+    public static ExecutorService shared() {
+        return SHARED;
+    }
+
+    /**
+     * Obtains an executor for work that talks to a docker endpoint. Tasks
+     * given to this executor will run on our {@link #shared()} executor but no
+     * more than a fixed number (per endpoint) will be run at once; any more
+     * will be queued (without using a thread) until one finishes.
+     *
+     * @param dockerUri
+     *            The URI of the docker endpoint.
+     * @return An executor for that endpoint.
+     */
+    @NonNull
+    public static Executor forEndpoint(@NonNull String dockerUri) {
+        return BY_ENDPOINT.computeIfAbsent(
+                dockerUri, uri -> new EndpointLimiter(SHARED, MAX_CONCURRENT_TASKS_PER_ENDPOINT));
+    }
+
+    /** @return true if we're running our tasks on virtual threads. */
+    public static boolean isUsingVirtualThreads() {
+        return usingVirtualThreads;
+    }
+
+    private static ExecutorService createExecutor() {
+        if (USE_VIRTUAL_THREADS) {
+            final ExecutorService virtual = createVirtualThreadExecutor();
+            if (virtual != null) {
+                usingVirtualThreads = true;
+                LOGGER.info("Using virtual threads for docker tasks.");
+                return new ImpersonatingExecutorService(virtual, ACL.SYSTEM2);
+            }
+        }
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                MAX_THREADS,
+                MAX_THREADS,
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), THREAD_NAME));
+        pool.allowCoreThreadTimeOut(true);
+        return new ImpersonatingExecutorService(pool, ACL.SYSTEM2);
+    }
+
+    /**
+     * Virtual threads only exist from Java 21 onwards but we have to run on
+     * Java 17 too, so we have to ask for them by name.
+     *
+     * @return An executor that runs each task on a new virtual thread, or null
+     *         if this JVM can't do that.
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builderClass.getMethod("name", String.class, long.class).invoke(builder, THREAD_NAME + "-", 0L);
+            final ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class
+                    .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError ex) {
+            LOGGER.debug("Virtual threads are not available; using a thread pool for docker tasks.", ex);
+            return null;
+        }
+    }
+
+    /**
+     * An {@link Executor} that passes tasks on to another, but only lets a
+     * fixed number run at once. Tasks waiting for a permit are queued here
+     * rather than blocking a thread. If the other executor rejects a task,
+     * it stays queued (and its permit is released) until we next try; if the
+     * task was the one being submitted, the submitter is told instead.
+     */
+    static final class EndpointLimiter implements Executor {
+        private final Executor delegate;
+        private final Semaphore permits;
+        private final ConcurrentLinkedDeque<Runnable> waiting = new ConcurrentLinkedDeque<>();
+
+        EndpointLimiter(@NonNull Executor delegate, int maxConcurrentTasks) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxConcurrentTasks);
+        }
+
+        @Override
+        public void execute(@NonNull Runnable task) {
+            waiting.add(task);
+            final RejectedExecutionException rejected = dispatch();
+            if (rejected != null && waiting.remove(task)) {
+                throw rejected;
+            }
+        }
+
+        /** @return The number of tasks waiting for a permit. */
+        int getQueued() {
+            return waiting.size();
+        }
+
+        /** @return The number of further tasks that could start right now. */
+        int getAvailablePermits() {
+            return permits.availablePermits();
+        }
+
+        /** @return Why we had to stop passing tasks on, or null if we didn't. */
+        @CheckForNull
+        private RejectedExecutionException dispatch() {
+            // Every time a task is queued or a permit is released, we get here,
+            // so nothing can be left waiting while a permit is available.
+            while (!waiting.isEmpty() && permits.tryAcquire()) {
+                final Runnable next = waiting.poll();
+                if (next == null) {
+                    permits.release(); // someone else got there first
+                    continue;
+                }
+                try {
+                    delegate.execute(() -> {
+                        try {
+                            next.run();
+                        } finally {
+                            permits.release();
+                            final RejectedExecutionException ex = dispatch();
+                            if (ex != null) {
+                                LOGGER.debug("Unable to start queued docker task; it will be retried later", ex);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    // Put it back where it was, rather than losing it.
+                    waiting.addFirst(next);
+                    permits.release();
+                    return ex;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.github.dockerjava.api.exception.ConflictException;
 import com.github.dockerjava.api.exception.NotFoundException;
 import com.github.dockerjava.api.exception.NotModifiedException;
 import com.nirima.jenkins.plugins.docker.DockerCloud;
+import com.nirima.jenkins.plugins.docker.DockerContainerInventory;
 import com.nirima.jenkins.plugins.docker.DockerOfflineCause;
 import com.nirima.jenkins.plugins.docker.DockerTemplate;
 import com.nirima.jenkins.plugins.docker.strategy.DockerOnceRetentionStrategy;
@@ -13,6 +14,7 @@ import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.Extension;
 import hudson.model.Computer;
 import hudson.model.Descriptor;
+import hudson.model.Queue;
 import hudson.model.TaskListener;
 import hudson.slaves.AbstractCloudSlave;
 import hudson.slaves.Cloud;
@@ -20,6 +22,7 @@ import hudson.slaves.ComputerLauncher;
 import io.jenkins.docker.client.DockerAPI;
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.cloudstats.ProvisioningActivity;
 import org.jenkinsci.plugins.cloudstats.TrackedItem;
@@ -41,16 +44,37 @@ public class DockerTransientNode extends AbstractCloudSlave implements TrackedIt
 
     private transient DockerAPI dockerAPI;
 
+    /** Which of our cloud's docker endpoints our container is on. */
+    private String dockerHostUri;
+
     private boolean removeVolumes;
 
     private int stopTimeout = DockerTemplate.DEFAULT_STOP_TIMEOUT;
 
     private String cloudId;
 
+    private String templateId;
+
     private ProvisioningActivity.Id provisioningId;
 
     private AtomicBoolean acceptingTasks = new AtomicBoolean(true);
 
+    /** True if our container has been paused as a standby agent, see {@link #pause()}. */
+    private volatile boolean paused;
+
+    /** When we were last paused or unpaused; 0 if not since Jenkins started. */
+    private transient volatile long pausedStateChangedMillis;
+
+    /** When provisioning us started (as per {@link System#nanoTime()}), until we've first come online; else 0. */
+    private transient long provisioningStartedNanos;
+
+    /**
+     * Held while we ask docker to do things to our container. This isn't our
+     * monitor as that's held across docker calls on virtual threads, which
+     * would pin them to their carrier thread.
+     */
+    private transient volatile ReentrantLock containerLock;
+
     /**
      * @deprecated Use {@link #DockerTransientNode(String, String, String)} then
      *             {@link #setLauncher(ComputerLauncher)}.
@@ -112,14 +136,16 @@ public class DockerTransientNode extends AbstractCloudSlave implements TrackedIt
 
     public void setDockerAPI(DockerAPI dockerAPI) {
         this.dockerAPI = dockerAPI;
+        this.dockerHostUri = dockerAPI == null ? null : dockerAPI.getDockerHost().getUri();
     }
 
-    /** @return The {@link DockerAPI} for our cloud. */
+    /** @return The {@link DockerAPI} for the endpoint our container is on. */
     public DockerAPI getDockerAPI() {
         if (dockerAPI == null) {
             final DockerCloud cloud = getCloud();
             if (cloud != null) {
-                dockerAPI = cloud.getDockerApi();
+                final DockerAPI ourEndpoint = cloud.getDockerApi(dockerHostUri);
+                dockerAPI = ourEndpoint != null ? ourEndpoint : cloud.getDockerApi();
             }
         }
         return dockerAPI;
@@ -157,6 +183,150 @@ public class DockerTransientNode extends AbstractCloudSlave implements TrackedIt
         this.cloudId = cloudId;
     }
 
+    /** @return The {@link DockerTemplate#getTemplateId()} of the template we were made from. */
+    public String getTemplateId() {
+        return templateId;
+    }
+
+    public void setTemplateId(String templateId) {
+        this.templateId = templateId;
+    }
+
+    @Restricted(NoExternalUse.class)
+    public synchronized void setProvisioningStartedNanos(long provisioningStartedNanos) {
+        this.provisioningStartedNanos = provisioningStartedNanos;
+    }
+
+    /**
+     * Tells us when provisioning us started, but only once, so that we only
+     * time how long it took us to come online the first time.
+     *
+     * @return When provisioning started, as per {@link System#nanoTime()}, or
+     *         0 if we've been asked already (or don't know).
+     */
+    @Restricted(NoExternalUse.class)
+    public synchronized long takeProvisioningStartedNanos() {
+        final long result = provisioningStartedNanos;
+        provisioningStartedNanos = 0L;
+        return result;
+    }
+
+    /** @return true if our container is paused, so we're not available for builds. */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @return When we were last {@link #pause()}d or {@link #unpause()}d (as
+     *         per {@link System#currentTimeMillis()}), or 0 if that hasn't
+     *         happened since Jenkins started.
+     */
+    public long getPausedStateChangedMillis() {
+        return pausedStateChangedMillis;
+    }
+
+    /**
+     * Pauses our container so that it uses no CPU while we wait for a build,
+     * and stops the queue giving us any work until we're {@link #unpause()}d.
+     * Only an idle node can be paused.
+     * <p>
+     * Note: This is not intended for use outside the plugin.
+     *
+     * @return true if we paused it, false if we're not idle or docker
+     *         wouldn't do it.
+     */
+    @Restricted(NoExternalUse.class)
+    public boolean pause() {
+        // Make sure nothing is given to us while docker does the pausing.
+        final boolean[] wasIdle = {false};
+        Queue.withLock(() -> {
+            final Computer computer = toComputer();
+            if (!paused && isAcceptingTasks() && computer != null && computer.isIdle()) {
+                setAcceptingTasks(false);
+                wasIdle[0] = true;
+            }
+        });
+        if (!wasIdle[0]) {
+            return false;
+        }
+        final ReentrantLock lock = getContainerLock();
+        lock.lock();
+        try {
+            try (final DockerClient client = getDockerAPI().getClient()) {
+                client.pauseContainerCmd(containerId).exec();
+            } catch (Exception ex) {
+                LOGGER.warn("Failed to pause container '{}' for node '{}'", containerId, name, ex);
+                setAcceptingTasks(true);
+                return false;
+            }
+            paused = true;
+            pausedStateChangedMillis = System.currentTimeMillis();
+        } finally {
+            lock.unlock();
+        }
+        LOGGER.debug("Paused container '{}' for node '{}'.", containerId, name);
+        return true;
+    }
+
+    /**
+     * Reverses {@link #pause()}, making us available for builds again.
+     * <p>
+     * Note: This is not intended for use outside the plugin.
+     *
+     * @return true if we unpaused it, false if we weren't paused or docker
+     *         wouldn't do it.
+     */
+    @Restricted(NoExternalUse.class)
+    public boolean unpause() {
+        if (!unpauseContainer()) {
+            return false;
+        }
+        setAcceptingTasks(true);
+        LOGGER.debug("Unpaused container '{}' for node '{}'.", containerId, name);
+        return true;
+    }
+
+    private boolean unpauseContainer() {
+        final ReentrantLock lock = getContainerLock();
+        lock.lock();
+        try {
+            if (!paused) {
+                return false;
+            }
+            try (final DockerClient client = getDockerAPI().getClient()) {
+                client.unpauseContainerCmd(containerId).exec();
+            } catch (ConflictException handledByCode) {
+                LOGGER.debug("Container '{}' for node '{}' was not paused.", containerId, name);
+            } catch (NotFoundException handledByCode) {
+                // Nothing to unpause; we'll be removed for having no container.
+                paused = false;
+                return false;
+            } catch (Exception ex) {
+                LOGGER.warn("Failed to unpause container '{}' for node '{}'", containerId, name, ex);
+                return false;
+            }
+            paused = false;
+            pausedStateChangedMillis = System.currentTimeMillis();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock getContainerLock() {
+        ReentrantLock result = containerLock;
+        if (result == null) {
+            synchronized (this) {
+                result = containerLock;
+                if (result == null) {
+                    result = new ReentrantLock();
+                    containerLock = result;
+                }
+            }
+        }
+        return result;
+    }
+
     public ProvisioningActivity.Id getProvisioningId() {
         return provisioningId;
     }
@@ -244,6 +414,7 @@ public class DockerTransientNode extends AbstractCloudSlave implements TrackedIt
 
     // terminate gets called multiple times, and the docker client logs noisy
     // exceptions if we try to stop or remove a container twice.
+    // These are guarded by containerLock.
     private transient boolean containerStopped;
     private transient boolean containerRemoved;
 
@@ -259,33 +430,42 @@ public class DockerTransientNode extends AbstractCloudSlave implements TrackedIt
         }
 
         final String ourContainerId = getContainerId();
-        Computer.threadPoolForRemoting.submit(() -> {
-            synchronized (DockerTransientNode.this) {
-                if (containerRemoved) {
-                    return; // nothing left to do here
-                }
-                final DockerAPI api;
+        DockerAPI apiOrNull;
+        try {
+            apiOrNull = getDockerAPI();
+        } catch (RuntimeException ex) {
+            logger.error(
+                    "Unable to stop and remove container '" + ourContainerId + "' for node '" + name
+                            + "' due to exception:",
+                    ex);
+            apiOrNull = null;
+        }
+        final DockerAPI api = apiOrNull;
+        if (api != null) {
+            DockerTaskExecutor.forEndpoint(api.getDockerHost().getUri()).execute(() -> {
+                final ReentrantLock lock = getContainerLock();
+                lock.lock();
                 try {
-                    api = getDockerAPI();
-                } catch (RuntimeException ex) {
-                    logger.error(
-                            "Unable to stop and remove container '" + ourContainerId + "' for node '" + name
-                                    + "' due to exception:",
-                            ex);
-                    return;
+                    if (containerRemoved) {
+                        return; // nothing left to do here
+                    }
+                    // older docker daemons refuse to stop a paused container
+                    unpauseContainer();
+                    final boolean[] newValues = stopAndRemoveContainer(
+                            api,
+                            logger,
+                            "for node '" + name + "'",
+                            removeVolumes,
+                            stopTimeout,
+                            ourContainerId,
+                            containerStopped);
+                    containerStopped = newValues[0];
+                    containerRemoved = newValues[1];
+                } finally {
+                    lock.unlock();
                 }
-                final boolean[] newValues = stopAndRemoveContainer(
-                        api,
-                        logger,
-                        "for node '" + name + "'",
-                        removeVolumes,
-                        stopTimeout,
-                        ourContainerId,
-                        containerStopped);
-                containerStopped = newValues[0];
-                containerRemoved = newValues[1];
-            }
-        });
+            });
+        }
 
         try {
             Jenkins.get().removeNode(this);
@@ -353,6 +533,9 @@ public class DockerTransientNode extends AbstractCloudSlave implements TrackedIt
                     "Failed to remove container '" + containerId + "' " + containerDescription + " due to exception:",
                     ex);
         }
+        if (containerNowRemoved) {
+            DockerContainerInventory.forApi(api).containerRemoved(containerId);
+        }
         return new boolean[] {containerNowStopped, containerNowRemoved};
     }
 
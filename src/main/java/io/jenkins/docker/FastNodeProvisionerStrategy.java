@@ -93,7 +93,7 @@ public class FastNodeProvisionerStrategy extends Strategy {
      * Mirrors {@code NodeProvisioner#fireOnStarted}. The custom strategy provisions directly,
      * so it must fire CloudProvisioningListener.onStarted manually.
      */
-    private static void fireOnStarted(Cloud cloud, Label label, Collection<NodeProvisioner.PlannedNode> plannedNodes) {
+    static void fireOnStarted(Cloud cloud, Label label, Collection<NodeProvisioner.PlannedNode> plannedNodes) {
         for (CloudProvisioningListener cl : CloudProvisioningListener.all()) {
             try {
                 cl.onStarted(cloud, label, plannedNodes);
@@ -1,8 +1,5 @@
 package io.jenkins.docker.client;
 
-import static com.cloudbees.plugins.credentials.CredentialsMatchers.firstOrNull;
-import static com.cloudbees.plugins.credentials.CredentialsMatchers.withId;
-import static com.cloudbees.plugins.credentials.CredentialsProvider.lookupCredentials;
 import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.bldToString;
 import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.endToString;
 import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.startToString;
@@ -15,26 +12,26 @@ import com.github.dockerjava.core.DockerClientBuilder;
 import com.github.dockerjava.core.SSLConfig;
 import com.github.dockerjava.httpclient5.ApacheDockerHttpClient;
 import com.github.dockerjava.transport.DockerHttpClient;
+import com.nirima.jenkins.plugins.docker.DockerCloud;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.Extension;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
 import hudson.model.Item;
-import hudson.security.ACL;
+import hudson.slaves.Cloud;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
+import io.jenkins.docker.DockerTaskExecutor;
 import io.jenkins.dockerjavaapi.client.DelegatingDockerClient;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.io.UncheckedIOException;
 import java.net.Socket;
 import java.net.URI;
 import java.time.Duration;
-import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 import jenkins.model.Jenkins;
-import org.jenkinsci.plugins.docker.commons.credentials.DockerServerCredentials;
 import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -65,9 +62,22 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
     private String hostname;
 
     /**
-     * Is this host actually a swarm?
+     * Maximum number of concurrent HTTP connections to the docker daemon, per
+     * client. 0 means the docker-java default (unlimited).
      */
-    private transient Boolean _isSwarm;
+    private int maxConnections;
+
+    /**
+     * Maximum number of containers we'll provision on the docker endpoint at
+     * once. 0 means no limit.
+     */
+    private int maxConcurrentProvisions;
+
+    /**
+     * Maximum number of containers we'll start provisioning on the docker
+     * endpoint per minute. 0 means no limit.
+     */
+    private int provisionsPerMinute;
 
     @DataBoundConstructor
     public DockerAPI(DockerServerEndpoint dockerHost) {
@@ -123,17 +133,177 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
         this.hostname = trimToNull(hostname);
     }
 
-    public boolean isSwarm() {
-        if (_isSwarm == null) {
-            try (final DockerClient client = getClient()) {
-                Version remoteVersion = client.versionCmd().exec();
-                // Cache the return.
-                _isSwarm = remoteVersion.getVersion().startsWith("swarm");
-            } catch (IOException ex) {
-                throw new UncheckedIOException(ex);
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    @DataBoundSetter
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = Math.max(0, maxConnections);
+    }
+
+    public int getMaxConcurrentProvisions() {
+        return maxConcurrentProvisions;
+    }
+
+    @DataBoundSetter
+    public void setMaxConcurrentProvisions(int maxConcurrentProvisions) {
+        this.maxConcurrentProvisions = Math.max(0, maxConcurrentProvisions);
+    }
+
+    public int getProvisionsPerMinute() {
+        return provisionsPerMinute;
+    }
+
+    @DataBoundSetter
+    public void setProvisionsPerMinute(int provisionsPerMinute) {
+        this.provisionsPerMinute = Math.max(0, provisionsPerMinute);
+    }
+
+    /**
+     * Live counts of the HTTP requests we're making to our docker endpoint,
+     * which approximate the connections in use.
+     *
+     * @return counts summed over all our clients for this endpoint.
+     */
+    public DockerConnectionStatistics getConnectionStatistics() {
+        return DockerConnectionStatistics.forEndpoint(dockerHost.getUri());
+    }
+
+    /**
+     * Live counts and timings of the calls made to our docker endpoint.
+     *
+     * @return metrics summed over all our clients for this endpoint.
+     */
+    public DockerCommandMetrics getCommandMetrics() {
+        return DockerCommandMetrics.forEndpoint(dockerHost.getUri());
+    }
+
+    /**
+     * Obtains the throttle that limits how much provisioning we do on our
+     * docker endpoint at once. As the throttle is shared by every
+     * {@link DockerAPI} for the same endpoint, it enforces the strictest of
+     * their limits (and ours), rather than whichever was asked for last.
+     *
+     * @return The throttle, shared with all other {@link DockerAPI}s for the
+     *         same endpoint.
+     */
+    public DockerProvisioningThrottle getProvisioningThrottle() {
+        final String uri = dockerHost.getUri();
+        int maxConcurrent = maxConcurrentProvisions;
+        int perMinute = provisionsPerMinute;
+        final Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins != null) {
+            for (final Cloud cloud : jenkins.clouds) {
+                if (cloud instanceof DockerCloud) {
+                    for (final DockerAPI other : ((DockerCloud) cloud).getDockerApis()) {
+                        if (Objects.equals(uri, other.getDockerHost().getUri())) {
+                            maxConcurrent =
+                                    DockerProvisioningThrottle.stricter(maxConcurrent, other.maxConcurrentProvisions);
+                            perMinute = DockerProvisioningThrottle.stricter(perMinute, other.provisionsPerMinute);
+                        }
+                    }
+                }
+            }
+        }
+        final DockerProvisioningThrottle throttle = DockerProvisioningThrottle.forEndpoint(uri);
+        throttle.configure(maxConcurrent, perMinute);
+        return throttle;
+    }
+
+    /**
+     * Obtains the {@link DockerPullCoordinator} for our docker endpoint, so
+     * that we don't pull the same image more than once at a time.
+     *
+     * @return The coordinator, shared with all other {@link DockerAPI}s for
+     *         the same endpoint.
+     */
+    public DockerPullCoordinator getPullCoordinator() {
+        return DockerPullCoordinator.forEndpoint(dockerHost.getUri());
+    }
+
+    /**
+     * Obtains what we know about our docker endpoint. This is shared with all
+     * other {@link DockerAPI}s for the same endpoint and is only fetched from
+     * the endpoint when we don't know it already.
+     *
+     * @return The endpoint's version, API version, OS etc.
+     */
+    public DockerEndpointCapabilities getCapabilities() {
+        return DockerEndpointCapabilities.of(this);
+    }
+
+    /**
+     * Obtains what we already know of our docker endpoint's capabilities.
+     * Unlike {@link #getCapabilities()}, this never waits for the endpoint;
+     * if we don't know, or what we know is out of date, the endpoint is asked
+     * in the background.
+     *
+     * @return The endpoint's version, API version, OS etc, possibly out of
+     *         date, or null if we don't know them yet.
+     */
+    @CheckForNull
+    public DockerEndpointCapabilities getCapabilitiesIfKnown() {
+        return DockerEndpointCapabilities.ifKnown(this);
+    }
+
+    /**
+     * Tells us that what we know about our docker endpoint may be out of date,
+     * e.g. because we've failed to talk to it.
+     */
+    public void invalidateCapabilities() {
+        DockerEndpointCapabilities.invalidate(dockerHost.getUri());
+    }
+
+    /**
+     * Obtains the circuit breaker that tracks the health of our docker
+     * endpoint.
+     *
+     * @return The circuit breaker, shared with all other {@link DockerAPI}s
+     *         for the same endpoint.
+     */
+    public DockerEndpointCircuitBreaker getCircuitBreaker() {
+        return DockerEndpointCircuitBreaker.forEndpoint(dockerHost.getUri());
+    }
+
+    /**
+     * Indicates whether our docker endpoint is healthy enough to provision
+     * from. This only looks at our circuit breaker, so it never waits for the
+     * endpoint; it's called by Jenkins' provisioning code, sometimes with the
+     * build queue locked. If the endpoint has been failing but it's time to
+     * see if it has recovered then we ask it in the background.
+     *
+     * @return true if the endpoint can be used.
+     */
+    public boolean isAvailable() {
+        final DockerEndpointCircuitBreaker breaker = getCircuitBreaker();
+        if (breaker.isCallPermitted()) {
+            return true;
+        }
+        if (breaker.tryAcquireProbe()) {
+            try {
+                DockerTaskExecutor.forEndpoint(dockerHost.getUri()).execute(() -> probe(breaker));
+            } catch (RuntimeException ex) {
+                LOGGER.debug("Unable to check if docker endpoint {} has recovered", dockerHost.getUri(), ex);
+                breaker.releaseProbe();
             }
         }
-        return _isSwarm;
+        return false;
+    }
+
+    /** Sends the trial request that tells our circuit breaker whether our endpoint has recovered. */
+    private void probe(DockerEndpointCircuitBreaker breaker) {
+        try (final DockerClient client = getClient()) {
+            client.pingCmd().exec(); // our http client tells the breaker how this went
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.debug("Docker endpoint {} is still not responding", dockerHost.getUri(), ex);
+        } finally {
+            breaker.releaseProbe();
+        }
+    }
+
+    public boolean isSwarm() {
+        return getCapabilities().isSwarm();
     }
 
     /**
@@ -169,7 +339,11 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
      */
     public DockerClient getClient(int activityTimeoutInSeconds) {
         return getOrMakeClient(
-                dockerHost.getUri(), dockerHost.getCredentialsId(), activityTimeoutInSeconds, connectTimeout);
+                dockerHost.getUri(),
+                dockerHost.getCredentialsId(),
+                activityTimeoutInSeconds,
+                connectTimeout,
+                maxConnections);
     }
 
     /** Caches connections until they've been unused for 5 minutes */
@@ -188,26 +362,36 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
                 }
             }
         };
-        CLIENT_CACHE = new UsageTrackingCache(5, TimeUnit.MINUTES, expiryHandler);
+        CLIENT_CACHE = new UsageTrackingCache<>(5, TimeUnit.MINUTES, expiryHandler);
     }
 
     /** Obtains a {@link DockerClient} from the cache, or makes one and puts it in the cache, implicitly telling the cache we need it. */
     private static DockerClient getOrMakeClient(
-            final String dockerUri, final String credentialsId, final int readTimeout, final int connectTimeout) {
+            final String dockerUri,
+            final String credentialsId,
+            final int readTimeout,
+            final int connectTimeout,
+            final int maxConnections) {
         final Integer readTimeoutInMillisecondsOrNull = readTimeout > 0 ? readTimeout * 1000 : null;
         final Integer connectTimeoutInMillisecondsOrNull = connectTimeout > 0 ? connectTimeout * 1000 : null;
+        final int maxConnectionsOrZero = Math.max(0, maxConnections);
         final DockerClientParameters cacheKey = new DockerClientParameters(
-                dockerUri, credentialsId, readTimeoutInMillisecondsOrNull, connectTimeoutInMillisecondsOrNull);
-        synchronized (CLIENT_CACHE) {
-            SharableDockerClient client = CLIENT_CACHE.getAndIncrementUsage(cacheKey);
-            if (client == null) {
-                client = makeClient(
-                        dockerUri, credentialsId, readTimeoutInMillisecondsOrNull, connectTimeoutInMillisecondsOrNull);
-                LOGGER.info("Cached connection {} to {}", client, cacheKey);
-                CLIENT_CACHE.cacheAndIncrementUsage(cacheKey, client);
-            }
+                dockerUri,
+                credentialsId,
+                readTimeoutInMillisecondsOrNull,
+                connectTimeoutInMillisecondsOrNull,
+                maxConnectionsOrZero);
+        // Only callers wanting the same key will wait for each other here.
+        return CLIENT_CACHE.getOrCreateAndIncrementUsage(cacheKey, key -> {
+            final SharableDockerClient client = makeClient(
+                    dockerUri,
+                    credentialsId,
+                    readTimeoutInMillisecondsOrNull,
+                    connectTimeoutInMillisecondsOrNull,
+                    maxConnectionsOrZero);
+            LOGGER.info("Cached connection {} to {}", client, key);
             return client;
-        }
+        });
     }
 
     /**
@@ -227,9 +411,7 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
          */
         @Override
         public void close() {
-            synchronized (CLIENT_CACHE) {
-                CLIENT_CACHE.decrementUsage(this);
-            }
+            CLIENT_CACHE.decrementUsage(this);
         }
 
         /**
@@ -249,11 +431,12 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
             final String dockerUri,
             final String credentialsId,
             final Integer readTimeoutInMillisecondsOrNull,
-            final Integer connectTimeoutInMillisecondsOrNull) {
+            final Integer connectTimeoutInMillisecondsOrNull,
+            final int maxConnectionsOrZero) {
         DockerHttpClient httpClient = null;
         DockerClient actualClient = null;
         try {
-            httpClient = new ApacheDockerHttpClient.Builder() //
+            final ApacheDockerHttpClient.Builder httpClientBuilder = new ApacheDockerHttpClient.Builder() //
                     .dockerHost(URI.create(dockerUri)) //
                     .sslConfig(toSSlConfig(credentialsId)) //
                     .connectionTimeout(
@@ -263,8 +446,16 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
                     .responseTimeout(
                             readTimeoutInMillisecondsOrNull != null
                                     ? Duration.ofMillis(readTimeoutInMillisecondsOrNull.intValue())
-                                    : null) //
-                    .build();
+                                    : null);
+            if (maxConnectionsOrZero > 0) {
+                // docker-java applies this both to the pool as a whole and per route
+                // and, as each client only talks to one daemon, those are the same thing.
+                httpClientBuilder.maxConnections(maxConnectionsOrZero);
+            }
+            httpClient = new InstrumentedDockerHttpClient(
+                    httpClientBuilder.build(),
+                    DockerConnectionStatistics.forEndpoint(dockerUri),
+                    maxConnectionsOrZero);
             actualClient = DockerClientBuilder.getInstance()
                     .withDockerHttpClient(httpClient)
                     .build();
@@ -293,14 +484,7 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
     }
 
     private static SSLConfig toSSlConfig(String credentialsId) {
-        if (credentialsId == null) {
-            return null;
-        }
-
-        DockerServerCredentials credentials = firstOrNull(
-                lookupCredentials(DockerServerCredentials.class, Jenkins.get(), ACL.SYSTEM, List.of()),
-                withId(credentialsId));
-        return credentials == null ? null : new DockerServerCredentialsSSLConfig(credentials);
+        return DockerSSLConfigCache.getSSLConfig(credentialsId);
     }
 
     /**
@@ -356,6 +540,15 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
         if (!Objects.equals(hostname, dockerAPI.hostname)) {
             return false;
         }
+        if (maxConnections != dockerAPI.maxConnections) {
+            return false;
+        }
+        if (maxConcurrentProvisions != dockerAPI.maxConcurrentProvisions) {
+            return false;
+        }
+        if (provisionsPerMinute != dockerAPI.provisionsPerMinute) {
+            return false;
+        }
         return true;
     }
 
@@ -366,6 +559,9 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
         result = 31 * result + readTimeout;
         result = 31 * result + (apiVersion != null ? apiVersion.hashCode() : 0);
         result = 31 * result + (hostname != null ? hostname.hashCode() : 0);
+        result = 31 * result + maxConnections;
+        result = 31 * result + maxConcurrentProvisions;
+        result = 31 * result + provisionsPerMinute;
         return result;
     }
 
@@ -377,6 +573,15 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
         bldToString(sb, "readTimeout", readTimeout);
         bldToString(sb, "apiVersion", apiVersion);
         bldToString(sb, "hostname", hostname);
+        if (maxConnections > 0) {
+            bldToString(sb, "maxConnections", maxConnections);
+        }
+        if (maxConcurrentProvisions > 0) {
+            bldToString(sb, "maxConcurrentProvisions", maxConcurrentProvisions);
+        }
+        if (provisionsPerMinute > 0) {
+            bldToString(sb, "provisionsPerMinute", provisionsPerMinute);
+        }
         endToString(sb);
         return sb.toString();
     }
@@ -407,6 +612,18 @@ public class DockerAPI extends AbstractDescribableImpl<DockerAPI> {
             return FormValidation.validateNonNegativeInteger(value);
         }
 
+        public FormValidation doCheckMaxConnections(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckMaxConcurrentProvisions(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckProvisionsPerMinute(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
         @RequirePOST
         public FormValidation doTestConnection(
                 @AncestorInPath Item context,
@@ -7,13 +7,24 @@ class DockerClientParameters {
     final String credentialsId;
     final Integer readTimeoutInMsOrNull;
     final Integer connectTimeoutInMsOrNull;
+    final int maxConnectionsOrZero;
 
     DockerClientParameters(
             String dockerUri, String credentialsId, Integer readTimeoutInMsOrNull, Integer connectTimeoutInMsOrNull) {
+        this(dockerUri, credentialsId, readTimeoutInMsOrNull, connectTimeoutInMsOrNull, 0);
+    }
+
+    DockerClientParameters(
+            String dockerUri,
+            String credentialsId,
+            Integer readTimeoutInMsOrNull,
+            Integer connectTimeoutInMsOrNull,
+            int maxConnectionsOrZero) {
         this.dockerUri = dockerUri;
         this.credentialsId = credentialsId;
         this.readTimeoutInMsOrNull = readTimeoutInMsOrNull;
         this.connectTimeoutInMsOrNull = connectTimeoutInMsOrNull;
+        this.maxConnectionsOrZero = maxConnectionsOrZero;
     }
 
     public String getDockerUri() {
@@ -32,9 +43,14 @@ class DockerClientParameters {
         return connectTimeoutInMsOrNull;
     }
 
+    public int getMaxConnectionsOrZero() {
+        return maxConnectionsOrZero;
+    }
+
     @Override
     public int hashCode() {
-        return Objects.hash(dockerUri, credentialsId, connectTimeoutInMsOrNull, readTimeoutInMsOrNull);
+        return Objects.hash(
+                dockerUri, credentialsId, connectTimeoutInMsOrNull, readTimeoutInMsOrNull, maxConnectionsOrZero);
     }
 
     @Override
@@ -49,7 +65,8 @@ class DockerClientParameters {
         return Objects.equals(dockerUri, other.dockerUri)
                 && Objects.equals(credentialsId, other.credentialsId)
                 && Objects.equals(readTimeoutInMsOrNull, other.readTimeoutInMsOrNull)
-                && Objects.equals(connectTimeoutInMsOrNull, other.connectTimeoutInMsOrNull);
+                && Objects.equals(connectTimeoutInMsOrNull, other.connectTimeoutInMsOrNull)
+                && maxConnectionsOrZero == other.maxConnectionsOrZero;
     }
 
     @Override
@@ -58,6 +75,7 @@ class DockerClientParameters {
                 + dockerUri + '\'' + ", credentialsId='"
                 + credentialsId + '\'' + ", readTimeoutInMsOrNull="
                 + readTimeoutInMsOrNull + ", connectTimeoutInMsOrNull="
-                + connectTimeoutInMsOrNull + '}';
+                + connectTimeoutInMsOrNull + ", maxConnectionsOrZero="
+                + maxConnectionsOrZero + '}';
     }
 }
@@ -0,0 +1,211 @@
+package io.jenkins.docker.client;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import net.sf.json.JSONObject;
+
+/**
+ * How many calls of each kind we've made to a docker endpoint, how many of
+ * those failed and how long they took. This tells us whether the docker
+ * daemon (rather than Jenkins) is what's slowing things down.
+ * <p>
+ * Calls are recorded by our HTTP client, which sees every command that every
+ * {@link DockerAPI} client sends to the endpoint. A call's duration is
+ * measured from when the request is sent until its response has been
+ * closed, so it includes any streamed output (e.g. the progress of an image
+ * pull) as well as the time taken to start responding.
+ * </p>
+ */
+public final class DockerCommandMetrics {
+    private static final ConcurrentHashMap<String, DockerCommandMetrics> BY_ENDPOINT = new ConcurrentHashMap<>();
+
+    /** The kinds of call we keep track of. */
+    public enum Command {
+        CREATE,
+        START,
+        INSPECT,
+        LIST,
+        PULL,
+        EXEC,
+        STOP,
+        REMOVE,
+        /** Anything else, e.g. ping, version, events, logs, attach. */
+        OTHER;
+
+        /**
+         * Works out what kind of call a request is.
+         *
+         * @param method
+         *            The HTTP method, e.g. "POST".
+         * @param path
+         *            The request path, e.g. "/v1.41/containers/abc/start",
+         *            optionally including a query string.
+         * @return The kind of call. Never null.
+         */
+        @NonNull
+        static Command of(@CheckForNull String method, @CheckForNull String path) {
+            if (method == null || path == null) {
+                return OTHER;
+            }
+            String p = path;
+            final int queryStart = p.indexOf('?');
+            if (queryStart >= 0) {
+                p = p.substring(0, queryStart);
+            }
+            if (p.startsWith("/v") && p.indexOf('/', 1) > 0) {
+                final String maybeVersion = p.substring(2, p.indexOf('/', 1));
+                if (!maybeVersion.isEmpty() && Character.isDigit(maybeVersion.charAt(0))) {
+                    p = p.substring(p.indexOf('/', 1));
+                }
+            }
+            final boolean isContainer = p.startsWith("/containers/");
+            final boolean isImage = p.startsWith("/images/");
+            switch (method.toUpperCase(Locale.ROOT)) {
+                case "GET":
+                    if (p.equals("/containers/json") || p.equals("/images/json")) {
+                        return LIST;
+                    }
+                    if ((isContainer || isImage || p.startsWith("/exec/")) && p.endsWith("/json")) {
+                        return INSPECT;
+                    }
+                    return OTHER;
+                case "POST":
+                    if (p.equals("/containers/create")) {
+                        return CREATE;
+                    }
+                    if (p.equals("/images/create")) {
+                        return PULL;
+                    }
+                    if (isContainer && p.endsWith("/start")) {
+                        return START;
+                    }
+                    if (isContainer && (p.endsWith("/stop") || p.endsWith("/kill"))) {
+                        return STOP;
+                    }
+                    if ((isContainer && p.endsWith("/exec")) || (p.startsWith("/exec/") && p.endsWith("/start"))) {
+                        return EXEC;
+                    }
+                    return OTHER;
+                case "DELETE":
+                    if (isContainer || isImage) {
+                        return REMOVE;
+                    }
+                    return OTHER;
+                default:
+                    return OTHER;
+            }
+        }
+    }
+
+    private final String dockerUri;
+    private final Map<Command, CommandStatistics> byCommand;
+
+    private DockerCommandMetrics(String dockerUri) {
+        this.dockerUri = dockerUri;
+        final Map<Command, CommandStatistics> map = new EnumMap<>(Command.class);
+        for (final Command c : Command.values()) {
+            map.put(c, new CommandStatistics());
+        }
+        this.byCommand = map;
+    }
+
+    /**
+     * Obtains the metrics for a docker endpoint.
+     *
+     * @param dockerUri
+     *            The URI of the docker endpoint.
+     * @return The (live) metrics for that endpoint. Never null.
+     */
+    @NonNull
+    public static DockerCommandMetrics forEndpoint(@NonNull String dockerUri) {
+        return BY_ENDPOINT.computeIfAbsent(dockerUri, DockerCommandMetrics::new);
+    }
+
+    public String getDockerUri() {
+        return dockerUri;
+    }
+
+    /**
+     * @param command
+     *            The kind of call.
+     * @return The statistics for that kind of call. Never null.
+     */
+    @NonNull
+    public CommandStatistics get(@NonNull Command command) {
+        return byCommand.get(command);
+    }
+
+    /** @return The kinds of call that have been made at least once. */
+    @NonNull
+    public List<Command> getCommandsInUse() {
+        final List<Command> result = new ArrayList<>();
+        for (final Map.Entry<Command, CommandStatistics> e : byCommand.entrySet()) {
+            if (e.getValue().getCount() > 0L) {
+                result.add(e.getKey());
+            }
+        }
+        return result;
+    }
+
+    void record(Command command, long durationNanos, boolean failed) {
+        byCommand.get(command).record(durationNanos, failed);
+    }
+
+    /** @return A JSON representation of all our metrics. */
+    public JSONObject toJSON() {
+        final JSONObject commands = new JSONObject();
+        for (final Map.Entry<Command, CommandStatistics> e : byCommand.entrySet()) {
+            commands.put(e.getKey().name().toLowerCase(Locale.ROOT), e.getValue().toJSON());
+        }
+        final JSONObject result = new JSONObject();
+        result.put("dockerUri", dockerUri);
+        result.put("commands", commands);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "DockerCommandMetrics" + toJSON();
+    }
+
+    /** The statistics for one kind of call. */
+    public static final class CommandStatistics {
+        private final LongAdder errors = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        void record(long durationNanos, boolean failed) {
+            if (failed) {
+                errors.increment();
+            }
+            latency.record(durationNanos);
+        }
+
+        /** @return The number of calls made. */
+        public long getCount() {
+            return latency.getCount();
+        }
+
+        /** @return The number of calls that failed or got an error response. */
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /** @return How long the calls took. */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        JSONObject toJSON() {
+            final JSONObject result = latency.toJSON();
+            result.put("errors", getErrors());
+            return result;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package io.jenkins.docker.client;
+
+import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.bldToString;
+import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.endToString;
+import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.startToString;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counts of the HTTP requests that we're making to a docker endpoint,
+ * summed over all the {@link DockerAPI} clients that are currently open to
+ * that endpoint (there can be more than one as clients with different timeouts
+ * are cached separately).
+ * <p>
+ * These are counted by {@link InstrumentedDockerHttpClient} as requests go in
+ * and responses come out; they are not read from the HTTP client's connection
+ * pool, so they only approximate how many connections are in use. A response
+ * that's open holds on to a connection, so "in use" is a good estimate of the
+ * pool's leased connections, but "waiting" covers both requests that are
+ * queuing for a connection and requests that have one and are waiting for the
+ * daemon to answer.
+ * </p>
+ * <p>
+ * These are intended to help size {@link DockerAPI#getMaxConnections()} for
+ * the rate at which we're provisioning: if "waiting" is often non-zero and
+ * "available" is often zero then we're probably queuing for connections.
+ * </p>
+ */
+public class DockerConnectionStatistics {
+    private static final ConcurrentHashMap<String, DockerConnectionStatistics> BY_ENDPOINT = new ConcurrentHashMap<>();
+
+    private final String dockerUri;
+    /** Number of open clients */
+    private final AtomicInteger clients = new AtomicInteger();
+    /** Number of open clients that have no connection limit */
+    private final AtomicInteger unboundedClients = new AtomicInteger();
+    /** Sum of the connection limits of all the open clients that have a limit */
+    private final AtomicLong capacity = new AtomicLong();
+    /** Number of responses that have not yet been closed */
+    private final AtomicInteger inUse = new AtomicInteger();
+    /** Number of requests that are waiting for a connection and/or a response */
+    private final AtomicInteger waiting = new AtomicInteger();
+    /** Number of requests that failed without giving us a response */
+    private final AtomicLong failures = new AtomicLong();
+
+    private DockerConnectionStatistics(String dockerUri) {
+        this.dockerUri = dockerUri;
+    }
+
+    /**
+     * Obtains the statistics for a docker endpoint.
+     *
+     * @param dockerUri
+     *            The URI of the docker endpoint.
+     * @return The (live) statistics for that endpoint. Never null.
+     */
+    @NonNull
+    public static DockerConnectionStatistics forEndpoint(@NonNull String dockerUri) {
+        return BY_ENDPOINT.computeIfAbsent(dockerUri, DockerConnectionStatistics::new);
+    }
+
+    public String getDockerUri() {
+        return dockerUri;
+    }
+
+    /** @return The number of clients currently open to this endpoint. */
+    public int getClients() {
+        return clients.get();
+    }
+
+    /**
+     * @return The number of responses that are currently open, each of which
+     *         is holding on to a connection.
+     */
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * @return The number of requests currently waiting for a connection to
+     *         become available and/or for the daemon to respond.
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    /**
+     * @return The total number of connections permitted, or -1 if any of the
+     *         clients has no limit.
+     */
+    public long getMax() {
+        if (unboundedClients.get() > 0) {
+            return -1L;
+        }
+        return capacity.get();
+    }
+
+    /**
+     * @return Roughly how many further connections could be used right now,
+     *         or -1 if there is no limit.
+     */
+    public long getAvailable() {
+        final long max = getMax();
+        if (max < 0L) {
+            return -1L;
+        }
+        return Math.max(0L, max - inUse.get());
+    }
+
+    /** @return The number of requests that failed without a response. */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    void clientOpened(int maxConnectionsOrZero) {
+        clients.incrementAndGet();
+        if (maxConnectionsOrZero > 0) {
+            capacity.addAndGet(maxConnectionsOrZero);
+        } else {
+            unboundedClients.incrementAndGet();
+        }
+    }
+
+    void clientClosed(int maxConnectionsOrZero) {
+        clients.decrementAndGet();
+        if (maxConnectionsOrZero > 0) {
+            capacity.addAndGet(-maxConnectionsOrZero);
+        } else {
+            unboundedClients.decrementAndGet();
+        }
+    }
+
+    void requestStarted() {
+        waiting.incrementAndGet();
+    }
+
+    void requestAnswered() {
+        waiting.decrementAndGet();
+        inUse.incrementAndGet();
+    }
+
+    void requestFailed() {
+        waiting.decrementAndGet();
+        failures.incrementAndGet();
+    }
+
+    void responseClosed() {
+        inUse.decrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = startToString(this);
+        bldToString(sb, "dockerUri", dockerUri);
+        bldToString(sb, "clients", getClients());
+        bldToString(sb, "inUse", getInUse());
+        bldToString(sb, "waiting", getWaiting());
+        bldToString(sb, "available", getAvailable());
+        bldToString(sb, "max", getMax());
+        bldToString(sb, "failures", getFailures());
+        endToString(sb);
+        return sb.toString();
+    }
+}
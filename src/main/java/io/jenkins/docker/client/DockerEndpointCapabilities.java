@@ -0,0 +1,278 @@
+package io.jenkins.docker.client;
+
+import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.bldToString;
+import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.endToString;
+import static com.nirima.jenkins.plugins.docker.utils.JenkinsUtils.startToString;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.model.Info;
+import com.github.dockerjava.api.model.Version;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.jenkins.docker.DockerTaskExecutor;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * What we know about a docker endpoint: the engine's version, API version,
+ * operating system and resources. These are found out once and then shared by
+ * everything that talks to that endpoint until they're
+ * {@link #getTimeToLiveInMilliseconds() too old} or we fail to talk to the
+ * endpoint, whichever is sooner.
+ */
+public final class DockerEndpointCapabilities {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerEndpointCapabilities.class);
+
+    private static final long TTL_MILLIS = JenkinsUtils.getSystemPropertyLong(
+            DockerEndpointCapabilities.class.getName() + ".timeToLiveInMilliseconds", TimeUnit.MINUTES.toMillis(10));
+
+    private static final Cache CACHE = new Cache(TimeUnit.MILLISECONDS.toNanos(TTL_MILLIS));
+
+    @CheckForNull
+    private final String engineVersion;
+
+    @CheckForNull
+    private final String apiVersion;
+
+    @CheckForNull
+    private final String operatingSystem;
+
+    @CheckForNull
+    private final Integer ncpu;
+
+    @CheckForNull
+    private final Long memTotal;
+
+    private final long probedAtNanos;
+
+    DockerEndpointCapabilities(
+            String engineVersion,
+            String apiVersion,
+            String operatingSystem,
+            Integer ncpu,
+            Long memTotal,
+            long probedAtNanos) {
+        this.engineVersion = engineVersion;
+        this.apiVersion = apiVersion;
+        this.operatingSystem = operatingSystem;
+        this.ncpu = ncpu;
+        this.memTotal = memTotal;
+        this.probedAtNanos = probedAtNanos;
+    }
+
+    /**
+     * Obtains the capabilities of the endpoint that the given
+     * {@link DockerAPI} talks to, asking the endpoint if we don't already know
+     * or what we know is out of date.
+     *
+     * @param api
+     *            The endpoint.
+     * @return The endpoint's capabilities.
+     */
+    @NonNull
+    static DockerEndpointCapabilities of(@NonNull DockerAPI api) {
+        return CACHE.get(api.getDockerHost().getUri(), () -> probe(api));
+    }
+
+    /**
+     * Obtains what we already know of the capabilities of the endpoint that
+     * the given {@link DockerAPI} talks to, without waiting to ask it. If we
+     * don't know, or what we know is out of date, then the endpoint is asked
+     * in the background.
+     *
+     * @param api
+     *            The endpoint.
+     * @return The endpoint's capabilities, possibly out of date, or null if
+     *         we don't know them yet.
+     */
+    @CheckForNull
+    static DockerEndpointCapabilities ifKnown(@NonNull DockerAPI api) {
+        final String uri = api.getDockerHost().getUri();
+        return CACHE.peek(uri, () -> probe(api), DockerTaskExecutor.forEndpoint(uri));
+    }
+
+    /**
+     * Forgets what we know about an endpoint, so that it'll be asked again
+     * next time.
+     *
+     * @param dockerUri
+     *            The URI of the endpoint.
+     */
+    static void invalidate(@NonNull String dockerUri) {
+        CACHE.invalidate(dockerUri);
+    }
+
+    /** @return How long we'll trust what we've been told. */
+    public static long getTimeToLiveInMilliseconds() {
+        return TTL_MILLIS;
+    }
+
+    private static DockerEndpointCapabilities probe(DockerAPI api) {
+        try (final DockerClient client = api.getClient()) {
+            final Version version = client.versionCmd().exec();
+            Info info = null;
+            try {
+                info = client.infoCmd().exec();
+            } catch (RuntimeException ex) {
+                // Not all docker-compatible endpoints support this fully.
+                LOGGER.debug("Unable to obtain info from {}", api.getDockerHost().getUri(), ex);
+            }
+            final DockerEndpointCapabilities result = new DockerEndpointCapabilities(
+                    version.getVersion(),
+                    version.getApiVersion(),
+                    version.getOperatingSystem(),
+                    info == null ? null : info.getNCPU(),
+                    info == null ? null : info.getMemTotal(),
+                    System.nanoTime());
+            LOGGER.debug("Endpoint {} has capabilities {}", api.getDockerHost().getUri(), result);
+            return result;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /** @return The version of the docker engine, e.g. "24.0.7". */
+    @CheckForNull
+    public String getEngineVersion() {
+        return engineVersion;
+    }
+
+    /** @return The (maximum) API version the engine supports, e.g. "1.43". */
+    @CheckForNull
+    public String getApiVersion() {
+        return apiVersion;
+    }
+
+    /** @return The operating system the engine is running on. */
+    @CheckForNull
+    public String getOperatingSystem() {
+        return operatingSystem;
+    }
+
+    /** @return The number of CPUs available to the engine, if known. */
+    @CheckForNull
+    public Integer getNcpu() {
+        return ncpu;
+    }
+
+    /** @return The total memory available to the engine in bytes, if known. */
+    @CheckForNull
+    public Long getMemTotal() {
+        return memTotal;
+    }
+
+    /** @return true if this is (classic) docker swarm rather than a single engine. */
+    public boolean isSwarm() {
+        return engineVersion != null && engineVersion.startsWith("swarm");
+    }
+
+    /** @return true if this is Joyent Triton. */
+    public boolean isTriton() {
+        return "solaris".equals(operatingSystem);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = startToString(this);
+        bldToString(sb, "engineVersion", engineVersion);
+        bldToString(sb, "apiVersion", apiVersion);
+        bldToString(sb, "operatingSystem", operatingSystem);
+        bldToString(sb, "ncpu", ncpu);
+        bldToString(sb, "memTotal", memTotal);
+        endToString(sb);
+        return sb.toString();
+    }
+
+    /**
+     * Holds the capabilities for each endpoint. Each endpoint is only probed by
+     * one thread at a time; anyone else wanting that endpoint waits for the
+     * answer rather than asking again.
+     */
+    static class Cache {
+        private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<>();
+        private final long ttlNanos;
+
+        Cache(long ttlNanos) {
+            this.ttlNanos = ttlNanos;
+        }
+
+        @NonNull
+        DockerEndpointCapabilities get(@NonNull String key, @NonNull Supplier<DockerEndpointCapabilities> probe) {
+            return slots.computeIfAbsent(key, k -> new Slot()).get(probe, ttlNanos);
+        }
+
+        @CheckForNull
+        DockerEndpointCapabilities peek(
+                @NonNull String key, @NonNull Supplier<DockerEndpointCapabilities> probe, @NonNull Executor refresher) {
+            return slots.computeIfAbsent(key, k -> new Slot()).peek(probe, ttlNanos, refresher);
+        }
+
+        void invalidate(@NonNull String key) {
+            final Slot slot = slots.get(key);
+            if (slot != null) {
+                slot.invalidate();
+            }
+        }
+    }
+
+    private static class Slot {
+        /** Held while we probe, which can take a while; not a monitor as we may be on a virtual thread. */
+        private final ReentrantLock probeLock = new ReentrantLock();
+
+        private volatile DockerEndpointCapabilities value;
+
+        /** Set while a background refresh is pending, so we only ask for one at a time. */
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        DockerEndpointCapabilities get(Supplier<DockerEndpointCapabilities> probe, long ttlNanos) {
+            DockerEndpointCapabilities result = value;
+            if (isFresh(result, ttlNanos)) {
+                return result;
+            }
+            probeLock.lock();
+            try {
+                result = value;
+                if (!isFresh(result, ttlNanos)) {
+                    result = probe.get();
+                    value = result;
+                }
+                return result;
+            } finally {
+                probeLock.unlock();
+            }
+        }
+
+        DockerEndpointCapabilities peek(Supplier<DockerEndpointCapabilities> probe, long ttlNanos, Executor refresher) {
+            final DockerEndpointCapabilities result = value;
+            if (!isFresh(result, ttlNanos) && refreshing.compareAndSet(false, true)) {
+                refresher.execute(() -> {
+                    try {
+                        get(probe, ttlNanos);
+                    } catch (RuntimeException ex) {
+                        LOGGER.debug("Unable to refresh capabilities", ex);
+                    } finally {
+                        refreshing.set(false);
+                    }
+                });
+            }
+            return result;
+        }
+
+        void invalidate() {
+            value = null;
+        }
+
+        private static boolean isFresh(DockerEndpointCapabilities c, long ttlNanos) {
+            return c != null && System.nanoTime() - c.probedAtNanos < ttlNanos;
+        }
+    }
+}
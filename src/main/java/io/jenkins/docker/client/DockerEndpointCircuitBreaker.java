@@ -0,0 +1,384 @@
+package io.jenkins.docker.client;
+
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.LongUnaryOperator;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of how well a docker endpoint is responding so that we stop
+ * asking it to do things when it's broken, and start again as soon as it's
+ * working again.
+ * <p>
+ * Every HTTP request to the endpoint is recorded in a sliding window. When
+ * enough of the recent requests have failed (or been very slow) the breaker
+ * "opens" and provisioning will not use the endpoint. After a backoff period
+ * (which grows exponentially, with jitter, each time the breaker re-opens)
+ * the breaker becomes "half-open" and allows a single trial request through.
+ * If that works then the breaker closes and everything carries on as normal;
+ * if it fails then the breaker opens again for longer.
+ * </p>
+ */
+public final class DockerEndpointCircuitBreaker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerEndpointCircuitBreaker.class);
+
+    private static final String PROP_PREFIX = DockerEndpointCircuitBreaker.class.getName() + ".";
+
+    /** Number of recent requests we consider. */
+    private static final int WINDOW_SIZE =
+            JenkinsUtils.getSystemPropertyLong(PROP_PREFIX + "windowSize", 20L).intValue();
+
+    /** Minimum number of requests in the window before we'll open. */
+    private static final int MINIMUM_CALLS =
+            JenkinsUtils.getSystemPropertyLong(PROP_PREFIX + "minimumCalls", 3L).intValue();
+
+    /** Percentage of failed requests in the window that will make us open. */
+    private static final int FAILURE_RATE_PERCENT =
+            JenkinsUtils.getSystemPropertyLong(PROP_PREFIX + "failureRatePercent", 50L).intValue();
+
+    /** How long a request can take (to get a response) before it counts as slow. */
+    private static final long SLOW_CALL_MILLIS =
+            JenkinsUtils.getSystemPropertyLong(PROP_PREFIX + "slowCallInMilliseconds", 30000L);
+
+    /** Percentage of slow requests in the window that will make us open. */
+    private static final int SLOW_CALL_RATE_PERCENT =
+            JenkinsUtils.getSystemPropertyLong(PROP_PREFIX + "slowCallRatePercent", 80L).intValue();
+
+    /** How long we stay open the first time. */
+    private static final long INITIAL_BACKOFF_MILLIS =
+            JenkinsUtils.getSystemPropertyLong(PROP_PREFIX + "initialBackoffInMilliseconds", 1000L);
+
+    /** The longest we'll stay open. */
+    private static final long MAX_BACKOFF_MILLIS =
+            JenkinsUtils.getSystemPropertyLong(PROP_PREFIX + "maxBackoffInMilliseconds", 300000L);
+
+    private static final ConcurrentHashMap<String, DockerEndpointCircuitBreaker> BY_ENDPOINT =
+            new ConcurrentHashMap<>();
+
+    /** The states a circuit breaker can be in. */
+    public enum State {
+        /** All is well; requests are permitted. */
+        CLOSED,
+        /** The endpoint is broken; requests are not permitted. */
+        OPEN,
+        /** We're waiting to find out if the endpoint has recovered. */
+        HALF_OPEN
+    }
+
+    private final String endpoint;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final int failureRatePercent;
+    private final long slowCallNanos;
+    private final int slowCallRatePercent;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final LongSupplier nanoClock;
+    private final LongUnaryOperator jitter;
+
+    // The following fields are all guarded by "this".
+    private final boolean[] windowFailed;
+    private final boolean[] windowSlow;
+    private int windowCount;
+    private int windowNext;
+    private State state = State.CLOSED;
+    private long nanotimeWhenOpened;
+    private long nanotimeWhenHalfOpen;
+    private int consecutiveOpenings;
+    private boolean probeInProgress;
+
+    @CheckForNull
+    private String lastFailure;
+
+    DockerEndpointCircuitBreaker(
+            String endpoint,
+            int windowSize,
+            int minimumCalls,
+            int failureRatePercent,
+            long slowCallMillis,
+            int slowCallRatePercent,
+            long initialBackoffMillis,
+            long maxBackoffMillis,
+            @NonNull LongSupplier nanoClock,
+            @NonNull LongUnaryOperator jitter) {
+        this.endpoint = endpoint;
+        this.windowSize = Math.max(1, windowSize);
+        this.minimumCalls = Math.max(1, minimumCalls);
+        this.failureRatePercent = failureRatePercent;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.slowCallRatePercent = slowCallRatePercent;
+        this.initialBackoffMillis = Math.max(1L, initialBackoffMillis);
+        this.maxBackoffMillis = Math.max(this.initialBackoffMillis, maxBackoffMillis);
+        this.nanoClock = nanoClock;
+        this.jitter = jitter;
+        this.windowFailed = new boolean[this.windowSize];
+        this.windowSlow = new boolean[this.windowSize];
+    }
+
+    /**
+     * Obtains the circuit breaker for a docker endpoint.
+     *
+     * @param dockerUri
+     *            The URI of the docker endpoint.
+     * @return The circuit breaker for that endpoint. Never null.
+     */
+    @NonNull
+    public static DockerEndpointCircuitBreaker forEndpoint(@NonNull String dockerUri) {
+        return BY_ENDPOINT.computeIfAbsent(
+                dockerUri,
+                uri -> new DockerEndpointCircuitBreaker(
+                        uri,
+                        WINDOW_SIZE,
+                        MINIMUM_CALLS,
+                        FAILURE_RATE_PERCENT,
+                        SLOW_CALL_MILLIS,
+                        SLOW_CALL_RATE_PERCENT,
+                        INITIAL_BACKOFF_MILLIS,
+                        MAX_BACKOFF_MILLIS,
+                        System::nanoTime,
+                        DockerEndpointCircuitBreaker::equalJitter));
+    }
+
+    /**
+     * Calculates an exponential backoff with jitter.
+     *
+     * @param attempt
+     *            How many times in a row this has failed (1 or more).
+     * @param initialMillis
+     *            The backoff for the first failure.
+     * @param maxMillis
+     *            The most we'll ever back off for.
+     * @return A duration, in milliseconds, between half and all of
+     *         <code>initialMillis * 2^(attempt-1)</code>, capped at
+     *         <code>maxMillis</code>.
+     */
+    @Restricted(NoExternalUse.class)
+    public static long backoffWithJitter(int attempt, long initialMillis, long maxMillis) {
+        return equalJitter(exponentialBackoff(attempt, initialMillis, maxMillis));
+    }
+
+    private static long exponentialBackoff(int attempt, long initialMillis, long maxMillis) {
+        final int shift = Math.min(Math.max(0, attempt - 1), 30);
+        final long uncapped = initialMillis << shift;
+        if (uncapped <= 0L || uncapped > maxMillis) {
+            return maxMillis;
+        }
+        return uncapped;
+    }
+
+    /** Half the value plus a random amount up to the other half. */
+    private static long equalJitter(long millis) {
+        final long half = millis / 2L;
+        return half + ThreadLocalRandom.current().nextLong(millis - half + 1L);
+    }
+
+    /**
+     * Records that a request to the endpoint got a response.
+     *
+     * @param latencyNanos
+     *            How long it took to get the response.
+     */
+    public synchronized void recordSuccess(long latencyNanos) {
+        record(false, latencyNanos >= slowCallNanos);
+        if (state == State.HALF_OPEN) {
+            LOGGER.info("Docker endpoint {} is responding again.", endpoint);
+            close();
+        } else if (state == State.CLOSED) {
+            tripIfWindowIsBad();
+        }
+    }
+
+    /**
+     * Records that a request to the endpoint failed without a response.
+     *
+     * @param latencyNanos
+     *            How long it took to fail.
+     * @param failure
+     *            What went wrong.
+     */
+    public synchronized void recordFailure(long latencyNanos, @CheckForNull Throwable failure) {
+        recordFailure(latencyNanos, failure == null ? null : failure.toString());
+    }
+
+    /**
+     * Records that a request to the endpoint got a response saying that the
+     * daemon isn't available, e.g. from a proxy or load balancer in front of
+     * it. Other error responses are the caller's problem, not the endpoint's.
+     *
+     * @param latencyNanos
+     *            How long it took to get the response.
+     * @param statusCode
+     *            The HTTP status code, which will be 502, 503 or 504.
+     */
+    public synchronized void recordServerError(long latencyNanos, int statusCode) {
+        recordFailure(latencyNanos, "HTTP status " + statusCode);
+    }
+
+    private void recordFailure(long latencyNanos, @CheckForNull String failure) {
+        record(true, latencyNanos >= slowCallNanos);
+        if (failure != null) {
+            lastFailure = failure;
+        }
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            tripIfWindowIsBad();
+        }
+    }
+
+    /**
+     * Indicates if the endpoint is considered healthy enough to be used.
+     *
+     * @return true if the breaker is closed.
+     */
+    public synchronized boolean isCallPermitted() {
+        return getState() == State.CLOSED;
+    }
+
+    /**
+     * Asks to be the one that sends a trial request to see if the endpoint has
+     * recovered. If this returns true then the caller MUST make a request (the
+     * result of which will be recorded by our HTTP client) and then MUST call
+     * {@link #releaseProbe()}.
+     *
+     * @return true if the caller should probe the endpoint.
+     */
+    public synchronized boolean tryAcquireProbe() {
+        if (getState() != State.HALF_OPEN || probeInProgress) {
+            return false;
+        }
+        probeInProgress = true;
+        return true;
+    }
+
+    /**
+     * Called when a trial request has finished. If its outcome wasn't recorded
+     * (e.g. we never managed to send it) then we treat it as a failure.
+     */
+    public synchronized void releaseProbe() {
+        probeInProgress = false;
+        if (state == State.HALF_OPEN) {
+            open();
+        }
+    }
+
+    /** @return The current state. */
+    @NonNull
+    public synchronized State getState() {
+        if (state == State.OPEN && nanoClock.getAsLong() - nanotimeWhenHalfOpen >= 0L) {
+            state = State.HALF_OPEN;
+            probeInProgress = false;
+        }
+        return state;
+    }
+
+    /** @return A human-readable summary of the state. */
+    @NonNull
+    public synchronized String getStatus() {
+        final State s = getState();
+        final long now = nanoClock.getAsLong();
+        switch (s) {
+            case OPEN:
+                return "Not responding since "
+                        + Util.getTimeSpanString(TimeUnit.NANOSECONDS.toMillis(now - nanotimeWhenOpened))
+                        + " ago; will try again in "
+                        + Util.getTimeSpanString(TimeUnit.NANOSECONDS.toMillis(nanotimeWhenHalfOpen - now))
+                        + " (failed " + consecutiveOpenings + " time(s) in a row)."
+                        + (lastFailure == null ? "" : " Last error: " + lastFailure);
+            case HALF_OPEN:
+                return "Not responding since "
+                        + Util.getTimeSpanString(TimeUnit.NANOSECONDS.toMillis(now - nanotimeWhenOpened))
+                        + " ago; checking if it has recovered."
+                        + (lastFailure == null ? "" : " Last error: " + lastFailure);
+            default:
+                return "OK (" + countFailures() + " of the last " + windowCount + " request(s) failed, "
+                        + countSlow() + " slow).";
+        }
+    }
+
+    /** @return The number of times in a row we've opened. */
+    public synchronized int getConsecutiveOpenings() {
+        return consecutiveOpenings;
+    }
+
+    private void record(boolean failed, boolean slow) {
+        windowFailed[windowNext] = failed;
+        windowSlow[windowNext] = slow;
+        windowNext = (windowNext + 1) % windowSize;
+        if (windowCount < windowSize) {
+            windowCount++;
+        }
+    }
+
+    private int countFailures() {
+        int result = 0;
+        for (int i = 0; i < windowCount; i++) {
+            if (windowFailed[i]) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private int countSlow() {
+        int result = 0;
+        for (int i = 0; i < windowCount; i++) {
+            if (windowSlow[i]) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private void tripIfWindowIsBad() {
+        if (windowCount < minimumCalls) {
+            return;
+        }
+        final int failures = countFailures();
+        final int slow = countSlow();
+        if (failures * 100 >= failureRatePercent * windowCount || slow * 100 >= slowCallRatePercent * windowCount) {
+            LOGGER.warn(
+                    "Docker endpoint {} is failing ({} of the last {} requests failed, {} slow); "
+                            + "will stop provisioning from it for a while.",
+                    endpoint,
+                    failures,
+                    windowCount,
+                    slow);
+            nanotimeWhenOpened = nanoClock.getAsLong();
+            open();
+        }
+    }
+
+    private void open() {
+        consecutiveOpenings++;
+        final long backoffMillis = jitter.applyAsLong(
+                exponentialBackoff(consecutiveOpenings, initialBackoffMillis, maxBackoffMillis));
+        state = State.OPEN;
+        probeInProgress = false;
+        nanotimeWhenHalfOpen = nanoClock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+        LOGGER.debug("Docker endpoint {} circuit opened for {}ms", endpoint, backoffMillis);
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        consecutiveOpenings = 0;
+        probeInProgress = false;
+        lastFailure = null;
+        windowCount = 0;
+        windowNext = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "DockerEndpointCircuitBreaker[" + endpoint + ", " + getStatus() + "]";
+    }
+}
@@ -0,0 +1,318 @@
+package io.jenkins.docker.client;
+
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import jenkins.util.Timer;
+import net.sf.json.JSONObject;
+
+/**
+ * Limits how quickly, and how many at once, we provision containers on a
+ * docker endpoint, so that a sudden burst of demand doesn't swamp the docker
+ * daemon (and slow down everything else we, and others, ask of it).
+ * <p>
+ * Each provisioning attempt must {@link #acquire(String)} a {@link Permit}
+ * before it starts and release it when it's finished. Permits are handed out
+ * no faster than {@link DockerAPI#getProvisionsPerMinute()} (with a small
+ * allowance for bursts) and no more than
+ * {@link DockerAPI#getMaxConcurrentProvisions()} can be held at once. Anyone
+ * who can't have a permit yet waits, without using a thread, in a queue of
+ * their own; the queues take turns, so one template with hundreds of builds
+ * waiting can't hold up another that only wants one agent.
+ * </p>
+ */
+public final class DockerProvisioningThrottle {
+    private static final ConcurrentHashMap<String, DockerProvisioningThrottle> BY_ENDPOINT =
+            new ConcurrentHashMap<>();
+
+    /** How many seconds' worth of permits can be handed out at once after a quiet spell. */
+    private static final long BURST_SECONDS = JenkinsUtils.getSystemPropertyLong(
+            DockerProvisioningThrottle.class.getName() + ".burstSeconds", 10L);
+
+    /** Something that has been allowed to provision, and must say when it has finished. */
+    public interface Permit {
+        /** Says that provisioning has finished. Calling this more than once does nothing. */
+        void release();
+    }
+
+    private final String dockerUri;
+    private final LongSupplier nanoTime;
+    private final ScheduledExecutorService scheduler;
+
+    // These are guarded by "this".
+    private final Map<String, ArrayDeque<Waiter>> waiting = new LinkedHashMap<>();
+    private int maxConcurrent;
+    private int perMinute;
+    private int inProgress;
+    private int queued;
+    private double tokens;
+    private long lastRefillNanos;
+    private boolean wakeUpScheduled;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+
+    DockerProvisioningThrottle(
+            @NonNull String dockerUri, @NonNull LongSupplier nanoTime, @NonNull ScheduledExecutorService scheduler) {
+        this.dockerUri = dockerUri;
+        this.nanoTime = nanoTime;
+        this.scheduler = scheduler;
+        this.lastRefillNanos = nanoTime.getAsLong();
+    }
+
+    /**
+     * Obtains the throttle for a docker endpoint.
+     *
+     * @param dockerUri
+     *            The URI of the docker endpoint.
+     * @return The throttle for that endpoint. Never null.
+     */
+    @NonNull
+    public static DockerProvisioningThrottle forEndpoint(@NonNull String dockerUri) {
+        return BY_ENDPOINT.computeIfAbsent(
+                dockerUri, uri -> new DockerProvisioningThrottle(uri, System::nanoTime, Timer.get()));
+    }
+
+    /**
+     * Sets the limits we enforce.
+     *
+     * @param maxConcurrentProvisions
+     *            How many permits may be held at once; 0 means no limit.
+     * @param provisionsPerMinute
+     *            How many permits may be handed out per minute; 0 means no
+     *            limit.
+     */
+    void configure(int maxConcurrentProvisions, int provisionsPerMinute) {
+        final boolean changed;
+        synchronized (this) {
+            changed = maxConcurrent != maxConcurrentProvisions || perMinute != provisionsPerMinute;
+            if (changed) {
+                refill();
+                final boolean wasUnlimited = perMinute <= 0;
+                maxConcurrent = maxConcurrentProvisions;
+                perMinute = provisionsPerMinute;
+                tokens = wasUnlimited ? burst() : Math.min(tokens, burst());
+            }
+        }
+        if (changed) {
+            dispatch();
+        }
+    }
+
+    /**
+     * Works out which of two limits is the stricter.
+     *
+     * @param a
+     *            A limit; 0 means no limit.
+     * @param b
+     *            Another limit; 0 means no limit.
+     * @return The stricter of the two; 0 if neither limits anything.
+     */
+    static int stricter(int a, int b) {
+        if (a <= 0) {
+            return Math.max(b, 0);
+        }
+        return b <= 0 ? a : Math.min(a, b);
+    }
+
+    /**
+     * Asks for permission to provision.
+     *
+     * @param queueKey
+     *            Which queue to wait in, e.g. the cloud and template that
+     *            want to provision.
+     * @return A future that completes with a permit once we can go ahead.
+     *         Cancelling it gives up our place in the queue.
+     */
+    @NonNull
+    public CompletableFuture<Permit> acquire(@NonNull String queueKey) {
+        final Waiter waiter = new Waiter(nanoTime.getAsLong());
+        synchronized (this) {
+            waiting.computeIfAbsent(queueKey, k -> new ArrayDeque<>()).add(waiter);
+            queued++;
+        }
+        waiter.future.whenComplete((permit, ex) -> {
+            if (ex != null) {
+                giveUp(queueKey, waiter);
+            }
+        });
+        dispatch();
+        return waiter.future;
+    }
+
+    private synchronized void giveUp(String queueKey, Waiter waiter) {
+        final ArrayDeque<Waiter> queue = waiting.get(queueKey);
+        if (queue != null && queue.remove(waiter)) {
+            queued--;
+            if (queue.isEmpty()) {
+                waiting.remove(queueKey);
+            }
+        }
+    }
+
+    public String getDockerUri() {
+        return dockerUri;
+    }
+
+    /** @return The number of provisioning attempts waiting for a permit. */
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /** @return The number of permits currently held. */
+    public synchronized int getInProgress() {
+        return inProgress;
+    }
+
+    /** @return The number of permits handed out so far. */
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    /** @return How long provisioning attempts have waited for a permit. */
+    @NonNull
+    public LatencyHistogram getWaitTime() {
+        return waitTime;
+    }
+
+    /** @return A JSON representation of our state. */
+    public JSONObject toJSON() {
+        final JSONObject result = new JSONObject();
+        synchronized (this) {
+            result.put("maxConcurrent", maxConcurrent);
+            result.put("perMinute", perMinute);
+            result.put("inProgress", inProgress);
+            result.put("queued", queued);
+        }
+        result.put("admitted", getAdmitted());
+        result.put("waitTime", waitTime.toJSON());
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "DockerProvisioningThrottle" + toJSON();
+    }
+
+    /**
+     * Hands out as many permits as we can. The futures are completed after
+     * we've let go of our lock, as whoever is waiting on them will then start
+     * work of their own.
+     */
+    private void dispatch() {
+        final List<Waiter> toAdmit = new ArrayList<>();
+        long wakeUpInNanos = -1L;
+        synchronized (this) {
+            refill();
+            while (queued > 0 && (maxConcurrent <= 0 || inProgress < maxConcurrent)) {
+                if (perMinute > 0 && tokens < 1.0) {
+                    if (!wakeUpScheduled) {
+                        wakeUpScheduled = true;
+                        wakeUpInNanos = (long) Math.ceil((1.0 - tokens) * TimeUnit.MINUTES.toNanos(1) / perMinute);
+                    }
+                    break;
+                }
+                final Waiter next = takeNext();
+                if (next.future.isDone()) {
+                    continue; // cancelled while it waited
+                }
+                if (perMinute > 0) {
+                    tokens -= 1.0;
+                }
+                inProgress++;
+                toAdmit.add(next);
+            }
+        }
+        if (wakeUpInNanos >= 0L) {
+            scheduler.schedule(this::wakeUp, wakeUpInNanos, TimeUnit.NANOSECONDS);
+        }
+        final long now = nanoTime.getAsLong();
+        for (final Waiter w : toAdmit) {
+            final PermitImpl permit = new PermitImpl();
+            if (w.future.complete(permit)) {
+                admitted.increment();
+                waitTime.record(now - w.queuedAtNanos);
+            } else {
+                permit.release(); // cancelled just now
+            }
+        }
+    }
+
+    private void wakeUp() {
+        synchronized (this) {
+            wakeUpScheduled = false;
+        }
+        dispatch();
+    }
+
+    /**
+     * Takes the first waiter from the next queue in turn, then sends that
+     * queue to the back. There must be something {@link #queued}; queues are
+     * removed as soon as they're empty.
+     */
+    private Waiter takeNext() {
+        final Iterator<Map.Entry<String, ArrayDeque<Waiter>>> it = waiting.entrySet().iterator();
+        final Map.Entry<String, ArrayDeque<Waiter>> first = it.next();
+        final String key = first.getKey();
+        final ArrayDeque<Waiter> queue = first.getValue();
+        final Waiter result = queue.poll();
+        it.remove();
+        if (!queue.isEmpty()) {
+            waiting.put(key, queue);
+        }
+        queued--;
+        return result;
+    }
+
+    private void refill() {
+        final long now = nanoTime.getAsLong();
+        if (perMinute > 0) {
+            final double elapsedMinutes = (double) (now - lastRefillNanos) / TimeUnit.MINUTES.toNanos(1);
+            tokens = Math.min(burst(), tokens + elapsedMinutes * perMinute);
+        }
+        lastRefillNanos = now;
+    }
+
+    private double burst() {
+        return Math.max(1.0, perMinute * BURST_SECONDS / 60.0);
+    }
+
+    private void released() {
+        synchronized (this) {
+            inProgress--;
+        }
+        dispatch();
+    }
+
+    private static final class Waiter {
+        final long queuedAtNanos;
+        final CompletableFuture<Permit> future = new CompletableFuture<>();
+
+        Waiter(long queuedAtNanos) {
+            this.queuedAtNanos = queuedAtNanos;
+        }
+    }
+
+    private final class PermitImpl implements Permit {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        @Override
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                released();
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package io.jenkins.docker.client;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import net.sf.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Makes sure we only pull any one image from a docker endpoint once at a
+ * time. If lots of builds all want agents from the same template, we would
+ * otherwise ask the docker daemon to pull the same image over and over, all
+ * at once; instead, whoever asks first starts the pull and everyone else
+ * waits for that pull to finish and gets the same result, be that success or
+ * failure.
+ * <p>
+ * Pulls made with different registry credentials are kept apart, as a pull
+ * that fails for want of credentials mustn't be shared with someone who has
+ * them.
+ * </p>
+ */
+public final class DockerPullCoordinator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerPullCoordinator.class);
+    private static final ConcurrentHashMap<String, DockerPullCoordinator> BY_ENDPOINT = new ConcurrentHashMap<>();
+
+    /** Something that can start pulling an image. */
+    @FunctionalInterface
+    public interface PullStarter {
+        /**
+         * Starts pulling the image. This should not wait for the pull to
+         * complete.
+         *
+         * @param whenPulled
+         *            Must be completed when the pull has finished.
+         * @return Something which, if closed, will abort the pull.
+         */
+        @NonNull
+        Closeable start(@NonNull CompletableFuture<Void> whenPulled);
+    }
+
+    private final String dockerUri;
+    private final ConcurrentHashMap<String, Flight> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder joined = new LongAdder();
+
+    DockerPullCoordinator(@NonNull String dockerUri) {
+        this.dockerUri = dockerUri;
+    }
+
+    /**
+     * Obtains the coordinator for a docker endpoint.
+     *
+     * @param dockerUri
+     *            The URI of the docker endpoint.
+     * @return The coordinator for that endpoint. Never null.
+     */
+    @NonNull
+    public static DockerPullCoordinator forEndpoint(@NonNull String dockerUri) {
+        return BY_ENDPOINT.computeIfAbsent(dockerUri, DockerPullCoordinator::new);
+    }
+
+    /**
+     * Pulls an image, or waits for a pull of that image that's already in
+     * progress.
+     *
+     * @param image
+     *            The image to pull.
+     * @param credentialsId
+     *            The registry credentials the pull will use, if any.
+     * @param starter
+     *            Starts the pull, if there isn't one in progress already.
+     * @return Our share of the pull. Closing it says that we no longer care
+     *         about the result; the pull is only aborted once nobody does.
+     */
+    @NonNull
+    public Pull pull(@NonNull String image, @CheckForNull String credentialsId, @NonNull PullStarter starter) {
+        final String key = credentialsId == null ? image : image + '\n' + credentialsId;
+        while (true) {
+            final Flight newFlight = new Flight();
+            final Flight existing = inFlight.putIfAbsent(key, newFlight);
+            if (existing != null) {
+                if (existing.join()) {
+                    joined.increment();
+                    return new Pull(existing, false);
+                }
+                inFlight.remove(key, existing); // it's finishing; start afresh
+                continue;
+            }
+            newFlight.join();
+            newFlight.done.whenComplete((v, ex) -> inFlight.remove(key, newFlight));
+            started.increment();
+            try {
+                newFlight.started(starter.start(newFlight.done));
+            } catch (RuntimeException ex) {
+                newFlight.done.completeExceptionally(ex);
+            }
+            return new Pull(newFlight, true);
+        }
+    }
+
+    public String getDockerUri() {
+        return dockerUri;
+    }
+
+    /** @return The number of pulls in progress. */
+    public int getInProgress() {
+        return inFlight.size();
+    }
+
+    /** @return The number of pulls we've started. */
+    public long getStarted() {
+        return started.sum();
+    }
+
+    /** @return The number of times someone waited for a pull that was already in progress. */
+    public long getJoined() {
+        return joined.sum();
+    }
+
+    /** @return A JSON representation of our state. */
+    public JSONObject toJSON() {
+        final JSONObject result = new JSONObject();
+        result.put("inProgress", getInProgress());
+        result.put("started", getStarted());
+        result.put("joined", getJoined());
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "DockerPullCoordinator" + toJSON();
+    }
+
+    /** One caller's share of a pull. */
+    public static final class Pull implements Closeable {
+        private final Flight flight;
+        private final boolean leader;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Pull(Flight flight, boolean leader) {
+            this.flight = flight;
+            this.leader = leader;
+            flight.done.whenComplete((v, ex) -> {
+                if (ex == null) {
+                    result.complete(null);
+                } else {
+                    result.completeExceptionally(ex);
+                }
+            });
+        }
+
+        /**
+         * @return A future that completes when the pull has finished.
+         *         Cancelling it has no effect on the pull; use
+         *         {@link #close()} for that.
+         */
+        @NonNull
+        public CompletableFuture<Void> getResult() {
+            return result;
+        }
+
+        /**
+         * @return true if this caller started the pull, false if it's waiting
+         *         for someone else's.
+         */
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /** Says we're no longer interested in the pull. Calling this more than once does nothing. */
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true) && !flight.done.isDone()) {
+                flight.leave();
+            }
+        }
+    }
+
+    /** A pull in progress and everyone waiting for it. */
+    private static final class Flight {
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        // These are guarded by "this".
+        private int interested;
+        private boolean abandoned;
+        private Closeable abort;
+
+        /** @return false if it's too late to join. */
+        synchronized boolean join() {
+            if (abandoned || done.isDone()) {
+                return false;
+            }
+            interested++;
+            return true;
+        }
+
+        void started(Closeable aborter) {
+            final boolean abortNow;
+            synchronized (this) {
+                abortNow = abandoned;
+                abort = aborter;
+            }
+            if (abortNow) {
+                closeQuietly(aborter);
+            }
+        }
+
+        void leave() {
+            final Closeable toClose;
+            synchronized (this) {
+                if (--interested > 0 || done.isDone()) {
+                    return;
+                }
+                abandoned = true;
+                toClose = abort;
+            }
+            closeQuietly(toClose);
+            done.completeExceptionally(new CancellationException("Pull no longer wanted"));
+        }
+
+        private static void closeQuietly(@CheckForNull Closeable c) {
+            if (c != null) {
+                try {
+                    c.close();
+                } catch (IOException | RuntimeException ex) {
+                    LOGGER.debug("Failed to abort pull", ex);
+                }
+            }
+        }
+    }
+}
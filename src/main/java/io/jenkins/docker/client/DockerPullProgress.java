@@ -0,0 +1,262 @@
+package io.jenkins.docker.client;
+
+import com.github.dockerjava.api.model.PullResponseItem;
+import com.github.dockerjava.api.model.ResponseItem;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Turns the stream of progress reports that docker sends while pulling an
+ * image into an occasional summary. A large image can produce thousands of
+ * reports, one for every chunk of every layer, and logging each one makes the
+ * log unreadable and slows everything down; instead we keep track of each
+ * layer and say how far we've got (layers complete, bytes downloaded) no more
+ * often than every {@code intervalSeconds}.
+ * <p>
+ * Once the pull has finished we also log, for diagnostics, how long each
+ * layer took.
+ * </p>
+ */
+public final class DockerPullProgress {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerPullProgress.class);
+
+    /** How often we report progress. */
+    private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(JenkinsUtils.getSystemPropertyLong(
+            DockerPullProgress.class.getName() + ".intervalSeconds", 10L));
+
+    private final String image;
+    private final PrintStream out;
+    private final LongSupplier nanoTime;
+    private final long intervalNanos;
+    private final long startNanos;
+
+    // These are guarded by "this".
+    private final Map<String, Layer> layers = new LinkedHashMap<>();
+    private long lastReportNanos;
+    private boolean finished;
+
+    public DockerPullProgress(@NonNull String image, @NonNull PrintStream out) {
+        this(image, out, System::nanoTime, INTERVAL_NANOS);
+    }
+
+    DockerPullProgress(
+            @NonNull String image, @NonNull PrintStream out, @NonNull LongSupplier nanoTime, long intervalNanos) {
+        this.image = image;
+        this.out = out;
+        this.nanoTime = nanoTime;
+        this.intervalNanos = intervalNanos;
+        this.startNanos = nanoTime.getAsLong();
+        this.lastReportNanos = startNanos;
+    }
+
+    /**
+     * Takes note of a progress report from docker, and says how we're getting
+     * on if it's been a while since we last did.
+     *
+     * @param item
+     *            What docker said.
+     */
+    public void onNext(@NonNull PullResponseItem item) {
+        final String status = item.getStatus();
+        if (status == null) {
+            return;
+        }
+        final String id = item.getId();
+        final long now = nanoTime.getAsLong();
+        final String summary;
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            if (id == null || !isLayerStatus(status)) {
+                // e.g. "Pulling from library/ubuntu", "Digest: ...", "Status: ..."
+                summary = id == null ? status : id + ": " + status;
+            } else {
+                layers.computeIfAbsent(id, k -> new Layer(now)).update(status, item.getProgressDetail(), now);
+                if (now - lastReportNanos < intervalNanos) {
+                    return;
+                }
+                summary = summarise(now);
+                lastReportNanos = now;
+            }
+        }
+        out.println(summary);
+    }
+
+    /**
+     * Says how the pull went, and logs how long each layer took.
+     */
+    public void finished() {
+        final long now = nanoTime.getAsLong();
+        final String summary;
+        final List<String> timings = new ArrayList<>();
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (layers.isEmpty()) {
+                return;
+            }
+            summary = summarise(now);
+            for (final Map.Entry<String, Layer> e : layers.entrySet()) {
+                timings.add(e.getKey() + ": " + e.getValue().describeTimings());
+            }
+        }
+        out.println(summary);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Pull of image '{}' layer timings:\n  {}", image, String.join("\n  ", timings));
+        }
+    }
+
+    /** @return How long each layer took, for diagnostics. */
+    @NonNull
+    public synchronized Map<String, String> getLayerTimings() {
+        final Map<String, String> result = new LinkedHashMap<>();
+        for (final Map.Entry<String, Layer> e : layers.entrySet()) {
+            result.put(e.getKey(), e.getValue().describeTimings());
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private String summarise(long now) {
+        int complete = 0;
+        long downloaded = 0L;
+        long total = 0L;
+        for (final Layer layer : layers.values()) {
+            if (layer.completeNanos != 0L) {
+                complete++;
+            }
+            downloaded += layer.downloadedBytes;
+            total += layer.totalBytes;
+        }
+        final StringBuilder sb = new StringBuilder("Pulling image ")
+                .append(image)
+                .append(": ")
+                .append(complete)
+                .append('/')
+                .append(layers.size())
+                .append(" layers complete");
+        if (total > 0L) {
+            sb.append(", ")
+                    .append(bytes(downloaded))
+                    .append(" of ")
+                    .append(bytes(total))
+                    .append(" downloaded");
+        }
+        sb.append(" (")
+                .append(TimeUnit.NANOSECONDS.toSeconds(now - startNanos))
+                .append("s)");
+        return sb.toString();
+    }
+
+    private static boolean isLayerStatus(String status) {
+        switch (status) {
+            case "Pulling fs layer":
+            case "Waiting":
+            case "Downloading":
+            case "Verifying Checksum":
+            case "Download complete":
+            case "Extracting":
+            case "Pull complete":
+            case "Already exists":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static String bytes(long count) {
+        if (count < 1024L) {
+            return count + " B";
+        }
+        final String[] units = {"KB", "MB", "GB", "TB"};
+        double value = count;
+        int unit = -1;
+        while (value >= 1024.0 && unit < units.length - 1) {
+            value /= 1024.0;
+            unit++;
+        }
+        return String.format(Locale.ROOT, "%.1f %s", value, units[unit]);
+    }
+
+    /** What we know of one layer of the image. */
+    private static final class Layer {
+        final long firstSeenNanos;
+        long downloadStartedNanos;
+        long downloadedNanos;
+        long completeNanos;
+        long downloadedBytes;
+        long totalBytes;
+        boolean alreadyExisted;
+
+        Layer(long firstSeenNanos) {
+            this.firstSeenNanos = firstSeenNanos;
+        }
+
+        void update(String status, @CheckForNull ResponseItem.ProgressDetail detail, long now) {
+            switch (status) {
+                case "Downloading":
+                    if (downloadStartedNanos == 0L) {
+                        downloadStartedNanos = now;
+                    }
+                    if (detail != null && detail.getCurrent() != null) {
+                        downloadedBytes = detail.getCurrent();
+                    }
+                    if (detail != null && detail.getTotal() != null && detail.getTotal() > 0L) {
+                        totalBytes = detail.getTotal();
+                    }
+                    break;
+                case "Download complete":
+                    downloadedNanos = now;
+                    downloadedBytes = Math.max(downloadedBytes, totalBytes);
+                    break;
+                case "Already exists":
+                    alreadyExisted = true;
+                    completeNanos = now;
+                    break;
+                case "Pull complete":
+                    completeNanos = now;
+                    if (downloadedNanos == 0L) {
+                        downloadedNanos = now;
+                    }
+                    downloadedBytes = Math.max(downloadedBytes, totalBytes);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        String describeTimings() {
+            if (alreadyExisted) {
+                return "already existed";
+            }
+            final StringBuilder sb = new StringBuilder(bytes(totalBytes));
+            if (downloadStartedNanos != 0L && downloadedNanos != 0L) {
+                sb.append(", downloaded in ")
+                        .append(TimeUnit.NANOSECONDS.toMillis(downloadedNanos - downloadStartedNanos))
+                        .append(" ms");
+            }
+            if (completeNanos != 0L) {
+                sb.append(", complete after ")
+                        .append(TimeUnit.NANOSECONDS.toMillis(completeNanos - firstSeenNanos))
+                        .append(" ms");
+            } else {
+                sb.append(", incomplete");
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package io.jenkins.docker.client;
+
+import com.github.dockerjava.api.model.AuthConfig;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.ProxyConfiguration;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import net.sf.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asks docker registries which manifest digest an image reference currently
+ * resolves to, using the registry's HTTP API (a HEAD of the manifest) rather
+ * than a docker pull. That's cheap enough that we can check before every pull
+ * and only pull when the registry has something we don't.
+ * <p>
+ * Answers (including failures) are remembered for a short while, so lots of
+ * agents being provisioned at once only need one request.
+ * </p>
+ */
+public final class DockerRegistryDigests {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerRegistryDigests.class);
+
+    /** How long we remember what a registry told us. */
+    private static final long TTL_NANOS = TimeUnit.SECONDS.toNanos(JenkinsUtils.getSystemPropertyLong(
+            DockerRegistryDigests.class.getName() + ".ttlSeconds", 60L));
+
+    /** How long we wait for a registry to answer. */
+    private static final Duration TIMEOUT = Duration.ofSeconds(JenkinsUtils.getSystemPropertyLong(
+            DockerRegistryDigests.class.getName() + ".timeoutSeconds", 10L));
+
+    /** Registries, as host[:port], that we must talk to over http instead of https. */
+    private static final Set<String> INSECURE_REGISTRIES = Set.copyOf(
+            Arrays.asList(JenkinsUtils.getSystemPropertyString(
+                            DockerRegistryDigests.class.getName() + ".insecureRegistries", "")
+                    .split("\\s*,\\s*")));
+
+    private static final String DOCKER_HUB = "registry-1.docker.io";
+
+    /** What manifests we understand, most specific (multi-platform) first. */
+    private static final String ACCEPT = String.join(
+            ", ",
+            "application/vnd.oci.image.index.v1+json",
+            "application/vnd.docker.distribution.manifest.list.v2+json",
+            "application/vnd.oci.image.manifest.v1+json",
+            "application/vnd.docker.distribution.manifest.v2+json");
+
+    private static final Pattern CHALLENGE_PARAM = Pattern.compile("(\\w+)=\"([^\"]*)\"");
+
+    private final HttpClient http;
+    private final LongSupplier nanoTime;
+    private final ConcurrentHashMap<String, Answer> answers = new ConcurrentHashMap<>();
+
+    DockerRegistryDigests(@NonNull HttpClient http, @NonNull LongSupplier nanoTime) {
+        this.http = http;
+        this.nanoTime = nanoTime;
+    }
+
+    /** @return The instance everyone shares. */
+    @NonNull
+    public static DockerRegistryDigests get() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Finds out what digest the registry has for an image.
+     *
+     * @param image
+     *            The image reference, e.g. "jenkins/agent:latest".
+     * @param auth
+     *            Credentials for the registry, if it needs them.
+     * @return The digest, e.g. "sha256:0123...", or null if we couldn't find
+     *         out.
+     */
+    @CheckForNull
+    public String getDigest(@NonNull String image, @CheckForNull AuthConfig auth) {
+        final ImageReference ref = ImageReference.parse(image);
+        if (ref.digest != null) {
+            return ref.digest; // that's what it'll always be
+        }
+        final String key = image + '\n' + (auth == null ? "" : auth.getUsername());
+        final long now = nanoTime.getAsLong();
+        final Answer cached = answers.get(key);
+        if (cached != null && now - cached.fetchedAtNanos < TTL_NANOS) {
+            return cached.digest;
+        }
+        String digest = null;
+        try {
+            digest = fetchDigest(ref, auth);
+        } catch (IOException ex) {
+            LOGGER.debug("Unable to ask {} for the digest of {}", ref.registry, image, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        answers.put(key, new Answer(digest, now));
+        return digest;
+    }
+
+    @CheckForNull
+    private String fetchDigest(ImageReference ref, @CheckForNull AuthConfig auth)
+            throws IOException, InterruptedException {
+        final URI manifest = URI.create(ref.baseUrl() + "/v2/" + ref.repository + "/manifests/" + ref.tag);
+        HttpResponse<Void> response = headManifest(manifest, null);
+        if (response.statusCode() == 401) {
+            final String authorization = authorize(response, auth);
+            if (authorization == null) {
+                LOGGER.debug("Registry {} wants credentials we can't give it for {}", ref.registry, ref);
+                return null;
+            }
+            response = headManifest(manifest, authorization);
+        }
+        if (response.statusCode() != 200) {
+            LOGGER.debug("Registry {} said {} when asked for {}", ref.registry, response.statusCode(), ref);
+            return null;
+        }
+        return response.headers().firstValue("Docker-Content-Digest").orElse(null);
+    }
+
+    private HttpResponse<Void> headManifest(URI manifest, @CheckForNull String authorization)
+            throws IOException, InterruptedException {
+        final HttpRequest.Builder request = HttpRequest.newBuilder(manifest)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .header("Accept", ACCEPT)
+                .timeout(TIMEOUT);
+        if (authorization != null) {
+            request.header("Authorization", authorization);
+        }
+        return http.send(request.build(), HttpResponse.BodyHandlers.discarding());
+    }
+
+    /**
+     * Answers the registry's challenge.
+     *
+     * @return The Authorization header to send, or null if we can't.
+     */
+    @CheckForNull
+    private String authorize(HttpResponse<?> challenge, @CheckForNull AuthConfig auth)
+            throws IOException, InterruptedException {
+        final String header = challenge.headers().firstValue("WWW-Authenticate").orElse("");
+        final String basic = basicAuth(auth);
+        if (header.regionMatches(true, 0, "Basic", 0, 5)) {
+            return basic;
+        }
+        if (!header.regionMatches(true, 0, "Bearer", 0, 6)) {
+            return null;
+        }
+        final Map<String, String> params = new HashMap<>();
+        final Matcher m = CHALLENGE_PARAM.matcher(header);
+        while (m.find()) {
+            params.put(m.group(1).toLowerCase(Locale.ROOT), m.group(2));
+        }
+        final String realm = params.get("realm");
+        if (realm == null) {
+            return null;
+        }
+        final StringBuilder url = new StringBuilder(realm);
+        char separator = realm.contains("?") ? '&' : '?';
+        for (final String name : new String[] {"service", "scope"}) {
+            final String value = params.get(name);
+            if (value != null) {
+                url.append(separator).append(name).append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+                separator = '&';
+            }
+        }
+        final HttpRequest.Builder request =
+                HttpRequest.newBuilder(URI.create(url.toString())).GET().timeout(TIMEOUT);
+        if (basic != null) {
+            request.header("Authorization", basic);
+        }
+        final HttpResponse<String> response = http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            return null;
+        }
+        final JSONObject json = JSONObject.fromObject(response.body());
+        final String token = json.optString("token", json.optString("access_token", ""));
+        return token.isEmpty() ? null : "Bearer " + token;
+    }
+
+    @CheckForNull
+    private static String basicAuth(@CheckForNull AuthConfig auth) {
+        if (auth == null || auth.getUsername() == null) {
+            return null;
+        }
+        final String password = auth.getPassword() == null ? "" : auth.getPassword();
+        return "Basic "
+                + Base64.getEncoder()
+                        .encodeToString((auth.getUsername() + ':' + password).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Creates our shared instance when it's first needed, as it uses Jenkins' proxy settings. */
+    private static final class Holder {
+        static final DockerRegistryDigests INSTANCE = new DockerRegistryDigests(
+                ProxyConfiguration.newHttpClientBuilder()
+                        .connectTimeout(TIMEOUT)
+                        .followRedirects(HttpClient.Redirect.NORMAL)
+                        .build(),
+                System::nanoTime);
+    }
+
+    /** What a registry told us, and when. */
+    private static final class Answer {
+        @CheckForNull
+        final String digest;
+
+        final long fetchedAtNanos;
+
+        Answer(@CheckForNull String digest, long fetchedAtNanos) {
+            this.digest = digest;
+            this.fetchedAtNanos = fetchedAtNanos;
+        }
+    }
+
+    /** An image reference, split up the way a registry wants it. */
+    static final class ImageReference {
+        final String registry;
+        final String repository;
+
+        @CheckForNull
+        final String tag;
+
+        @CheckForNull
+        final String digest;
+
+        private ImageReference(String registry, String repository, String tag, String digest) {
+            this.registry = registry;
+            this.repository = repository;
+            this.tag = tag;
+            this.digest = digest;
+        }
+
+        /**
+         * Splits up an image reference, filling in the defaults docker uses:
+         * Docker Hub, "library/" for official images and the "latest" tag.
+         */
+        @NonNull
+        static ImageReference parse(@NonNull String image) {
+            String name = image;
+            String digest = null;
+            final int at = name.indexOf('@');
+            if (at >= 0) {
+                digest = name.substring(at + 1);
+                name = name.substring(0, at);
+            }
+            String tag = null;
+            final int colon = name.lastIndexOf(':');
+            if (colon > name.lastIndexOf('/')) {
+                tag = name.substring(colon + 1);
+                name = name.substring(0, colon);
+            }
+            if (tag == null && digest == null) {
+                tag = "latest";
+            }
+            final int slash = name.indexOf('/');
+            final String first = slash < 0 ? null : name.substring(0, slash);
+            String registry = DOCKER_HUB;
+            String repository = name;
+            if (first != null && (first.contains(".") || first.contains(":") || first.equals("localhost"))) {
+                registry = first;
+                repository = name.substring(slash + 1);
+            }
+            if (registry.equals("docker.io") || registry.equals("index.docker.io")) {
+                registry = DOCKER_HUB;
+            }
+            if (registry.equals(DOCKER_HUB) && !repository.contains("/")) {
+                repository = "library/" + repository;
+            }
+            return new ImageReference(registry, repository, tag, digest);
+        }
+
+        String baseUrl() {
+            final boolean insecure = registry.startsWith("localhost")
+                    || registry.startsWith("127.0.0.1")
+                    || INSECURE_REGISTRIES.contains(registry);
+            return (insecure ? "http://" : "https://") + registry;
+        }
+
+        @Override
+        public String toString() {
+            return registry + '/' + repository + (tag == null ? "" : ':' + tag) + (digest == null ? "" : '@' + digest);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package io.jenkins.docker.client;
+
+import static com.cloudbees.plugins.credentials.CredentialsMatchers.firstOrNull;
+import static com.cloudbees.plugins.credentials.CredentialsMatchers.withId;
+import static com.cloudbees.plugins.credentials.CredentialsProvider.lookupCredentials;
+
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.github.dockerjava.core.SSLConfig;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.security.ACL;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyManagementException;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import javax.net.ssl.SSLContext;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerServerCredentials;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the {@link SSLConfig} (and the {@link SSLContext} it makes) for each
+ * {@link DockerServerCredentials} ID so that we don't have to look up the
+ * credentials and parse their key material every time we make a client or open
+ * a socket.
+ * <p>
+ * Cached lookups are trusted for a short time, after which the credentials are
+ * looked up again. If the credentials' key material is unchanged (same
+ * fingerprint) then the existing {@link SSLContext} continues to be used,
+ * otherwise a new one is made. The cache is also emptied whenever the global
+ * credentials are saved, so edits take effect immediately.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class DockerSSLConfigCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DockerSSLConfigCache.class);
+
+    /** How long we trust a lookup before checking the credentials again. */
+    private static final long REVALIDATE_AFTER_MILLIS = JenkinsUtils.getSystemPropertyLong(
+            DockerSSLConfigCache.class.getName() + ".revalidateAfterMillis", TimeUnit.MINUTES.toMillis(1));
+
+    private static final DockerSSLConfigCache INSTANCE = new DockerSSLConfigCache(
+            TimeUnit.MILLISECONDS.toNanos(REVALIDATE_AFTER_MILLIS), DockerSSLConfigCache::lookupCredentialsById);
+
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+    /** Incremented whenever we're cleared, so lookups that started before then aren't cached. */
+    private final AtomicLong generation = new AtomicLong();
+    private final long revalidateAfterNanos;
+    private final Function<String, DockerServerCredentials> credentialsLookup;
+
+    DockerSSLConfigCache(
+            long revalidateAfterNanos, @NonNull Function<String, DockerServerCredentials> credentialsLookup) {
+        this.revalidateAfterNanos = revalidateAfterNanos;
+        this.credentialsLookup = credentialsLookup;
+    }
+
+    /**
+     * Obtains the {@link SSLConfig} to use for the given credentials.
+     *
+     * @param credentialsId
+     *            The ID of some {@link DockerServerCredentials}, or null.
+     * @return The {@link SSLConfig}, or null if no credentials were specified
+     *         or they could not be found.
+     */
+    @CheckForNull
+    static SSLConfig getSSLConfig(@CheckForNull String credentialsId) {
+        return INSTANCE.get(credentialsId);
+    }
+
+    /**
+     * Forgets everything we've cached.
+     */
+    static void invalidateAll() {
+        INSTANCE.clear();
+    }
+
+    @CheckForNull
+    SSLConfig get(@CheckForNull String credentialsId) {
+        if (credentialsId == null) {
+            return null;
+        }
+        final long now = System.nanoTime();
+        final Entry cached = cache.get(credentialsId);
+        if (cached != null && now - cached.lookedUpAtNanos < revalidateAfterNanos) {
+            return cached.sslConfig;
+        }
+        // Look up and fingerprint the credentials before touching the map, as
+        // that's slow and mustn't be done while holding one of its locks.
+        final long generationBeforeLookup = generation.get();
+        final Entry fresh = lookUp(credentialsId, cached, now);
+        final Entry updated = cache.compute(credentialsId, (id, existing) -> {
+            if (existing != null && existing != cached) {
+                return existing; // someone else just refreshed it
+            }
+            if (generation.get() != generationBeforeLookup) {
+                return existing; // we were cleared while looking; what we found may be out of date
+            }
+            return fresh;
+        });
+        return updated == null ? fresh.sslConfig : updated.sslConfig;
+    }
+
+    private Entry lookUp(String credentialsId, @CheckForNull Entry previous, long now) {
+        final DockerServerCredentials credentials = credentialsLookup.apply(credentialsId);
+        if (credentials == null) {
+            return new Entry(null, null, now);
+        }
+        final String fingerprint = fingerprint(credentials);
+        if (previous != null && fingerprint.equals(previous.fingerprint)) {
+            return new Entry(fingerprint, previous.sslConfig, now);
+        }
+        if (previous != null) {
+            LOGGER.info("Credentials {} have changed; TLS configuration will be rebuilt.", credentialsId);
+        }
+        return new Entry(fingerprint, new CachingSSLConfig(new DockerServerCredentialsSSLConfig(credentials)), now);
+    }
+
+    void clear() {
+        generation.incrementAndGet();
+        cache.clear();
+    }
+
+    @CheckForNull
+    private static DockerServerCredentials lookupCredentialsById(String credentialsId) {
+        return firstOrNull(
+                lookupCredentials(DockerServerCredentials.class, Jenkins.get(), ACL.SYSTEM, List.of()),
+                withId(credentialsId));
+    }
+
+    /**
+     * Calculates a digest of everything that goes into making an
+     * {@link SSLContext} from the credentials, so we can tell if they've
+     * changed without having to parse them.
+     */
+    static String fingerprint(@NonNull DockerServerCredentials credentials) {
+        try {
+            final MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (final String s : new String[] {
+                credentials.getClientKey(), credentials.getClientCertificate(), credentials.getServerCaCertificate()
+            }) {
+                if (s != null) {
+                    md.update(s.getBytes(StandardCharsets.UTF_8));
+                }
+                md.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    private static final class Entry {
+        @CheckForNull
+        final String fingerprint;
+
+        @CheckForNull
+        final SSLConfig sslConfig;
+
+        final long lookedUpAtNanos;
+
+        Entry(String fingerprint, SSLConfig sslConfig, long lookedUpAtNanos) {
+            this.fingerprint = fingerprint;
+            this.sslConfig = sslConfig;
+            this.lookedUpAtNanos = lookedUpAtNanos;
+        }
+    }
+
+    /**
+     * An {@link SSLConfig} that only makes its {@link SSLContext} once.
+     * Failures are not remembered, so a broken configuration will be retried
+     * (and reported) on each use, as it would be without a cache.
+     */
+    private static final class CachingSSLConfig implements SSLConfig {
+        private final SSLConfig delegate;
+        private volatile SSLContext context;
+
+        CachingSSLConfig(SSLConfig delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public SSLContext getSSLContext()
+                throws KeyManagementException, UnrecoverableKeyException, NoSuchAlgorithmException,
+                        KeyStoreException {
+            SSLContext result = context;
+            if (result == null) {
+                synchronized (this) {
+                    result = context;
+                    if (result == null) {
+                        result = delegate.getSSLContext();
+                        context = result;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Empties the cache whenever the global credentials change.
+     */
+    @Extension
+    public static class CredentialsChangeListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof SystemCredentialsProvider) {
+                LOGGER.debug("Credentials saved; forgetting cached TLS configuration.");
+                invalidateAll();
+            }
+        }
+    }
+}
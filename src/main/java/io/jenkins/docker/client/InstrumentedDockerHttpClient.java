@@ -0,0 +1,140 @@
+package io.jenkins.docker.client;
+
+import com.github.dockerjava.transport.DockerHttpClient;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link DockerHttpClient} that watches every request made to a docker
+ * endpoint and tells everyone who's interested how it went:
+ * <ul>
+ * <li>{@link DockerConnectionStatistics} counts requests waiting for an answer
+ * and responses that are still open (the underlying client holds on to a
+ * pooled connection until the response is closed).</li>
+ * <li>{@link DockerCommandMetrics} counts and times each request, until its
+ * response is closed.</li>
+ * <li>{@link DockerEndpointCircuitBreaker} is told whether the endpoint
+ * answered. Only failing to get a response, or a 502, 503 or 504 from
+ * whatever is in front of the daemon, counts against the endpoint; any other
+ * response (even a 500) means the daemon is there, and errors like "port is
+ * already allocated" are about what was asked of it, which is for the
+ * caller's own retry/backoff to deal with.</li>
+ * <li>{@link DockerEndpointCapabilities} are forgotten if we failed to get a
+ * response at all, as the daemon may have been restarted or replaced.</li>
+ * </ul>
+ */
+class InstrumentedDockerHttpClient implements DockerHttpClient {
+    private final DockerHttpClient delegate;
+    private final DockerConnectionStatistics stats;
+    private final DockerCommandMetrics metrics;
+    private final int maxConnectionsOrZero;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    InstrumentedDockerHttpClient(
+            DockerHttpClient delegate, DockerConnectionStatistics stats, int maxConnectionsOrZero) {
+        this.delegate = delegate;
+        this.stats = stats;
+        this.metrics = DockerCommandMetrics.forEndpoint(stats.getDockerUri());
+        this.maxConnectionsOrZero = maxConnectionsOrZero;
+        stats.clientOpened(maxConnectionsOrZero);
+    }
+
+    @Override
+    public Response execute(Request request) {
+        final DockerEndpointCircuitBreaker breaker = DockerEndpointCircuitBreaker.forEndpoint(stats.getDockerUri());
+        final DockerCommandMetrics.Command command =
+                DockerCommandMetrics.Command.of(request.method(), request.path());
+        stats.requestStarted();
+        final long startNanos = System.nanoTime();
+        final Response response;
+        try {
+            response = delegate.execute(request);
+        } catch (RuntimeException | Error ex) {
+            final long durationNanos = System.nanoTime() - startNanos;
+            stats.requestFailed();
+            breaker.recordFailure(durationNanos, ex);
+            metrics.record(command, durationNanos, true);
+            // The endpoint may have been restarted or replaced.
+            DockerEndpointCapabilities.invalidate(stats.getDockerUri());
+            throw ex;
+        }
+        stats.requestAnswered();
+        final int statusCode = response.getStatusCode();
+        if (isEndpointInTrouble(statusCode)) {
+            breaker.recordServerError(System.nanoTime() - startNanos, statusCode);
+        } else {
+            breaker.recordSuccess(System.nanoTime() - startNanos);
+        }
+        return new TrackedResponse(response, command, startNanos);
+    }
+
+    /**
+     * Indicates whether an HTTP status code tells us the endpoint itself is
+     * unavailable, rather than that it couldn't do what we asked.
+     *
+     * @param statusCode
+     *            The HTTP status code.
+     * @return true if it's a bad gateway, service unavailable or gateway
+     *         timeout.
+     */
+    static boolean isEndpointInTrouble(int statusCode) {
+        return statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed.compareAndSet(false, true)) {
+            stats.clientClosed(maxConnectionsOrZero);
+        }
+        delegate.close();
+    }
+
+    private class TrackedResponse implements Response {
+        private final Response response;
+        private final DockerCommandMetrics.Command command;
+        private final long startNanos;
+        private final AtomicBoolean responseClosed = new AtomicBoolean();
+
+        TrackedResponse(Response response, DockerCommandMetrics.Command command, long startNanos) {
+            this.response = response;
+            this.command = command;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.getStatusCode();
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            return response.getHeaders();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return response.getHeader(name);
+        }
+
+        @Override
+        public InputStream getBody() {
+            return response.getBody();
+        }
+
+        @Override
+        public void close() {
+            final boolean failed = response.getStatusCode() >= 400;
+            try {
+                response.close();
+            } finally {
+                if (responseClosed.compareAndSet(false, true)) {
+                    stats.responseClosed();
+                    metrics.record(command, System.nanoTime() - startNanos, failed);
+                }
+            }
+        }
+    }
+}
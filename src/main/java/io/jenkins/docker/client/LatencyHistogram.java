@@ -0,0 +1,149 @@
+package io.jenkins.docker.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import net.sf.json.JSONObject;
+
+/**
+ * A histogram of durations that can be recorded to cheaply from many threads
+ * at once.
+ * <p>
+ * Durations are recorded in microseconds into buckets whose width grows with
+ * the value (8 buckets per power of two), so percentiles are accurate to
+ * within about 12% regardless of whether calls take milliseconds or minutes.
+ * Recording is just a couple of atomic increments; there's no locking and
+ * nothing is allocated.
+ * </p>
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Anything over 2^40us (about 12 days) goes in the last bucket. */
+    private static final int MAX_EXPONENT = 40;
+
+    static final int BUCKET_COUNT = bucketIndex((1L << (MAX_EXPONENT + 1)) - 1L) + 1;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos
+     *            The duration, in nanoseconds.
+     */
+    public void record(long nanos) {
+        final long micros = Math.max(0L, TimeUnit.NANOSECONDS.toMicros(nanos));
+        buckets.incrementAndGet(bucketIndex(micros));
+        count.increment();
+        totalMicros.add(micros);
+        maxMicros.accumulate(micros);
+    }
+
+    /**
+     * Adds everything recorded by another histogram to this one.
+     *
+     * @param other
+     *            The histogram to add.
+     */
+    void addAll(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            final long n = other.buckets.get(i);
+            if (n != 0L) {
+                buckets.addAndGet(i, n);
+            }
+        }
+        count.add(other.count.sum());
+        totalMicros.add(other.totalMicros.sum());
+        maxMicros.accumulate(other.maxMicros.get());
+    }
+
+    /** @return The number of durations recorded. */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /** @return The mean duration in milliseconds, or 0 if nothing was recorded. */
+    public double getMeanMillis() {
+        final long n = count.sum();
+        return n == 0L ? 0.0 : totalMicros.sum() / 1000.0 / n;
+    }
+
+    /** @return The longest duration recorded, in milliseconds. */
+    public double getMaxMillis() {
+        return maxMicros.get() / 1000.0;
+    }
+
+    /**
+     * Estimates a percentile.
+     *
+     * @param percentile
+     *            Which percentile, e.g. 99.0 for the 99th percentile.
+     * @return The estimated duration, in milliseconds, that the given
+     *         percentage of recorded durations did not exceed. 0 if nothing
+     *         was recorded.
+     */
+    public double getPercentileMillis(double percentile) {
+        final long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0L;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0L) {
+            return 0.0;
+        }
+        final long rank = Math.max(1L, (long) Math.ceil(total * Math.min(100.0, percentile) / 100.0));
+        long seen = 0L;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), maxMicros.get()) / 1000.0;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /** @return A JSON summary of this histogram. */
+    public JSONObject toJSON() {
+        final JSONObject result = new JSONObject();
+        result.put("count", getCount());
+        result.put("meanMillis", getMeanMillis());
+        result.put("p50Millis", getPercentileMillis(50.0));
+        result.put("p95Millis", getPercentileMillis(95.0));
+        result.put("p99Millis", getPercentileMillis(99.0));
+        result.put("maxMillis", getMaxMillis());
+        return result;
+    }
+
+    static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        final int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_EXPONENT);
+        if (exponent == MAX_EXPONENT && micros >= (1L << (MAX_EXPONENT + 1))) {
+            return SUB_BUCKETS * (MAX_EXPONENT - SUB_BUCKET_BITS + 1) + SUB_BUCKETS - 1;
+        }
+        final int subBucket = (int) ((micros >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return SUB_BUCKETS * (exponent - SUB_BUCKET_BITS + 1) + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long subBucket = index % SUB_BUCKETS;
+        final long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1L;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram" + toJSON();
+    }
+}
@@ -0,0 +1,79 @@
+package io.jenkins.docker.client;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A {@link LatencyHistogram} that forgets old durations, so that it shows
+ * how things are now rather than how they've been since Jenkins started.
+ * <p>
+ * Durations are recorded into the current of two generations, each of which
+ * covers half the window; when the current generation is full, the older one
+ * is thrown away. A {@link #snapshot()} therefore covers between half and all
+ * of the window, and this costs no more than two histograms' worth of memory
+ * however many durations are recorded.
+ * </p>
+ */
+public final class RollingLatencyHistogram {
+    private final long halfWindowNanos;
+    private final LongSupplier nanoTime;
+
+    // These are guarded by "this".
+    private LatencyHistogram previous = new LatencyHistogram();
+    private LatencyHistogram current = new LatencyHistogram();
+    private long currentStartedNanos;
+
+    /**
+     * @param windowMillis
+     *            How long to remember durations for.
+     */
+    public RollingLatencyHistogram(long windowMillis) {
+        this(windowMillis, System::nanoTime);
+    }
+
+    RollingLatencyHistogram(long windowMillis, @NonNull LongSupplier nanoTime) {
+        this.halfWindowNanos = Math.max(1L, TimeUnit.MILLISECONDS.toNanos(windowMillis) / 2L);
+        this.nanoTime = nanoTime;
+        this.currentStartedNanos = nanoTime.getAsLong();
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos
+     *            The duration, in nanoseconds.
+     */
+    public void record(long nanos) {
+        currentGeneration().record(nanos);
+    }
+
+    /** @return Everything recorded within the window. */
+    @NonNull
+    public LatencyHistogram snapshot() {
+        final LatencyHistogram result = new LatencyHistogram();
+        synchronized (this) {
+            rollIfDue();
+            result.addAll(previous);
+            result.addAll(current);
+        }
+        return result;
+    }
+
+    private synchronized LatencyHistogram currentGeneration() {
+        rollIfDue();
+        return current;
+    }
+
+    private void rollIfDue() {
+        final long now = nanoTime.getAsLong();
+        final long age = now - currentStartedNanos;
+        if (age < halfWindowNanos) {
+            return;
+        }
+        // If nothing was recorded for a whole window, both generations are stale.
+        previous = age < 2L * halfWindowNanos ? current : new LatencyHistogram();
+        current = new LatencyHistogram();
+        currentStartedNanos = now;
+    }
+}
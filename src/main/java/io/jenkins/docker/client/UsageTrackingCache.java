@@ -1,21 +1,28 @@
 package io.jenkins.docker.client;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.RemovalListener;
-import com.google.common.cache.RemovalNotification;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
-import java.util.HashMap;
-import java.util.IdentityHashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 /**
  * A cache that keep things until they haven't been used for a given duration.
  * Things will be kept in the cache until they have been inactive for too long.
  * Things will not be dropped from the cache while they are active, no matter
  * how long that is.
+ * <p>
+ * This class is thread-safe and does not need external synchronization.
+ * Operations on different keys do not contend with each other: each key's
+ * usage count is updated under the per-bin lock of a
+ * {@link ConcurrentHashMap}, and the removal of expired entries is amortized
+ * over calls rather than being forced on every call.
+ * </p>
  *
  * @param <K>
  *            The type of key by which cache entries can be indexed. This must
@@ -38,12 +45,25 @@ public class UsageTrackingCache<K, V> {
         void entryDroppedFromCache(K key, V value);
     }
 
-    /** Holds all active records, indexed by key */
-    private final Map<K, CacheEntry<K, V>> activeCacheByKey;
-    /** Holds all active records, indexed by value */
-    private final Map<V, CacheEntry<K, V>> activeCacheByValue;
-    /** Holds all inactive records for a period, indexed by key */
-    private final Cache<K, CacheEntry<K, V>> durationCache;
+    /**
+     * Upper limit on how long we'll go between sweeps of the cache looking for
+     * expired entries, in nanoseconds.
+     */
+    private static final long MAX_SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /** Holds all records, active or not, indexed by key */
+    private final ConcurrentHashMap<K, CacheEntry<K, V>> cacheByKey;
+    /** Holds all records, active or not, indexed by value identity */
+    private final ConcurrentHashMap<IdentityKey<V>, CacheEntry<K, V>> cacheByValue;
+    /** Keys whose values are being made right now, so nobody else makes one too */
+    private final ConcurrentHashMap<K, CompletableFuture<Void>> creationsInProgress;
+    /** How long an inactive record may stay in the cache, in nanoseconds */
+    private final long expiryNanos;
+    /** How often we sweep the whole cache for expired records, in nanoseconds */
+    private final long sweepIntervalNanos;
+    /** When the next sweep is due, in {@link System#nanoTime()} terms */
+    private final AtomicLong nextSweepNanos;
+    private final ExpiryHandler<K, V> expiryHandler;
 
     /**
      * Full constructor.
@@ -58,23 +78,13 @@ public class UsageTrackingCache<K, V> {
      */
     UsageTrackingCache(
             final long duration, @NonNull final TimeUnit unit, @NonNull final ExpiryHandler<K, V> expiryHandler) {
-        activeCacheByKey = new HashMap<>();
-        activeCacheByValue = new IdentityHashMap();
-        CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder();
-        cacheBuilder = cacheBuilder.expireAfterAccess(duration, unit);
-        final RemovalListener removalHandler = new RemovalListener<K, CacheEntry<K, V>>() {
-            @Override
-            public void onRemoval(RemovalNotification<K, CacheEntry<K, V>> notification) {
-                final K key = notification.getKey();
-                if (!activeCacheByKey.containsKey(key)) {
-                    final CacheEntry<K, V> record = notification.getValue();
-                    final V value = record.getValue();
-                    expiryHandler.entryDroppedFromCache(key, value);
-                }
-            }
-        };
-        cacheBuilder = cacheBuilder.removalListener(removalHandler);
-        durationCache = cacheBuilder.build();
+        this.cacheByKey = new ConcurrentHashMap<>();
+        this.cacheByValue = new ConcurrentHashMap<>();
+        this.creationsInProgress = new ConcurrentHashMap<>();
+        this.expiryNanos = unit.toNanos(duration);
+        this.sweepIntervalNanos = Math.max(1L, Math.min(expiryNanos, MAX_SWEEP_INTERVAL_NANOS));
+        this.nextSweepNanos = new AtomicLong(readTimeNowInNanoseconds() + sweepIntervalNanos);
+        this.expiryHandler = expiryHandler;
     }
 
     /**
@@ -91,30 +101,64 @@ public class UsageTrackingCache<K, V> {
      */
     @CheckForNull
     public V getAndIncrementUsage(@NonNull K key) {
-        final CacheEntry<K, V> activeRecord = activeCacheByKey.get(key);
-        if (activeRecord != null) {
-            // we have an entry that's currently in use
-            activeRecord.incrementUsageCount(); // bump activity count
-            final V value = activeRecord.getValue();
-            durationCache.cleanUp(); // force cleanup activity
-            return value;
-        }
-        final CacheEntry<K, V> durationRecord = durationCache.getIfPresent(key);
-        if (durationRecord != null) {
-            final V value = durationRecord.getValue();
-            // while we don't have an entry that's currently in use, we do have
-            // one that we stopped using recently.
-            durationRecord.incrementUsageCount(); // bump its activity count
-            // put it in the "active" cache
-            activeCacheByKey.put(key, durationRecord);
-            activeCacheByValue.put(value, durationRecord);
-            // remove it from the duration cache
-            durationCache.invalidate(key);
-            durationCache.cleanUp();
-            return value;
-        }
-        durationCache.cleanUp(); // force cleanup activity
-        return null;
+        final long now = readTimeNowInNanoseconds();
+        final List<CacheEntry<K, V>> expired = new ArrayList<>(1);
+        final CacheEntry<K, V> record = cacheByKey.computeIfPresent(key, (k, existing) -> {
+            if (existing.hasExpired(now, expiryNanos)) {
+                expired.add(existing);
+                return null;
+            }
+            existing.incrementUsageCount();
+            return existing;
+        });
+        retire(expired);
+        sweepIfDue(now);
+        return record == null ? null : record.getValue();
+    }
+
+    /**
+     * As {@link #getAndIncrementUsage(Object)}, but if there is no entry in the
+     * cache then one is made using the given factory and cached with a usage
+     * count of 1. Only one value is ever made for a key at a time: if another
+     * caller is already making one then we wait for it and use theirs. The
+     * factory is called without holding any map locks, as it may be slow, so
+     * callers using other keys are never blocked by it.
+     *
+     * @param key
+     *            The key used to look up the entry in the cache.
+     * @param factory
+     *            Makes a new entry for the key if there isn't one already.
+     * @return The existing, or new, cache entry. The caller MUST ensure that
+     *         {@link #decrementUsage(Object)} is later called on the result.
+     */
+    @NonNull
+    public V getOrCreateAndIncrementUsage(@NonNull K key, @NonNull Function<? super K, ? extends V> factory) {
+        while (true) {
+            final V existing = getAndIncrementUsage(key);
+            if (existing != null) {
+                return existing;
+            }
+            final CompletableFuture<Void> ourCreation = new CompletableFuture<>();
+            final CompletableFuture<Void> theirCreation = creationsInProgress.putIfAbsent(key, ourCreation);
+            if (theirCreation != null) {
+                // someone else is making one; wait for them then look again.
+                // If they failed, we'll have a go ourselves.
+                theirCreation.handle((ignored, ex) -> null).join();
+                continue;
+            }
+            try {
+                final V madeMeanwhile = getAndIncrementUsage(key);
+                if (madeMeanwhile != null) {
+                    return madeMeanwhile; // someone finished making one just before we started
+                }
+                final V value = factory.apply(key);
+                cacheAndIncrementUsage(key, value);
+                return value;
+            } finally {
+                creationsInProgress.remove(key, ourCreation);
+                ourCreation.complete(null);
+            }
+        }
     }
 
     /**
@@ -129,14 +173,16 @@ public class UsageTrackingCache<K, V> {
      */
     public void cacheAndIncrementUsage(@NonNull K key, @NonNull V entry) {
         final CacheEntry<K, V> record = new CacheEntry<>(key, entry, 1);
-        final CacheEntry<K, V> oldKeyRecord = activeCacheByKey.put(key, record);
-        final CacheEntry<K, V> oldValueRecord = activeCacheByValue.put(entry, record);
-        if (oldKeyRecord != null || oldValueRecord != null) {
-            final CacheEntry<K, V> oldRecord = oldKeyRecord != null ? oldKeyRecord : oldValueRecord;
-            activeCacheByKey.put(key, oldRecord);
-            activeCacheByValue.put(entry, oldRecord);
-            throw new IllegalStateException("Cannot cache " + record + " because there's already a record " + oldRecord
-                    + " present in the activeCache.");
+        final CacheEntry<K, V> oldKeyRecord = cacheByKey.putIfAbsent(key, record);
+        if (oldKeyRecord != null) {
+            throw new IllegalStateException("Cannot cache " + record + " because there's already a record "
+                    + oldKeyRecord + " present in the cache.");
+        }
+        final CacheEntry<K, V> oldValueRecord = cacheByValue.putIfAbsent(new IdentityKey<>(entry), record);
+        if (oldValueRecord != null) {
+            cacheByKey.remove(key, record);
+            throw new IllegalStateException("Cannot cache " + record + " because there's already a record "
+                    + oldValueRecord + " present in the cache.");
         }
     }
 
@@ -151,27 +197,100 @@ public class UsageTrackingCache<K, V> {
      *            The entry that is no longer in use.
      */
     public void decrementUsage(@NonNull V entry) {
-        durationCache.cleanUp(); // force cleanup activity
-        final CacheEntry<K, V> record = activeCacheByValue.get(entry);
+        final long now = readTimeNowInNanoseconds();
+        final CacheEntry<K, V> record = cacheByValue.get(new IdentityKey<>(entry));
         if (record == null) {
             throw new IllegalStateException("No active record for entry " + entry);
         }
-        final boolean stillActive = record.decrementUsageCount();
-        if (stillActive) {
+        final boolean[] wasActive = new boolean[1];
+        cacheByKey.computeIfPresent(record.getKey(), (k, existing) -> {
+            if (existing == record) {
+                wasActive[0] = record.decrementUsageCount(now);
+            }
+            return existing;
+        });
+        if (!wasActive[0]) {
+            throw new IllegalStateException("No active record for entry " + entry);
+        }
+        sweepIfDue(now);
+    }
+
+    /**
+     * Removes all expired inactive entries if it's been long enough since we
+     * last did so. Only one thread will do the sweep; everyone else carries on
+     * without waiting for it.
+     */
+    private void sweepIfDue(final long now) {
+        final long due = nextSweepNanos.get();
+        if (now - due < 0L) {
             return;
         }
-        // if we got this far then the entry has just ceased to be active.
-        final K key = record.getKey();
-        activeCacheByKey.remove(key);
-        activeCacheByValue.remove(entry);
-        durationCache.put(key, record);
-        durationCache.cleanUp();
+        if (!nextSweepNanos.compareAndSet(due, now + sweepIntervalNanos)) {
+            return; // someone else is doing it
+        }
+        final List<CacheEntry<K, V>> expired = new ArrayList<>();
+        for (final Map.Entry<K, CacheEntry<K, V>> e : cacheByKey.entrySet()) {
+            if (!e.getValue().hasExpired(now, expiryNanos)) {
+                continue;
+            }
+            cacheByKey.computeIfPresent(e.getKey(), (k, existing) -> {
+                if (existing.hasExpired(now, expiryNanos)) {
+                    expired.add(existing);
+                    return null;
+                }
+                return existing;
+            });
+        }
+        retire(expired);
+    }
+
+    /**
+     * Tells the {@link ExpiryHandler} about entries that have been removed
+     * from the cache. This is done outside of any map locks as the handler may
+     * do slow things.
+     */
+    private void retire(final List<CacheEntry<K, V>> expired) {
+        for (final CacheEntry<K, V> record : expired) {
+            cacheByValue.remove(new IdentityKey<>(record.getValue()), record);
+            expiryHandler.entryDroppedFromCache(record.getKey(), record.getValue());
+        }
     }
 
+    private static long readTimeNowInNanoseconds() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Wraps a value so that it is compared by identity rather than
+     * {@link Object#equals(Object)}.
+     */
+    private static final class IdentityKey<V> {
+        private final V value;
+
+        IdentityKey(V value) {
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof IdentityKey && ((IdentityKey<?>) obj).value == value;
+        }
+    }
+
+    /**
+     * A cache record. The usage count and last-used time are only modified
+     * while holding the {@link ConcurrentHashMap} lock for the record's key.
+     */
     private static class CacheEntry<K, V> {
         private final K mKey;
         private final V mValue;
         private int mUsageCount;
+        private long mNanotimeWhenLastUsed;
 
         CacheEntry(K key, V value, int usageCount) {
             this.mKey = key;
@@ -183,9 +302,23 @@ public class UsageTrackingCache<K, V> {
             mUsageCount++;
         }
 
-        boolean decrementUsageCount() {
+        /**
+         * @return false if the entry wasn't in use (so it could not be
+         *         decremented), true otherwise.
+         */
+        boolean decrementUsageCount(long now) {
+            if (mUsageCount <= 0) {
+                return false;
+            }
             mUsageCount--;
-            return mUsageCount > 0;
+            if (mUsageCount == 0) {
+                mNanotimeWhenLastUsed = now;
+            }
+            return true;
+        }
+
+        boolean hasExpired(long now, long expiryNanos) {
+            return mUsageCount == 0 && now - mNanotimeWhenLastUsed >= expiryNanos;
         }
 
         K getKey() {
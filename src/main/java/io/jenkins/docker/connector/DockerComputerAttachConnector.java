@@ -11,8 +11,6 @@ import com.github.dockerjava.api.command.CreateContainerCmd;
 import com.github.dockerjava.api.command.ExecCreateCmd;
 import com.github.dockerjava.api.command.ExecCreateCmdResponse;
 import com.github.dockerjava.api.command.InspectContainerResponse;
-import com.github.dockerjava.api.command.VersionCmd;
-import com.github.dockerjava.api.model.Version;
 import com.google.common.base.Joiner;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
@@ -313,11 +311,8 @@ public class DockerComputerAttachConnector extends DockerComputerConnector imple
                 }
                 final ExecCreateCmdResponse execResponse = execCmd.exec();
                 execId = execResponse.getId();
-
-                final VersionCmd versionCmd = client.versionCmd();
-                final Version version = versionCmd.exec();
-                actualApiVersion = version.getApiVersion();
             }
+            actualApiVersion = api.getCapabilities().getApiVersion();
             final String js = "{ \"Detach\": false, \"Tty\": false }";
             final Socket socket = api.getSocket();
             final OutputStream out = socket.getOutputStream();
@@ -337,6 +332,8 @@ public class DockerComputerAttachConnector extends DockerComputerConnector imple
             String line = readLine(in);
             logger.println(line);
             if (!line.startsWith("HTTP/1.1 101 ")) { // Switching Protocols
+                // maybe the daemon has changed and no longer speaks that API version
+                api.invalidateCapabilities();
                 throw new IOException("Unexpected HTTP response status line " + line);
             }
 
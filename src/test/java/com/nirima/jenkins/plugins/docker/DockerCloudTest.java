@@ -3,6 +3,8 @@ package com.nirima.jenkins.plugins.docker;
 import static com.cloudbees.plugins.credentials.CredentialsScope.SYSTEM;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.CredentialsStore;
@@ -12,12 +14,13 @@ import com.cloudbees.plugins.credentials.domains.Domain;
 import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
 import com.github.dockerjava.api.model.AuthConfig;
 import com.nirima.jenkins.plugins.docker.strategy.DockerOnceRetentionStrategy;
+import hudson.model.Label;
 import hudson.model.Node;
 import hudson.util.Secret;
 import io.jenkins.docker.client.DockerAPI;
 import io.jenkins.docker.connector.DockerComputerAttachConnector;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import org.jenkinsci.plugins.docker.commons.credentials.DockerServerCredentials;
 import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
@@ -61,6 +64,51 @@ class DockerCloudTest {
         assertEquals(newName, copy.getDisplayName());
     }
 
+    @Test
+    void getDockerApisThenListsPrimaryEndpointFirst(@SuppressWarnings("unused") JenkinsRule jenkins) {
+        final DockerAPI primary = new DockerAPI(new DockerServerEndpoint("tcp://primary:2375", null));
+        final DockerAPI secondary = new DockerAPI(new DockerServerEndpoint("tcp://secondary:2375", null));
+        final DockerCloud cloud = new DockerCloud("multi", primary, List.of());
+        cloud.setAdditionalDockerApis(List.of(secondary));
+
+        assertEquals(List.of(primary, secondary), cloud.getDockerApis());
+        assertSame(secondary, cloud.getDockerApi("tcp://secondary:2375"));
+        assertNull(cloud.getDockerApi("tcp://unknown:2375"));
+        assertEquals(cloud.getDockerApis(), new DockerCloud("copy", cloud).getDockerApis());
+    }
+
+    @Test
+    void getTemplatesGivenTemplatesChangeThenReflectsChanges(@SuppressWarnings("unused") JenkinsRule jenkins) {
+        final DockerTemplate small =
+                new DockerTemplate(new DockerTemplateBase("image1"), null, "linux small", null, null);
+        final DockerTemplate large =
+                new DockerTemplate(new DockerTemplateBase("image2"), null, "linux large", null, null);
+        final DockerCloud cloud = new DockerCloud("index", null, new ArrayList<>(List.of(small)));
+        final Label linux = Label.parseExpression("linux");
+        final Label largeOnly = Label.parseExpression("large");
+
+        assertEquals(List.of(small), cloud.getTemplates(linux));
+        assertEquals(List.of(small), cloud.getTemplates(linux));
+        assertEquals(List.of(), cloud.getTemplates(largeOnly));
+
+        cloud.addTemplate(large);
+        assertEquals(List.of(small, large), cloud.getTemplates(linux));
+        assertEquals(List.of(large), cloud.getTemplates(largeOnly));
+
+        final DockerTemplate forJob = new DockerTemplate(new DockerTemplateBase("image3"), null, "large", null, null);
+        cloud.addJobTemplate(42L, forJob);
+        assertEquals(List.of(large, forJob), cloud.getTemplates(largeOnly));
+
+        cloud.removeJobTemplate(42L);
+        cloud.removeTemplate(large);
+        assertEquals(List.of(), cloud.getTemplates(largeOnly));
+
+        final DockerDisabled disabled = new DockerDisabled();
+        disabled.setDisabledByChoice(true);
+        small.setDisabled(disabled);
+        assertEquals(List.of(), cloud.getTemplates(linux));
+    }
+
     @Test
     void globalConfigRoundtrip(@SuppressWarnings("unused") JenkinsRule jenkins) throws Exception {
 
@@ -131,9 +179,8 @@ class DockerCloudTest {
         final DockerCloud c2 = new DockerCloud("cloud2." + uniqueId, null, null);
 
         assertCount(c1, c2, i1, i2, 0, 0, 0, 0);
-        assertEquals(
-                DockerCloud.CONTAINERS_IN_PROGRESS,
-                Map.of(),
+        assertTrue(
+                DockerCloud.CONTAINERS_IN_PROGRESS.isEmpty(),
                 "DockerCloud.CONTAINERS_IN_PROGRESS is empty to start with");
 
         c1.incrementContainersInProgress(i1);
@@ -153,8 +200,29 @@ class DockerCloudTest {
         assertCount(c1, c2, i1, i2, 0, 0, 1, 0);
         c2.decrementContainersInProgress(i1);
         assertCount(c1, c2, i1, i2, 0, 0, 0, 0);
-        assertEquals(
-                DockerCloud.CONTAINERS_IN_PROGRESS, Map.of(), "DockerCloud.CONTAINERS_IN_PROGRESS is empty afterwards");
+        assertTrue(
+                DockerCloud.CONTAINERS_IN_PROGRESS.isEmpty(), "DockerCloud.CONTAINERS_IN_PROGRESS is empty afterwards");
+    }
+
+    @Test
+    void keepTrackOfContainersInProgressPerTemplateNotPerImage(@SuppressWarnings("unused") JenkinsRule jenkins) {
+        final DockerTemplate t1 = new DockerTemplate(new DockerTemplateBase("image1"), null, "small", null, null);
+        final DockerTemplate t2 = new DockerTemplate(new DockerTemplateBase("image1"), null, "large", null, null);
+        final DockerTemplate t1Again = new DockerTemplate(new DockerTemplateBase("image1"), null, "small", null, null);
+        final DockerCloud c1 = new DockerCloud("cloud1." + Integer.toString(hashCode(), 36), null, null);
+
+        c1.incrementContainersInProgress(t1);
+        c1.incrementContainersInProgress(t2);
+        c1.incrementContainersInProgress(t2);
+
+        assertEquals(1, c1.countContainersInProgress(t1));
+        assertEquals(1, c1.countContainersInProgress(t1Again), "Same configuration counts as the same template");
+        assertEquals(2, c1.countContainersInProgress(t2));
+        assertEquals(3, c1.countContainersInProgress());
+        c1.decrementContainersInProgress(t1Again);
+        c1.decrementContainersInProgress(t2);
+        c1.decrementContainersInProgress(t2);
+        assertTrue(DockerCloud.CONTAINERS_IN_PROGRESS.isEmpty());
     }
 
     private static void assertCount(
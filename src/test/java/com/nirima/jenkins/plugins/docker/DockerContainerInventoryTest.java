@@ -0,0 +1,173 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.github.dockerjava.api.model.Container;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.EventActor;
+import com.github.dockerjava.api.model.EventType;
+import com.nirima.jenkins.plugins.docker.utils.JenkinsUtils;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class DockerContainerInventoryTest {
+
+    @Test
+    void resyncThenCountsActiveContainersByImageAndTemplate() {
+        final DockerContainerInventory instance = new DockerContainerInventory("test", TimeUnit.MINUTES.toNanos(5));
+
+        instance.resync(
+                List.of(
+                        container("c1", "running", "image1", "template1"),
+                        container("c2", "running", "image1", "template2"),
+                        container("c3", "exited", "image1", "template1"),
+                        container("c4", "paused", "image2", "template3"),
+                        container("c5", "created", "image2", "template3")),
+                System.nanoTime());
+
+        assertEquals(4, instance.countActive());
+        assertEquals(2, instance.countActiveByImage("image1"));
+        assertEquals(2, instance.countActiveByImage("image2"));
+        assertEquals(0, instance.countActiveByImage("image3"));
+        assertEquals(1, instance.countActiveByTemplate("template1"));
+        assertEquals(Map.of("running", 2, "exited", 1, "paused", 1, "created", 1), instance.countByState());
+    }
+
+    @Test
+    void onEventThenUpdatesState() {
+        final DockerContainerInventory instance = new DockerContainerInventory("test", TimeUnit.MINUTES.toNanos(5));
+        instance.resync(List.of(container("c1", "running", "image1", "template1")), System.nanoTime());
+
+        instance.onEvent(event("c2", "create", "image1", "template1"), System.nanoTime());
+        assertEquals(2, instance.countActive(), "Created but not started yet still counts");
+        instance.onEvent(event("c2", "start", "image1", "template1"), System.nanoTime());
+        assertEquals(2, instance.countActiveByImage("image1"));
+        instance.onEvent(event("c1", "exec_create: /bin/sh", "image1", "template1"), System.nanoTime());
+        assertEquals(2, instance.countActive());
+        instance.onEvent(event("c1", "die", "image1", "template1"), System.nanoTime());
+        assertEquals(1, instance.countActive());
+        instance.onEvent(event("c2", "destroy", "image1", "template1"), System.nanoTime());
+        assertEquals(0, instance.countActive());
+        assertEquals(Map.of("exited", 1), instance.countByState());
+    }
+
+    @Test
+    void receivedGivenSomeoneElsesContainerThenIgnoresIt() {
+        final DockerContainerInventory instance = new DockerContainerInventory("test", TimeUnit.MINUTES.toNanos(5));
+        JenkinsUtils.setTestInstanceId("us");
+        try {
+            final Event ours = event("c1", "start", "image1", "template1");
+            ours.getActor().getAttributes().put(DockerContainerLabelKeys.JENKINS_INSTANCE_ID, "us");
+            final Event theirs = event("c2", "start", "image1", "template1");
+            theirs.getActor().getAttributes().put(DockerContainerLabelKeys.JENKINS_INSTANCE_ID, "them");
+
+            instance.received(ours, System.nanoTime());
+            instance.received(theirs, System.nanoTime());
+            instance.received(event("c3", "start", "image1", "template1"), System.nanoTime());
+        } finally {
+            JenkinsUtils.setTestInstanceId(null);
+        }
+
+        assertEquals(1, instance.countActive());
+    }
+
+    @Test
+    void resyncGivenEventsNewerThanListingThenKeepsEventState() {
+        final DockerContainerInventory instance = new DockerContainerInventory("test", TimeUnit.MINUTES.toNanos(5));
+        final long listStarted = System.nanoTime();
+        // these happen while the listing is in progress
+        instance.onEvent(event("c1", "destroy", "image1", "template1"), listStarted + 1);
+        instance.onEvent(event("c2", "start", "image1", "template1"), listStarted + 2);
+
+        // ...so the listing still has c1 but doesn't have c2
+        instance.resync(
+                List.of(container("c1", "running", "image1", "template1"), container("c3", "running", "i", "t")),
+                listStarted);
+
+        assertEquals(2, instance.countActive());
+        assertEquals(1, instance.countActiveByImage("image1"));
+    }
+
+    @Test
+    void resyncGivenContainerGoneThenForgetsIt() {
+        final DockerContainerInventory instance = new DockerContainerInventory("test", TimeUnit.MINUTES.toNanos(5));
+        instance.resync(List.of(container("c1", "running", "image1", "template1")), System.nanoTime());
+
+        instance.resync(List.of(), System.nanoTime());
+
+        assertEquals(0, instance.countActive());
+        assertEquals(Map.of(), instance.countByState());
+    }
+
+    @Test
+    void containerStartedAndRemovedThenCountedStraightAway() {
+        final DockerContainerInventory instance = new DockerContainerInventory("test", TimeUnit.MINUTES.toNanos(5));
+        final long listStarted = System.nanoTime();
+
+        instance.containerStarted("c1", "image1", "template1");
+        instance.containerStarted("c2", "image1", "template1");
+        assertEquals(2, instance.countActiveByImage("image1"));
+        instance.containerRemoved("c1");
+        assertEquals(1, instance.countActive());
+
+        // a listing from before we removed it doesn't bring it back
+        instance.resync(
+                List.of(
+                        container("c1", "running", "image1", "template1"),
+                        container("c2", "running", "image1", "template1")),
+                listStarted);
+        assertEquals(1, instance.countActiveByTemplate("template1"));
+    }
+
+    @Test
+    void stateOfGivenOnlyStatusThenWorksItOut() {
+        assertEquals("running", DockerContainerInventory.stateOf("Running", "whatever"));
+        assertEquals("running", DockerContainerInventory.stateOf(null, "Up 3 minutes"));
+        assertEquals("paused", DockerContainerInventory.stateOf(null, "Up 3 minutes (Paused)"));
+        assertEquals("exited", DockerContainerInventory.stateOf("", "Exited (0) 2 hours ago"));
+        assertEquals("created", DockerContainerInventory.stateOf(null, "Created"));
+        assertEquals("dead", DockerContainerInventory.stateOf(null, "Dead"));
+        assertEquals("unknown", DockerContainerInventory.stateOf(null, null));
+    }
+
+    @Test
+    void stateForActionGivenIrrelevantActionThenNull() {
+        assertEquals("running", DockerContainerInventory.stateForAction("start"));
+        assertEquals("paused", DockerContainerInventory.stateForAction("pause"));
+        assertEquals("running", DockerContainerInventory.stateForAction("unpause"));
+        assertNull(DockerContainerInventory.stateForAction("attach"));
+        assertNull(DockerContainerInventory.stateForAction("exec_start: /bin/sh"));
+    }
+
+    private static Container container(String id, String state, String image, String template) {
+        final Container c = mock(Container.class);
+        when(c.getId()).thenReturn(id);
+        when(c.getState()).thenReturn(state);
+        when(c.getLabels()).thenReturn(labels(image, template));
+        return c;
+    }
+
+    private static Event event(String id, String action, String image, String template) {
+        final EventActor actor = mock(EventActor.class);
+        when(actor.getId()).thenReturn(id);
+        when(actor.getAttributes()).thenReturn(labels(image, template));
+        final Event e = mock(Event.class);
+        when(e.getType()).thenReturn(EventType.CONTAINER);
+        when(e.getAction()).thenReturn(action);
+        when(e.getActor()).thenReturn(actor);
+        return e;
+    }
+
+    private static Map<String, String> labels(String image, String template) {
+        final Map<String, String> labels = new HashMap<>();
+        labels.put(DockerContainerLabelKeys.CONTAINER_IMAGE, image);
+        labels.put(DockerContainerLabelKeys.TEMPLATE_NAME, template);
+        return labels;
+    }
+}
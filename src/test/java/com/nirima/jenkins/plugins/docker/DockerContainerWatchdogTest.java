@@ -72,6 +72,47 @@ class DockerContainerWatchdogTest {
         assertEquals(0, subject.getAllRemovedNodes().size());
     }
 
+    @Test
+    void testPausedContainerWithPausedAgentIsLeftAlone() throws IOException, InterruptedException {
+        TestableDockerContainerWatchdog subject = new TestableDockerContainerWatchdog();
+
+        final String nodeName = "unittest-12346";
+        final String containerId = UUID.randomUUID().toString();
+
+        /* setup of cloud */
+        List<DockerCloud> listOfCloud = new LinkedList<>();
+
+        Map<String, String> labelMap = new HashMap<>();
+        labelMap.put(DockerContainerLabelKeys.NODE_NAME, nodeName);
+        labelMap.put(DockerContainerLabelKeys.REMOVE_VOLUMES, "false");
+
+        List<Container> containerList = new LinkedList<>();
+        Container c = TestableDockerContainerWatchdog.createMockedContainer(
+                containerId, "Up 10 minutes (Paused)", 0L, labelMap);
+        containerList.add(c);
+
+        DockerAPI dockerApi = TestableDockerContainerWatchdog.createMockedDockerAPI(containerList);
+        DockerCloud cloud = new DockerCloud("unittestcloud", dockerApi, new LinkedList<>());
+        listOfCloud.add(cloud);
+
+        subject.setAllClouds(listOfCloud);
+
+        /* setup of nodes; a paused agent may well look offline */
+        LinkedList<Node> allNodes = new LinkedList<>();
+
+        DockerTransientNode node =
+                TestableDockerContainerWatchdog.createMockedDockerTransientNode(containerId, nodeName, cloud, true);
+        Mockito.when(node.isPaused()).thenReturn(true);
+        allNodes.add(node);
+
+        subject.setAllNodes(allNodes);
+
+        subject.runExecute();
+
+        assertEquals(0, subject.getAllRemovedNodes().size());
+        assertEquals(0, subject.getContainersRemoved().size());
+    }
+
     @Test
     void testContainerExistsButAgentIsMissing() throws IOException, InterruptedException {
         TestableDockerContainerWatchdog subject = new TestableDockerContainerWatchdog();
@@ -0,0 +1,95 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.nirima.jenkins.plugins.docker.DockerContainersInProgress.Reservation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+class DockerContainersInProgressTest {
+
+    @Test
+    void tryReserveGivenLimitsThenReservesUntilEitherIsReached() {
+        final DockerContainersInProgress instance = new DockerContainersInProgress();
+
+        assertEquals(Reservation.RESERVED, instance.tryReserve("cloud", "t1", "i1", 3, 2));
+        assertEquals(Reservation.RESERVED, instance.tryReserve("cloud", "t1", "i1", 3, 2));
+        assertEquals(Reservation.TEMPLATE_FULL, instance.tryReserve("cloud", "t1", "i1", 3, 2));
+        assertEquals(2, instance.count("cloud"), "Failed template reservation must not use up cloud capacity");
+        assertEquals(Reservation.RESERVED, instance.tryReserve("cloud", "t2", "i2", 3, Integer.MAX_VALUE));
+        assertEquals(Reservation.CLOUD_FULL, instance.tryReserve("cloud", "t2", "i2", 3, Integer.MAX_VALUE));
+        assertEquals(Reservation.RESERVED, instance.tryReserve("otherCloud", "t2", "i2", 3, Integer.MAX_VALUE));
+
+        assertEquals(3, instance.count("cloud"));
+        assertEquals(2, instance.count("cloud", "t1"));
+        assertEquals(1, instance.count("cloud", "t2"));
+        assertEquals(1, instance.count("otherCloud", "t2"));
+        assertEquals(2, instance.countByImage("cloud", "i1"));
+    }
+
+    @Test
+    void tryReserveGivenTemplatesSharingAnImageThenTheirLimitCountsBoth() {
+        final DockerContainersInProgress instance = new DockerContainersInProgress();
+
+        assertEquals(Reservation.RESERVED, instance.tryReserve("cloud", "t1", "image", 10, 2));
+        assertEquals(Reservation.RESERVED, instance.tryReserve("cloud", "t2", "image", 10, 2));
+        assertEquals(Reservation.TEMPLATE_FULL, instance.tryReserve("cloud", "t1", "image", 10, 2));
+
+        assertEquals(1, instance.count("cloud", "t1"));
+        assertEquals(1, instance.count("cloud", "t2"));
+        assertEquals(2, instance.countByImage("cloud", "image"));
+    }
+
+    @Test
+    void tryReserveGivenReservationsReleasedThenForgetsThem() {
+        final DockerContainersInProgress instance = new DockerContainersInProgress();
+        instance.tryReserve("cloud", "t1", "i1", 1, 1);
+
+        instance.adjust("cloud", "t1", "i1", -1);
+
+        assertTrue(instance.isEmpty());
+        assertEquals(Reservation.RESERVED, instance.tryReserve("cloud", "t1", "i1", 1, 1));
+    }
+
+    @Test
+    void tryReserveGivenConcurrentCallersThenNeverExceedsLimits() throws Exception {
+        final DockerContainersInProgress instance = new DockerContainersInProgress();
+        final int threads = 8;
+        final int attemptsPerThread = 1000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Callable<Integer>> tasks = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                final String templateId = "t" + (i % 2);
+                final String image = "i" + (i % 2);
+                tasks.add(() -> {
+                    int reserved = 0;
+                    for (int j = 0; j < attemptsPerThread; j++) {
+                        if (instance.tryReserve("cloud", templateId, image, 50, 30) == Reservation.RESERVED) {
+                            reserved++;
+                        }
+                    }
+                    return reserved;
+                });
+            }
+            int totalReserved = 0;
+            for (final Future<Integer> f : executor.invokeAll(tasks)) {
+                totalReserved += f.get();
+            }
+
+            assertEquals(50, totalReserved);
+            assertEquals(50, instance.count("cloud"));
+            assertTrue(instance.count("cloud", "t0") <= 30);
+            assertTrue(instance.count("cloud", "t1") <= 30);
+            assertEquals(50, instance.count("cloud", "t0") + instance.count("cloud", "t1"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
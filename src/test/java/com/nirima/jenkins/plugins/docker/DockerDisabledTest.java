@@ -243,6 +243,48 @@ class DockerDisabledTest {
         assertEquals("", actual4);
     }
 
+    @Test
+    void disableBySystemWithBackoffGivenRepeatedFailuresThenDisablesForLongerUpToMaximum() {
+        final TestClass i = new TestClass();
+        final long max = 10000L;
+
+        i.disableBySystemWithBackoff("first", max, null);
+        final boolean firstDisabledBriefly = i.isDisabled();
+        i.moveTimeForwards(2000L);
+        final boolean firstOver = !i.isDisabled();
+        for (int count = 0; count < 10; count++) {
+            i.disableBySystemWithBackoff("again", max, null);
+        }
+        i.moveTimeForwards(max / 2 - 1);
+        final boolean stillDisabled = i.isDisabled();
+        i.moveTimeForwards(max / 2 + 1);
+        final boolean eventuallyOver = !i.isDisabled();
+
+        assertTrue(firstDisabledBriefly);
+        assertTrue(firstOver);
+        assertTrue(stillDisabled);
+        assertTrue(eventuallyOver);
+    }
+
+    @Test
+    void disableBySystemWithBackoffGivenSuccessInBetweenThenStartsShortAgain() {
+        final TestClass i = new TestClass();
+        final long max = 100000L;
+        for (int count = 0; count < 10; count++) {
+            i.disableBySystemWithBackoff("failing", max, null);
+        }
+        i.moveTimeForwards(max);
+        i.recordSuccessBySystem();
+
+        i.disableBySystemWithBackoff("failed again", max, null);
+        final boolean disabled = i.isDisabled();
+        i.moveTimeForwards(2000L);
+        final boolean over = !i.isDisabled();
+
+        assertTrue(disabled);
+        assertTrue(over);
+    }
+
     private static class TestClass extends DockerDisabled {
         long now = System.nanoTime();
 
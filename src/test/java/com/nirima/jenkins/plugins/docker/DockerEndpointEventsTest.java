@@ -0,0 +1,35 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import io.jenkins.docker.client.DockerAPI;
+import java.util.Set;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
+import org.junit.jupiter.api.Test;
+
+class DockerEndpointEventsTest {
+    private final DockerAPI kept = new DockerAPI(new DockerServerEndpoint("tcp://events-kept:2375", null));
+    private final DockerAPI removed = new DockerAPI(new DockerServerEndpoint("tcp://events-removed:2375", "creds"));
+
+    @Test
+    void endpointKeyThenIncludesCredentials() {
+        assertEquals("tcp://events-removed:2375#creds", DockerEndpointEvents.endpointKey(removed));
+    }
+
+    @Test
+    void retainOnlyThenForgetsEverythingAboutUnwantedEndpoints() {
+        final DockerEndpointEvents keptEvents = DockerEndpointEvents.forApi(kept);
+        final DockerContainerInventory keptInventory = DockerContainerInventory.forApi(kept);
+        final DockerEndpointEvents removedEvents = DockerEndpointEvents.forApi(removed);
+        final DockerContainerInventory removedInventory = DockerContainerInventory.forApi(removed);
+
+        DockerEndpointEvents.retainOnly(Set.of(DockerEndpointEvents.endpointKey(kept)));
+
+        assertSame(keptEvents, DockerEndpointEvents.forApi(kept));
+        assertSame(keptInventory, DockerContainerInventory.forApi(kept));
+        assertNotSame(removedEvents, DockerEndpointEvents.forApi(removed));
+        assertNotSame(removedInventory, DockerContainerInventory.forApi(removed));
+    }
+}
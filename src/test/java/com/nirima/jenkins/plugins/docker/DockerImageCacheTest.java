@@ -0,0 +1,104 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.InspectImageCmd;
+import com.github.dockerjava.api.command.InspectImageResponse;
+import com.github.dockerjava.api.model.Event;
+import com.github.dockerjava.api.model.EventActor;
+import com.github.dockerjava.api.model.EventType;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class DockerImageCacheTest {
+    private static final String IMAGE = "jenkins/agent:latest";
+    private static final String IMAGE_ID = "sha256:0123456789abcdef";
+
+    private final InspectImageCmd cmd = mock(InspectImageCmd.class);
+    private final DockerClient client = mock(DockerClient.class);
+
+    private DockerImageCache newInstance() {
+        final InspectImageResponse response = mock(InspectImageResponse.class);
+        when(response.getId()).thenReturn(IMAGE_ID);
+        when(cmd.exec()).thenReturn(response);
+        when(client.inspectImageCmd(IMAGE)).thenReturn(cmd);
+        final DockerImageCache instance = new DockerImageCache("tcp://test:2375");
+        instance.connected(System.nanoTime());
+        return instance;
+    }
+
+    @Test
+    void inspectGivenCachedImageThenDoesNotAskDocker() {
+        final DockerImageCache instance = newInstance();
+
+        final InspectImageResponse first = instance.inspect(client, IMAGE);
+        final InspectImageResponse second = instance.inspect(client, IMAGE);
+
+        assertSame(first, second);
+        verify(cmd, times(1)).exec();
+    }
+
+    @Test
+    void inspectGivenNotListeningToEventsThenAlwaysAsksDocker() {
+        final DockerImageCache instance = newInstance();
+        instance.disconnected();
+
+        instance.inspect(client, IMAGE);
+        instance.inspect(client, IMAGE);
+
+        verify(cmd, times(2)).exec();
+        assertEquals(0, instance.size());
+    }
+
+    @Test
+    void inspectGivenImagePulledThenAsksDockerAgain() {
+        final DockerImageCache instance = newInstance();
+        instance.inspect(client, IMAGE);
+
+        instance.invalidate("jenkins/agent");
+        instance.inspect(client, IMAGE);
+
+        verify(cmd, times(2)).exec();
+    }
+
+    @Test
+    void onEventGivenImageDeletedOrRetaggedThenForgetsIt() {
+        final DockerImageCache instance = newInstance();
+        instance.inspect(client, IMAGE);
+        instance.onEvent(event("untag", IMAGE_ID, Map.of()));
+        assertEquals(0, instance.size());
+
+        instance.inspect(client, IMAGE);
+        instance.onEvent(event("tag", "sha256:fedcba9876543210", Map.of("name", "docker.io/" + IMAGE)));
+        assertEquals(0, instance.size());
+
+        instance.inspect(client, IMAGE);
+        instance.onEvent(event("tag", "sha256:fedcba9876543210", Map.of("name", "jenkins/other:latest")));
+        assertEquals(1, instance.size());
+    }
+
+    @Test
+    void normaliseGivenEquivalentReferencesThenTheyMatch() {
+        assertEquals("ubuntu:latest", DockerImageCache.normalise("docker.io/library/ubuntu"));
+        assertEquals("ubuntu:22.04", DockerImageCache.normalise("ubuntu:22.04"));
+        assertEquals("localhost:5000/repo:latest", DockerImageCache.normalise("localhost:5000/repo"));
+        assertEquals(IMAGE_ID, DockerImageCache.normalise(IMAGE_ID));
+    }
+
+    private static Event event(String action, String id, Map<String, String> attributes) {
+        final EventActor actor = mock(EventActor.class);
+        when(actor.getId()).thenReturn(id);
+        when(actor.getAttributes()).thenReturn(attributes);
+        final Event e = mock(Event.class);
+        when(e.getType()).thenReturn(EventType.IMAGE);
+        when(e.getAction()).thenReturn(action);
+        when(e.getActor()).thenReturn(actor);
+        return e;
+    }
+}
@@ -0,0 +1,172 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import hudson.model.TaskListener;
+import io.jenkins.docker.client.DockerAPI;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
+import org.junit.jupiter.api.Test;
+
+class DockerImagePrePullerTest {
+    private final DockerAPI hostA = new DockerAPI(new DockerServerEndpoint("tcp://prepull-a:2375", null));
+    private final DockerAPI hostB = new DockerAPI(new DockerServerEndpoint("tcp://prepull-b:2375", null));
+
+    @Test
+    void executeGivenTemplatesOnSeveralHostsThenPullsEachImageOncePerHost() throws Exception {
+        final DockerTemplate first = template("image:1", DockerImagePullStrategy.PULL_LATEST);
+        final DockerTemplate sameImage = template("image:1", DockerImagePullStrategy.PULL_ALWAYS);
+        final DockerTemplate second = template("image:2", DockerImagePullStrategy.PULL_LATEST);
+        final DockerCloud cloud = new DockerCloud("executeGivenSeveralHosts", null, List.of(first, sameImage, second));
+        final TestableDockerImagePrePuller instance = new TestableDockerImagePrePuller(cloud, 10);
+        instance.completeImmediately = true;
+
+        instance.execute(TaskListener.NULL);
+
+        assertEquals(
+                List.of(
+                        "tcp://prepull-a:2375 image:1",
+                        "tcp://prepull-a:2375 image:2",
+                        "tcp://prepull-b:2375 image:1",
+                        "tcp://prepull-b:2375 image:2"),
+                instance.pulled);
+    }
+
+    @Test
+    void findImagesToPrePullGivenPullNeverOrDisabledThenSkipsThem() {
+        final DockerTemplate never = template("image:never", DockerImagePullStrategy.PULL_NEVER);
+        final DockerTemplate disabled = template("image:disabled", DockerImagePullStrategy.PULL_LATEST);
+        final DockerDisabled disabledByChoice = new DockerDisabled();
+        disabledByChoice.setDisabledByChoice(true);
+        when(disabled.getDisabled()).thenReturn(disabledByChoice);
+        final DockerTemplate wanted = template("image:wanted", DockerImagePullStrategy.PULL_LATEST);
+        final DockerCloud cloud = new DockerCloud("findImagesGivenPullNever", null, List.of(never, disabled, wanted));
+        final TestableDockerImagePrePuller instance = new TestableDockerImagePrePuller(cloud, 10);
+
+        final Map<String, Map<String, DockerImagePrePuller.PrePull>> actual = instance.findImagesToPrePull();
+
+        assertEquals(List.of("image:wanted"), new ArrayList<>(actual.get("tcp://prepull-a:2375").keySet()));
+    }
+
+    @Test
+    void startGivenConcurrencyLimitThenStartsNextPullOnlyWhenOneFinishes() throws Exception {
+        final List<DockerTemplate> templates = List.of(
+                template("image:1", DockerImagePullStrategy.PULL_LATEST),
+                template("image:2", DockerImagePullStrategy.PULL_LATEST),
+                template("image:3", DockerImagePullStrategy.PULL_LATEST));
+        final DockerCloud cloud = new DockerCloud("startGivenConcurrencyLimit", null, templates);
+        final TestableDockerImagePrePuller instance = new TestableDockerImagePrePuller(cloud, 2);
+        instance.apis = List.of(hostA);
+        final Thread executor = new Thread(() -> {
+            try {
+                instance.execute(TaskListener.NULL);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.start();
+        instance.awaitPulls(2);
+        assertEquals(2, instance.pulled.size());
+
+        instance.inProgress.get(0).complete(null);
+        instance.awaitPulls(3);
+        instance.inProgress.get(1).complete(null);
+        instance.inProgress.get(2).complete(null);
+        executor.join(10000L);
+
+        assertEquals(3, instance.pulled.size());
+    }
+
+    @Test
+    void executeGivenPullsFinishThenRemembersOnlyTheSuccessfulOnes() throws Exception {
+        final DockerTemplate pulled = template("image:remembered", DockerImagePullStrategy.PULL_ALWAYS);
+        final DockerTemplate failed = template("image:failed", DockerImagePullStrategy.PULL_ALWAYS);
+        final DockerCloud cloud = new DockerCloud("executeGivenPullsFinish", null, List.of(pulled, failed));
+        final TestableDockerImagePrePuller instance = new TestableDockerImagePrePuller(cloud, 10);
+        instance.apis = List.of(hostA);
+        instance.completeImmediately = true;
+        instance.failing.add("image:failed");
+
+        instance.execute(TaskListener.NULL);
+
+        assertTrue(DockerImagePrePuller.wasRecentlyPrePulled(hostA, "image:remembered"));
+        assertFalse(DockerImagePrePuller.wasRecentlyPrePulled(hostA, "image:failed"));
+        assertFalse(DockerImagePrePuller.wasRecentlyPrePulled(hostB, "image:remembered"), "Not pulled there");
+    }
+
+    private static DockerTemplate template(String image, DockerImagePullStrategy pullStrategy) {
+        final DockerTemplate template = mock(DockerTemplate.class);
+        when(template.getFullImageId()).thenReturn(image);
+        when(template.getPullStrategy()).thenReturn(pullStrategy);
+        when(template.getDisabled()).thenReturn(new DockerDisabled());
+        return template;
+    }
+
+    private class TestableDockerImagePrePuller extends DockerImagePrePuller {
+        private final DockerCloud cloud;
+        private final int maxConcurrent;
+        private List<DockerAPI> apis = List.of(hostA, hostB);
+        private boolean completeImmediately;
+        private final Set<String> failing = new HashSet<>();
+        private final List<String> pulled = new ArrayList<>();
+        private final List<CompletableFuture<Void>> inProgress = new ArrayList<>();
+
+        TestableDockerImagePrePuller(DockerCloud cloud, int maxConcurrent) {
+            this.cloud = cloud;
+            this.maxConcurrent = maxConcurrent;
+        }
+
+        @Override
+        protected List<DockerCloud> getAllClouds() {
+            return List.of(cloud);
+        }
+
+        @Override
+        protected List<DockerAPI> getDockerApis(DockerCloud c) {
+            return apis;
+        }
+
+        @Override
+        protected int getMaxConcurrentPullsPerHost() {
+            return maxConcurrent;
+        }
+
+        @Override
+        protected boolean shouldPrePullImage(DockerAPI api, DockerTemplate template) {
+            return true;
+        }
+
+        @Override
+        protected Closeable pullImage(
+                DockerAPI api, DockerTemplate template, TaskListener listener, CompletableFuture<Void> whenPulled) {
+            synchronized (this) {
+                pulled.add(api.getDockerHost().getUri() + " " + template.getFullImageId());
+                inProgress.add(whenPulled);
+                notifyAll();
+            }
+            if (completeImmediately && failing.contains(template.getFullImageId())) {
+                whenPulled.completeExceptionally(new IllegalStateException("test"));
+            } else if (completeImmediately) {
+                whenPulled.complete(null);
+            }
+            return () -> {};
+        }
+
+        synchronized void awaitPulls(int count) throws InterruptedException {
+            final long giveUpAt = System.currentTimeMillis() + 10000L;
+            while (pulled.size() < count && System.currentTimeMillis() < giveUpAt) {
+                wait(100L);
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.nirima.jenkins.plugins.docker;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -8,6 +10,8 @@ import com.github.dockerjava.api.DockerClient;
 import com.github.dockerjava.api.command.InspectImageCmd;
 import com.github.dockerjava.api.command.InspectImageResponse;
 import com.github.dockerjava.api.exception.NotFoundException;
+import java.util.List;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 
@@ -30,6 +34,11 @@ class DockerImagePullStrategyTest {
             {true, "repo/name:latest", DockerImagePullStrategy.PULL_NEVER, false},
             {false, "repo/name:1.0", DockerImagePullStrategy.PULL_NEVER, false},
             {true, "repo/name:1.0", DockerImagePullStrategy.PULL_NEVER, false},
+            // without a registry to ask, we have to pull
+            {false, "repo/name:latest", DockerImagePullStrategy.PULL_IF_CHANGED, true},
+            {true, "repo/name:latest", DockerImagePullStrategy.PULL_IF_CHANGED, true},
+            {false, "repo/name:1.0", DockerImagePullStrategy.PULL_IF_CHANGED, true},
+            {true, "repo/name:1.0", DockerImagePullStrategy.PULL_IF_CHANGED, true},
         };
     }
 
@@ -41,6 +50,22 @@ class DockerImagePullStrategyTest {
         assertEquals(shouldPull, pullStrategy.shouldPullImage(dockerClient, imageName));
     }
 
+    @Test
+    void shouldPullImageGivenPullIfChangedThenComparesDigestWithRegistry() {
+        final String imageName = "repo/name:1.0";
+        final InspectImageResponse image = mock(InspectImageResponse.class);
+        when(image.getRepoDigests()).thenReturn(List.of("repo/name@sha256:aaaa"));
+        final InspectImageCmd cmd = mock(InspectImageCmd.class);
+        when(cmd.exec()).thenReturn(image);
+        final DockerClient dockerClient = mock(DockerClient.class);
+        when(dockerClient.inspectImageCmd(imageName)).thenReturn(cmd);
+        final DockerImagePullStrategy instance = DockerImagePullStrategy.PULL_IF_CHANGED;
+
+        assertFalse(instance.shouldPullImage(dockerClient, imageName, null, () -> "sha256:aaaa"));
+        assertTrue(instance.shouldPullImage(dockerClient, imageName, null, () -> "sha256:bbbb"));
+        assertTrue(instance.shouldPullImage(dockerClient, imageName, null, () -> null));
+    }
+
     private DockerClient mockDockerClient(boolean existedImage, String imageName) {
         InspectImageCmd cmd = mock(InspectImageCmd.class);
         if (existedImage) {
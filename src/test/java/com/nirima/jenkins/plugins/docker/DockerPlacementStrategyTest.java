@@ -0,0 +1,109 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.InspectImageCmd;
+import com.github.dockerjava.api.command.InspectImageResponse;
+import io.jenkins.docker.client.DockerAPI;
+import io.jenkins.docker.client.DockerEndpointCapabilities;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
+import org.junit.jupiter.api.Test;
+
+class DockerPlacementStrategyTest {
+
+    @Test
+    void chooseGivenLeastContainersThenPicksLeastLoadedEndpoint() {
+        final DockerAPI busy = endpoint(3, 0L, false);
+        final DockerAPI quiet = endpoint(1, 0L, false);
+        final DockerAPI placing = endpoint(0, 0L, false);
+        DockerContainerInventory.forApi(placing).placementStarted();
+        DockerContainerInventory.forApi(placing).placementStarted();
+
+        final DockerAPI actual = DockerPlacementStrategy.LEAST_CONTAINERS.choose(
+                List.of(busy, quiet, placing), "image", new AtomicInteger());
+
+        assertSame(quiet, actual);
+    }
+
+    @Test
+    void chooseGivenMostMemoryThenPicksEndpointWithMostMemoryPerContainer() {
+        final DockerAPI small = endpoint(0, 4096L, false);
+        final DockerAPI bigButBusy = endpoint(3, 8192L, false);
+        final DockerAPI big = endpoint(1, 16384L, false);
+
+        final DockerAPI actual = DockerPlacementStrategy.MOST_MEMORY.choose(
+                List.of(small, bigButBusy, big), "image", new AtomicInteger());
+
+        assertSame(big, actual);
+    }
+
+    @Test
+    void chooseGivenImagePresentThenPrefersEndpointsWithTheImage() {
+        final DockerAPI withoutImage = endpoint(0, 0L, false);
+        final DockerAPI withImageBusy = endpoint(2, 0L, true);
+        final DockerAPI withImage = endpoint(1, 0L, true);
+
+        final DockerAPI actual = DockerPlacementStrategy.IMAGE_PRESENT.choose(
+                List.of(withoutImage, withImageBusy, withImage), "image", new AtomicInteger());
+
+        assertSame(withImage, actual);
+    }
+
+    @Test
+    void chooseGivenNothingKnownThenNeverAsksDocker() {
+        final DockerAPI unknown = mock(DockerAPI.class);
+        when(unknown.getDockerHost()).thenReturn(new DockerServerEndpoint("tcp://" + UUID.randomUUID(), null));
+        final DockerAPI known = endpoint(1, 4096L, true);
+        final List<DockerAPI> endpoints = List.of(unknown, known);
+
+        assertSame(known, DockerPlacementStrategy.IMAGE_PRESENT.choose(endpoints, "image", new AtomicInteger()));
+        assertSame(known, DockerPlacementStrategy.MOST_MEMORY.choose(endpoints, "image", new AtomicInteger()));
+        verify(unknown, never()).getClient();
+        verify(unknown, never()).getCapabilities();
+    }
+
+    @Test
+    void chooseGivenRoundRobinThenTakesTurns() {
+        final DockerAPI first = endpoint(0, 0L, false);
+        final DockerAPI second = endpoint(5, 0L, false);
+        final List<DockerAPI> endpoints = List.of(first, second);
+        final AtomicInteger counter = new AtomicInteger();
+
+        assertSame(first, DockerPlacementStrategy.ROUND_ROBIN.choose(endpoints, "image", counter));
+        assertSame(second, DockerPlacementStrategy.ROUND_ROBIN.choose(endpoints, "image", counter));
+        assertSame(first, DockerPlacementStrategy.ROUND_ROBIN.choose(endpoints, "image", counter));
+    }
+
+    private static DockerAPI endpoint(int containers, long memTotal, boolean hasImage) {
+        final DockerAPI api = mock(DockerAPI.class);
+        final String uri = "tcp://" + UUID.randomUUID() + ":2375";
+        when(api.getDockerHost()).thenReturn(new DockerServerEndpoint(uri, null));
+        final DockerEndpointCapabilities capabilities = mock(DockerEndpointCapabilities.class);
+        when(capabilities.getMemTotal()).thenReturn(memTotal);
+        when(api.getCapabilitiesIfKnown()).thenReturn(capabilities);
+        if (hasImage) {
+            // we only know it's there if we've inspected it while following events
+            final DockerClient client = mock(DockerClient.class);
+            final InspectImageCmd inspect = mock(InspectImageCmd.class);
+            when(client.inspectImageCmd(anyString())).thenReturn(inspect);
+            when(inspect.exec()).thenReturn(mock(InspectImageResponse.class));
+            when(api.getClient(0)).thenReturn(client);
+            final DockerImageCache cache = DockerImageCache.forApi(api);
+            cache.connected(System.nanoTime());
+            cache.inspect(client, "image");
+        }
+        for (int i = 0; i < containers; i++) {
+            DockerContainerInventory.forApi(api).containerStarted(uri + "-" + i, "image", "template");
+        }
+        return api;
+    }
+}
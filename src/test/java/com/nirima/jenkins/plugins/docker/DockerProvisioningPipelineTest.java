@@ -0,0 +1,211 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.CreateContainerCmd;
+import com.github.dockerjava.api.command.CreateContainerResponse;
+import com.github.dockerjava.api.command.InspectImageResponse;
+import com.github.dockerjava.api.command.RemoveContainerCmd;
+import com.github.dockerjava.api.command.StartContainerCmd;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import io.jenkins.docker.DockerTransientNode;
+import io.jenkins.docker.client.DockerAPI;
+import io.jenkins.docker.connector.DockerComputerConnector;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DockerProvisioningPipelineTest {
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final Executor executor = tasks::add;
+    private DockerTemplate template;
+    private DockerAPI api;
+    private DockerClient client;
+    private CreateContainerCmd createCmd;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        template = mock(DockerTemplate.class);
+        api = mock(DockerAPI.class);
+        client = mock(DockerClient.class);
+        createCmd = mock(CreateContainerCmd.class, RETURNS_SELF);
+        final Map<String, String> labels = new HashMap<>();
+        labels.put(DockerContainerLabelKeys.NODE_NAME, "node-1");
+        when(createCmd.getLabels()).thenReturn(labels);
+        when(api.getClient()).thenReturn(client);
+        when(client.createContainerCmd("image")).thenReturn(createCmd);
+        when(template.getImage()).thenReturn("image");
+        when(template.getConnector()).thenReturn(mock(DockerComputerConnector.class));
+        when(template.shouldPullImage(eq(api), any())).thenReturn(false);
+        when(template.inspectImage(api)).thenReturn(mock(InspectImageResponse.class));
+        when(template.getEffectiveRemoteFs(any())).thenReturn("/home/jenkins");
+    }
+
+    @Test
+    void runGivenAllStagesSucceedThenCompletesWithNodeOneStageAtATime() throws Exception {
+        final DockerTransientNode node = mock(DockerTransientNode.class);
+        givenContainerCreated("abc123");
+        when(template.makeNode(api, "node-1", "abc123", "/home/jenkins")).thenReturn(node);
+        when(client.startContainerCmd("abc123")).thenReturn(mock(StartContainerCmd.class));
+        final DockerProvisioningPipeline instance = newInstance();
+
+        final CompletableFuture<DockerTransientNode> actual = instance.run();
+        int stagesRun = 0;
+        while (!tasks.isEmpty()) {
+            tasks.remove().run();
+            stagesRun++;
+        }
+
+        assertSame(node, actual.get());
+        assertEquals(DockerProvisioningPipeline.Stage.values().length, stagesRun);
+        assertEquals(DockerProvisioningPipeline.Stage.LAUNCHER, instance.getCurrentStage());
+        verify(client, never()).removeContainerCmd(any());
+    }
+
+    @Test
+    void runGivenImageInspectedWhenDecidingNotToPullThenDoesNotInspectAgain() throws Exception {
+        final InspectImageResponse inspected = mock(InspectImageResponse.class);
+        doAnswer(invocation -> {
+                    final Consumer<InspectImageResponse> consumer = invocation.getArgument(1);
+                    consumer.accept(inspected);
+                    return false;
+                })
+                .when(template)
+                .shouldPullImage(eq(api), any());
+        when(template.getEffectiveRemoteFs(inspected)).thenReturn("/inspected");
+        when(createCmd.exec()).thenThrow(new IllegalStateException("stop here"));
+        final DockerProvisioningPipeline instance = newInstance();
+
+        instance.run();
+        runAllTasks();
+
+        verify(template, never()).inspectImage(any());
+        verify(template).getEffectiveRemoteFs(inspected);
+    }
+
+    @Test
+    void runGivenListenerThenLogsEachStageAndHowLongItTook() throws Exception {
+        when(template.getShortDescription()).thenReturn("DockerTemplate{image=image}");
+        when(createCmd.exec()).thenThrow(new IllegalStateException("create failed"));
+        final ByteArrayOutputStream log = new ByteArrayOutputStream();
+        final DockerProvisioningPipeline instance = new DockerProvisioningPipeline(
+                template, api, new StreamTaskListener(log, StandardCharsets.UTF_8), executor);
+
+        instance.run();
+        runAllTasks();
+
+        final String actual = log.toString(StandardCharsets.UTF_8);
+        assertTrue(actual.contains("Provisioning from DockerTemplate{image=image}: PULL took "), actual);
+        assertTrue(actual.contains("Provisioning from DockerTemplate{image=image}: INSPECT took "), actual);
+        assertTrue(actual.contains("Provisioning from DockerTemplate{image=image}: CREATE"), actual);
+        assertTrue(actual.contains("failed at CREATE: java.lang.IllegalStateException: create failed"), actual);
+    }
+
+    @Test
+    void runGivenCreateFailsThenFailsWithoutRemovingAnything() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("create failed");
+        when(createCmd.exec()).thenThrow(failure);
+        final DockerProvisioningPipeline instance = newInstance();
+
+        final CompletableFuture<DockerTransientNode> actual = instance.run();
+        runAllTasks();
+
+        final ExecutionException ex = assertThrows(ExecutionException.class, actual::get);
+        assertSame(failure, ex.getCause());
+        assertEquals(DockerProvisioningPipeline.Stage.CREATE, instance.getCurrentStage());
+        verify(client, never()).removeContainerCmd(any());
+    }
+
+    @Test
+    void runGivenStartFailsThenRemovesContainer() throws Exception {
+        final RemoveContainerCmd removeCmd = givenContainerCreated("abc123");
+        final StartContainerCmd startCmd = mock(StartContainerCmd.class);
+        final RuntimeException failure = new RuntimeException("start failed");
+        when(startCmd.exec()).thenThrow(failure);
+        when(client.startContainerCmd("abc123")).thenReturn(startCmd);
+        final DockerProvisioningPipeline instance = newInstance();
+
+        final CompletableFuture<DockerTransientNode> actual = instance.run();
+        runAllTasks();
+
+        final ExecutionException ex = assertThrows(ExecutionException.class, actual::get);
+        assertSame(failure, ex.getCause());
+        verify(removeCmd).withForce(true);
+        verify(removeCmd).exec();
+    }
+
+    @Test
+    void runGivenCancelledPartWayThroughThenStopsAndRemovesContainer() throws Exception {
+        final RemoveContainerCmd removeCmd = givenContainerCreated("abc123");
+        final DockerProvisioningPipeline instance = newInstance();
+
+        final CompletableFuture<DockerTransientNode> actual = instance.run();
+        tasks.remove().run(); // pull
+        tasks.remove().run(); // inspect
+        tasks.remove().run(); // create
+        actual.cancel(true);
+        runAllTasks();
+
+        assertTrue(actual.isCancelled());
+        assertThrows(CancellationException.class, actual::get);
+        assertEquals(DockerProvisioningPipeline.Stage.CREATE, instance.getCurrentStage());
+        verify(template, never()).makeNode(any(), any(), any(), any());
+        verify(client, never()).startContainerCmd(any());
+        verify(removeCmd).exec();
+    }
+
+    @Test
+    void runGivenCancelledBeforeStartingThenDoesNothing() throws Exception {
+        final DockerProvisioningPipeline instance = newInstance();
+
+        final CompletableFuture<DockerTransientNode> actual = instance.run();
+        actual.cancel(true);
+        runAllTasks();
+
+        assertTrue(actual.isCancelled());
+        verify(template, never()).inspectImage(any());
+        verify(client, never()).createContainerCmd(any());
+    }
+
+    private DockerProvisioningPipeline newInstance() {
+        return new DockerProvisioningPipeline(template, api, TaskListener.NULL, executor);
+    }
+
+    private RemoveContainerCmd givenContainerCreated(String containerId) {
+        final CreateContainerResponse response = new CreateContainerResponse();
+        response.setId(containerId);
+        when(createCmd.exec()).thenReturn(response);
+        final RemoveContainerCmd removeCmd = mock(RemoveContainerCmd.class, RETURNS_SELF);
+        when(client.removeContainerCmd(containerId)).thenReturn(removeCmd);
+        return removeCmd;
+    }
+
+    private void runAllTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.remove().run();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class DockerTemplateSelectionStrategyTest {
+
+    @Test
+    void chooseGivenFirstThenPicksFirstTemplate() {
+        final DockerTemplate first = template(1);
+        final DockerTemplate second = template(1);
+        final DockerCloud cloud = new DockerCloud("chooseGivenFirst", null, List.of(first, second));
+
+        final DockerTemplate actual = DockerTemplateSelectionStrategy.FIRST.choose(
+                cloud, List.of(first, second), new AtomicInteger());
+
+        assertSame(first, actual);
+    }
+
+    @Test
+    void chooseGivenRoundRobinThenTakesTurns() {
+        final DockerTemplate first = template(1);
+        final DockerTemplate second = template(1);
+        final List<DockerTemplate> templates = List.of(first, second);
+        final DockerCloud cloud = new DockerCloud("chooseGivenRoundRobin", null, templates);
+        final AtomicInteger counter = new AtomicInteger();
+
+        assertSame(first, DockerTemplateSelectionStrategy.ROUND_ROBIN.choose(cloud, templates, counter));
+        assertSame(second, DockerTemplateSelectionStrategy.ROUND_ROBIN.choose(cloud, templates, counter));
+        assertSame(first, DockerTemplateSelectionStrategy.ROUND_ROBIN.choose(cloud, templates, counter));
+    }
+
+    @Test
+    void chooseGivenWeightedThenPicksInProportionToWeight() {
+        final DockerTemplate light = template(1);
+        final DockerTemplate heavy = template(2);
+        final List<DockerTemplate> templates = List.of(light, heavy);
+        final DockerCloud cloud = new DockerCloud("chooseGivenWeighted", null, templates);
+        final AtomicInteger counter = new AtomicInteger();
+
+        assertSame(light, DockerTemplateSelectionStrategy.WEIGHTED.choose(cloud, templates, counter));
+        assertSame(heavy, DockerTemplateSelectionStrategy.WEIGHTED.choose(cloud, templates, counter));
+        assertSame(heavy, DockerTemplateSelectionStrategy.WEIGHTED.choose(cloud, templates, counter));
+        assertSame(light, DockerTemplateSelectionStrategy.WEIGHTED.choose(cloud, templates, counter));
+    }
+
+    @Test
+    void chooseGivenLeastInProgressThenPicksLeastBusyTemplate() {
+        final DockerTemplate busy = template(1);
+        final DockerTemplate quiet = template(1);
+        final List<DockerTemplate> templates = List.of(busy, quiet);
+        final DockerCloud cloud = new DockerCloud("chooseGivenLeastInProgress", null, templates);
+        cloud.incrementContainersInProgress(busy);
+        try {
+            final DockerTemplate actual =
+                    DockerTemplateSelectionStrategy.LEAST_IN_PROGRESS.choose(cloud, templates, new AtomicInteger());
+
+            assertSame(quiet, actual);
+        } finally {
+            cloud.decrementContainersInProgress(busy);
+        }
+    }
+
+    @Test
+    void chooseGivenFastestStartThenPicksQuickestTemplate() {
+        final DockerTemplate slow = template(1);
+        final DockerTemplate fast = template(1);
+        final List<DockerTemplate> templates = List.of(slow, fast);
+        final DockerCloud cloud = new DockerCloud("chooseGivenFastestStart", null, templates);
+        DockerProvisioningTimings.forTemplate(slow).recordTotal(TimeUnit.SECONDS.toNanos(30));
+        DockerProvisioningTimings.forTemplate(fast).recordTotal(TimeUnit.SECONDS.toNanos(3));
+
+        final DockerTemplate actual =
+                DockerTemplateSelectionStrategy.FASTEST_START.choose(cloud, templates, new AtomicInteger());
+
+        assertSame(fast, actual);
+    }
+
+    @Test
+    void chooseGivenFastestStartAndUntimedTemplateThenTriesIt() {
+        final DockerTemplate timed = template(1);
+        final DockerTemplate untimed = template(1);
+        final List<DockerTemplate> templates = List.of(timed, untimed);
+        final DockerCloud cloud = new DockerCloud("chooseGivenFastestStartAndUntimed", null, templates);
+        DockerProvisioningTimings.forTemplate(timed).recordTotal(TimeUnit.SECONDS.toNanos(1));
+
+        final DockerTemplate actual =
+                DockerTemplateSelectionStrategy.FASTEST_START.choose(cloud, templates, new AtomicInteger());
+
+        assertSame(untimed, actual);
+    }
+
+    private static DockerTemplate template(int weight) {
+        final DockerTemplate template = mock(DockerTemplate.class);
+        when(template.getTemplateId()).thenReturn(UUID.randomUUID().toString());
+        when(template.getWeight()).thenReturn(weight);
+        return template;
+    }
+}
@@ -2,8 +2,19 @@ package com.nirima.jenkins.plugins.docker;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
-
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.github.dockerjava.api.DockerClient;
+import com.github.dockerjava.api.command.InspectImageCmd;
+import com.github.dockerjava.api.command.InspectImageResponse;
+import com.github.dockerjava.api.exception.NotFoundException;
+import io.jenkins.docker.client.DockerAPI;
+import java.util.UUID;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerServerEndpoint;
 import org.junit.jupiter.api.Test;
 
 class DockerTemplateTest {
@@ -131,4 +142,44 @@ class DockerTemplateTest {
         assertTrue(
                 instance.getDockerTemplateBase().getCapabilitiesToDrop().contains("NET_ADMIN"), "Error, wrong capDrop");
     }
+
+    @Test
+    void shouldPrePullImageGivenPullAlwaysThenRefreshesEvenIfRecentlyPrePulled() throws Exception {
+        final DockerTemplate instance = getDockerTemplateInstanceWithDNSHost("");
+        instance.setPullStrategy(DockerImagePullStrategy.PULL_ALWAYS);
+        final DockerAPI api = endpoint(true);
+        DockerImagePrePuller.prePulled(api.getDockerHost().getUri(), instance.getFullImageId());
+
+        assertTrue(instance.shouldPrePullImage(api));
+        assertTrue(instance.shouldPrePullImage(endpoint(false)), "Missing");
+    }
+
+    @Test
+    void shouldPullImageGivenPullAlwaysAndRecentPrePullThenOnlyIfMissing() throws Exception {
+        final DockerTemplate instance = getDockerTemplateInstanceWithDNSHost("");
+        instance.setPullStrategy(DockerImagePullStrategy.PULL_ALWAYS);
+        final DockerAPI prePulled = endpoint(true);
+        DockerImagePrePuller.prePulled(prePulled.getDockerHost().getUri(), instance.getFullImageId());
+        final DockerAPI removedSince = endpoint(false);
+        DockerImagePrePuller.prePulled(removedSince.getDockerHost().getUri(), instance.getFullImageId());
+
+        assertFalse(instance.shouldPullImage(prePulled), "Fresh enough");
+        assertTrue(instance.shouldPullImage(removedSince), "Gone since");
+        assertTrue(instance.shouldPullImage(endpoint(true)), "Not pre-pulled");
+    }
+
+    private static DockerAPI endpoint(boolean hasImage) {
+        final DockerAPI api = mock(DockerAPI.class);
+        when(api.getDockerHost()).thenReturn(new DockerServerEndpoint("tcp://" + UUID.randomUUID() + ":2375", null));
+        final DockerClient client = mock(DockerClient.class);
+        final InspectImageCmd inspect = mock(InspectImageCmd.class);
+        when(client.inspectImageCmd(anyString())).thenReturn(inspect);
+        if (hasImage) {
+            when(inspect.exec()).thenReturn(mock(InspectImageResponse.class));
+        } else {
+            when(inspect.exec()).thenThrow(new NotFoundException("No such image"));
+        }
+        when(api.getClient()).thenReturn(client);
+        return api;
+    }
 }
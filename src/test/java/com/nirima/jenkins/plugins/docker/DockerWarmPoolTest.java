@@ -0,0 +1,190 @@
+package com.nirima.jenkins.plugins.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.SlaveComputer;
+import io.jenkins.docker.DockerTransientNode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class DockerWarmPoolTest {
+
+    @Test
+    void executeGivenTemplateShortOfIdleAgentsThenProvisionsTheShortfall() {
+        final DockerTemplate template = template("executeGivenShortfall", 3);
+        final DockerCloud cloud = new DockerCloud("executeGivenShortfall", null, List.of(template));
+        final TestableDockerWarmPool instance = new TestableDockerWarmPool(cloud, 10);
+        instance.nodes.add(node(cloud, template, true, true));
+        instance.nodes.add(node(cloud, template, false, true)); // busy
+        instance.nodes.add(node(cloud, template, true, false)); // used; will be terminated
+
+        instance.execute(TaskListener.NULL);
+
+        assertEquals(2, instance.provisioned);
+    }
+
+    @Test
+    void executeGivenContainersInProgressThenCountsThemTowardsThePool() {
+        final DockerTemplate template = template("executeGivenContainersInProgress", 3);
+        final DockerCloud cloud = new DockerCloud("executeGivenContainersInProgress", null, List.of(template));
+        final TestableDockerWarmPool instance = new TestableDockerWarmPool(cloud, 10);
+        cloud.incrementContainersInProgress(template);
+        try {
+            instance.execute(TaskListener.NULL);
+        } finally {
+            cloud.decrementContainersInProgress(template);
+        }
+
+        assertEquals(2, instance.provisioned);
+    }
+
+    @Test
+    void executeGivenNoCapacityThenStopsTrying() {
+        final DockerTemplate template = template("executeGivenNoCapacity", 5);
+        final DockerCloud cloud = new DockerCloud("executeGivenNoCapacity", null, List.of(template));
+        final TestableDockerWarmPool instance = new TestableDockerWarmPool(cloud, 1);
+
+        instance.execute(TaskListener.NULL);
+
+        assertEquals(1, instance.provisioned);
+        assertEquals(2, instance.attempts);
+    }
+
+    @Test
+    void executeGivenNoMinIdleThenDoesNothing() {
+        final DockerTemplate template = template("executeGivenNoMinIdle", 0);
+        final DockerCloud cloud = new DockerCloud("executeGivenNoMinIdle", null, List.of(template));
+        final TestableDockerWarmPool instance = new TestableDockerWarmPool(cloud, 10);
+
+        instance.execute(TaskListener.NULL);
+
+        assertEquals(0, instance.attempts);
+    }
+
+    @Test
+    void executeGivenPausedStandbyThenPausesSurplusIdleAgents() {
+        final DockerTemplate template = template("executeGivenPausedStandby", 1);
+        when(template.getPausedStandby()).thenReturn(2);
+        final DockerCloud cloud = new DockerCloud("executeGivenPausedStandby", null, List.of(template));
+        final TestableDockerWarmPool instance = new TestableDockerWarmPool(cloud, 10);
+        final DockerTransientNode idle1 = node(cloud, template, true, true);
+        final DockerTransientNode idle2 = node(cloud, template, true, true);
+        final DockerTransientNode idle3 = node(cloud, template, true, true);
+        when(idle2.pause()).thenReturn(true);
+        when(idle3.pause()).thenReturn(true);
+        instance.nodes.addAll(List.of(idle1, idle2, idle3));
+
+        instance.execute(TaskListener.NULL);
+
+        verify(idle1, never()).pause();
+        verify(idle2).pause();
+        verify(idle3).pause();
+        assertEquals(0, instance.attempts);
+    }
+
+    @Test
+    void executeGivenAgentPausedForTooLongThenUnpausesItAndCountsItAsStandby() {
+        final DockerTemplate template = template("executeGivenPausedForTooLong", 0);
+        when(template.getPausedStandby()).thenReturn(2);
+        final DockerCloud cloud = new DockerCloud("executeGivenPausedForTooLong", null, List.of(template));
+        final TestableDockerWarmPool instance = new TestableDockerWarmPool(cloud, 10);
+        final DockerTransientNode pausedLongAgo = node(cloud, template, true, false);
+        when(pausedLongAgo.isPaused()).thenReturn(true);
+        final DockerTransientNode pausedJustNow = node(cloud, template, true, false);
+        when(pausedJustNow.isPaused()).thenReturn(true);
+        when(pausedJustNow.getPausedStateChangedMillis()).thenReturn(System.currentTimeMillis());
+        instance.nodes.addAll(List.of(pausedLongAgo, pausedJustNow));
+
+        instance.execute(TaskListener.NULL);
+
+        verify(pausedLongAgo).unpause();
+        verify(pausedJustNow, never()).unpause();
+        assertEquals(0, instance.attempts);
+    }
+
+    @Test
+    void maxPausedMillisThenFollowsPingSettingsUnlessTold() {
+        assertEquals(210000L, DockerWarmPool.maxPausedMillis(-1L, 300L, 240L), "Before the ping times out");
+        assertEquals(0L, DockerWarmPool.maxPausedMillis(-1L, 0L, 240L), "Never, as pings are off");
+        assertEquals(600000L, DockerWarmPool.maxPausedMillis(600L, 300L, 240L));
+        assertEquals(15000L, DockerWarmPool.maxPausedMillis(-1L, 300L, 10L), "No sooner than we look again");
+    }
+
+    @Test
+    void isWantedGivenTtlThenTrueUntilItExpires() throws Exception {
+        final DockerTemplate forever = template("isWantedForever", 1);
+        final DockerTemplate expiring = template("isWantedExpiring", 1);
+        when(expiring.getMinIdleTtlMinutes()).thenReturn(1);
+        final DockerCloud cloud = new DockerCloud("isWantedGivenTtl", null, List.of(forever, expiring));
+
+        assertTrue(DockerWarmPool.isWanted(cloud, forever));
+        assertTrue(DockerWarmPool.isWanted(cloud, expiring), "New pools start out wanted");
+        DockerWarmPool.recordDemand(cloud, expiring);
+        assertTrue(DockerWarmPool.isWanted(cloud, expiring));
+        assertFalse(DockerWarmPool.isWanted(cloud, template("isWantedNoPool", 0)));
+    }
+
+    private static DockerTemplate template(String templateId, int minIdle) {
+        final DockerTemplate template = mock(DockerTemplate.class);
+        when(template.getTemplateId()).thenReturn(templateId);
+        when(template.getName()).thenReturn(templateId);
+        when(template.getMinIdle()).thenReturn(minIdle);
+        when(template.getDisabled()).thenReturn(new DockerDisabled());
+        return template;
+    }
+
+    private static DockerTransientNode node(
+            DockerCloud cloud, DockerTemplate template, boolean idle, boolean acceptingTasks) {
+        final DockerTransientNode node = mock(DockerTransientNode.class);
+        when(node.getCloudId()).thenReturn(cloud.name);
+        when(node.getTemplateId()).thenReturn(template.getTemplateId());
+        final SlaveComputer computer = mock(SlaveComputer.class);
+        when(computer.isIdle()).thenReturn(idle);
+        when(computer.isAcceptingTasks()).thenReturn(acceptingTasks);
+        when(node.getComputer()).thenReturn(computer);
+        return node;
+    }
+
+    private static class TestableDockerWarmPool extends DockerWarmPool {
+        private final DockerCloud cloud;
+        private final int capacity;
+        private final List<Node> nodes = new ArrayList<>();
+        private int attempts;
+        private int provisioned;
+
+        TestableDockerWarmPool(DockerCloud cloud, int capacity) {
+            this.cloud = cloud;
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected List<DockerCloud> getAllClouds() {
+            return List.of(cloud);
+        }
+
+        @Override
+        protected Collection<Node> getAllNodes() {
+            return nodes;
+        }
+
+        @Override
+        protected boolean provisionIdleAgent(DockerCloud c, DockerTemplate t) {
+            attempts++;
+            if (provisioned >= capacity) {
+                return false;
+            }
+            provisioned++;
+            return true;
+        }
+    }
+}
@@ -171,6 +171,44 @@ class DockerOnceRetentionStrategyTest {
         verify(instance.mock, times(2)).terminateContainer(mockComputer);
     }
 
+    @Test
+    void checkGivenVeryIdleComputerInWarmPoolThenKeepsIt() {
+        // Given
+        final long idleStartTime = 2000000000000L;
+        final ClassUnderTest instance = new ClassUnderTest(1);
+        final DockerComputer mockComputer = mock(DockerComputer.class);
+        when(instance.mock.computerIsIdle(mockComputer)).thenReturn(true);
+        when(instance.mock.computerIdleStartMilliseconds(mockComputer)).thenReturn(idleStartTime);
+        when(instance.mock.currentMilliseconds()).thenReturn(idleStartTime + 10L * 60L * 1000L);
+        when(instance.mock.computerShouldBeKeptIdle(mockComputer)).thenReturn(true);
+
+        // When
+        final long actual = instance.check(mockComputer);
+
+        // Then
+        assertThat(actual, equalTo(1L));
+        verify(instance.mock, never()).terminateContainer(mockComputer);
+    }
+
+    @Test
+    void checkGivenVeryIdleComputerThatIsPausedThenKeepsIt() {
+        // Given
+        final long idleStartTime = 2000000000000L;
+        final ClassUnderTest instance = new ClassUnderTest(1);
+        final DockerComputer mockComputer = mock(DockerComputer.class);
+        when(instance.mock.computerIsPaused(mockComputer)).thenReturn(true);
+        when(instance.mock.computerIsIdle(mockComputer)).thenReturn(true);
+        when(instance.mock.computerIdleStartMilliseconds(mockComputer)).thenReturn(idleStartTime);
+        when(instance.mock.currentMilliseconds()).thenReturn(idleStartTime + 10L * 60L * 1000L);
+
+        // When
+        final long actual = instance.check(mockComputer);
+
+        // Then
+        assertThat(actual, equalTo(1L));
+        verify(instance.mock, never()).terminateContainer(mockComputer);
+    }
+
     @Test
     void taskAcceptedGivenTrivialTasksThenRecordsStartButDoesNotEnableTermination() {
         // Given
@@ -338,6 +376,10 @@ class DockerOnceRetentionStrategyTest {
 
         boolean computerIsIdle(DockerComputer c);
 
+        boolean computerShouldBeKeptIdle(DockerComputer c);
+
+        boolean computerIsPaused(DockerComputer c);
+
         void terminateContainer(DockerComputer c);
 
         long computerIdleStartMilliseconds(DockerComputer c);
@@ -363,6 +405,16 @@ class DockerOnceRetentionStrategyTest {
             return mock.computerIsIdle(c);
         }
 
+        @Override
+        protected boolean computerShouldBeKeptIdle(DockerComputer c) {
+            return mock.computerShouldBeKeptIdle(c);
+        }
+
+        @Override
+        protected boolean computerIsPaused(DockerComputer c) {
+            return mock.computerIsPaused(c);
+        }
+
         @Override
         protected void terminateContainer(DockerComputer c) {
             mock.terminateContainer(c);
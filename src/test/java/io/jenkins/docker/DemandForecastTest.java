@@ -0,0 +1,79 @@
+package io.jenkins.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class DemandForecastTest {
+    private static final ZoneId ZONE = ZoneOffset.UTC;
+    private static final long AVERAGING_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long LOOK_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    @Test
+    void forecastGivenSteadyDemandThenForecastsThatDemand() {
+        final DemandForecast instance = new DemandForecast(ZONE, AVERAGING_MILLIS);
+        final long start = millis(1, 12, 0);
+
+        for (int i = 0; i < 30; i++) {
+            instance.record(start + TimeUnit.SECONDS.toMillis(10L * i), 4);
+        }
+
+        assertEquals(4, instance.forecast(start + TimeUnit.MINUTES.toMillis(5), LOOK_AHEAD_MILLIS));
+    }
+
+    @Test
+    void forecastGivenDemandHasGoneAwayThenDecaysToZero() {
+        final DemandForecast instance = new DemandForecast(ZONE, AVERAGING_MILLIS);
+        final long start = millis(1, 12, 0);
+        instance.record(start, 10);
+
+        instance.record(start + TimeUnit.HOURS.toMillis(2), 0);
+
+        assertEquals(0, instance.forecast(start + TimeUnit.HOURS.toMillis(2), LOOK_AHEAD_MILLIS));
+    }
+
+    @Test
+    void forecastGivenBurstAtSameTimeYesterdayThenForecastsItAhead() {
+        final DemandForecast instance = new DemandForecast(ZONE, AVERAGING_MILLIS);
+        // Yesterday: quiet, then 20 builds at 09:00, then quiet again.
+        recordEveryMinute(instance, millis(1, 8, 0), millis(1, 9, 0), 0);
+        recordEveryMinute(instance, millis(1, 9, 0), millis(1, 9, 15), 20);
+        recordEveryMinute(instance, millis(1, 9, 15), millis(2, 8, 50), 0);
+
+        // Today, a few minutes before the burst, it's still quiet.
+        final long now = millis(2, 8, 56);
+        instance.record(now, 0);
+
+        assertEquals(20, instance.forecast(now, LOOK_AHEAD_MILLIS));
+        assertEquals(0, instance.forecast(millis(2, 8, 30), LOOK_AHEAD_MILLIS));
+    }
+
+    @Test
+    void forecastGivenOneUnusualDayThenOnlyPartlyRemembersIt() {
+        final DemandForecast instance = new DemandForecast(ZONE, AVERAGING_MILLIS);
+        for (int day = 1; day <= 3; day++) {
+            recordEveryMinute(instance, millis(day, 9, 0), millis(day, 9, 15), 10);
+            recordEveryMinute(instance, millis(day, 9, 15), millis(day, 9, 30), 0);
+        }
+        recordEveryMinute(instance, millis(4, 9, 0), millis(4, 9, 15), 40);
+        recordEveryMinute(instance, millis(4, 9, 15), millis(4, 9, 30), 0);
+
+        final int actual = instance.forecast(millis(5, 9, 0), 0L);
+
+        assertEquals(19, actual); // 10 + 0.3 * (40 - 10)
+    }
+
+    private static void recordEveryMinute(DemandForecast instance, long from, long to, int demand) {
+        for (long t = from; t < to; t += TimeUnit.MINUTES.toMillis(1)) {
+            instance.record(t, demand);
+        }
+    }
+
+    private static long millis(int day, int hour, int minute) {
+        return LocalDateTime.of(2024, 1, day, hour, minute).atZone(ZONE).toInstant().toEpochMilli();
+    }
+}
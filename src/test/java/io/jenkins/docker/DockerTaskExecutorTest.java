@@ -0,0 +1,123 @@
+package io.jenkins.docker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+
+class DockerTaskExecutorTest {
+
+    @Test
+    void endpointLimiterGivenMoreTasksThanPermitsThenQueuesTheRestWithoutUsingThreads() {
+        final Queue<Runnable> running = new ArrayDeque<>();
+        final List<Integer> started = new ArrayList<>();
+        final DockerTaskExecutor.EndpointLimiter instance = new DockerTaskExecutor.EndpointLimiter(running::add, 2);
+
+        for (int i = 0; i < 5; i++) {
+            final int taskNumber = i;
+            instance.execute(() -> started.add(taskNumber));
+        }
+        assertEquals(2, running.size(), "Tasks passed on");
+        assertEquals(3, instance.getQueued(), "Tasks queued");
+        assertEquals(0, instance.getAvailablePermits());
+
+        running.remove().run();
+        assertEquals(2, running.size(), "Finishing one task lets another start");
+        assertEquals(2, instance.getQueued());
+        while (!running.isEmpty()) {
+            running.remove().run();
+        }
+
+        assertEquals(List.of(0, 1, 2, 3, 4), started);
+        assertEquals(0, instance.getQueued());
+        assertEquals(2, instance.getAvailablePermits());
+    }
+
+    @Test
+    void endpointLimiterGivenTaskThrowsThenReleasesPermit() {
+        final Queue<Runnable> running = new ArrayDeque<>();
+        final DockerTaskExecutor.EndpointLimiter instance = new DockerTaskExecutor.EndpointLimiter(running::add, 1);
+        instance.execute(() -> {
+            throw new IllegalStateException("test");
+        });
+        instance.execute(() -> {});
+
+        try {
+            running.remove().run();
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+
+        assertEquals(1, running.size(), "Second task started");
+        running.remove().run();
+        assertEquals(1, instance.getAvailablePermits());
+    }
+
+    @Test
+    void endpointLimiterGivenDelegateRejectsSubmittedTaskThenSubmitterIsTold() {
+        final DockerTaskExecutor.EndpointLimiter instance = new DockerTaskExecutor.EndpointLimiter(
+                task -> {
+                    throw new RejectedExecutionException("test");
+                },
+                1);
+
+        assertThrows(RejectedExecutionException.class, () -> instance.execute(() -> {}));
+
+        assertEquals(0, instance.getQueued());
+        assertEquals(1, instance.getAvailablePermits());
+    }
+
+    @Test
+    void endpointLimiterGivenDelegateRejectsQueuedTaskThenKeepsItForLater() {
+        final Queue<Runnable> running = new ArrayDeque<>();
+        final AtomicBoolean rejecting = new AtomicBoolean();
+        final List<String> started = new ArrayList<>();
+        final DockerTaskExecutor.EndpointLimiter instance = new DockerTaskExecutor.EndpointLimiter(
+                task -> {
+                    if (rejecting.get()) {
+                        throw new RejectedExecutionException("test");
+                    }
+                    running.add(task);
+                },
+                1);
+        instance.execute(() -> started.add("first"));
+        instance.execute(() -> started.add("second"));
+
+        rejecting.set(true);
+        running.remove().run(); // can't pass "second" on
+        assertEquals(1, instance.getQueued());
+        assertEquals(1, instance.getAvailablePermits());
+        rejecting.set(false);
+        instance.execute(() -> started.add("third"));
+        while (!running.isEmpty()) {
+            running.remove().run();
+        }
+
+        assertEquals(List.of("first", "second", "third"), started);
+        assertEquals(0, instance.getQueued());
+        assertEquals(1, instance.getAvailablePermits());
+    }
+
+    @Test
+    void forEndpointGivenSameEndpointThenSharesLimitAndRunsTasks() throws Exception {
+        final Executor instance1 = DockerTaskExecutor.forEndpoint("tcp://forEndpointGivenSameEndpoint:2375");
+        final Executor instance2 = DockerTaskExecutor.forEndpoint("tcp://forEndpointGivenSameEndpoint:2375");
+        final CountDownLatch ran = new CountDownLatch(1);
+
+        instance1.execute(ran::countDown);
+
+        assertSame(instance1, instance2);
+        assertTrue(ran.await(10, TimeUnit.SECONDS), "Task ran");
+    }
+}
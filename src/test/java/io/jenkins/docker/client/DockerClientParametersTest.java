@@ -46,6 +46,8 @@ class DockerClientParametersTest {
                 dockerUri1, credentialsId1, readTimeoutInMsOrNull1, connectTimeoutInMsOrNull2);
         final DockerClientParameters d06 = new DockerClientParameters(
                 dockerUri1, credentialsId1, readTimeoutInMsOrNull1, connectTimeoutInMsOrNull3);
+        final DockerClientParameters d07 = new DockerClientParameters(
+                dockerUri1, credentialsId1, readTimeoutInMsOrNull1, connectTimeoutInMsOrNull1, 10);
 
         assertEquals(i1, i1);
         assertEquals(i1, e1);
@@ -74,6 +76,9 @@ class DockerClientParametersTest {
         assertNotEquals(i1, d06);
         assertNotEquals(d06, i1);
         assertNotEquals(i1.hashCode(), d06.hashCode());
+        assertNotEquals(i1, d07);
+        assertNotEquals(d07, i1);
+        assertNotEquals(i1.hashCode(), d07.hashCode());
     }
 
     @Test
@@ -0,0 +1,51 @@
+package io.jenkins.docker.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.jenkins.docker.client.DockerCommandMetrics.Command;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.sf.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+class DockerCommandMetricsTest {
+
+    @Test
+    void commandOfGivenDockerApiRequestsThenClassifiesThem() {
+        assertEquals(Command.CREATE, Command.of("POST", "/v1.41/containers/create?name=foo"));
+        assertEquals(Command.START, Command.of("POST", "/containers/abc123/start"));
+        assertEquals(Command.INSPECT, Command.of("GET", "/v1.41/containers/abc123/json"));
+        assertEquals(Command.INSPECT, Command.of("GET", "/images/registry.example.com:5000/team/image:tag/json"));
+        assertEquals(Command.LIST, Command.of("GET", "/v1.41/containers/json?all=1&filters=%7B%7D"));
+        assertEquals(Command.LIST, Command.of("GET", "/images/json"));
+        assertEquals(Command.PULL, Command.of("POST", "/v1.41/images/create?fromImage=jenkins%2Fagent&tag=latest"));
+        assertEquals(Command.EXEC, Command.of("POST", "/containers/abc123/exec"));
+        assertEquals(Command.EXEC, Command.of("POST", "/exec/def456/start"));
+        assertEquals(Command.STOP, Command.of("POST", "/containers/abc123/stop?t=10"));
+        assertEquals(Command.STOP, Command.of("POST", "/containers/abc123/kill"));
+        assertEquals(Command.REMOVE, Command.of("DELETE", "/v1.41/containers/abc123?force=true"));
+        assertEquals(Command.OTHER, Command.of("POST", "/containers/abc123/restart"));
+        assertEquals(Command.OTHER, Command.of("GET", "/_ping"));
+        assertEquals(Command.OTHER, Command.of("GET", "/version"));
+        assertEquals(Command.OTHER, Command.of(null, null));
+    }
+
+    @Test
+    void recordGivenCallsThenCountsErrorsAndLatencyPerCommand() {
+        final DockerCommandMetrics instance = DockerCommandMetrics.forEndpoint("tcp://recordGivenCalls:2375");
+
+        instance.record(Command.START, TimeUnit.MILLISECONDS.toNanos(20), false);
+        instance.record(Command.START, TimeUnit.MILLISECONDS.toNanos(40), true);
+        instance.record(Command.PULL, TimeUnit.SECONDS.toNanos(3), false);
+
+        assertEquals(2L, instance.get(Command.START).getCount());
+        assertEquals(1L, instance.get(Command.START).getErrors());
+        assertEquals(1L, instance.get(Command.PULL).getCount());
+        assertEquals(0L, instance.get(Command.CREATE).getCount());
+        assertEquals(List.of(Command.START, Command.PULL), instance.getCommandsInUse());
+        final JSONObject json = instance.toJSON();
+        assertEquals("tcp://recordGivenCalls:2375", json.getString("dockerUri"));
+        assertEquals(2L, json.getJSONObject("commands").getJSONObject("start").getLong("count"));
+        assertEquals(1L, json.getJSONObject("commands").getJSONObject("start").getLong("errors"));
+    }
+}
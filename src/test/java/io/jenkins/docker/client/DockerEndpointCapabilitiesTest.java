@@ -0,0 +1,124 @@
+package io.jenkins.docker.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+class DockerEndpointCapabilitiesTest {
+
+    @Test
+    void flagsGivenVersionDetailsThenIdentifiesSwarmAndTriton() {
+        final DockerEndpointCapabilities engine = capabilities("24.0.7", "linux");
+        final DockerEndpointCapabilities swarm = capabilities("swarm/1.2.9", "linux");
+        final DockerEndpointCapabilities triton = capabilities("1.9.0", "solaris");
+        final DockerEndpointCapabilities unknown = capabilities(null, null);
+
+        assertFalse(engine.isSwarm());
+        assertFalse(engine.isTriton());
+        assertTrue(swarm.isSwarm());
+        assertFalse(swarm.isTriton());
+        assertFalse(triton.isSwarm());
+        assertTrue(triton.isTriton());
+        assertFalse(unknown.isSwarm());
+        assertFalse(unknown.isTriton());
+    }
+
+    @Test
+    void cacheGivenFreshValueThenDoesNotProbeAgain() {
+        final DockerEndpointCapabilities.Cache instance =
+                new DockerEndpointCapabilities.Cache(TimeUnit.DAYS.toNanos(1));
+        final AtomicInteger probes = new AtomicInteger();
+        final Supplier<DockerEndpointCapabilities> probe = () -> {
+            probes.incrementAndGet();
+            return capabilities("24.0.7", "linux");
+        };
+
+        final DockerEndpointCapabilities actual1 = instance.get("tcp://a:2375", probe);
+        final DockerEndpointCapabilities actual2 = instance.get("tcp://a:2375", probe);
+        final DockerEndpointCapabilities other = instance.get("tcp://b:2375", probe);
+
+        assertSame(actual1, actual2);
+        assertNotSame(actual1, other);
+        assertEquals(2, probes.get(), "Number of probes");
+    }
+
+    @Test
+    void cacheGivenInvalidationThenProbesAgain() {
+        final DockerEndpointCapabilities.Cache instance =
+                new DockerEndpointCapabilities.Cache(TimeUnit.DAYS.toNanos(1));
+        final AtomicInteger probes = new AtomicInteger();
+        final Supplier<DockerEndpointCapabilities> probe = () -> {
+            probes.incrementAndGet();
+            return capabilities("24.0.7", "linux");
+        };
+
+        final DockerEndpointCapabilities actual1 = instance.get("tcp://a:2375", probe);
+        instance.invalidate("tcp://a:2375");
+        instance.invalidate("tcp://unknown:2375");
+        final DockerEndpointCapabilities actual2 = instance.get("tcp://a:2375", probe);
+
+        assertNotSame(actual1, actual2);
+        assertEquals(2, probes.get(), "Number of probes");
+    }
+
+    @Test
+    void cacheGivenExpiredValueThenProbesAgain() {
+        final DockerEndpointCapabilities.Cache instance = new DockerEndpointCapabilities.Cache(0L);
+        final AtomicInteger probes = new AtomicInteger();
+        final Supplier<DockerEndpointCapabilities> probe = () -> {
+            probes.incrementAndGet();
+            return capabilities("24.0.7", "linux");
+        };
+
+        instance.get("tcp://a:2375", probe);
+        instance.get("tcp://a:2375", probe);
+
+        assertEquals(2, probes.get(), "Number of probes");
+    }
+
+    @Test
+    void cacheGivenFailingProbeThenRemembersNothing() {
+        final DockerEndpointCapabilities.Cache instance =
+                new DockerEndpointCapabilities.Cache(TimeUnit.DAYS.toNanos(1));
+        final DockerEndpointCapabilities expected = capabilities("24.0.7", "linux");
+
+        assertThrows(IllegalStateException.class, () -> instance.get("tcp://a:2375", () -> {
+            throw new IllegalStateException("test");
+        }));
+        final DockerEndpointCapabilities actual = instance.get("tcp://a:2375", () -> expected);
+
+        assertSame(expected, actual);
+    }
+
+    @Test
+    void cachePeekGivenNothingKnownThenProbesInTheBackgroundOnce() {
+        final DockerEndpointCapabilities.Cache instance =
+                new DockerEndpointCapabilities.Cache(TimeUnit.DAYS.toNanos(1));
+        final DockerEndpointCapabilities expected = capabilities("24.0.7", "linux");
+        final List<Runnable> background = new ArrayList<>();
+
+        assertNull(instance.peek("tcp://a:2375", () -> expected, background::add));
+        assertNull(instance.peek("tcp://a:2375", () -> expected, background::add));
+        assertEquals(1, background.size(), "Number of background probes");
+        background.get(0).run();
+        final DockerEndpointCapabilities actual = instance.peek("tcp://a:2375", () -> expected, background::add);
+
+        assertSame(expected, actual);
+        assertEquals(1, background.size(), "Number of background probes");
+    }
+
+    private static DockerEndpointCapabilities capabilities(String engineVersion, String os) {
+        return new DockerEndpointCapabilities(engineVersion, "1.43", os, 4, 1024L, System.nanoTime());
+    }
+}
@@ -0,0 +1,160 @@
+package io.jenkins.docker.client;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.jenkins.docker.client.DockerEndpointCircuitBreaker.State;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class DockerEndpointCircuitBreakerTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(5000);
+
+    private long now = 1234567L;
+
+    private DockerEndpointCircuitBreaker newInstance() {
+        return new DockerEndpointCircuitBreaker(
+                "tcp://test:2375", 10, 3, 50, 1000L, 80, 1000L, 8000L, () -> now, d -> d);
+    }
+
+    private void moveTimeForwards(long milliseconds) {
+        now += TimeUnit.MILLISECONDS.toNanos(milliseconds);
+    }
+
+    @Test
+    void isCallPermittedGivenMostlySuccessThenStaysClosed() {
+        final DockerEndpointCircuitBreaker instance = newInstance();
+
+        for (int i = 0; i < 20; i++) {
+            instance.recordSuccess(FAST);
+            if (i % 3 == 0) {
+                instance.recordFailure(FAST, new RuntimeException("blip"));
+            }
+        }
+
+        assertTrue(instance.isCallPermitted());
+        assertEquals(State.CLOSED, instance.getState());
+    }
+
+    @Test
+    void isCallPermittedGivenTooFewCallsThenStaysClosed() {
+        final DockerEndpointCircuitBreaker instance = newInstance();
+
+        instance.recordFailure(FAST, null);
+        instance.recordFailure(FAST, null);
+
+        assertTrue(instance.isCallPermitted());
+    }
+
+    @Test
+    void isCallPermittedGivenFailuresThenOpensUntilBackoffHasPassed() {
+        final DockerEndpointCircuitBreaker instance = newInstance();
+
+        instance.recordFailure(FAST, null);
+        instance.recordFailure(FAST, null);
+        instance.recordFailure(FAST, new RuntimeException("Connection refused"));
+        final State actual1 = instance.getState();
+        final boolean permitted1 = instance.isCallPermitted();
+        final boolean probe1 = instance.tryAcquireProbe();
+        moveTimeForwards(999L);
+        final State actual2 = instance.getState();
+        moveTimeForwards(1L);
+        final State actual3 = instance.getState();
+
+        assertEquals(State.OPEN, actual1);
+        assertFalse(permitted1);
+        assertFalse(probe1);
+        assertEquals(State.OPEN, actual2);
+        assertEquals(State.HALF_OPEN, actual3);
+        assertFalse(instance.isCallPermitted());
+    }
+
+    @Test
+    void isCallPermittedGivenMostlySlowCallsThenOpens() {
+        final DockerEndpointCircuitBreaker instance = newInstance();
+
+        instance.recordSuccess(SLOW);
+        instance.recordSuccess(SLOW);
+        instance.recordSuccess(SLOW);
+
+        assertEquals(State.OPEN, instance.getState());
+    }
+
+    @Test
+    void tryAcquireProbeGivenHalfOpenThenOnlyOneProbeAllowedAndSuccessCloses() {
+        final DockerEndpointCircuitBreaker instance = newInstance();
+        openIt(instance);
+        moveTimeForwards(1000L);
+
+        final boolean probe1 = instance.tryAcquireProbe();
+        final boolean probe2 = instance.tryAcquireProbe();
+        instance.recordSuccess(FAST);
+        instance.releaseProbe();
+
+        assertTrue(probe1);
+        assertFalse(probe2);
+        assertEquals(State.CLOSED, instance.getState());
+        assertEquals(0, instance.getConsecutiveOpenings());
+    }
+
+    @Test
+    void tryAcquireProbeGivenProbeFailsThenBacksOffExponentiallyUpToMaximum() {
+        final DockerEndpointCircuitBreaker instance = newInstance();
+        openIt(instance);
+        final long[] expectedBackoffs = {1000L, 2000L, 4000L, 8000L, 8000L};
+
+        for (final long expectedBackoff : expectedBackoffs) {
+            moveTimeForwards(expectedBackoff / 2);
+            final boolean notYet = instance.tryAcquireProbe();
+            moveTimeForwards(expectedBackoff / 2);
+            final boolean probe = instance.tryAcquireProbe();
+            instance.recordFailure(FAST, null);
+            instance.releaseProbe();
+            assertFalse(notYet);
+            assertTrue(probe);
+            assertEquals(State.OPEN, instance.getState());
+        }
+        assertEquals(6, instance.getConsecutiveOpenings());
+    }
+
+    @Test
+    void releaseProbeGivenNoOutcomeRecordedThenTreatsAsFailure() {
+        final DockerEndpointCircuitBreaker instance = newInstance();
+        openIt(instance);
+        moveTimeForwards(1000L);
+
+        assertTrue(instance.tryAcquireProbe());
+        instance.releaseProbe();
+
+        assertEquals(State.OPEN, instance.getState());
+        assertEquals(2, instance.getConsecutiveOpenings());
+    }
+
+    @Test
+    void backoffWithJitterGivenAttemptsThenBetweenHalfAndAllOfCappedExponential() {
+        for (int i = 0; i < 100; i++) {
+            assertThat(
+                    DockerEndpointCircuitBreaker.backoffWithJitter(1, 1000L, 60000L),
+                    allOf(greaterThanOrEqualTo(500L), lessThanOrEqualTo(1000L)));
+            assertThat(
+                    DockerEndpointCircuitBreaker.backoffWithJitter(4, 1000L, 60000L),
+                    allOf(greaterThanOrEqualTo(4000L), lessThanOrEqualTo(8000L)));
+            assertThat(
+                    DockerEndpointCircuitBreaker.backoffWithJitter(100, 1000L, 60000L),
+                    allOf(greaterThanOrEqualTo(30000L), lessThanOrEqualTo(60000L)));
+        }
+    }
+
+    private static void openIt(DockerEndpointCircuitBreaker instance) {
+        instance.recordFailure(FAST, null);
+        instance.recordFailure(FAST, null);
+        instance.recordFailure(FAST, null);
+        assertEquals(State.OPEN, instance.getState());
+    }
+}
@@ -0,0 +1,116 @@
+package io.jenkins.docker.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+class DockerProvisioningThrottleTest {
+    private long now = 1234567L;
+    private final ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+
+    private DockerProvisioningThrottle newInstance(int maxConcurrent, int perMinute) {
+        final DockerProvisioningThrottle instance =
+                new DockerProvisioningThrottle("tcp://test:2375", () -> now, scheduler);
+        instance.configure(maxConcurrent, perMinute);
+        return instance;
+    }
+
+    @Test
+    void acquireGivenNoLimitsThenAdmitsImmediately() {
+        final DockerProvisioningThrottle instance = newInstance(0, 0);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(instance.acquire("t").isDone());
+        }
+
+        assertEquals(100, instance.getInProgress());
+        assertEquals(0, instance.getQueued());
+    }
+
+    @Test
+    void acquireGivenConcurrencyLimitThenQueuesUntilPermitReleased() {
+        final DockerProvisioningThrottle instance = newInstance(2, 0);
+        final CompletableFuture<DockerProvisioningThrottle.Permit> first = instance.acquire("t");
+        final CompletableFuture<DockerProvisioningThrottle.Permit> second = instance.acquire("t");
+        final CompletableFuture<DockerProvisioningThrottle.Permit> third = instance.acquire("t");
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+        assertEquals(1, instance.getQueued());
+
+        first.join().release();
+        first.join().release(); // only counts once
+
+        assertTrue(third.isDone());
+        assertEquals(2, instance.getInProgress());
+        assertEquals(0, instance.getQueued());
+    }
+
+    @Test
+    void acquireGivenSeveralQueuesThenTheyTakeTurns() {
+        final DockerProvisioningThrottle instance = newInstance(1, 0);
+        final CompletableFuture<DockerProvisioningThrottle.Permit> a1 = instance.acquire("a");
+        final CompletableFuture<DockerProvisioningThrottle.Permit> a2 = instance.acquire("a");
+        final CompletableFuture<DockerProvisioningThrottle.Permit> a3 = instance.acquire("a");
+        final CompletableFuture<DockerProvisioningThrottle.Permit> b1 = instance.acquire("b");
+
+        a1.join().release();
+        assertTrue(a2.isDone());
+        a2.join().release();
+
+        assertTrue(b1.isDone());
+        assertFalse(a3.isDone());
+    }
+
+    @Test
+    void acquireGivenRateLimitThenWaitsForNextToken() {
+        final DockerProvisioningThrottle instance = newInstance(0, 6); // one every 10 seconds
+        final CompletableFuture<DockerProvisioningThrottle.Permit> first = instance.acquire("t");
+        final CompletableFuture<DockerProvisioningThrottle.Permit> second = instance.acquire("t");
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+        final ArgumentCaptor<Runnable> wakeUp = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).schedule(wakeUp.capture(), anyLong(), eq(TimeUnit.NANOSECONDS));
+
+        now += TimeUnit.SECONDS.toNanos(10);
+        wakeUp.getValue().run();
+
+        assertTrue(second.isDone());
+        assertEquals(TimeUnit.SECONDS.toMillis(10), instance.getWaitTime().getMaxMillis(), 1500.0);
+    }
+
+    @Test
+    void acquireGivenWaiterGivesUpThenLeavesTheQueue() {
+        final DockerProvisioningThrottle instance = newInstance(1, 0);
+        final CompletableFuture<DockerProvisioningThrottle.Permit> first = instance.acquire("t");
+        final CompletableFuture<DockerProvisioningThrottle.Permit> second = instance.acquire("t");
+
+        second.cancel(true);
+        assertEquals(0, instance.getQueued());
+        first.join().release();
+
+        assertEquals(0, instance.getInProgress());
+        verify(scheduler, never()).schedule(any(Runnable.class), anyLong(), any());
+    }
+
+    @Test
+    void stricterThenTreatsZeroAsNoLimit() {
+        assertEquals(0, DockerProvisioningThrottle.stricter(0, 0));
+        assertEquals(5, DockerProvisioningThrottle.stricter(0, 5));
+        assertEquals(5, DockerProvisioningThrottle.stricter(5, 0));
+        assertEquals(3, DockerProvisioningThrottle.stricter(5, 3));
+        assertEquals(3, DockerProvisioningThrottle.stricter(3, 5));
+    }
+}
@@ -0,0 +1,95 @@
+package io.jenkins.docker.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class DockerPullCoordinatorTest {
+    private final DockerPullCoordinator instance = new DockerPullCoordinator("tcp://test:2375");
+    private final List<CompletableFuture<Void>> started = new ArrayList<>();
+    private final AtomicInteger aborted = new AtomicInteger();
+
+    private DockerPullCoordinator.Pull pull(String image, String credentialsId) {
+        return instance.pull(image, credentialsId, whenPulled -> {
+            started.add(whenPulled);
+            return aborted::incrementAndGet;
+        });
+    }
+
+    @Test
+    void pullGivenConcurrentPullsOfSameImageThenOnlyPullsOnce() {
+        final DockerPullCoordinator.Pull first = pull("image:1", null);
+        final DockerPullCoordinator.Pull second = pull("image:1", null);
+        assertTrue(first.isLeader());
+        assertFalse(second.isLeader());
+        assertEquals(1, started.size());
+        assertFalse(second.getResult().isDone());
+
+        started.get(0).complete(null);
+
+        assertTrue(first.getResult().isDone());
+        assertTrue(second.getResult().isDone());
+        assertEquals(0, instance.getInProgress());
+        assertEquals(1L, instance.getJoined());
+    }
+
+    @Test
+    void pullGivenSharedPullFailsThenEveryoneSeesFailure() {
+        final DockerPullCoordinator.Pull first = pull("image:1", null);
+        final DockerPullCoordinator.Pull second = pull("image:1", null);
+        final IOException failure = new IOException("manifest unknown");
+
+        started.get(0).completeExceptionally(failure);
+
+        final ExecutionException actual =
+                assertThrows(ExecutionException.class, () -> second.getResult().get());
+        assertSame(failure, actual.getCause());
+        assertTrue(first.getResult().isCompletedExceptionally());
+    }
+
+    @Test
+    void pullGivenPreviousPullFinishedThenStartsAnother() {
+        pull("image:1", null);
+        started.get(0).complete(null);
+
+        final DockerPullCoordinator.Pull actual = pull("image:1", null);
+
+        assertTrue(actual.isLeader());
+        assertEquals(2, started.size());
+    }
+
+    @Test
+    void pullGivenDifferentImagesOrCredentialsThenPullsSeparately() {
+        pull("image:1", null);
+        pull("image:2", null);
+        pull("image:1", "creds");
+
+        assertEquals(3, started.size());
+    }
+
+    @Test
+    void closeGivenOthersStillWaitingThenOnlyAbortsWhenLastOneLeaves() {
+        final DockerPullCoordinator.Pull first = pull("image:1", null);
+        final DockerPullCoordinator.Pull second = pull("image:1", null);
+
+        first.close();
+        first.close(); // only counts once
+        assertEquals(0, aborted.get());
+        assertFalse(second.getResult().isDone());
+
+        second.close();
+        assertEquals(1, aborted.get());
+        assertTrue(second.getResult().isCompletedExceptionally());
+        assertEquals(0, instance.getInProgress());
+    }
+}
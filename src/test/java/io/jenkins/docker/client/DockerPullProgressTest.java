@@ -0,0 +1,91 @@
+package io.jenkins.docker.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.github.dockerjava.api.model.PullResponseItem;
+import com.github.dockerjava.api.model.ResponseItem;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class DockerPullProgressTest {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private long now = 1234567L;
+
+    private DockerPullProgress newInstance() {
+        final PrintStream out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+        return new DockerPullProgress("repo/name:1.0", out, () -> now, TimeUnit.SECONDS.toNanos(10));
+    }
+
+    private List<String> lines() {
+        final String text = bytes.toString(StandardCharsets.UTF_8);
+        return text.isEmpty() ? List.of() : List.of(text.split(System.lineSeparator()));
+    }
+
+    @Test
+    void onNextGivenLotsOfProgressThenOnlyReportsEveryInterval() {
+        final DockerPullProgress instance = newInstance();
+        instance.onNext(item("1.0", "Pulling from repo/name", null, null));
+        instance.onNext(item("aaa", "Pulling fs layer", null, null));
+        instance.onNext(item("bbb", "Already exists", null, null));
+        for (long done = 0L; done <= 2048L; done += 16L) {
+            instance.onNext(item("aaa", "Downloading", done, 4096L));
+            now += TimeUnit.MILLISECONDS.toNanos(80);
+        }
+
+        assertEquals(
+                List.of(
+                        "1.0: Pulling from repo/name",
+                        "Pulling image repo/name:1.0: 1/2 layers complete, 2.0 KB of 4.0 KB downloaded (10s)"),
+                lines());
+    }
+
+    @Test
+    void finishedThenReportsFinalStateAndLayerTimings() {
+        final DockerPullProgress instance = newInstance();
+        instance.onNext(item("aaa", "Pulling fs layer", null, null));
+        instance.onNext(item("aaa", "Downloading", 0L, 3L * 1024L * 1024L));
+        now += TimeUnit.MILLISECONDS.toNanos(1500);
+        instance.onNext(item("aaa", "Download complete", null, null));
+        now += TimeUnit.MILLISECONDS.toNanos(500);
+        instance.onNext(item("aaa", "Pull complete", null, null));
+        instance.onNext(item(null, "Status: Downloaded newer image for repo/name:1.0", null, null));
+
+        instance.finished();
+        instance.finished(); // only reports once
+
+        assertEquals(
+                List.of(
+                        "Status: Downloaded newer image for repo/name:1.0",
+                        "Pulling image repo/name:1.0: 1/1 layers complete, 3.0 MB of 3.0 MB downloaded (2s)"),
+                lines());
+        final Map<String, String> timings = instance.getLayerTimings();
+        assertEquals("3.0 MB, downloaded in 1500 ms, complete after 2000 ms", timings.get("aaa"));
+    }
+
+    @Test
+    void bytesThenUsesSensibleUnits() {
+        assertEquals("512 B", DockerPullProgress.bytes(512L));
+        assertEquals("1.5 KB", DockerPullProgress.bytes(1536L));
+        assertEquals("2.0 GB", DockerPullProgress.bytes(2L * 1024L * 1024L * 1024L));
+    }
+
+    private static PullResponseItem item(String id, String status, Long current, Long total) {
+        final PullResponseItem item = mock(PullResponseItem.class);
+        when(item.getId()).thenReturn(id);
+        when(item.getStatus()).thenReturn(status);
+        if (current != null) {
+            final ResponseItem.ProgressDetail detail = mock(ResponseItem.ProgressDetail.class);
+            when(detail.getCurrent()).thenReturn(current);
+            when(detail.getTotal()).thenReturn(total);
+            when(item.getProgressDetail()).thenReturn(detail);
+        }
+        return item;
+    }
+}
@@ -0,0 +1,139 @@
+package io.jenkins.docker.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.github.dockerjava.api.model.AuthConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Tests {@link DockerRegistryDigests} against a stand-in registry. */
+class DockerRegistryDigestsTest {
+    private static final String DIGEST = "sha256:0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+    private HttpServer registry;
+    private String host;
+    private final List<String> requests = new ArrayList<>();
+    private long now = 1234567L;
+    private boolean wantToken;
+
+    @BeforeEach
+    void startRegistry() throws IOException {
+        registry = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        host = "127.0.0.1:" + registry.getAddress().getPort();
+        registry.createContext("/v2/team/app/manifests/", this::manifest);
+        registry.createContext("/token", this::token);
+        registry.start();
+    }
+
+    @AfterEach
+    void stopRegistry() {
+        registry.stop(0);
+    }
+
+    private synchronized void manifest(HttpExchange exchange) throws IOException {
+        requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath());
+        if (wantToken && !"Bearer let-me-in".equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            final String challenge = "Bearer realm=\"http://" + host + "/token\",service=\"test\","
+                    + "scope=\"repository:team/app:pull\"";
+            exchange.getResponseHeaders().add("WWW-Authenticate", challenge);
+            exchange.sendResponseHeaders(401, -1);
+        } else if (exchange.getRequestURI().getPath().endsWith("/1.0")) {
+            exchange.getResponseHeaders().add("Docker-Content-Digest", DIGEST);
+            exchange.sendResponseHeaders(200, -1);
+        } else {
+            exchange.sendResponseHeaders(404, -1);
+        }
+        exchange.close();
+    }
+
+    private synchronized void token(HttpExchange exchange) throws IOException {
+        requests.add("GET /token?" + exchange.getRequestURI().getQuery());
+        final String expected =
+                "Basic " + Base64.getEncoder().encodeToString("user:secret".getBytes(StandardCharsets.UTF_8));
+        if (expected.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            final byte[] body = "{\"token\":\"let-me-in\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        } else {
+            exchange.sendResponseHeaders(401, -1);
+        }
+        exchange.close();
+    }
+
+    private DockerRegistryDigests newInstance() {
+        return new DockerRegistryDigests(HttpClient.newHttpClient(), () -> now);
+    }
+
+    @Test
+    void getDigestGivenKnownTagThenAsksRegistryOnceWithinTtl() {
+        final DockerRegistryDigests instance = newInstance();
+
+        assertEquals(DIGEST, instance.getDigest(host + "/team/app:1.0", null));
+        assertEquals(DIGEST, instance.getDigest(host + "/team/app:1.0", null));
+
+        assertEquals(List.of("HEAD /v2/team/app/manifests/1.0"), requests);
+    }
+
+    @Test
+    void getDigestGivenTtlExpiredThenAsksRegistryAgain() {
+        final DockerRegistryDigests instance = newInstance();
+        instance.getDigest(host + "/team/app:1.0", null);
+
+        now += TimeUnit.MINUTES.toNanos(5);
+        instance.getDigest(host + "/team/app:1.0", null);
+
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    void getDigestGivenUnknownTagThenNull() {
+        assertNull(newInstance().getDigest(host + "/team/app:2.0", null));
+    }
+
+    @Test
+    void getDigestGivenTokenAuthThenFetchesTokenWithCredentials() {
+        wantToken = true;
+        final AuthConfig auth = new AuthConfig().withUsername("user").withPassword("secret");
+
+        final String actual = newInstance().getDigest(host + "/team/app:1.0", auth);
+
+        assertEquals(DIGEST, actual);
+        assertEquals(
+                List.of(
+                        "HEAD /v2/team/app/manifests/1.0",
+                        "GET /token?service=test&scope=repository:team/app:pull",
+                        "HEAD /v2/team/app/manifests/1.0"),
+                requests);
+    }
+
+    @Test
+    void getDigestGivenDigestReferenceThenNoNeedToAsk() {
+        assertEquals(DIGEST, newInstance().getDigest(host + "/team/app@" + DIGEST, null));
+        assertEquals(List.of(), requests);
+    }
+
+    @Test
+    void parseGivenShortNamesThenFillsInDockerDefaults() {
+        final DockerRegistryDigests.ImageReference official = DockerRegistryDigests.ImageReference.parse("ubuntu");
+        assertEquals("registry-1.docker.io/library/ubuntu:latest", official.toString());
+        final DockerRegistryDigests.ImageReference user =
+                DockerRegistryDigests.ImageReference.parse("docker.io/jenkins/agent:jdk17");
+        assertEquals("registry-1.docker.io/jenkins/agent:jdk17", user.toString());
+        final DockerRegistryDigests.ImageReference own =
+                DockerRegistryDigests.ImageReference.parse("localhost:5000/team/app");
+        assertEquals("localhost:5000/team/app:latest", own.toString());
+        assertEquals("http://localhost:5000", own.baseUrl());
+    }
+}
@@ -0,0 +1,145 @@
+package io.jenkins.docker.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.github.dockerjava.core.SSLConfig;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jenkinsci.plugins.docker.commons.credentials.DockerServerCredentials;
+import org.junit.jupiter.api.Test;
+
+class DockerSSLConfigCacheTest {
+
+    @Test
+    void getGivenNullIdThenReturnsNullWithoutLookingUp() {
+        final AtomicInteger lookups = new AtomicInteger();
+        final DockerSSLConfigCache instance = new DockerSSLConfigCache(TimeUnit.DAYS.toNanos(1), id -> {
+            lookups.incrementAndGet();
+            return null;
+        });
+
+        assertNull(instance.get(null));
+        assertEquals(0, lookups.get());
+    }
+
+    @Test
+    void getGivenRecentLookupThenReusesItWithoutLookingUpAgain() {
+        final Map<String, DockerServerCredentials> store = new HashMap<>();
+        store.put("id", credentials("key", "cert", "ca"));
+        final AtomicInteger lookups = new AtomicInteger();
+        final DockerSSLConfigCache instance = new DockerSSLConfigCache(TimeUnit.DAYS.toNanos(1), id -> {
+            lookups.incrementAndGet();
+            return store.get(id);
+        });
+
+        final SSLConfig actual1 = instance.get("id");
+        final SSLConfig actual2 = instance.get("id");
+        final SSLConfig missing1 = instance.get("missing");
+        final SSLConfig missing2 = instance.get("missing");
+
+        assertNotNull(actual1);
+        assertSame(actual1, actual2);
+        assertNull(missing1);
+        assertNull(missing2);
+        assertEquals(2, lookups.get(), "Number of credentials lookups");
+    }
+
+    @Test
+    void getGivenStaleLookupOfUnchangedCredentialsThenReusesSSLConfig() {
+        final Map<String, DockerServerCredentials> store = new HashMap<>();
+        store.put("id", credentials("key", "cert", "ca"));
+        final AtomicInteger lookups = new AtomicInteger();
+        final DockerSSLConfigCache instance = new DockerSSLConfigCache(0L, id -> {
+            lookups.incrementAndGet();
+            return store.get(id);
+        });
+
+        final SSLConfig actual1 = instance.get("id");
+        store.put("id", credentials("key", "cert", "ca"));
+        final SSLConfig actual2 = instance.get("id");
+
+        assertSame(actual1, actual2);
+        assertEquals(2, lookups.get(), "Number of credentials lookups");
+    }
+
+    @Test
+    void getGivenChangedCredentialsThenMakesNewSSLConfig() {
+        final Map<String, DockerServerCredentials> store = new HashMap<>();
+        store.put("id", credentials("key", "cert", "ca"));
+        final DockerSSLConfigCache instance = new DockerSSLConfigCache(0L, store::get);
+
+        final SSLConfig actual1 = instance.get("id");
+        store.put("id", credentials("key", "newCert", "ca"));
+        final SSLConfig actual2 = instance.get("id");
+        store.remove("id");
+        final SSLConfig actual3 = instance.get("id");
+
+        assertNotNull(actual2);
+        assertNotSame(actual1, actual2);
+        assertNull(actual3);
+    }
+
+    @Test
+    void clearThenLooksUpAgain() {
+        final AtomicInteger lookups = new AtomicInteger();
+        final DockerServerCredentials credentials = credentials("key", "cert", "ca");
+        final DockerSSLConfigCache instance = new DockerSSLConfigCache(TimeUnit.DAYS.toNanos(1), id -> {
+            lookups.incrementAndGet();
+            return credentials;
+        });
+
+        instance.get("id");
+        instance.clear();
+        instance.get("id");
+
+        assertEquals(2, lookups.get(), "Number of credentials lookups");
+    }
+
+    @Test
+    void getGivenClearWhileLookingUpThenDoesNotCacheWhatItFound() {
+        final AtomicInteger lookups = new AtomicInteger();
+        final DockerServerCredentials credentials = credentials("key", "cert", "ca");
+        final DockerSSLConfigCache[] instance = new DockerSSLConfigCache[1];
+        instance[0] = new DockerSSLConfigCache(TimeUnit.DAYS.toNanos(1), id -> {
+            if (lookups.incrementAndGet() == 1) {
+                instance[0].clear(); // as if the credentials were saved while we were looking
+            }
+            return credentials;
+        });
+
+        assertNotNull(instance[0].get("id"));
+        assertNotNull(instance[0].get("id"));
+        instance[0].get("id");
+
+        assertEquals(2, lookups.get(), "Number of credentials lookups");
+    }
+
+    @Test
+    void fingerprintDependsOnAllKeyMaterial() {
+        final String f = DockerSSLConfigCache.fingerprint(credentials("key", "cert", "ca"));
+
+        assertEquals(f, DockerSSLConfigCache.fingerprint(credentials("key", "cert", "ca")));
+        assertNotEquals(f, DockerSSLConfigCache.fingerprint(credentials("key2", "cert", "ca")));
+        assertNotEquals(f, DockerSSLConfigCache.fingerprint(credentials("key", "cert2", "ca")));
+        assertNotEquals(f, DockerSSLConfigCache.fingerprint(credentials("key", "cert", "ca2")));
+        assertNotEquals(f, DockerSSLConfigCache.fingerprint(credentials("keycert", "", "ca")));
+        assertNotEquals(f, DockerSSLConfigCache.fingerprint(credentials("key", "cert", null)));
+    }
+
+    private static DockerServerCredentials credentials(String key, String cert, String ca) {
+        final DockerServerCredentials c = mock(DockerServerCredentials.class);
+        when(c.getClientKey()).thenReturn(key);
+        when(c.getClientCertificate()).thenReturn(cert);
+        when(c.getServerCaCertificate()).thenReturn(ca);
+        return c;
+    }
+}
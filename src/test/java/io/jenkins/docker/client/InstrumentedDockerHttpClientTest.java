@@ -0,0 +1,163 @@
+package io.jenkins.docker.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.github.dockerjava.transport.DockerHttpClient;
+import org.junit.jupiter.api.Test;
+
+class InstrumentedDockerHttpClientTest {
+
+    @Test
+    void executeGivenResponsesThenCountsInUseUntilClosed() throws Exception {
+        final DockerConnectionStatistics stats =
+                DockerConnectionStatistics.forEndpoint("tcp://executeGivenResponses:2375");
+        final DockerHttpClient delegate = mock(DockerHttpClient.class);
+        final DockerHttpClient.Response response = mock(DockerHttpClient.Response.class);
+        when(delegate.execute(any())).thenReturn(response);
+        final DockerHttpClient instance = new InstrumentedDockerHttpClient(delegate, stats, 4);
+        assertEquals(1, stats.getClients());
+        assertEquals(4L, stats.getMax());
+        assertEquals(4L, stats.getAvailable());
+
+        final DockerHttpClient.Response r1 = instance.execute(mock(DockerHttpClient.Request.class));
+        final DockerHttpClient.Response r2 = instance.execute(mock(DockerHttpClient.Request.class));
+        assertEquals(2, stats.getInUse());
+        assertEquals(0, stats.getWaiting());
+        assertEquals(2L, stats.getAvailable());
+
+        r1.close();
+        r1.close(); // closing twice must not count twice
+        assertEquals(1, stats.getInUse());
+        r2.close();
+        assertEquals(0, stats.getInUse());
+        assertEquals(4L, stats.getAvailable());
+
+        instance.close();
+        verify(delegate).close();
+        assertEquals(0, stats.getClients());
+        assertEquals(0L, stats.getMax());
+    }
+
+    @Test
+    void executeGivenFailureThenCountsFailureAndNothingInUse() throws Exception {
+        final DockerConnectionStatistics stats =
+                DockerConnectionStatistics.forEndpoint("tcp://executeGivenFailure:2375");
+        final DockerHttpClient delegate = mock(DockerHttpClient.class);
+        when(delegate.execute(any())).thenThrow(new IllegalStateException("test"));
+        final DockerHttpClient instance = new InstrumentedDockerHttpClient(delegate, stats, 0);
+
+        assertThrows(IllegalStateException.class, () -> instance.execute(mock(DockerHttpClient.Request.class)));
+
+        assertEquals(0, stats.getInUse());
+        assertEquals(0, stats.getWaiting());
+        assertEquals(1L, stats.getFailures());
+        assertEquals(-1L, stats.getMax(), "No limit");
+        assertEquals(-1L, stats.getAvailable(), "No limit");
+        instance.close();
+        instance.close(); // closing twice must not count twice
+        assertEquals(0, stats.getClients());
+        assertEquals(0L, stats.getMax());
+    }
+
+    @Test
+    void executeGivenRequestsThenRecordsCommandMetricsWhenResponseClosed() throws Exception {
+        final String uri = "tcp://executeGivenRequestsThenRecordsCommandMetrics:2375";
+        final DockerConnectionStatistics stats = DockerConnectionStatistics.forEndpoint(uri);
+        final DockerCommandMetrics metrics = DockerCommandMetrics.forEndpoint(uri);
+        final DockerHttpClient delegate = mock(DockerHttpClient.class);
+        final DockerHttpClient.Response ok = mock(DockerHttpClient.Response.class);
+        when(ok.getStatusCode()).thenReturn(204);
+        final DockerHttpClient.Response notFound = mock(DockerHttpClient.Response.class);
+        when(notFound.getStatusCode()).thenReturn(404);
+        final DockerHttpClient.Request start = request("POST", "/v1.41/containers/abc/start");
+        final DockerHttpClient.Request inspect = request("GET", "/v1.41/containers/gone/json");
+        final DockerHttpClient.Request create = request("POST", "/v1.41/containers/create");
+        when(delegate.execute(start)).thenReturn(ok);
+        when(delegate.execute(inspect)).thenReturn(notFound);
+        when(delegate.execute(create)).thenThrow(new IllegalStateException("test"));
+        final DockerHttpClient instance = new InstrumentedDockerHttpClient(delegate, stats, 0);
+
+        final DockerHttpClient.Response r1 = instance.execute(start);
+        assertEquals(0L, metrics.get(DockerCommandMetrics.Command.START).getCount(), "Not until closed");
+        r1.close();
+        instance.execute(inspect).close();
+        assertThrows(IllegalStateException.class, () -> instance.execute(create));
+        instance.close();
+
+        assertEquals(1L, metrics.get(DockerCommandMetrics.Command.START).getCount());
+        assertEquals(0L, metrics.get(DockerCommandMetrics.Command.START).getErrors());
+        assertEquals(1L, metrics.get(DockerCommandMetrics.Command.INSPECT).getCount());
+        assertEquals(1L, metrics.get(DockerCommandMetrics.Command.INSPECT).getErrors());
+        assertEquals(1L, metrics.get(DockerCommandMetrics.Command.CREATE).getCount());
+        assertEquals(1L, metrics.get(DockerCommandMetrics.Command.CREATE).getErrors());
+    }
+
+    @Test
+    void executeGivenUnavailableThenBreakerCountsThemAsFailures() throws Exception {
+        final String uri = "tcp://executeGivenUnavailable:2375";
+        final DockerHttpClient delegate = mock(DockerHttpClient.class);
+        final DockerHttpClient.Response notFound = mock(DockerHttpClient.Response.class);
+        when(notFound.getStatusCode()).thenReturn(404);
+        final DockerHttpClient.Response unavailable = mock(DockerHttpClient.Response.class);
+        when(unavailable.getStatusCode()).thenReturn(503);
+        when(delegate.execute(any())).thenReturn(notFound, notFound, notFound, unavailable);
+        final DockerHttpClient instance =
+                new InstrumentedDockerHttpClient(delegate, DockerConnectionStatistics.forEndpoint(uri), 0);
+        final DockerEndpointCircuitBreaker breaker = DockerEndpointCircuitBreaker.forEndpoint(uri);
+
+        for (int i = 0; i < 3; i++) {
+            instance.execute(mock(DockerHttpClient.Request.class)).close();
+        }
+        assertTrue(breaker.isCallPermitted(), "Client errors are the caller's problem");
+        for (int i = 0; i < 3; i++) {
+            instance.execute(mock(DockerHttpClient.Request.class)).close();
+        }
+        instance.close();
+
+        assertFalse(breaker.isCallPermitted());
+    }
+
+    @Test
+    void executeGivenDaemonErrorsThenBreakerDoesNotCountThem() throws Exception {
+        final String uri = "tcp://executeGivenDaemonErrors:2375";
+        final DockerHttpClient delegate = mock(DockerHttpClient.class);
+        final DockerHttpClient.Response portInUse = mock(DockerHttpClient.Response.class);
+        when(portInUse.getStatusCode()).thenReturn(500);
+        when(delegate.execute(any())).thenReturn(portInUse);
+        final DockerHttpClient instance =
+                new InstrumentedDockerHttpClient(delegate, DockerConnectionStatistics.forEndpoint(uri), 0);
+        final DockerEndpointCircuitBreaker breaker = DockerEndpointCircuitBreaker.forEndpoint(uri);
+
+        for (int i = 0; i < 10; i++) {
+            instance.execute(mock(DockerHttpClient.Request.class)).close();
+        }
+        instance.close();
+
+        assertTrue(breaker.isCallPermitted(), "A daemon that answers is available");
+    }
+
+    @Test
+    void isEndpointInTroubleThenOnlyForGatewayAndAvailabilityErrors() {
+        assertFalse(InstrumentedDockerHttpClient.isEndpointInTrouble(200));
+        assertFalse(InstrumentedDockerHttpClient.isEndpointInTrouble(404));
+        assertFalse(InstrumentedDockerHttpClient.isEndpointInTrouble(409));
+        assertFalse(InstrumentedDockerHttpClient.isEndpointInTrouble(500));
+        assertTrue(InstrumentedDockerHttpClient.isEndpointInTrouble(502));
+        assertTrue(InstrumentedDockerHttpClient.isEndpointInTrouble(503));
+        assertTrue(InstrumentedDockerHttpClient.isEndpointInTrouble(504));
+    }
+
+    private static DockerHttpClient.Request request(String method, String path) {
+        final DockerHttpClient.Request request = mock(DockerHttpClient.Request.class);
+        when(request.method()).thenReturn(method);
+        when(request.path()).thenReturn(path);
+        return request;
+    }
+}
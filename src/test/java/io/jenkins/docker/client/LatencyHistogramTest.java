@@ -0,0 +1,49 @@
+package io.jenkins.docker.client;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketIndexGivenAnyValueThenBucketContainsIt() {
+        for (long micros = 0L; micros < 1000000L; micros += 7L) {
+            final int index = LatencyHistogram.bucketIndex(micros);
+            assertTrue(LatencyHistogram.bucketUpperBound(index) >= micros, "upper bound of " + micros);
+            if (index > 0) {
+                assertTrue(LatencyHistogram.bucketUpperBound(index - 1) < micros, "previous bound of " + micros);
+            }
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    void getPercentileMillisGivenNothingRecordedThenReturnsZero() {
+        final LatencyHistogram instance = new LatencyHistogram();
+
+        assertEquals(0L, instance.getCount());
+        assertEquals(0.0, instance.getPercentileMillis(99.0));
+        assertEquals(0.0, instance.getMeanMillis());
+    }
+
+    @Test
+    void getPercentileMillisGivenUniformDurationsThenReturnsApproximatePercentiles() {
+        final LatencyHistogram instance = new LatencyHistogram();
+        for (int ms = 1; ms <= 1000; ms++) {
+            instance.record(TimeUnit.MILLISECONDS.toNanos(ms));
+        }
+
+        assertEquals(1000L, instance.getCount());
+        assertThat(instance.getMeanMillis(), closeTo(500.5, 0.001));
+        assertThat(instance.getPercentileMillis(50.0), closeTo(500.0, 500.0 * 0.125));
+        assertThat(instance.getPercentileMillis(95.0), closeTo(950.0, 950.0 * 0.125));
+        assertThat(instance.getPercentileMillis(99.0), closeTo(990.0, 990.0 * 0.125));
+        assertEquals(1000.0, instance.getMaxMillis());
+        assertEquals(1000.0, instance.getPercentileMillis(100.0));
+    }
+}
@@ -0,0 +1,59 @@
+package io.jenkins.docker.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class RollingLatencyHistogramTest {
+    private static final long WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(60);
+
+    private long now = 1234567L;
+
+    private RollingLatencyHistogram newInstance() {
+        return new RollingLatencyHistogram(WINDOW_MILLIS, () -> now);
+    }
+
+    private void moveTimeForwards(long minutes) {
+        now += TimeUnit.MINUTES.toNanos(minutes);
+    }
+
+    @Test
+    void snapshotGivenRecentDurationsThenIncludesThemAll() {
+        final RollingLatencyHistogram instance = newInstance();
+        instance.record(TimeUnit.MILLISECONDS.toNanos(100));
+        moveTimeForwards(40);
+        instance.record(TimeUnit.MILLISECONDS.toNanos(300));
+
+        final LatencyHistogram actual = instance.snapshot();
+
+        assertEquals(2L, actual.getCount());
+        assertEquals(200.0, actual.getMeanMillis(), 0.001);
+        assertEquals(300.0, actual.getMaxMillis(), 0.001);
+    }
+
+    @Test
+    void snapshotGivenDurationsOlderThanWindowThenForgetsThem() {
+        final RollingLatencyHistogram instance = newInstance();
+        instance.record(TimeUnit.MILLISECONDS.toNanos(5000));
+        moveTimeForwards(31);
+        instance.record(TimeUnit.MILLISECONDS.toNanos(100));
+        moveTimeForwards(31);
+        instance.record(TimeUnit.MILLISECONDS.toNanos(200));
+
+        final LatencyHistogram actual = instance.snapshot();
+
+        assertEquals(2L, actual.getCount());
+        assertEquals(200.0, actual.getMaxMillis(), 0.001);
+    }
+
+    @Test
+    void snapshotGivenNothingRecordedForWholeWindowThenIsEmpty() {
+        final RollingLatencyHistogram instance = newInstance();
+        instance.record(TimeUnit.MILLISECONDS.toNanos(100));
+
+        moveTimeForwards(61);
+
+        assertEquals(0L, instance.snapshot().getCount());
+    }
+}
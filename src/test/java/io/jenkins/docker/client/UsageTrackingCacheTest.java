@@ -3,12 +3,21 @@ package io.jenkins.docker.client;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
 
 class UsageTrackingCacheTest {
 
@@ -138,6 +147,241 @@ class UsageTrackingCacheTest {
         assertNothingExpired(expiryList);
     }
 
+    @Test
+    void getOrCreateAndIncrementUsageGivenEmptyCacheThenCreatesOnceAndReusesIt() {
+        final String key = "key";
+        final List<Object> expiryList = new ArrayList<>();
+        final UsageTrackingCache.ExpiryHandler<String, Object> expiryHandler = expiryTracker(expiryList);
+        final UsageTrackingCache<String, Object> instance = new UsageTrackingCache<>(1, TimeUnit.DAYS, expiryHandler);
+        final AtomicInteger creations = new AtomicInteger();
+
+        final Object actual1 = instance.getOrCreateAndIncrementUsage(key, k -> {
+            creations.incrementAndGet();
+            return value(k);
+        });
+        final Object actual2 = instance.getOrCreateAndIncrementUsage(key, k -> {
+            creations.incrementAndGet();
+            return value(k);
+        });
+
+        assertSame(actual1, actual2);
+        assertEquals(1, creations.get(), "Number of values created");
+        instance.decrementUsage(actual1);
+        instance.decrementUsage(actual2);
+        assertThrows(IllegalStateException.class, () -> instance.decrementUsage(actual1));
+        assertNothingExpired(expiryList);
+    }
+
+    @Test
+    void getOrCreateAndIncrementUsageGivenOldInactiveDataInCacheThenReplacesIt() throws Exception {
+        final String key = "key";
+        final Object oldValue = value("oldValue");
+        final Object newValue = value("newValue");
+        final List<Object> expiryList = new ArrayList<>();
+        final UsageTrackingCache.ExpiryHandler<String, Object> expiryHandler = expiryTracker(expiryList);
+        final UsageTrackingCache<String, Object> instance =
+                new UsageTrackingCache<>(1, TimeUnit.MILLISECONDS, expiryHandler);
+        instance.cacheAndIncrementUsage(key, oldValue);
+        instance.decrementUsage(oldValue);
+        Thread.sleep(50);
+
+        final Object actual = instance.getOrCreateAndIncrementUsage(key, k -> newValue);
+
+        assertSame(newValue, actual);
+        assertExpired(expiryList, key, oldValue);
+    }
+
+    @Test
+    void getOrCreateAndIncrementUsageGivenSlowFactoryThenSameKeyWaitsButOtherKeysDoNot() throws Exception {
+        final List<Object> expiryList = Collections.synchronizedList(new ArrayList<>());
+        final UsageTrackingCache.ExpiryHandler<String, Object> expiryHandler = expiryTracker(expiryList);
+        final UsageTrackingCache<String, Object> instance = new UsageTrackingCache<>(1, TimeUnit.DAYS, expiryHandler);
+        final CountDownLatch slowFactoryStarted = new CountDownLatch(1);
+        final CountDownLatch letSlowFactoryFinish = new CountDownLatch(1);
+        final AtomicInteger creations = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            final Future<Object> slow = pool.submit(() -> instance.getOrCreateAndIncrementUsage("slow", k -> {
+                creations.incrementAndGet();
+                slowFactoryStarted.countDown();
+                try {
+                    letSlowFactoryFinish.await();
+                } catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                return value(k);
+            }));
+            slowFactoryStarted.await();
+            final Future<Object> sameKey = pool.submit(() -> instance.getOrCreateAndIncrementUsage("slow", k -> {
+                creations.incrementAndGet();
+                return value(k);
+            }));
+
+            final Object otherKey = instance.getOrCreateAndIncrementUsage("fast", UsageTrackingCacheTest::value);
+            assertNotNull(otherKey);
+            letSlowFactoryFinish.countDown();
+            assertSame(slow.get(1, TimeUnit.MINUTES), sameKey.get(1, TimeUnit.MINUTES));
+        } finally {
+            letSlowFactoryFinish.countDown();
+            pool.shutdownNow();
+        }
+
+        assertEquals(1, creations.get(), "Number of values created");
+        assertNothingExpired(expiryList);
+    }
+
+    /**
+     * Hammers the cache from many threads over a handful of keys, which is the
+     * pattern seen when many builds share a few clouds. Checks that only one
+     * value is made per key, that nothing in use ever gets expired, and that
+     * the usage counts balance out.
+     */
+    @Test
+    void getOrCreateAndIncrementUsageGivenManyThreadsThenNoActiveEntryIsExpired() throws Exception {
+        final int threadCount = 16;
+        final int keyCount = 4;
+        final int iterationsPerThread = 20_000;
+        final List<Object> expiryList = Collections.synchronizedList(new ArrayList<>());
+        final UsageTrackingCache.ExpiryHandler<String, Object> expiryHandler = expiryTracker(expiryList);
+        final UsageTrackingCache<String, Object> instance =
+                new UsageTrackingCache<>(1, TimeUnit.DAYS, expiryHandler);
+        final AtomicInteger creations = new AtomicInteger();
+        final CountDownLatch startingGun = new CountDownLatch(1);
+        final ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                final int threadNumber = t;
+                futures.add(pool.submit(() -> {
+                    startingGun.await();
+                    for (int i = 0; i < iterationsPerThread; i++) {
+                        final String key = "key" + ((threadNumber + i) % keyCount);
+                        final Object v = instance.getOrCreateAndIncrementUsage(key, k -> {
+                            creations.incrementAndGet();
+                            return value(k);
+                        });
+                        instance.decrementUsage(v);
+                    }
+                    return null;
+                }));
+            }
+            startingGun.countDown();
+            for (final Future<?> f : futures) {
+                f.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(keyCount, creations.get(), "Number of values created");
+        assertNothingExpired(expiryList);
+        for (int k = 0; k < keyCount; k++) {
+            final Object v = instance.getAndIncrementUsage("key" + k);
+            assertNotNull(v);
+            instance.decrementUsage(v);
+            assertThrows(IllegalStateException.class, () -> instance.decrementUsage(v));
+        }
+    }
+
+    @Test
+    void decrementUsageGivenManyThreadsThenOnlyExpiresOnceAllUsageHasStopped() throws Exception {
+        final String key = "key";
+        final Object value = value("value");
+        final int threadCount = 8;
+        final List<Object> expiryList = Collections.synchronizedList(new ArrayList<>());
+        final UsageTrackingCache.ExpiryHandler<String, Object> expiryHandler = expiryTracker(expiryList);
+        final UsageTrackingCache<String, Object> instance =
+                new UsageTrackingCache<>(1, TimeUnit.MILLISECONDS, expiryHandler);
+        instance.cacheAndIncrementUsage(key, value);
+        final ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 1_000; i++) {
+                        final Object v = instance.getAndIncrementUsage(key);
+                        assertSame(value, v);
+                        instance.decrementUsage(v);
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> f : futures) {
+                f.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertNothingExpired(expiryList);
+
+        instance.decrementUsage(value);
+        Thread.sleep(50);
+        assertNull(instance.getAndIncrementUsage(key));
+        assertExpired(expiryList, key, value);
+    }
+
+    /**
+     * Reports how many get/release pairs a second the cache manages as more
+     * threads contend for the same few keys. This takes a while and only
+     * tells us anything on a quiet machine, so it only runs if asked for, e.g.
+     * {@code mvn test -Dtest=UsageTrackingCacheTest -DUsageTrackingCacheTest.benchmark=true}
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "UsageTrackingCacheTest.benchmark", matches = "true")
+    void benchmarkGetOrCreateAndDecrementUsageUnderContention() throws Exception {
+        final int keyCount = 4;
+        final long warmupMillis = 1_000L;
+        final long measureMillis = 3_000L;
+        final UsageTrackingCache<String, Object> instance = new UsageTrackingCache<>(1, TimeUnit.DAYS, (k, v) -> {});
+        for (final int threadCount : new int[] {1, 2, 4, 8, 16, 32}) {
+            runUnderContention(instance, threadCount, keyCount, warmupMillis);
+            final long operations = runUnderContention(instance, threadCount, keyCount, measureMillis);
+            System.out.printf(
+                    "UsageTrackingCache: %2d threads, %d keys: %,d ops/s%n",
+                    threadCount, keyCount, operations * 1000L / measureMillis);
+        }
+    }
+
+    /** @return How many get/release pairs all the threads managed between them. */
+    private static long runUnderContention(
+            UsageTrackingCache<String, Object> instance, int threadCount, int keyCount, long durationMillis)
+            throws Exception {
+        final String[] keys = new String[keyCount];
+        for (int k = 0; k < keyCount; k++) {
+            keys[k] = "key" + k;
+        }
+        final CountDownLatch startingGun = new CountDownLatch(1);
+        final AtomicBoolean stop = new AtomicBoolean();
+        final ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        try {
+            final List<Future<Long>> futures = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                final int threadNumber = t;
+                futures.add(pool.submit(() -> {
+                    startingGun.await();
+                    long operations = 0;
+                    while (!stop.get()) {
+                        final Object v = instance.getOrCreateAndIncrementUsage(
+                                keys[(int) ((threadNumber + operations) % keyCount)], UsageTrackingCacheTest::value);
+                        instance.decrementUsage(v);
+                        operations++;
+                    }
+                    return operations;
+                }));
+            }
+            startingGun.countDown();
+            Thread.sleep(durationMillis);
+            stop.set(true);
+            long total = 0;
+            for (final Future<Long> f : futures) {
+                total += f.get(1, TimeUnit.MINUTES);
+            }
+            return total;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
     private static Object value(final String s) {
         return new Object() {
             @Override
@@ -74,7 +74,7 @@ class DockerAgentTest {
                         + "  }\n"
                         + "}\n",
                 true));
-        // TODO why does DockerTemplate.doProvisionNode fail to stream container output?
+        // TODO why does DockerTemplate.provisionNode fail to stream container output?
         r.assertLogContains("/bin/java", r.buildAndAssertSuccess(j));
     }
 }